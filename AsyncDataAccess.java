@@ -0,0 +1,316 @@
+import javax.swing.SwingUtilities;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs database work off the Swing Event Dispatch Thread.
+ *
+ * Jobs run on a bounded executor (virtual threads when the JVM has them) and
+ * report back on the EDT. Streaming jobs deliver their rows in batches, and a
+ * job submitted on a channel cancels whatever was still running on that
+ * channel, including the JDBC statement it was executing.
+ */
+public class AsyncDataAccess implements AutoCloseable {
+    private static final int BATCH_SIZE = 500;
+    private static final long BATCH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static final ThreadLocal<Job> CURRENT = new ThreadLocal<>();
+
+    /** Work that produces a single result. */
+    public interface Task<T> {
+        T run() throws Exception;
+    }
+
+    /** Work that pushes rows into a sink as it reads them. */
+    public interface StreamTask<T> {
+        void run(Sink<T> sink) throws Exception;
+    }
+
+    public interface Sink<T> {
+        /** Hands one row to the UI. Throws CancellationException once the job is superseded. */
+        void accept(T row);
+    }
+
+    /** Callbacks for a streaming job. All of them run on the EDT. */
+    public interface StreamListener<T> {
+        default void started() {}
+        void batch(List<T> rows);
+        default void done(int count, long millis) {}
+        void failed(Exception e);
+    }
+
+    /** Receives the number of jobs in flight, on the EDT. */
+    public interface ActivityListener {
+        void activityChanged(int running, String description);
+    }
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final Map<String, Job> channels = new ConcurrentHashMap<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile ActivityListener activityListener;
+
+    public AsyncDataAccess(int maxConcurrency) {
+        this.permits = new Semaphore(maxConcurrency);
+        this.executor = createExecutor(maxConcurrency);
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        try {
+            // Java 21+: one cheap virtual thread per job, bounded by the permits above
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "db-worker-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    public void setActivityListener(ActivityListener listener) {
+        this.activityListener = listener;
+    }
+
+    /**
+     * Registers a statement with the job running on the current thread so it
+     * can be cancelled server-side if the job is superseded. A no-op when
+     * called outside a job.
+     */
+    public static void track(Statement stmt) {
+        Job job = CURRENT.get();
+        if (job != null) {
+            job.statements.add(stmt);
+            if (job.cancelled) {
+                job.cancelStatements();
+            }
+        }
+    }
+
+    /** True if the job on the current thread has been cancelled. */
+    public static boolean isCancelled() {
+        Job job = CURRENT.get();
+        return job != null && job.cancelled;
+    }
+
+    /**
+     * work, to be run on another thread as part of the job on the current
+     * one (if any), so the statements it runs are cancelled with the job's.
+     */
+    public static <T> Callable<T> inCurrentJob(Callable<T> work) {
+        Job job = CURRENT.get();
+        if (job == null) {
+            return work;
+        }
+        return () -> {
+            CURRENT.set(job);
+            try {
+                return work.call();
+            } finally {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    public <T> Job submit(String description, Task<T> task,
+                          Consumer<T> onSuccess,
+                          Consumer<Exception> onFailure) {
+        return submit(null, description, task, onSuccess, onFailure);
+    }
+
+    public <T> Job submit(String channel, String description, Task<T> task,
+                          Consumer<T> onSuccess,
+                          Consumer<Exception> onFailure) {
+        Job job = new Job(channel, description);
+        schedule(job, () -> {
+            try {
+                T result = task.run();
+                SwingUtilities.invokeLater(() -> {
+                    if (!job.cancelled) {
+                        onSuccess.accept(result);
+                    }
+                });
+            } catch (Exception e) {
+                if (!job.cancelled && !(e instanceof CancellationException)) {
+                    SwingUtilities.invokeLater(() -> onFailure.accept(e));
+                }
+            }
+        });
+        return job;
+    }
+
+    public <T> Job stream(String channel, String description, StreamTask<T> task, StreamListener<T> listener) {
+        Job job = new Job(channel, description);
+        schedule(job, () -> {
+            BatchingSink<T> sink = new BatchingSink<>(job, listener);
+            long start = System.nanoTime();
+            try {
+                task.run(sink);
+                sink.flush();
+                int count = sink.count;
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                SwingUtilities.invokeLater(() -> {
+                    if (!job.cancelled) {
+                        sink.ensureStarted();
+                        listener.done(count, millis);
+                    }
+                });
+            } catch (Exception e) {
+                if (!job.cancelled && !(e instanceof CancellationException)) {
+                    SwingUtilities.invokeLater(() -> listener.failed(e));
+                }
+            }
+        });
+        return job;
+    }
+
+    /** Cancels whatever is running on the channel, if anything. */
+    public void cancel(String channel) {
+        Job job = channels.remove(channel);
+        if (job != null) {
+            job.cancel();
+        }
+    }
+
+    private void schedule(Job job, Runnable body) {
+        if (job.channel != null) {
+            Job previous = channels.put(job.channel, job);
+            if (previous != null) {
+                previous.cancel();
+            }
+        }
+        activityChanged(running.incrementAndGet(), job.description);
+        try {
+            executor.execute(() -> {
+                CURRENT.set(job);
+                try {
+                    permits.acquire();
+                    try {
+                        if (!job.cancelled) {
+                            body.run();
+                        }
+                    } finally {
+                        permits.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    CURRENT.remove();
+                    if (job.channel != null) {
+                        channels.remove(job.channel, job);
+                    }
+                    activityChanged(running.decrementAndGet(), null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            activityChanged(running.decrementAndGet(), null);
+            throw e;
+        }
+    }
+
+    private void activityChanged(int count, String description) {
+        ActivityListener listener = activityListener;
+        if (listener != null) {
+            SwingUtilities.invokeLater(() -> listener.activityChanged(count, description));
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Job job : channels.values()) {
+            job.cancel();
+        }
+        executor.shutdownNow();
+    }
+
+    /** A handle on submitted work. */
+    public static final class Job {
+        private final String channel;
+        private final String description;
+        private final List<Statement> statements = new CopyOnWriteArrayList<>();
+        private volatile boolean cancelled;
+
+        Job(String channel, String description) {
+            this.channel = channel;
+            this.description = description;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            cancelStatements();
+        }
+
+        private void cancelStatements() {
+            for (Statement stmt : statements) {
+                try {
+                    stmt.cancel();
+                } catch (SQLException ignored) {
+                    // Statement already finished or closed
+                }
+            }
+        }
+    }
+
+    /** Collects rows on the worker and posts them to the EDT in batches. */
+    private static final class BatchingSink<T> implements Sink<T> {
+        private final Job job;
+        private final StreamListener<T> listener;
+        private List<T> pending = new ArrayList<>(BATCH_SIZE);
+        private long lastFlush = System.nanoTime();
+        private boolean started;
+        int count;
+
+        BatchingSink(Job job, StreamListener<T> listener) {
+            this.job = job;
+            this.listener = listener;
+        }
+
+        @Override
+        public void accept(T row) {
+            if (job.cancelled) {
+                throw new CancellationException();
+            }
+            pending.add(row);
+            count++;
+            if (pending.size() >= BATCH_SIZE || System.nanoTime() - lastFlush > BATCH_INTERVAL_NANOS) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<T> batch = pending;
+            pending = new ArrayList<>(BATCH_SIZE);
+            lastFlush = System.nanoTime();
+            SwingUtilities.invokeLater(() -> {
+                if (!job.cancelled) {
+                    ensureStarted();
+                    listener.batch(batch);
+                }
+            });
+        }
+
+        // Only touched on the EDT
+        void ensureStarted() {
+            if (!started) {
+                started = true;
+                listener.started();
+            }
+        }
+    }
+}
@@ -0,0 +1,561 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only record of every change to a student: what was done, by
+ * whom, when, and the row before and after. AuditingStudentRepository
+ * writes it; it answers "who changed this email and when", shows a
+ * student as it was at a given time, and brings back deleted students.
+ *
+ * Entries go to segment files (audit-00000001.log, ...) of segmentBytes,
+ * created at full size and memory-mapped, so appending is a copy into
+ * memory; a new segment is started when one is full. A background thread
+ * forces what has been appended to disk, one force for however many
+ * entries arrived meanwhile (group commit). With syncWrites, append()
+ * waits for the force covering its entry, so concurrent writers share one
+ * fsync instead of paying one each; without it, an OS crash can lose the
+ * last moments (a crash of the process loses nothing, as the pages are
+ * the kernel's).
+ *
+ * Each entry is framed by its length and a CRC32, so a torn entry is found
+ * and dropped when the journal is opened, along with anything after it.
+ * Entries are indexed by student id in memory as the segments are scanned
+ * at open, so looking up a student's history reads only their entries.
+ * One process writes a directory at a time; others may open it read-only.
+ *
+ * Usage: java AuditJournal [--dir audit] studentId [--at yyyy-MM-dd'T'HH:mm[:ss]]
+ */
+public final class AuditJournal implements AutoCloseable {
+    public enum Operation { INSERT, UPDATE, DELETE, RESTORE }
+
+    /** One change to one student. before is null for inserts, after for deletes. */
+    public static final class Entry {
+        public final long time;
+        public final Operation operation;
+        public final int studentId;
+        public final String actor;
+        public final Student before;
+        public final Student after;
+
+        public Entry(long time, Operation operation, int studentId, String actor, Student before, Student after) {
+            this.time = time;
+            this.operation = operation;
+            this.studentId = studentId;
+            this.actor = actor;
+            this.before = before;
+            this.after = after;
+        }
+
+        @Override
+        public String toString() {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(time)) + "  " + operation
+                + " by " + actor + ": " + describe(before) + " -> " + describe(after);
+        }
+
+        private static String describe(Student student) {
+            if (student == null) {
+                return "-";
+            }
+            return "[" + student.getName() + ", " + student.getEmail() + ", " + student.getPhone()
+                + ", " + student.getCourse() + "]";
+        }
+    }
+
+    // Length and CRC32 ahead of each entry; a length of 0 ends the segment
+    private static final int HEADER = 8;
+    private static final String PREFIX = "audit-";
+    private static final String SUFFIX = ".log";
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final boolean syncWrites;
+    private final boolean readOnly;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    // Guarded by this. Entry positions are the segment's index in segments
+    // (high 32 bits) and the offset within it.
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final IntObjectHashMap<long[]> positions = new IntObjectHashMap<>(1024);
+    private int firstSegmentNumber;
+    private MappedByteBuffer current;
+    private long appended;
+    private long forced;
+    private IOException syncFailure;
+    private boolean closed;
+    private final Thread syncer;
+
+    /** Opens (or creates) the journal in dir for appending. */
+    public AuditJournal(Path dir, long segmentBytes, boolean syncWrites) throws IOException {
+        this(dir, segmentBytes, syncWrites, false);
+    }
+
+    private AuditJournal(Path dir, long segmentBytes, boolean syncWrites, boolean readOnly) throws IOException {
+        if (segmentBytes < 4096 || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segmentBytes must be from 4096 to " + Integer.MAX_VALUE);
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.syncWrites = syncWrites;
+        this.readOnly = readOnly;
+        if (readOnly) {
+            lockChannel = null;
+            lock = null;
+        } else {
+            Files.createDirectories(dir);
+            lockChannel = FileChannel.open(dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock acquired;
+            try {
+                acquired = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                acquired = null; // Held by this process already
+            }
+            lock = acquired;
+            if (lock == null) {
+                lockChannel.close();
+                throw new IOException(dir + " is already open for writing; give each process its own audit.dir");
+            }
+        }
+        try {
+            recover();
+        } catch (IOException | RuntimeException e) {
+            releaseLock();
+            throw e;
+        }
+        if (readOnly) {
+            syncer = null;
+        } else {
+            syncer = new Thread(this::syncLoop, "audit-journal-sync");
+            syncer.setDaemon(true);
+            syncer.start();
+        }
+    }
+
+    /** Opens a journal another process may be writing, to look things up. */
+    public static AuditJournal openReadOnly(Path dir) throws IOException {
+        return new AuditJournal(dir, Integer.MAX_VALUE, false, true);
+    }
+
+    /** The journal from audit.* in db.properties, or null if audit.dir is not set. */
+    public static AuditJournal fromProperties(Properties props) throws IOException {
+        String dir = props.getProperty("audit.dir", "").trim();
+        if (dir.isEmpty()) {
+            return null;
+        }
+        return new AuditJournal(Paths.get(dir),
+            Long.parseLong(props.getProperty("audit.segmentBytes", "67108864").trim()),
+            Boolean.parseBoolean(props.getProperty("audit.syncWrites", "true").trim()));
+    }
+
+    // Maps the existing segments, indexes their entries and finds where the
+    // last one ends
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(dir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+                for (Path file : stream) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        firstSegmentNumber = files.isEmpty() ? 1 : segmentNumber(files.get(0));
+        for (int i = 0; i < files.size(); i++) {
+            boolean last = i == files.size() - 1;
+            Path file = files.get(i);
+            if (segmentNumber(file) != firstSegmentNumber + i) {
+                throw new IOException("Audit journal segment missing before " + file);
+            }
+            MappedByteBuffer segment;
+            try (FileChannel channel = last && !readOnly
+                    ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(file, StandardOpenOption.READ)) {
+                segment = last && !readOnly
+                    ? channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), segmentBytes))
+                    : channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            segments.add(segment);
+            int end = scan(i, segment);
+            if (last && !readOnly) {
+                if (end + HEADER <= segment.capacity() && segment.getInt(end) != 0) {
+                    // A torn entry; clear it so it cannot be mistaken for one later
+                    for (int p = end; p < segment.capacity(); p++) {
+                        segment.put(p, (byte) 0);
+                    }
+                    segment.force();
+                }
+                segment.position(end);
+                current = segment;
+            }
+        }
+        if (current == null && !readOnly) {
+            current = newSegment(firstSegmentNumber + segments.size());
+        }
+    }
+
+    // Indexes the entries of a segment; returns where they end
+    private int scan(int segmentIndex, MappedByteBuffer segment) {
+        int offset = 0;
+        CRC32 crc = new CRC32();
+        byte[] body = new byte[256];
+        while (offset + HEADER <= segment.capacity()) {
+            int length = segment.getInt(offset);
+            if (length <= 0 || length > segment.capacity() - offset - HEADER) {
+                break;
+            }
+            if (body.length < length) {
+                body = new byte[Math.max(length, body.length * 2)];
+            }
+            copy(segment, offset + HEADER, body, length);
+            crc.reset();
+            crc.update(body, 0, length);
+            if ((int) crc.getValue() != segment.getInt(offset + 4)) {
+                break;
+            }
+            // The student id follows the time and operation
+            int studentId = ((body[9] & 0xff) << 24) | ((body[10] & 0xff) << 16) | ((body[11] & 0xff) << 8)
+                | (body[12] & 0xff);
+            index(studentId, ((long) segmentIndex << 32) | offset);
+            offset += HEADER + length;
+        }
+        return offset;
+    }
+
+    // Without moving the buffer's position; Java 8 has no absolute bulk get
+    private static void copy(ByteBuffer buffer, int offset, byte[] into, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(into, 0, length);
+    }
+
+    private static int segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private MappedByteBuffer newSegment(int number) throws IOException {
+        Path file = dir.resolve(String.format("%s%08d%s", PREFIX, number, SUFFIX));
+        MappedByteBuffer segment;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        segments.add(segment);
+        return segment;
+    }
+
+    private void index(int studentId, long position) {
+        long[] list = positions.get(studentId);
+        if (list == null) {
+            // Slot 0 holds the count
+            list = new long[4];
+            positions.put(studentId, list);
+        } else if (list[0] + 1 == list.length) {
+            list = Arrays.copyOf(list, list.length * 2);
+            positions.put(studentId, list);
+        }
+        list[(int) ++list[0]] = position;
+    }
+
+    /**
+     * Appends an entry. With syncWrites, returns once it is on disk; the
+     * caller has already made the change, so a failure here means the
+     * change is not in the journal, not that it did not happen.
+     */
+    public void append(Entry entry) throws IOException {
+        byte[] body = encode(entry);
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        long sequence;
+        synchronized (this) {
+            if (closed || readOnly) {
+                throw new IOException("Audit journal is " + (closed ? "closed" : "read-only"));
+            }
+            if (HEADER + body.length > current.capacity()) {
+                throw new IOException("Audit entry of " + body.length + " bytes does not fit in a segment");
+            }
+            if (current.remaining() < HEADER + body.length) {
+                // Everything before the new segment is forced now, so the
+                // sync thread only ever has the current one to force
+                current.force();
+                current = newSegment(firstSegmentNumber + segments.size());
+            }
+            int offset = current.position();
+            // Length last, so the sync thread never forces a complete-looking
+            // header in front of a partial body
+            current.position(offset + 4);
+            current.putInt((int) crc.getValue());
+            current.put(body);
+            current.putInt(offset, body.length);
+            index(entry.studentId, ((long) (segments.size() - 1) << 32) | offset);
+            sequence = ++appended;
+            notifyAll();
+            if (!syncWrites) {
+                return;
+            }
+            while (forced < sequence && syncFailure == null && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for the audit journal to sync");
+                }
+            }
+            if (forced < sequence) {
+                throw syncFailure != null ? syncFailure : new IOException("Audit journal closed");
+            }
+        }
+    }
+
+    // Forces whatever has been appended since the last force, then tells
+    // the writers waiting for it
+    private void syncLoop() {
+        while (true) {
+            MappedByteBuffer segment;
+            long target;
+            synchronized (this) {
+                while (appended == forced && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                segment = current;
+                target = appended;
+            }
+            try {
+                segment.force();
+                synchronized (this) {
+                    forced = Math.max(forced, target);
+                    syncFailure = null;
+                    notifyAll();
+                }
+            } catch (RuntimeException e) {
+                // force() reports I/O errors as UncheckedIOException on newer JDKs
+                synchronized (this) {
+                    syncFailure = new IOException("Could not sync the audit journal", e);
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /** Every entry for the student, oldest first. */
+    public synchronized List<Entry> history(int studentId) throws IOException {
+        long[] list = positions.get(studentId);
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        List<Entry> entries = new ArrayList<>((int) list[0]);
+        for (int i = 1; i <= list[0]; i++) {
+            entries.add(read(list[i]));
+        }
+        return entries;
+    }
+
+    /**
+     * The student as they were at time, by the journal: null if they had
+     * been deleted by then, or if the journal has nothing on them before it.
+     */
+    public Student asOf(int studentId, long time) throws IOException {
+        Student state = null;
+        for (Entry entry : history(studentId)) {
+            if (entry.time > time) {
+                break;
+            }
+            state = entry.after;
+        }
+        return state;
+    }
+
+    /** The student as they were when last deleted, or null if never deleted. */
+    public Student lastDeleted(int studentId) throws IOException {
+        List<Entry> entries = history(studentId);
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).operation == Operation.DELETE) {
+                return entries.get(i).before;
+            }
+        }
+        return null;
+    }
+
+    private Entry read(long position) throws IOException {
+        MappedByteBuffer segment = segments.get((int) (position >>> 32));
+        int offset = (int) position;
+        byte[] body = new byte[segment.getInt(offset)];
+        copy(segment, offset + HEADER, body, body.length);
+        return decode(body);
+    }
+
+    // time, operation, student id, actor, then the before and after rows
+    private static byte[] encode(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(entry.time);
+        out.writeByte(entry.operation.ordinal());
+        out.writeInt(entry.studentId);
+        out.writeUTF(entry.actor);
+        writeStudent(out, entry.before);
+        writeStudent(out, entry.after);
+        return bytes.toByteArray();
+    }
+
+    private static void writeStudent(DataOutputStream out, Student student) throws IOException {
+        out.writeBoolean(student != null);
+        if (student != null) {
+            writeString(out, student.getName());
+            writeString(out, student.getEmail());
+            writeString(out, student.getPhone());
+            writeString(out, student.getCourse());
+            out.writeLong(student.getUpdatedAt());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static Entry decode(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        long time = in.readLong();
+        Operation operation = Operation.values()[in.readByte()];
+        int studentId = in.readInt();
+        String actor = in.readUTF();
+        Student before = readStudent(in, studentId);
+        Student after = readStudent(in, studentId);
+        return new Entry(time, operation, studentId, actor, before, after);
+    }
+
+    private static Student readStudent(DataInputStream in, int id) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        String name = readString(in);
+        String email = readString(in);
+        String phone = readString(in);
+        String course = readString(in);
+        return new Student(id, name, email, phone, course, in.readLong());
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        if (!readOnly) {
+            try {
+                syncer.join();
+                current.force();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        releaseLock();
+    }
+
+    private void releaseLock() {
+        if (lock != null) {
+            try {
+                lock.release();
+                lockChannel.close();
+            } catch (IOException ignored) {
+                // The lock goes with the process anyway
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(Paths.get("db.properties"))) {
+            props.load(in);
+        } catch (IOException e) {
+            System.err.println("Warning: db.properties not found, using default values");
+        }
+        String dir = props.getProperty("audit.dir", "").trim();
+        if (dir.isEmpty()) {
+            dir = "audit";
+        }
+        Integer studentId = null;
+        Long at = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--dir": dir = args[++i]; break;
+                case "--at": at = parseTime(args[++i]); break;
+                default:
+                    try {
+                        studentId = Integer.parseInt(args[i]);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Unknown option: " + args[i]);
+                        System.exit(2);
+                    }
+            }
+        }
+        if (studentId == null) {
+            System.err.println("Usage: java AuditJournal [--dir audit] studentId [--at yyyy-MM-dd'T'HH:mm[:ss]]");
+            System.exit(2);
+        }
+        try (AuditJournal journal = openReadOnly(Paths.get(dir))) {
+            if (at != null) {
+                Student student = journal.asOf(studentId, at);
+                System.out.println(student == null ? "No such student at that time"
+                    : Entry.describe(student) + " (version " + student.getUpdatedAt() + ")");
+            } else {
+                for (Entry entry : journal.history(studentId)) {
+                    System.out.println(entry);
+                }
+            }
+        }
+    }
+
+    private static long parseTime(String text) {
+        for (String pattern : new String[] {"yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd'T'HH:mm"}) {
+            try {
+                SimpleDateFormat format = new SimpleDateFormat(pattern);
+                format.setLenient(false);
+                return format.parse(text).getTime();
+            } catch (ParseException e) {
+                // Try the next pattern
+            }
+        }
+        throw new IllegalArgumentException("Not a time: " + text);
+    }
+}
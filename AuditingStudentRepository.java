@@ -0,0 +1,225 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Records every write that another repository makes in an AuditJournal:
+ * the row before (read just ahead of the write) and after, who made it and
+ * when. Only writes that took effect are recorded. Under a write-behind
+ * cache this sees the writes as they are flushed, so the journal holds
+ * what reached the database, and the read for the before row is made off
+ * the caller's thread.
+ *
+ * The write has been made by the time it is journaled; if the journal
+ * cannot take it, that is reported as a warning rather than as a failed
+ * write.
+ */
+public class AuditingStudentRepository implements StudentRepository {
+    private final StudentRepository delegate;
+    private final AuditJournal journal;
+    private final String actor;
+
+    public AuditingStudentRepository(StudentRepository delegate, AuditJournal journal, String actor) {
+        this.delegate = delegate;
+        this.journal = journal;
+        this.actor = actor;
+    }
+
+    /** Audits delegate into the journal at audit.dir, as audit.actor (default: the OS user). */
+    public static AuditingStudentRepository fromProperties(StudentRepository delegate, Properties props)
+            throws IOException {
+        String actor = props.getProperty("audit.actor", "").trim();
+        return new AuditingStudentRepository(delegate, AuditJournal.fromProperties(props),
+            actor.isEmpty() ? System.getProperty("user.name") : actor);
+    }
+
+    public AuditJournal getJournal() {
+        return journal;
+    }
+
+    private void record(AuditJournal.Operation operation, int studentId, Student before, Student after) {
+        try {
+            journal.append(new AuditJournal.Entry(System.currentTimeMillis(), operation, studentId, actor,
+                before, after));
+        } catch (IOException e) {
+            System.err.println("Warning: " + operation + " of student " + studentId
+                + " was not audited: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void initialize() throws SQLException {
+        delegate.initialize();
+    }
+
+    @Override
+    public Student insert(Student student) throws SQLException {
+        Student inserted = delegate.insert(student);
+        record(AuditJournal.Operation.INSERT, inserted.getId(), null, inserted);
+        return inserted;
+    }
+
+    @Override
+    public List<Student> insertAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        List<Student> inserted = delegate.insertAll(students, batchSize, rejected);
+        for (Student student : inserted) {
+            record(AuditJournal.Operation.INSERT, student.getId(), null, student);
+        }
+        return inserted;
+    }
+
+    @Override
+    public boolean update(Student student) throws SQLException {
+        Student before = delegate.findById(student.getId());
+        boolean updated = delegate.update(student);
+        if (updated) {
+            record(AuditJournal.Operation.UPDATE, student.getId(), before, student.withUpdatedAt(0));
+        }
+        return updated;
+    }
+
+    @Override
+    public List<Student> updateAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        List<Student> before = findAll(students);
+        List<Student> updated = delegate.updateAll(students, batchSize, rejected);
+        // updated keeps the input order, without the rejected rows
+        for (int i = 0, u = 0; i < students.size() && u < updated.size(); i++) {
+            if (students.get(i).getId() == updated.get(u).getId()) {
+                record(AuditJournal.Operation.UPDATE, students.get(i).getId(), before.get(i), updated.get(u++));
+            }
+        }
+        return updated;
+    }
+
+    @Override
+    public int deleteAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        List<Student> before = findAll(students);
+        boolean[] skipped = new boolean[students.size()];
+        int deleted = delegate.deleteAll(students, batchSize, (index, cause) -> {
+            skipped[index] = true;
+            rejected.rejected(index, cause);
+        });
+        for (int i = 0; i < students.size(); i++) {
+            if (!skipped[i]) {
+                record(AuditJournal.Operation.DELETE, students.get(i).getId(), before.get(i), null);
+            }
+        }
+        return deleted;
+    }
+
+    private List<Student> findAll(List<Student> students) throws SQLException {
+        List<Student> found = new ArrayList<>(students.size());
+        for (Student student : students) {
+            found.add(delegate.findById(student.getId()));
+        }
+        return found;
+    }
+
+    @Override
+    public boolean delete(int id) throws SQLException {
+        Student before = delegate.findById(id);
+        boolean deleted = delegate.delete(id);
+        if (deleted) {
+            record(AuditJournal.Operation.DELETE, id, before, null);
+        }
+        return deleted;
+    }
+
+    @Override
+    public Student restore(Student student) throws SQLException {
+        Student restored = delegate.restore(student);
+        record(AuditJournal.Operation.RESTORE, restored.getId(), null, restored);
+        return restored;
+    }
+
+    @Override
+    public Student findById(int id) throws SQLException {
+        return delegate.findById(id);
+    }
+
+    @Override
+    public Student findByEmail(String email) throws SQLException {
+        return delegate.findByEmail(email);
+    }
+
+    @Override
+    public List<Student> findByCourse(String course, int limit) throws SQLException {
+        return delegate.findByCourse(course, limit);
+    }
+
+    @Override
+    public List<Student> findContaining(String text, int limit) throws SQLException {
+        return delegate.findContaining(text, limit);
+    }
+
+    @Override
+    public List<Student> findAfter(int afterId, int limit) throws SQLException {
+        return delegate.findAfter(afterId, limit);
+    }
+
+    @Override
+    public List<Student> findPage(int offset, int limit) throws SQLException {
+        return delegate.findPage(offset, limit);
+    }
+
+    @Override
+    public int count() throws SQLException {
+        return delegate.count();
+    }
+
+    @Override
+    public void forEach(RowHandler handler) throws SQLException, IOException {
+        delegate.forEach(handler);
+    }
+
+    @Override
+    public StudentChanges snapshot() throws SQLException {
+        return delegate.snapshot();
+    }
+
+    @Override
+    public StudentChanges changesSince(long sinceVersion, long afterDeletion, int limit) throws SQLException {
+        return delegate.changesSince(sinceVersion, afterDeletion, limit);
+    }
+
+    @Override
+    public CourseStatistics courseStatistics() throws SQLException {
+        return delegate.courseStatistics();
+    }
+
+    @Override
+    public ConnectionPool getPool() {
+        return delegate.getPool();
+    }
+
+    @Override
+    public ConnectionPool getReadPool() {
+        return delegate.getReadPool();
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return delegate.getMaxConcurrency();
+    }
+
+    @Override
+    public StudentRepository getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName() + "+audit";
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+        journal.close();
+    }
+}
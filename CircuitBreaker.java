@@ -0,0 +1,115 @@
+import java.sql.SQLTransientConnectionException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Stops calls to the database once it has stopped answering, so that
+ * callers fail at once instead of each waiting out a connect timeout.
+ *
+ * CLOSED: calls go through. failureThreshold connection failures in a row
+ * open the breaker.
+ * OPEN: calls fail with Unavailable until openMillis have passed.
+ * HALF_OPEN: one call at a time goes through as a probe; success closes
+ * the breaker, failure opens it for another openMillis.
+ */
+public final class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /** Heard on the thread whose call changed the state. */
+    public interface Listener {
+        void stateChanged(State state);
+    }
+
+    /**
+     * Thrown instead of calling while the breaker is open. The call was
+     * never sent, so it is safe to queue or repeat.
+     */
+    public static final class Unavailable extends SQLTransientConnectionException {
+        Unavailable(long retryMillis) {
+            super("Database unavailable; trying again in " + Math.max(1, (retryMillis + 999) / 1000) + " s",
+                "08001");
+        }
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean probing;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /** Call before each call to the database; throws if it must not be made. */
+    public void acquire() throws Unavailable {
+        boolean changed = false;
+        synchronized (this) {
+            if (state == State.OPEN) {
+                long waited = System.currentTimeMillis() - openedAt;
+                if (waited < openMillis) {
+                    throw new Unavailable(openMillis - waited);
+                }
+                state = State.HALF_OPEN;
+                changed = true;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probing) {
+                    throw new Unavailable(0);
+                }
+                probing = true;
+            }
+        }
+        if (changed) {
+            fire(State.HALF_OPEN);
+        }
+    }
+
+    /** The call got an answer from the database, even if it was an error about the data. */
+    public void succeeded() {
+        synchronized (this) {
+            failures = 0;
+            probing = false;
+            if (state == State.CLOSED) {
+                return;
+            }
+            state = State.CLOSED;
+        }
+        System.err.println("Database available again");
+        fire(State.CLOSED);
+    }
+
+    /** The call failed to reach the database. */
+    public void failed() {
+        synchronized (this) {
+            probing = false;
+            failures++;
+            if (state == State.OPEN || (state == State.CLOSED && failures < failureThreshold)) {
+                return;
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+        System.err.println("Warning: database unavailable, failing fast for " + openMillis + " ms");
+        fire(State.OPEN);
+    }
+
+    private void fire(State newState) {
+        for (Listener listener : listeners) {
+            listener.stateChanged(newState);
+        }
+    }
+}
@@ -0,0 +1,593 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small bounded JDBC connection pool configured from db.properties.
+ *
+ * Connections are validated when they are borrowed, idle connections are
+ * evicted in the background, and callers wait at most db.connectionTimeout
+ * milliseconds for a free connection. Closing a borrowed connection returns
+ * it to the pool.
+ *
+ * Each connection also keeps up to db.statementCacheSize prepared statements
+ * (least recently used dropped first): closing a statement from
+ * prepareStatement(sql) or prepareStatement(sql, autoGeneratedKeys) parks
+ * it, and the next prepare of the same SQL on that connection gets it back
+ * without a parse, or with useServerPrepStmts, without a round trip.
+ */
+public class ConnectionPool implements AutoCloseable {
+    // A connection returned this recently has just proven itself healthy
+    private static final long VALIDATION_BYPASS_MS = 500;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    /** SQLState of the timeout waiting for a free connection ("timeout expired"). */
+    static final String POOL_TIMEOUT_STATE = "HYT00";
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxConnections;
+    private final long connectionTimeout;
+    private final long idleTimeout;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+    // When a borrower last lost its connection; idle connections returned
+    // before then are checked before reuse, as the server may have restarted
+    private volatile long lastConnectionFailure;
+
+    // Metrics
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong checkouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String password,
+                          int maxConnections, long connectionTimeout, long idleTimeout) {
+        this(url, user, password, maxConnections, connectionTimeout, idleTimeout, 0);
+    }
+
+    /** statementCacheSize is the prepared statements kept per connection; 0 keeps none. */
+    public ConnectionPool(String url, String user, String password,
+                          int maxConnections, long connectionTimeout, long idleTimeout, int statementCacheSize) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxConnections = maxConnections;
+        this.connectionTimeout = connectionTimeout;
+        this.idleTimeout = idleTimeout;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxConnections, true);
+
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeout / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public static ConnectionPool fromProperties(Properties props) {
+        String url = props.getProperty("db.url", "jdbc:mysql://localhost:3306/student_db");
+        // Lets Connector/J send a JDBC batch of INSERTs as one multi-row INSERT
+        if (Boolean.parseBoolean(props.getProperty("db.rewriteBatchedStatements", "true").trim())) {
+            url = withUrlProperty(url, "rewriteBatchedStatements", "true");
+        }
+        // Server-side cursors for statements that set a positive fetch size
+        if (Boolean.parseBoolean(props.getProperty("db.useCursorFetch", "false").trim())) {
+            url = withUrlProperty(url, "useCursorFetch", "true");
+        }
+        // Prepare on the server, so a statement kept by the pool's cache is
+        // parsed and planned once per connection; Connector/J's own cache
+        // keeps those that fall out of ours. connectTimeout bounds a connect
+        // to a host that does not answer at all.
+        for (String key : new String[] {"useServerPrepStmts", "cachePrepStmts", "prepStmtCacheSize",
+                "prepStmtCacheSqlLimit", "connectTimeout"}) {
+            String value = props.getProperty("db." + key);
+            if (value != null && !value.trim().isEmpty()) {
+                url = withUrlProperty(url, key, value.trim());
+            }
+        }
+        return new ConnectionPool(
+            url,
+            props.getProperty("db.user", "root"),
+            props.getProperty("db.password"),
+            Integer.parseInt(props.getProperty("db.maxConnections", "10").trim()),
+            Long.parseLong(props.getProperty("db.connectionTimeout", "30000").trim()),
+            Long.parseLong(props.getProperty("db.idleTimeout", "600000").trim()),
+            Integer.parseInt(props.getProperty("db.statementCacheSize", "64").trim()));
+    }
+
+    /** Adds key=value to a JDBC URL's query string unless the URL already sets key. */
+    static String withUrlProperty(String url, String key, String value) {
+        if (url.contains("?" + key + "=") || url.contains("&" + key + "=")) {
+            return url;
+        }
+        return url + (url.indexOf('?') < 0 ? "?" : "&") + key + "=" + value;
+    }
+
+    /**
+     * Borrows a connection, waiting up to the configured timeout. The caller
+     * must close it (try-with-resources) to hand it back.
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(connectionTimeout, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLTransientConnectionException(
+                    "Timed out after " + connectionTimeout + "ms waiting for a database connection " +
+                    "(active=" + getActiveCount() + ", max=" + maxConnections + ")", POOL_TIMEOUT_STATE);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        PooledConnection pooled;
+        try {
+            pooled = takeValidIdle();
+            if (pooled == null) {
+                pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+                created.incrementAndGet();
+            }
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+
+        long waited = System.nanoTime() - start;
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        checkouts.incrementAndGet();
+        active.incrementAndGet();
+        return pooled.lease();
+    }
+
+    /**
+     * Opens connections until count of them (at most maxConnections) are
+     * idle, so the first requests after startup do not each wait for a
+     * connect. Stops at the first failure, leaving it to getConnection()
+     * to report.
+     */
+    public void prefill(int count) {
+        while (!closed && idle.size() < Math.min(count, maxConnections) && permits.tryAcquire()) {
+            try {
+                PooledConnection pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+                created.incrementAndGet();
+                idle.offerLast(pooled);
+            } catch (SQLException | RuntimeException e) {
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private PooledConnection takeValidIdle() {
+        PooledConnection pooled;
+        // Most recently returned first, so warm connections are reused and
+        // the cold end of the deque is left for the evictor.
+        while ((pooled = idle.pollFirst()) != null) {
+            if (pooled.isUsable()) {
+                return pooled;
+            }
+            discard(pooled);
+        }
+        return null;
+    }
+
+    private void release(PooledConnection pooled) {
+        active.decrementAndGet();
+        try {
+            if (closed || pooled.broken || !pooled.reset()) {
+                discard(pooled);
+            } else {
+                pooled.lastReturned = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        discarded.incrementAndGet();
+        try {
+            pooled.physical.close();
+        } catch (SQLException ignored) {
+            // Already unusable
+        }
+    }
+
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeout;
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext()) {
+            PooledConnection pooled = it.next();
+            if (pooled.lastReturned < cutoff && idle.removeFirstOccurrence(pooled)) {
+                discard(pooled);
+            }
+        }
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public long getCheckoutCount() {
+        return checkouts.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long n = checkouts.get();
+        return n == 0 ? 0 : totalWaitNanos.get() / (double) n / 1_000_000.0;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    /** Prepares answered from the statement cache. */
+    public long getStatementHitCount() {
+        return statementHits.get();
+    }
+
+    /** Cacheable prepares that had to create a statement. */
+    public long getStatementMissCount() {
+        return statementMisses.get();
+    }
+
+    public String describe() {
+        long prepares = statementHits.get() + statementMisses.get();
+        return String.format("Pool: %d active, %d idle of %d | avg wait %.1f ms, max %.1f ms | %d timeouts" +
+                " | statement cache %.0f%% hits",
+            getActiveCount(), getIdleCount(), maxConnections,
+            getAverageWaitMillis(), getMaxWaitMillis(), getTimeoutCount(),
+            prepares == 0 ? 0.0 : 100.0 * statementHits.get() / prepares);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    /** A physical connection owned by the pool. */
+    private final class PooledConnection {
+        final Connection physical;
+        volatile long lastReturned = System.currentTimeMillis();
+        volatile boolean broken;
+        // Idle prepared statements by cacheKey(); a statement in use is not in here
+        private final Map<String, PreparedStatement> statements;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= statementCacheSize) {
+                        return false;
+                    }
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+            };
+        }
+
+        synchronized PreparedStatement takeStatement(String key) {
+            return statements.remove(key);
+        }
+
+        // Parks a statement its borrower has closed, unless an equal one is already parked
+        synchronized void parkStatement(String key, PreparedStatement statement) {
+            if (broken || statements.containsKey(key)) {
+                closeQuietly(statement);
+                return;
+            }
+            // Back to a fresh statement's settings, whatever the borrower changed
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+                statement.setMaxRows(0);
+                statement.setQueryTimeout(0);
+                statement.setFetchSize(0);
+            } catch (SQLException e) {
+                closeQuietly(statement);
+                return;
+            }
+            statements.put(key, statement);
+        }
+
+        void broken() {
+            broken = true;
+            lastConnectionFailure = System.currentTimeMillis();
+        }
+
+        boolean isUsable() {
+            if (System.currentTimeMillis() - lastReturned < VALIDATION_BYPASS_MS
+                    && lastReturned > lastConnectionFailure) {
+                return true;
+            }
+            try {
+                return physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        // Undo anything a borrower may have left behind
+        boolean reset() {
+            try {
+                if (physical.isClosed()) {
+                    return false;
+                }
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                physical.clearWarnings();
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new Lease(this));
+        }
+    }
+
+    /**
+     * The handle given to a borrower. Each checkout gets its own handle so a
+     * closed handle cannot touch a connection that has since been re-leased.
+     */
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private volatile boolean returned;
+        // Cached statements handed out on this lease and not yet closed
+        private final List<StatementHandle> open = new ArrayList<>();
+
+        Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!returned) {
+                    // Closing a connection closes its statements, which parks them
+                    List<StatementHandle> unclosed;
+                    synchronized (open) {
+                        unclosed = new ArrayList<>(open);
+                    }
+                    for (StatementHandle handle : unclosed) {
+                        handle.close();
+                    }
+                    returned = true;
+                    release(pooled);
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return returned || pooled.physical.isClosed();
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString")) {
+                return "Pooled" + pooled.physical;
+            }
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            String key = statementCacheSize > 0 && name.equals("prepareStatement") ? cacheKey(args) : null;
+            if (key != null) {
+                PreparedStatement statement = pooled.takeStatement(key);
+                if (statement != null) {
+                    statementHits.incrementAndGet();
+                } else {
+                    statementMisses.incrementAndGet();
+                    statement = (PreparedStatement) forward(pooled, pooled.physical, method, args);
+                }
+                return new StatementHandle(this, key, statement).proxy;
+            }
+            return forward(pooled, pooled.physical, method, args);
+        }
+
+        void closed(StatementHandle handle) {
+            synchronized (open) {
+                open.remove(handle);
+            }
+        }
+    }
+
+    // The statement cache's key for prepareStatement(sql) and
+    // prepareStatement(sql, autoGeneratedKeys); null for other overloads
+    private static String cacheKey(Object[] args) {
+        if (args.length == 1) {
+            return (String) args[0];
+        }
+        if (args.length == 2 && args[1] instanceof Integer) {
+            return args[1] + ":" + args[0];
+        }
+        return null;
+    }
+
+    // Invokes method on target, noting connection failures
+    private static Object forward(PooledConnection pooled, Object target, Method method, Object[] args)
+            throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException && isConnectionError((SQLException) cause)) {
+                pooled.broken();
+            }
+            throw cause;
+        }
+    }
+
+    /**
+     * A borrower's handle on a cached statement. Closing it parks the
+     * statement instead; like Lease, a closed handle cannot touch the
+     * statement once it has been handed to someone else, which matters for
+     * cancel() from AsyncDataAccess.
+     */
+    private final class StatementHandle implements InvocationHandler {
+        final PreparedStatement proxy;
+        private final Lease lease;
+        private final String key;
+        private final PreparedStatement statement;
+        private boolean closed;
+        // A statement whose execution failed is not reused
+        private volatile boolean failed;
+
+        StatementHandle(Lease lease, String key, PreparedStatement statement) {
+            this.lease = lease;
+            this.key = key;
+            this.statement = statement;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                this);
+            synchronized (lease.open) {
+                lease.open.add(this);
+            }
+        }
+
+        synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lease.closed(this);
+            if (failed) {
+                closeQuietly(statement);
+            } else {
+                lease.pooled.parkStatement(key, statement);
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    close();
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getConnection":
+                    throw new SQLFeatureNotSupportedException("getConnection() on a cached statement");
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached" + statement;
+                default:
+                    break;
+            }
+            if (name.equals("cancel")) {
+                // Held across the cancel, as close() holds it while parking:
+                // once parked, the statement may be another lease's
+                synchronized (this) {
+                    if (!closed) {
+                        statement.cancel();
+                    }
+                    return null;
+                }
+            }
+            synchronized (this) {
+                if (closed) {
+                    throw new SQLException("Statement is closed");
+                }
+            }
+            try {
+                return forward(lease.pooled, statement, method, args);
+            } catch (SQLException e) {
+                failed = true;
+                throw e;
+            }
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+            // The connection is going away or already gone
+        }
+    }
+
+    // SQLState class 08 is "connection exception"
+    static boolean isConnectionError(SQLException e) {
+        String state = e.getSQLState();
+        return e instanceof SQLNonTransientConnectionException
+            || e instanceof SQLTransientConnectionException
+            || (state != null && state.startsWith("08"));
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Students per course at one moment, read from the per-course counters the
+ * backends keep up to date (StudentRepository.courseStatistics()) rather
+ * than by grouping the students table. Building one costs O(courses); after
+ * that the group-by, count and top-N views are served from memory.
+ *
+ * Courses are matched ignoring case, as the course dictionary does.
+ * Students with no course are not counted.
+ */
+public final class CourseStatistics {
+    public static final CourseStatistics EMPTY = new CourseStatistics(Collections.<Course>emptyList());
+
+    /** One course and how many students take it. */
+    public static final class Course {
+        public final String name;
+        public final int students;
+
+        public Course(String name, int students) {
+            this.name = name;
+            this.students = students;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + students;
+        }
+    }
+
+    // Most students first, then by name
+    private final List<Course> courses;
+    private final Map<String, Course> byName;
+    private final long totalStudents;
+
+    /** Courses with no students are left out. */
+    public CourseStatistics(List<Course> counts) {
+        List<Course> sorted = new ArrayList<>(counts.size());
+        Map<String, Course> index = new HashMap<>();
+        long total = 0;
+        for (Course course : counts) {
+            if (course.students > 0) {
+                sorted.add(course);
+                index.put(key(course.name), course);
+                total += course.students;
+            }
+        }
+        sorted.sort((a, b) -> a.students != b.students
+            ? Integer.compare(b.students, a.students) : a.name.compareToIgnoreCase(b.name));
+        this.courses = Collections.unmodifiableList(sorted);
+        this.byName = index;
+        this.totalStudents = total;
+    }
+
+    private static String key(String course) {
+        return course.toLowerCase();
+    }
+
+    /** Every course with its count, most students first. */
+    public List<Course> getCourses() {
+        return courses;
+    }
+
+    /** The n courses with the most students. */
+    public List<Course> top(int n) {
+        return courses.subList(0, Math.max(0, Math.min(n, courses.size())));
+    }
+
+    /** Students taking the course, 0 if none. */
+    public int count(String course) {
+        Course found = course == null ? null : byName.get(key(course));
+        return found == null ? 0 : found.students;
+    }
+
+    /** The course's fraction of all students with a course. */
+    public double share(String course) {
+        return totalStudents == 0 ? 0 : count(course) / (double) totalStudents;
+    }
+
+    public int size() {
+        return courses.size();
+    }
+
+    /** Students with a course. */
+    public long getTotalStudents() {
+        return totalStudents;
+    }
+
+    @Override
+    public String toString() {
+        return courses.size() + " courses, " + totalStudents + " students";
+    }
+}
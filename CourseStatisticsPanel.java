@@ -0,0 +1,89 @@
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.awt.*;
+import java.util.function.Consumer;
+
+/**
+ * Students per course for the enhanced UI: every course with its count and
+ * share, most students first. Shows whatever CourseStatistics it was last
+ * given; double-clicking a course passes its name to the listener.
+ */
+public class CourseStatisticsPanel extends JPanel {
+    private static final String[] COLUMNS = {"Course", "Students", "Share"};
+
+    private final CourseModel model = new CourseModel();
+    private final JLabel summary = new JLabel(" ");
+
+    public CourseStatisticsPanel(Consumer<String> onCourseChosen) {
+        super(new BorderLayout(5, 5));
+        setBorder(BorderFactory.createCompoundBorder(
+            BorderFactory.createEmptyBorder(0, 10, 10, 10),
+            BorderFactory.createTitledBorder(
+                BorderFactory.createLineBorder(new Color(41, 128, 185), 2),
+                "Courses",
+                0, 0, new Font("Arial", Font.BOLD, 14), new Color(41, 128, 185))));
+        setBackground(Color.WHITE);
+
+        JTable table = new JTable(model);
+        table.setFont(new Font("Arial", Font.PLAIN, 12));
+        table.getTableHeader().setFont(new Font("Arial", Font.BOLD, 12));
+        table.setRowHeight(20);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getColumnModel().getColumn(0).setPreferredWidth(170);
+        DefaultTableCellRenderer right = new DefaultTableCellRenderer();
+        right.setHorizontalAlignment(SwingConstants.RIGHT);
+        table.getColumnModel().getColumn(1).setCellRenderer(right);
+        table.getColumnModel().getColumn(2).setCellRenderer(right);
+        table.addMouseListener(new java.awt.event.MouseAdapter() {
+            @Override
+            public void mouseClicked(java.awt.event.MouseEvent evt) {
+                int row = table.getSelectedRow();
+                if (evt.getClickCount() == 2 && row >= 0) {
+                    onCourseChosen.accept(model.statistics.getCourses().get(row).name);
+                }
+            }
+        });
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        summary.setFont(new Font("Arial", Font.PLAIN, 11));
+        summary.setForeground(Color.GRAY);
+        add(summary, BorderLayout.SOUTH);
+    }
+
+    public void setStatistics(CourseStatistics statistics) {
+        model.statistics = statistics;
+        model.fireTableDataChanged();
+        summary.setText(statistics.size() + " courses \u00b7 " + statistics.getTotalStudents()
+            + " students with a course");
+    }
+
+    private static final class CourseModel extends AbstractTableModel {
+        CourseStatistics statistics = CourseStatistics.EMPTY;
+
+        @Override
+        public int getRowCount() {
+            return statistics.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            CourseStatistics.Course course = statistics.getCourses().get(row);
+            switch (column) {
+                case 0: return course.name;
+                case 1: return course.students;
+                default: return String.format("%.1f%%", 100.0 * course.students / statistics.getTotalStudents());
+            }
+        }
+    }
+}
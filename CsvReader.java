@@ -0,0 +1,111 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads RFC 4180 CSV one record at a time: comma separated, fields may be
+ * quoted, "" inside quotes is a literal quote, and quoted fields may span
+ * lines. Only the current record is held in memory.
+ */
+public class CsvReader implements Closeable {
+    private final Reader in;
+    private final StringBuilder field = new StringBuilder();
+    private int pushedBack = -2;
+    private long line = 1;
+    private long recordLine;
+
+    public CsvReader(Reader in) {
+        this.in = in;
+    }
+
+    /** The next record, or null at end of input. */
+    public List<String> next() throws IOException {
+        long startLine = line;
+        int c = read();
+        if (c == -1) {
+            return null;
+        }
+        recordLine = startLine;
+        List<String> record = new ArrayList<>();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        field.setLength(0);
+
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IOException("Unterminated quoted field starting on line " + recordLine);
+                }
+                if (c == '"') {
+                    int n = read();
+                    if (n == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        c = n;
+                        continue;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0 && !wasQuoted) {
+                quoted = true;
+                wasQuoted = true;
+            } else if (c == ',') {
+                record.add(field.toString());
+                field.setLength(0);
+                wasQuoted = false;
+            } else if (c == '\r' || c == '\n' || c == -1) {
+                if (c == '\r') {
+                    int n = read();
+                    if (n != '\n') {
+                        pushedBack = n;
+                    }
+                }
+                record.add(field.toString());
+                return record;
+            } else {
+                field.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    /** Line number on which the last record returned by next() started. */
+    public long getRecordLine() {
+        return recordLine;
+    }
+
+    private int read() throws IOException {
+        int c;
+        if (pushedBack != -2) {
+            c = pushedBack;
+            pushedBack = -2;
+        } else {
+            c = in.read();
+        }
+        if (c == '\n') {
+            line++;
+        }
+        return c;
+    }
+
+    /** Quotes a value for writing if it needs it; null becomes an empty field. */
+    public static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,116 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Search backed by a MySQL FULLTEXT index built with the n-gram parser
+ * (see SchemaMigrations.ensureFullTextIndex). Every term is required; terms
+ * are matched as n-gram phrases so they hit anywhere inside a word, and rows
+ * are ranked by MATCH relevance.
+ */
+public class FullTextSearchEngine implements StudentSearchEngine {
+    private static final String MATCH = "MATCH(name, email, phone, course) AGAINST (? IN BOOLEAN MODE)";
+    private static final String SQL = "SELECT " + Student.COLUMNS + ", " + MATCH + " AS score " +
+        "FROM students WHERE " + MATCH + " ORDER BY score DESC, id LIMIT ?";
+
+    private final ConnectionPool pool;
+    private final Supplier<ConnectionPool> readPool;
+
+    public FullTextSearchEngine(ConnectionPool pool) {
+        this(pool, () -> pool);
+    }
+
+    /** Builds the index through pool; searches borrow from readPool, e.g. a replica's. */
+    public FullTextSearchEngine(ConnectionPool pool, Supplier<ConnectionPool> readPool) {
+        this.pool = pool;
+        this.readPool = readPool;
+    }
+
+    @Override
+    public void initialize() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            SchemaMigrations.ensureFullTextIndex(conn);
+        }
+    }
+
+    @Override
+    public List<Student> search(String query, int limit) throws SQLException {
+        List<Student> results = new ArrayList<>();
+        String booleanQuery = toBooleanQuery(query);
+        if (booleanQuery.isEmpty()) {
+            return results;
+        }
+
+        try (Connection conn = readPool.get().getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(SQL)) {
+            AsyncDataAccess.track(pstmt);
+            pstmt.setString(1, booleanQuery);
+            pstmt.setString(2, booleanQuery);
+            pstmt.setInt(3, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    results.add(Student.fromResultSet(rs));
+                }
+            }
+        }
+        return results;
+    }
+
+    // Every term has to occur inside a single column
+    @Override
+    public boolean matches(Student student, String query) {
+        List<String> terms = StudentSearchEngine.tokenize(query);
+        for (String term : terms) {
+            if (!StudentSearchEngine.containsIgnoreCase(student.getName(), term)
+                    && !StudentSearchEngine.containsIgnoreCase(student.getEmail(), term)
+                    && !StudentSearchEngine.containsIgnoreCase(student.getPhone(), term)
+                    && !StudentSearchEngine.containsIgnoreCase(student.getCourse(), term)) {
+                return false;
+            }
+        }
+        return !terms.isEmpty();
+    }
+
+    @Override
+    public boolean narrows(String previous, String next) {
+        List<String> nextTerms = StudentSearchEngine.tokenize(next);
+        for (String term : StudentSearchEngine.tokenize(previous)) {
+            boolean covered = false;
+            for (String nextTerm : nextTerms) {
+                covered |= nextTerm.contains(term);
+            }
+            if (!covered) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // "john do" -> +"john" +do*
+    static String toBooleanQuery(String query) {
+        StringBuilder sb = new StringBuilder();
+        for (String term : StudentSearchEngine.tokenize(query)) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            // With the n-gram parser a term at least ngram_token_size (2) long
+            // is searched as a phrase of its n-grams; a single character needs
+            // the wildcard to match n-grams starting with it.
+            if (term.length() >= 2) {
+                sb.append("+\"").append(term).append('"');
+            } else {
+                sb.append('+').append(term).append('*');
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String getName() {
+        return "fulltext";
+    }
+}
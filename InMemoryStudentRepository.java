@@ -0,0 +1,434 @@
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Students held in process memory, for running the UI and load tests without
+ * a database. Nothing survives a restart.
+ *
+ * Rows live in an int-keyed open-addressing map, ids are kept in a sorted
+ * array for ordered and positional paging, and there are secondary indexes
+ * on email (unique, case-insensitive, like the table's UNIQUE key) and on
+ * course. Constraint violations raise the same SQLExceptions MySQL would.
+ * Deletes leave a tombstone, as the table's delete trigger does, so the
+ * change feed works the same on both backends.
+ */
+public class InMemoryStudentRepository implements StudentRepository {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final IntObjectHashMap<Student> byId = new IntObjectHashMap<>(1024);
+    private final SortedIntSet ids = new SortedIntSet(1024);
+    private final Map<String, Integer> byEmail = new HashMap<>();
+    private final Map<String, SortedIntSet> byCourse = new HashMap<>();
+    // The version each row was inserted or restored at, as created_at gives it
+    private final IntObjectHashMap<Long> createdVersions = new IntObjectHashMap<>(1024);
+    private int nextId = 1;
+    // Newest last; {seq, id}. Only the most recent MAX_TOMBSTONES are kept
+    private final ArrayDeque<long[]> tombstones = new ArrayDeque<>();
+    private long deletionSeq;
+    private long latestVersion;
+    private static final int MAX_TOMBSTONES = 100_000;
+
+    @Override
+    public void initialize() {
+    }
+
+    @Override
+    public Student insert(Student student) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            StudentRepository.checkColumns(student);
+            checkEmailFree(student.getEmail(), 0);
+            Student saved = student.withId(nextId++).withUpdatedAt(StudentRepository.nextVersion(0));
+            index(saved);
+            createdVersions.put(saved.getId(), saved.getUpdatedAt());
+            return saved;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Student> insertAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws java.io.IOException {
+        List<Student> inserted = new ArrayList<>(students.size());
+        for (int i = 0; i < students.size(); i++) {
+            try {
+                inserted.add(insert(students.get(i)));
+            } catch (SQLException e) {
+                rejected.rejected(i, e);
+            }
+        }
+        return inserted;
+    }
+
+    @Override
+    public boolean update(Student student) throws SQLException {
+        return updated(student) != null;
+    }
+
+    // The stored row, or null if the row is missing or stale
+    private Student updated(Student student) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            Student previous = byId.get(student.getId());
+            if (previous == null || isStale(student, previous)) {
+                return null;
+            }
+            StudentRepository.checkColumns(student);
+            checkEmailFree(student.getEmail(), student.getId());
+            Student saved = student.withUpdatedAt(StudentRepository.nextVersion(previous.getUpdatedAt()));
+            unindex(previous);
+            index(saved);
+            return saved;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static boolean isStale(Student write, Student stored) {
+        return write.getUpdatedAt() != 0 && write.getUpdatedAt() != stored.getUpdatedAt();
+    }
+
+    // Nothing to roll back in memory, so rows are applied one by one
+    @Override
+    public List<Student> updateAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws java.io.IOException {
+        List<Student> updated = new ArrayList<>(students.size());
+        for (int i = 0; i < students.size(); i++) {
+            try {
+                Student saved = updated(students.get(i));
+                if (saved != null) {
+                    updated.add(saved);
+                } else {
+                    rejected.rejected(i, new StaleWriteException(students.get(i).getId()));
+                }
+            } catch (SQLException e) {
+                rejected.rejected(i, e);
+            }
+        }
+        return updated;
+    }
+
+    @Override
+    public int deleteAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws java.io.IOException {
+        int deleted = 0;
+        for (int i = 0; i < students.size(); i++) {
+            Student student = students.get(i);
+            lock.writeLock().lock();
+            try {
+                Student previous = byId.get(student.getId());
+                if (previous != null && !isStale(student, previous)) {
+                    remove(previous);
+                    deleted++;
+                    continue;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            rejected.rejected(i, new StaleWriteException(student.getId()));
+        }
+        return deleted;
+    }
+
+    @Override
+    public boolean delete(int id) {
+        lock.writeLock().lock();
+        try {
+            Student previous = byId.get(id);
+            if (previous == null) {
+                return false;
+            }
+            remove(previous);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Student restore(Student student) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            StudentRepository.checkColumns(student);
+            if (byId.get(student.getId()) != null) {
+                throw new SQLIntegrityConstraintViolationException(
+                    "Duplicate entry '" + student.getId() + "' for key 'PRIMARY'", "23000", 1062);
+            }
+            checkEmailFree(student.getEmail(), student.getId());
+            Student saved = student.withUpdatedAt(StudentRepository.nextVersion(0));
+            index(saved);
+            createdVersions.put(saved.getId(), saved.getUpdatedAt());
+            nextId = Math.max(nextId, student.getId() + 1);
+            return saved;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void index(Student student) {
+        latestVersion = Math.max(latestVersion, student.getUpdatedAt());
+        byId.put(student.getId(), student);
+        ids.add(student.getId());
+        if (student.getEmail() != null) {
+            byEmail.put(key(student.getEmail()), student.getId());
+        }
+        if (student.getCourse() != null) {
+            byCourse.computeIfAbsent(key(student.getCourse()), k -> new SortedIntSet()).add(student.getId());
+        }
+    }
+
+    // Deletes the row and leaves its tombstone
+    private void remove(Student student) {
+        unindex(student);
+        createdVersions.remove(student.getId());
+        tombstones.addLast(new long[] {++deletionSeq, student.getId()});
+        if (tombstones.size() > MAX_TOMBSTONES) {
+            tombstones.removeFirst();
+        }
+    }
+
+    private void unindex(Student student) {
+        byId.remove(student.getId());
+        ids.remove(student.getId());
+        if (student.getEmail() != null) {
+            byEmail.remove(key(student.getEmail()));
+        }
+        if (student.getCourse() != null) {
+            String course = key(student.getCourse());
+            SortedIntSet members = byCourse.get(course);
+            if (members != null && members.remove(student.getId()) && members.size() == 0) {
+                byCourse.remove(course);
+            }
+        }
+    }
+
+    private void checkEmailFree(String email, int ownerId) throws SQLException {
+        if (email == null) {
+            return;
+        }
+        Integer existing = byEmail.get(key(email));
+        if (existing != null && existing != ownerId) {
+            throw new SQLIntegrityConstraintViolationException(
+                "Duplicate entry '" + email + "' for key 'students.email'", "23000", 1062);
+        }
+    }
+
+    private static String key(String value) {
+        return value.toLowerCase();
+    }
+
+    @Override
+    public Student findById(int id) {
+        lock.readLock().lock();
+        try {
+            return byId.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Student findByEmail(String email) {
+        lock.readLock().lock();
+        try {
+            Integer id = byEmail.get(key(email));
+            return id == null ? null : byId.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Student> findByCourse(String course, int limit) {
+        lock.readLock().lock();
+        try {
+            SortedIntSet members = byCourse.get(key(course));
+            List<Student> rows = new ArrayList<>();
+            for (int i = 0; members != null && i < members.size() && rows.size() < limit; i++) {
+                rows.add(byId.get(members.get(i)));
+            }
+            return rows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Student> findContaining(String text, int limit) {
+        String term = text.trim().toLowerCase();
+        lock.readLock().lock();
+        try {
+            List<Student> rows = new ArrayList<>();
+            for (int i = 0; i < ids.size() && rows.size() < limit; i++) {
+                Student s = byId.get(ids.get(i));
+                if (StudentSearchEngine.containsIgnoreCase(s.getName(), term)
+                        || StudentSearchEngine.containsIgnoreCase(s.getEmail(), term)
+                        || StudentSearchEngine.containsIgnoreCase(s.getCourse(), term)
+                        || StudentSearchEngine.containsIgnoreCase(s.getPhone(), term)) {
+                    rows.add(s);
+                }
+            }
+            return rows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Student> findAfter(int afterId, int limit) {
+        lock.readLock().lock();
+        try {
+            return slice(ids.indexAfter(afterId), limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Student> findPage(int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            return slice(offset, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Student> slice(int from, int limit) {
+        int to = (int) Math.min(ids.size(), (long) from + limit);
+        List<Student> rows = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            rows.add(byId.get(ids.get(i)));
+        }
+        return rows;
+    }
+
+    @Override
+    public int count() {
+        lock.readLock().lock();
+        try {
+            return byId.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Visits in slices so the read lock is never held across the handler
+    @Override
+    public void forEach(RowHandler handler) throws java.io.IOException {
+        int afterId = 0;
+        while (true) {
+            List<Student> slice = findAfter(afterId, 1000);
+            for (Student student : slice) {
+                handler.row(student);
+            }
+            if (slice.size() < 1000) {
+                return;
+            }
+            afterId = slice.get(slice.size() - 1).getId();
+        }
+    }
+
+    @Override
+    public StudentChanges snapshot() {
+        lock.readLock().lock();
+        try {
+            return StudentChanges.marks(ids.size(), ids.size() == 0 ? 0 : ids.get(ids.size() - 1),
+                latestVersion, deletionSeq);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The course index already counts its members; a course's name is
+    // spelled as its first member has it
+    @Override
+    public CourseStatistics courseStatistics() {
+        lock.readLock().lock();
+        try {
+            List<CourseStatistics.Course> counts = new ArrayList<>(byCourse.size());
+            for (SortedIntSet members : byCourse.values()) {
+                counts.add(new CourseStatistics.Course(byId.get(members.get(0)).getCourse(), members.size()));
+            }
+            return new CourseStatistics(counts);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // There is no updated_at index here; a scan of memory is cheap enough
+    // at the poll rates the feed uses
+    @Override
+    public StudentChanges changesSince(long sinceVersion, long afterDeletion, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Student> changed = new ArrayList<>();
+            Map<Integer, Long> created = new HashMap<>();
+            for (int i = 0; i < ids.size(); i++) {
+                Student student = byId.get(ids.get(i));
+                if (student.getUpdatedAt() >= sinceVersion) {
+                    changed.add(student);
+                }
+            }
+            boolean truncated = changed.size() > limit;
+            if (truncated) {
+                // Keep the oldest changes, as ORDER BY updated_at LIMIT would
+                changed.sort(Comparator.comparingLong(Student::getUpdatedAt));
+                changed = new ArrayList<>(changed.subList(0, limit));
+                changed.sort(Comparator.comparingInt(Student::getId));
+            }
+            long latest = sinceVersion;
+            for (Student student : changed) {
+                latest = Math.max(latest, student.getUpdatedAt());
+                Long createdAt = createdVersions.get(student.getId());
+                if (createdAt != null) {
+                    created.put(student.getId(), createdAt);
+                }
+            }
+
+            List<long[]> deletions = new ArrayList<>();
+            Iterator<long[]> newestFirst = tombstones.descendingIterator();
+            while (newestFirst.hasNext()) {
+                long[] tombstone = newestFirst.next();
+                if (tombstone[0] <= afterDeletion) {
+                    break;
+                }
+                deletions.add(tombstone);
+            }
+            Collections.reverse(deletions);
+            if (deletions.size() > limit) {
+                truncated = true;
+                deletions = deletions.subList(0, limit);
+            }
+            int[] deletedIds = new int[deletions.size()];
+            long[] deletionSeqs = new long[deletions.size()];
+            for (int i = 0; i < deletedIds.length; i++) {
+                deletionSeqs[i] = deletions.get(i)[0];
+                deletedIds[i] = (int) deletions.get(i)[1];
+            }
+            return new StudentChanges(changed, created, deletedIds, deletionSeqs, truncated, -1, -1, latest,
+                deletionSeqs.length > 0 ? deletionSeqs[deletionSeqs.length - 1] : afterDeletion);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "memory";
+    }
+
+    @Override
+    public void close() {
+    }
+}
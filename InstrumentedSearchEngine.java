@@ -0,0 +1,71 @@
+import java.sql.SQLException;
+import java.util.List;
+
+/** Times searches (and the engine's startup) of another engine in a StudentMetrics registry. */
+public class InstrumentedSearchEngine implements StudentSearchEngine {
+    private final StudentSearchEngine delegate;
+    private final OperationTimer search;
+    private final OperationTimer initialize;
+
+    /** operation names the timer, e.g. "search"; startup is timed as operation + "_initialize". */
+    public InstrumentedSearchEngine(StudentSearchEngine delegate, StudentMetrics metrics, String operation) {
+        this.delegate = delegate;
+        this.search = metrics.timer(operation);
+        this.initialize = metrics.timer(operation + "_initialize");
+    }
+
+    @Override
+    public List<Student> search(String query, int limit) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            List<Student> results = delegate.search(query, limit);
+            ok = true;
+            return results;
+        } finally {
+            search.record(start, ok, query);
+        }
+    }
+
+    @Override
+    public boolean matches(Student student, String query) {
+        return delegate.matches(student, query);
+    }
+
+    @Override
+    public boolean narrows(String previous, String next) {
+        return delegate.narrows(previous, next);
+    }
+
+    @Override
+    public boolean ordersById() {
+        return delegate.ordersById();
+    }
+
+    @Override
+    public void initialize() throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            delegate.initialize();
+            ok = true;
+        } finally {
+            initialize.record(start, ok, null);
+        }
+    }
+
+    @Override
+    public void studentSaved(Student student) {
+        delegate.studentSaved(student);
+    }
+
+    @Override
+    public void studentRemoved(int id) {
+        delegate.studentRemoved(id);
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+}
@@ -0,0 +1,333 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Times every call into another repository, under the method's name (e.g.
+ * "insert", "findPage"), in a StudentMetrics registry. Failures are counted
+ * separately from latencies.
+ */
+public class InstrumentedStudentRepository implements StudentRepository {
+    private final StudentRepository delegate;
+    private final OperationTimer initialize;
+    private final OperationTimer insert;
+    private final OperationTimer insertAll;
+    private final OperationTimer update;
+    private final OperationTimer updateAll;
+    private final OperationTimer deleteAll;
+    private final OperationTimer delete;
+    private final OperationTimer restore;
+    private final OperationTimer findById;
+    private final OperationTimer findByEmail;
+    private final OperationTimer findByCourse;
+    private final OperationTimer findContaining;
+    private final OperationTimer findAfter;
+    private final OperationTimer findPage;
+    private final OperationTimer count;
+    private final OperationTimer forEach;
+    private final OperationTimer snapshot;
+    private final OperationTimer changesSince;
+    private final OperationTimer courseStatistics;
+
+    public InstrumentedStudentRepository(StudentRepository delegate, StudentMetrics metrics) {
+        this.delegate = delegate;
+        initialize = metrics.timer("initialize");
+        insert = metrics.timer("insert");
+        insertAll = metrics.timer("insertAll");
+        update = metrics.timer("update");
+        updateAll = metrics.timer("updateAll");
+        deleteAll = metrics.timer("deleteAll");
+        delete = metrics.timer("delete");
+        restore = metrics.timer("restore");
+        findById = metrics.timer("findById");
+        findByEmail = metrics.timer("findByEmail");
+        findByCourse = metrics.timer("findByCourse");
+        findContaining = metrics.timer("findContaining");
+        findAfter = metrics.timer("findAfter");
+        findPage = metrics.timer("findPage");
+        count = metrics.timer("count");
+        forEach = metrics.timer("forEach");
+        snapshot = metrics.timer("snapshot");
+        changesSince = metrics.timer("changesSince");
+        courseStatistics = metrics.timer("courseStatistics");
+    }
+
+    /** The repository being timed. */
+    @Override
+    public StudentRepository getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void initialize() throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            delegate.initialize();
+            ok = true;
+        } finally {
+            initialize.record(start, ok, null);
+        }
+    }
+
+    @Override
+    public Student insert(Student student) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            Student inserted = delegate.insert(student);
+            ok = true;
+            return inserted;
+        } finally {
+            insert.record(start, ok, student.getEmail());
+        }
+    }
+
+    @Override
+    public List<Student> insertAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            List<Student> inserted = delegate.insertAll(students, batchSize, rejected);
+            ok = true;
+            return inserted;
+        } finally {
+            insertAll.record(start, ok, students.size() + " rows");
+        }
+    }
+
+    @Override
+    public boolean update(Student student) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            boolean updated = delegate.update(student);
+            ok = true;
+            return updated;
+        } finally {
+            update.record(start, ok, student.getId());
+        }
+    }
+
+    @Override
+    public List<Student> updateAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            List<Student> updated = delegate.updateAll(students, batchSize, rejected);
+            ok = true;
+            return updated;
+        } finally {
+            updateAll.record(start, ok, students.size() + " rows");
+        }
+    }
+
+    @Override
+    public int deleteAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            int deleted = delegate.deleteAll(students, batchSize, rejected);
+            ok = true;
+            return deleted;
+        } finally {
+            deleteAll.record(start, ok, students.size() + " rows");
+        }
+    }
+
+    @Override
+    public boolean delete(int id) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            boolean deleted = delegate.delete(id);
+            ok = true;
+            return deleted;
+        } finally {
+            delete.record(start, ok, id);
+        }
+    }
+
+    @Override
+    public Student restore(Student student) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            Student restored = delegate.restore(student);
+            ok = true;
+            return restored;
+        } finally {
+            restore.record(start, ok, student.getId());
+        }
+    }
+
+    @Override
+    public Student findById(int id) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            Student student = delegate.findById(id);
+            ok = true;
+            return student;
+        } finally {
+            findById.record(start, ok, id);
+        }
+    }
+
+    @Override
+    public Student findByEmail(String email) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            Student student = delegate.findByEmail(email);
+            ok = true;
+            return student;
+        } finally {
+            findByEmail.record(start, ok, email);
+        }
+    }
+
+    @Override
+    public List<Student> findByCourse(String course, int limit) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            List<Student> students = delegate.findByCourse(course, limit);
+            ok = true;
+            return students;
+        } finally {
+            findByCourse.record(start, ok, course);
+        }
+    }
+
+    @Override
+    public List<Student> findContaining(String text, int limit) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            List<Student> students = delegate.findContaining(text, limit);
+            ok = true;
+            return students;
+        } finally {
+            findContaining.record(start, ok, text);
+        }
+    }
+
+    @Override
+    public List<Student> findAfter(int afterId, int limit) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            List<Student> students = delegate.findAfter(afterId, limit);
+            ok = true;
+            return students;
+        } finally {
+            findAfter.record(start, ok, afterId);
+        }
+    }
+
+    @Override
+    public List<Student> findPage(int offset, int limit) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            List<Student> students = delegate.findPage(offset, limit);
+            ok = true;
+            return students;
+        } finally {
+            findPage.record(start, ok, offset);
+        }
+    }
+
+    @Override
+    public int count() throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            int rows = delegate.count();
+            ok = true;
+            return rows;
+        } finally {
+            count.record(start, ok, null);
+        }
+    }
+
+    @Override
+    public void forEach(RowHandler handler) throws SQLException, IOException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            delegate.forEach(handler);
+            ok = true;
+        } finally {
+            forEach.record(start, ok, null);
+        }
+    }
+
+    @Override
+    public StudentChanges snapshot() throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            StudentChanges marks = delegate.snapshot();
+            ok = true;
+            return marks;
+        } finally {
+            snapshot.record(start, ok, null);
+        }
+    }
+
+    @Override
+    public StudentChanges changesSince(long sinceVersion, long afterDeletion, int limit) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            StudentChanges changes = delegate.changesSince(sinceVersion, afterDeletion, limit);
+            ok = true;
+            return changes;
+        } finally {
+            changesSince.record(start, ok, null);
+        }
+    }
+
+    @Override
+    public CourseStatistics courseStatistics() throws SQLException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            CourseStatistics statistics = delegate.courseStatistics();
+            ok = true;
+            return statistics;
+        } finally {
+            courseStatistics.record(start, ok, null);
+        }
+    }
+
+    @Override
+    public ConnectionPool getPool() {
+        return delegate.getPool();
+    }
+
+    @Override
+    public ConnectionPool getReadPool() {
+        return delegate.getReadPool();
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return delegate.getMaxConcurrency();
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,130 @@
+import java.util.Arrays;
+
+/**
+ * An int-keyed hash map with open addressing and linear probing. Keys are
+ * stored unboxed in one array and values in another, so a lookup touches two
+ * arrays instead of an Entry and an Integer per mapping. Not thread-safe.
+ */
+final class IntObjectHashMap<V> {
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int resizeAt;
+
+    IntObjectHashMap() {
+        this(16);
+    }
+
+    IntObjectHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    /** Maps key to value (which must not be null) and returns the previous value. */
+    @SuppressWarnings("unchecked")
+    V put(int key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null values are not supported");
+        }
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(int key) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V previous = (V) values[i];
+                shiftBack(i, mask);
+                size--;
+                return previous;
+            }
+        }
+        return null;
+    }
+
+    void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    // Backward-shift deletion: close the gap so probes never need tombstones
+    private void shiftBack(int gap, int mask) {
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == null) {
+                break;
+            }
+            int home = slot(keys[i], mask);
+            // Move the entry into the gap unless its home lies in (gap, i]
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        values[gap] = null;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != null) {
+                int i = slot(oldKeys[j], mask);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    // Sequential ids would otherwise fill one contiguous run of slots
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,438 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-process inverted index over name, email, phone and course.
+ *
+ * Each word maps to a sorted posting list of student ids, tagged with the
+ * fields the word occurs in. The vocabulary is kept sorted, so a prefix term
+ * is a range scan, and every word is also indexed by its trigrams, so an
+ * infix term only has to look at the words that contain all of its trigrams.
+ * Candidates and their scores come straight from the postings of the most
+ * selective query term; any other terms are checked against the candidates.
+ *
+ * The index is loaded once by initialize() and kept current through
+ * studentSaved() and studentRemoved().
+ */
+public class InvertedIndexSearchEngine implements StudentSearchEngine {
+    private static final int EXACT = 3;
+    private static final int PREFIX = 2;
+    private static final int INFIX = 1;
+
+    private static final int NAME = 1;
+    private static final int EMAIL = 2;
+    private static final int PHONE = 4;
+    private static final int COURSE = 8;
+
+    private final StudentRepository repository;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, Student> docs = new HashMap<>();
+    private final TreeMap<String, Word> words = new TreeMap<>();
+    // Trigram -> ids of the vocabulary words containing it
+    private final Map<String, Postings> trigrams = new HashMap<>();
+    private Word[] wordsById = new Word[1024];
+    private int nextWordId;
+
+    /** repository may be null for an index filled only through studentSaved(). */
+    public InvertedIndexSearchEngine(StudentRepository repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public void initialize() throws SQLException {
+        if (repository == null) {
+            return;
+        }
+        try {
+            repository.forEach(this::studentSaved);
+        } catch (IOException e) {
+            // studentSaved() does no I/O
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void studentSaved(Student student) {
+        lock.writeLock().lock();
+        try {
+            Student previous = docs.put(student.getId(), student);
+            if (previous != null) {
+                unindex(previous);
+            }
+            for (Map.Entry<String, Integer> entry : wordsOf(student).entrySet()) {
+                Word word = words.get(entry.getKey());
+                if (word == null) {
+                    word = newWord(entry.getKey());
+                }
+                word.docs.add(student.getId(), entry.getValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void studentRemoved(int id) {
+        lock.writeLock().lock();
+        try {
+            Student previous = docs.remove(id);
+            if (previous != null) {
+                unindex(previous);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Word newWord(String text) {
+        Word word = new Word(nextWordId++, text);
+        if (word.id == wordsById.length) {
+            wordsById = Arrays.copyOf(wordsById, wordsById.length * 2);
+        }
+        wordsById[word.id] = word;
+        words.put(text, word);
+        for (String trigram : trigramsOf(text)) {
+            trigrams.computeIfAbsent(trigram, k -> new Postings()).add(word.id, 0);
+        }
+        return word;
+    }
+
+    private void unindex(Student student) {
+        for (String text : wordsOf(student).keySet()) {
+            Word word = words.get(text);
+            if (word == null) {
+                continue;
+            }
+            word.docs.remove(student.getId());
+            if (word.docs.size == 0) {
+                words.remove(text);
+                wordsById[word.id] = null;
+                for (String trigram : trigramsOf(text)) {
+                    Postings postings = trigrams.get(trigram);
+                    if (postings != null) {
+                        postings.remove(word.id);
+                        if (postings.size == 0) {
+                            trigrams.remove(trigram);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Student> search(String query, int limit) {
+        List<String> terms = StudentSearchEngine.tokenize(query);
+        List<Student> results = new ArrayList<>();
+        if (terms.isEmpty() || limit <= 0) {
+            return results;
+        }
+
+        lock.readLock().lock();
+        try {
+            // Drive the search from the term with the fewest postings
+            List<List<WordMatch>> perTerm = new ArrayList<>();
+            int driver = 0;
+            long driverSize = Long.MAX_VALUE;
+            for (String term : terms) {
+                List<WordMatch> matches = wordsMatching(term);
+                long size = 0;
+                for (WordMatch match : matches) {
+                    size += match.word.docs.size;
+                }
+                if (size == 0) {
+                    return results;
+                }
+                if (size < driverSize) {
+                    driver = perTerm.size();
+                    driverSize = size;
+                }
+                perTerm.add(matches);
+            }
+
+            long[] candidates = scoreCandidates(perTerm.get(driver));
+            int count = 0;
+            for (long candidate : candidates) {
+                int id = (int) (candidate >>> 8);
+                int score = (int) (candidate & 0xFF);
+                for (int t = 0; t < terms.size() && score > 0; t++) {
+                    if (t != driver) {
+                        int termScore = termScore(id, terms.get(t), perTerm.get(t));
+                        score = termScore == 0 ? 0 : score + termScore;
+                    }
+                }
+                if (score > 0) {
+                    // Sorts by score, then by lowest id first
+                    candidates[count++] = ((long) score << 32) | (Integer.MAX_VALUE - id);
+                }
+            }
+
+            Arrays.sort(candidates, 0, count);
+            for (int i = count - 1; i >= 0 && results.size() < limit; i--) {
+                results.add(docs.get(Integer.MAX_VALUE - (int) candidates[i]));
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Every vocabulary word the term matches, with how well it matches
+    private List<WordMatch> wordsMatching(String term) {
+        List<WordMatch> matches = new ArrayList<>();
+        // Exact and prefix matches are one contiguous range of the sorted vocabulary
+        for (Word word : words.subMap(term, true, term + Character.MAX_VALUE, false).values()) {
+            matches.add(new WordMatch(word, word.text.length() == term.length() ? EXACT : PREFIX));
+        }
+        if (term.length() < 3) {
+            return matches;
+        }
+
+        List<Postings> lists = new ArrayList<>();
+        for (String trigram : trigramsOf(term)) {
+            Postings postings = trigrams.get(trigram);
+            if (postings == null) {
+                return matches;
+            }
+            lists.add(postings);
+        }
+        lists.sort(Comparator.comparingInt(p -> p.size));
+        Postings smallest = lists.get(0);
+        for (int i = 0; i < smallest.size; i++) {
+            Word word = wordsById[smallest.ids[i]];
+            if (!word.text.startsWith(term) && word.text.contains(term)) {
+                matches.add(new WordMatch(word, INFIX));
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Merges the postings of the matched words into (id << 8 | score) values,
+     * one per student, sorted by id and keeping each student's best score.
+     */
+    private static long[] scoreCandidates(List<WordMatch> matches) {
+        int total = 0;
+        for (WordMatch match : matches) {
+            total += match.word.docs.size;
+        }
+        long[] packed = new long[total];
+        int n = 0;
+        for (WordMatch match : matches) {
+            Postings docs = match.word.docs;
+            for (int i = 0; i < docs.size; i++) {
+                packed[n++] = ((long) docs.ids[i] << 8) | (match.quality * fieldWeight(docs.fields[i]));
+            }
+        }
+        if (matches.size() > 1) {
+            Arrays.sort(packed);
+        }
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (unique > 0 && packed[unique - 1] >>> 8 == packed[i] >>> 8) {
+                packed[unique - 1] = packed[i];
+            } else {
+                packed[unique++] = packed[i];
+            }
+        }
+        return unique == n ? packed : Arrays.copyOf(packed, unique);
+    }
+
+    // Score of one more term for a candidate. A term that matched only a few
+    // words is checked in their postings; one that matched many (a short
+    // prefix, say) is cheaper to check against the student itself.
+    private int termScore(int id, String term, List<WordMatch> matches) {
+        if (matches.size() > 16) {
+            return termScore(docs.get(id), term);
+        }
+        int best = 0;
+        for (WordMatch match : matches) {
+            Postings postings = match.word.docs;
+            int pos = Arrays.binarySearch(postings.ids, 0, postings.size, id);
+            if (pos >= 0) {
+                best = Math.max(best, match.quality * fieldWeight(postings.fields[pos]));
+            }
+        }
+        return best;
+    }
+
+    // Name matches outrank email matches, which outrank phone and course
+    private static int fieldWeight(int fields) {
+        if ((fields & NAME) != 0) {
+            return 3;
+        }
+        return (fields & EMAIL) != 0 ? 2 : 1;
+    }
+
+    /** Relevance of a student for a query; 0 if some term does not match. */
+    public static int score(Student student, List<String> terms) {
+        int total = 0;
+        for (String term : terms) {
+            int best = termScore(student, term);
+            if (best == 0) {
+                return 0;
+            }
+            total += best;
+        }
+        return total;
+    }
+
+    @Override
+    public boolean matches(Student student, String query) {
+        List<String> terms = StudentSearchEngine.tokenize(query);
+        return !terms.isEmpty() && score(student, terms) > 0;
+    }
+
+    // A word matching the longer term also matches the shorter one, except
+    // that a term under three characters only matches at the start of a word
+    @Override
+    public boolean narrows(String previous, String next) {
+        List<String> nextTerms = StudentSearchEngine.tokenize(next);
+        for (String term : StudentSearchEngine.tokenize(previous)) {
+            boolean covered = false;
+            for (String nextTerm : nextTerms) {
+                covered |= nextTerm.equals(term) || (term.length() >= 3 && nextTerm.contains(term));
+            }
+            if (!covered) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int termScore(Student student, String term) {
+        int name = matchQuality(student.getName(), term);
+        if (name == EXACT) {
+            return 3 * EXACT;
+        }
+        return Math.max(
+            Math.max(3 * name, 2 * matchQuality(student.getEmail(), term)),
+            Math.max(matchQuality(student.getPhone(), term), matchQuality(student.getCourse(), term)));
+    }
+
+    // Same rules as the index: whole word, word prefix, or (3+ characters)
+    // inside a word. Terms are lower-case letters and digits only, so a hit
+    // can never straddle two words.
+    private static int matchQuality(String value, String term) {
+        if (value == null) {
+            return 0;
+        }
+        int best = 0;
+        int m = term.length();
+        char first = term.charAt(0);
+        for (int i = 0; i + m <= value.length(); i++) {
+            if (Character.toLowerCase(value.charAt(i)) != first || !value.regionMatches(true, i, term, 0, m)) {
+                continue;
+            }
+            if (i == 0 || !Character.isLetterOrDigit(value.charAt(i - 1))) {
+                if (i + m == value.length() || !Character.isLetterOrDigit(value.charAt(i + m))) {
+                    return EXACT;
+                }
+                best = PREFIX;
+            } else if (m >= 3 && best == 0) {
+                best = INFIX;
+            }
+        }
+        return best;
+    }
+
+    // Word -> bit mask of the fields it occurs in
+    private static Map<String, Integer> wordsOf(Student student) {
+        Map<String, Integer> result = new HashMap<>();
+        addWords(result, student.getName(), NAME);
+        addWords(result, student.getEmail(), EMAIL);
+        addWords(result, student.getPhone(), PHONE);
+        addWords(result, student.getCourse(), COURSE);
+        return result;
+    }
+
+    private static void addWords(Map<String, Integer> result, String value, int field) {
+        for (String word : StudentSearchEngine.tokenize(value)) {
+            result.merge(word, field, (a, b) -> a | b);
+        }
+    }
+
+    private static List<String> trigramsOf(String word) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i + 3 <= word.length(); i++) {
+            result.add(word.substring(i, i + 3));
+        }
+        return result;
+    }
+
+    @Override
+    public String getName() {
+        return "memory";
+    }
+
+    private static final class Word {
+        final int id;
+        final String text;
+        final Postings docs = new Postings();
+
+        Word(int id, String text) {
+            this.id = id;
+            this.text = text;
+        }
+    }
+
+    private static final class WordMatch {
+        final Word word;
+        final int quality;
+
+        WordMatch(Word word, int quality) {
+            this.word = word;
+            this.quality = quality;
+        }
+    }
+
+    /** A sorted, growable list of ids, each tagged with a field mask. */
+    private static final class Postings {
+        int[] ids = new int[2];
+        byte[] fields = new byte[2];
+        int size;
+
+        void add(int id, int field) {
+            // Ids mostly arrive in ascending order, so this is usually an append
+            int pos = size;
+            if (size > 0 && ids[size - 1] >= id) {
+                pos = Arrays.binarySearch(ids, 0, size, id);
+                if (pos >= 0) {
+                    fields[pos] |= field;
+                    return;
+                }
+                pos = -pos - 1;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                fields = Arrays.copyOf(fields, size * 2);
+            }
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            System.arraycopy(fields, pos, fields, pos + 1, size - pos);
+            ids[pos] = id;
+            fields[pos] = (byte) field;
+            size++;
+        }
+
+        void remove(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) {
+                System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+                System.arraycopy(fields, pos + 1, fields, pos, size - pos - 1);
+                size--;
+            }
+        }
+    }
+}
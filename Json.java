@@ -0,0 +1,177 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Just enough JSON for student records: writing quoted strings, and parsing
+ * one flat object whose values are strings, numbers, booleans or null.
+ */
+final class Json {
+    private Json() {}
+
+    /** The value as a JSON string literal, or null. */
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        appendQuoted(sb, value);
+        return sb.toString();
+    }
+
+    static void appendQuoted(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Parses a flat JSON object. Numbers and booleans come back as their
+     * source text; nested objects and arrays are rejected.
+     */
+    static Map<String, String> parseObject(String text) {
+        Parser p = new Parser(text);
+        Map<String, String> result = new LinkedHashMap<>();
+        p.skipWhitespace();
+        p.expect('{');
+        p.skipWhitespace();
+        if (p.peek() == '}') {
+            p.pos++;
+        } else {
+            while (true) {
+                p.skipWhitespace();
+                String key = p.readString();
+                p.skipWhitespace();
+                p.expect(':');
+                p.skipWhitespace();
+                result.put(key, p.readValue());
+                p.skipWhitespace();
+                char c = p.next();
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw p.error("Expected ',' or '}'");
+                }
+            }
+        }
+        p.skipWhitespace();
+        if (p.pos != text.length()) {
+            throw p.error("Unexpected trailing content");
+        }
+        return result;
+    }
+
+    private static final class Parser {
+        final String text;
+        int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        char peek() {
+            if (pos >= text.length()) {
+                throw error("Unexpected end of input");
+            }
+            return text.charAt(pos);
+        }
+
+        char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        void expect(char c) {
+            if (next() != c) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        String readValue() {
+            char c = peek();
+            if (c == '"') {
+                return readString();
+            }
+            if (c == '{' || c == '[') {
+                throw error("Nested values are not supported");
+            }
+            int start = pos;
+            while (pos < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos)) < 0) {
+                pos++;
+            }
+            String literal = text.substring(start, pos);
+            if (literal.equals("null")) {
+                return null;
+            }
+            if (literal.isEmpty()) {
+                throw error("Expected a value");
+            }
+            return literal;
+        }
+
+        String readString() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char e = next();
+                switch (e) {
+                    case '"': sb.append('"'); break;
+                    case '\\': sb.append('\\'); break;
+                    case '/': sb.append('/'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("Bad unicode escape");
+                        }
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        throw error("Bad escape '\\" + e + "'");
+                }
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at offset " + pos);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Latencies in nanoseconds, bucketed log-linearly: each power of two is
+ * split into SUB_BUCKETS equal buckets, so any recorded value is reported
+ * within 1/SUB_BUCKETS (under 1%) of itself, in a fixed 35 KB no matter
+ * how many values are recorded. Not thread-safe; give each thread its own
+ * and add() them together.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Enough powers of two for ~18 minutes in nanoseconds; longer values are clamped
+    private static final int MAGNITUDES = 40 - SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[(MAGNITUDES + 1) * SUB_BUCKETS];
+    private long count;
+    private long sum;
+    private long max;
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        java.util.Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /** Sum of all recorded values. */
+    public long getTotal() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /** The value at or below which the given fraction (0..1) of values fall. */
+    public long percentile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestIn(i), max);
+            }
+        }
+        return max;
+    }
+
+    // Values below SUB_BUCKETS get a bucket each; above that, the top
+    // SUB_BUCKET_BITS + 1 bits pick the bucket within the value's magnitude
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        if (magnitude > MAGNITUDES) {
+            return (MAGNITUDES + 1) * SUB_BUCKETS - 1;
+        }
+        int sub = (int) (value >>> (magnitude - 1)) - SUB_BUCKETS;
+        return magnitude * SUB_BUCKETS + sub;
+    }
+
+    private static long highestIn(int index) {
+        int magnitude = index / SUB_BUCKETS;
+        int sub = index % SUB_BUCKETS;
+        if (magnitude == 0) {
+            return sub;
+        }
+        return ((long) (sub + SUB_BUCKETS + 1) << (magnitude - 1)) - 1;
+    }
+}
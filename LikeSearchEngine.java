@@ -0,0 +1,44 @@
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * The original search: a leading-wildcard LIKE over four columns (see
+ * StudentRepository.findContaining). It cannot use an index, so every search
+ * scans the table. Kept as a fallback and as the baseline for SearchBenchmark.
+ */
+public class LikeSearchEngine implements StudentSearchEngine {
+    private final StudentRepository repository;
+
+    public LikeSearchEngine(StudentRepository repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public List<Student> search(String query, int limit) throws SQLException {
+        return repository.findContaining(query, limit);
+    }
+
+    @Override
+    public boolean matches(Student student, String query) {
+        String term = query.trim().toLowerCase();
+        return StudentSearchEngine.containsIgnoreCase(student.getName(), term)
+            || StudentSearchEngine.containsIgnoreCase(student.getEmail(), term)
+            || StudentSearchEngine.containsIgnoreCase(student.getCourse(), term)
+            || StudentSearchEngine.containsIgnoreCase(student.getPhone(), term);
+    }
+
+    @Override
+    public boolean narrows(String previous, String next) {
+        return next.trim().toLowerCase().contains(previous.trim().toLowerCase());
+    }
+
+    @Override
+    public boolean ordersById() {
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "like";
+    }
+}
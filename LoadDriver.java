@@ -0,0 +1,511 @@
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a mix of add, update, delete and search operations against the
+ * repository and search engine configured in db.properties, from several
+ * threads, and reports throughput and latency percentiles per operation.
+ *
+ * Each operation does what the enhanced UI does for it: add inserts a new
+ * student and indexes it, update reads a random student and saves it with
+ * a new phone number, delete removes a student this run added earlier (a
+ * thread with none does an add instead, so the seeded rows survive), and
+ * search runs the configured engine with a term drawn from the generator's
+ * names, courses and phone prefixes.
+ *
+ * By default each thread runs flat out (closed loop). With --rate the
+ * threads issue operations on a fixed schedule instead, and latency counts
+ * from when an operation was due, so a stall is charged to every operation
+ * it delayed rather than hidden by the threads slowing down.
+ *
+ * Usage: java LoadDriver [--threads n] [--seconds n] [--warmup n] [--rate ops/s]
+ *            [--mix add=10,update=30,delete=5,search=55] [--rows n] [--seed n] [--url server]
+ *
+ * --rows tops the data set up to that many students with StudentGenerator
+ * before the run starts.
+ *
+ * With --url the same mix goes to a StudentServer over HTTP instead (add is
+ * a POST, update a GET then a PUT with If-Match, and so on), and --rows
+ * tops up through its import endpoint. Every thread is one client with a
+ * keep-alive connection, so --threads 2000 means 2000 concurrent requests.
+ */
+public class LoadDriver {
+    enum Op { ADD, UPDATE, DELETE, SEARCH }
+
+    private static final String[] SEARCH_TERMS = buildSearchTerms();
+
+    private final StudentRepository repository;
+    private final StudentSearchEngine searchEngine;
+    // A StudentServer's base URL, or null to use the repository directly
+    private final String url;
+    private final Map<Op, Integer> mix;
+    private final int threads;
+    private final double rate;
+    private final long seed;
+    // Emails of added students embed this, so repeated runs do not collide
+    private final AtomicLong addSequence = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final AtomicLong completed = new AtomicLong();
+    private volatile boolean measuring;
+    private volatile boolean stopped;
+    private int maxId;
+
+    public LoadDriver(StudentRepository repository, StudentSearchEngine searchEngine, Map<Op, Integer> mix,
+                      int threads, double rate, long seed) {
+        this(repository, searchEngine, null, mix, threads, rate, seed);
+    }
+
+    /** Drives the StudentServer at url, e.g. http://localhost:8080. */
+    public LoadDriver(String url, Map<Op, Integer> mix, int threads, double rate, long seed) {
+        this(null, null, url, mix, threads, rate, seed);
+    }
+
+    private LoadDriver(StudentRepository repository, StudentSearchEngine searchEngine, String url,
+                       Map<Op, Integer> mix, int threads, double rate, long seed) {
+        this.repository = repository;
+        this.searchEngine = searchEngine;
+        this.url = url;
+        this.mix = mix;
+        this.threads = threads;
+        this.rate = rate;
+        this.seed = seed;
+    }
+
+    private static String[] buildSearchTerms() {
+        List<String> terms = new ArrayList<>();
+        for (String name : StudentGenerator.FIRST_NAMES) {
+            terms.add(name.toLowerCase());
+        }
+        for (String name : StudentGenerator.LAST_NAMES) {
+            terms.add(name.toLowerCase());
+            // An infix, as typed mid-word
+            terms.add(name.substring(1, Math.min(4, name.length())).toLowerCase());
+        }
+        for (String course : StudentGenerator.COURSES) {
+            terms.add(course.toLowerCase());
+        }
+        for (int prefix = 0; prefix < 10; prefix++) {
+            terms.add("5551" + prefix);
+        }
+        terms.add("nonexistent");
+        return terms.toArray(new String[0]);
+    }
+
+    /** Per-thread results, merged when the run ends. */
+    private static final class Results {
+        final Map<Op, LatencyHistogram> latencies = new LinkedHashMap<>();
+        final Map<Op, Long> errors = new LinkedHashMap<>();
+        Exception firstError;
+
+        Results() {
+            for (Op op : Op.values()) {
+                latencies.put(op, new LatencyHistogram());
+                errors.put(op, 0L);
+            }
+        }
+
+        void add(Results other) {
+            for (Op op : Op.values()) {
+                latencies.get(op).add(other.latencies.get(op));
+                errors.merge(op, other.errors.get(op), Long::sum);
+            }
+            if (firstError == null) {
+                firstError = other.firstError;
+            }
+        }
+    }
+
+    /** Runs warmupSeconds unmeasured, then seconds measured, printing progress every five seconds. */
+    public void run(int warmupSeconds, int seconds) throws Exception {
+        maxId = Math.max(1, url != null ? Integer.parseInt(stats(url).get("latestId"))
+            : repository.snapshot().latestId);
+        List<Results> results = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Results mine = new Results();
+            results.add(mine);
+            int index = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    work(index, mine);
+                } finally {
+                    done.countDown();
+                }
+            }, "load-driver-" + t);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+        workers.forEach(Thread::start);
+
+        if (warmupSeconds > 0) {
+            System.out.printf("Warming up for %d s...%n", warmupSeconds);
+            Thread.sleep(warmupSeconds * 1000L);
+        }
+        measuring = true;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long last = start;
+        long lastCompleted = 0;
+        for (long now = start; now < end; now = System.nanoTime()) {
+            TimeUnit.NANOSECONDS.sleep(Math.min(end - now, TimeUnit.SECONDS.toNanos(5)));
+            long time = System.nanoTime();
+            long count = completed.get();
+            System.out.printf("%4d s  %,10.0f ops/s%n", TimeUnit.NANOSECONDS.toSeconds(time - start),
+                (count - lastCompleted) * 1e9 / (time - last));
+            last = time;
+            lastCompleted = count;
+        }
+        stopped = true;
+        double measuredSeconds = (System.nanoTime() - start) / 1e9;
+        done.await();
+
+        Results total = new Results();
+        for (Results r : results) {
+            total.add(r);
+        }
+        report(total, measuredSeconds);
+    }
+
+    private void work(int index, Results results) {
+        Random random = new Random(seed + index);
+        StudentGenerator generator = new StudentGenerator(seed + index);
+        ArrayDeque<Integer> added = new ArrayDeque<>();
+        int totalWeight = 0;
+        for (int weight : mix.values()) {
+            totalWeight += weight;
+        }
+        // Open loop: every thread owes one operation each threads/rate seconds
+        long interval = rate > 0 ? (long) (1e9 * threads / rate) : 0;
+        long due = System.nanoTime();
+
+        while (!stopped) {
+            if (interval > 0) {
+                due += interval;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            Op op = pick(random, totalWeight);
+            if (op == Op.DELETE && added.isEmpty()) {
+                op = Op.ADD;
+            }
+            long begin = interval > 0 ? due : System.nanoTime();
+            boolean recording = measuring;
+            try {
+                execute(op, random, generator, added);
+            } catch (Exception e) {
+                if (recording) {
+                    results.errors.merge(op, 1L, Long::sum);
+                    if (results.firstError == null) {
+                        results.firstError = e;
+                    }
+                }
+                continue;
+            }
+            if (recording) {
+                results.latencies.get(op).record(System.nanoTime() - begin);
+                completed.incrementAndGet();
+            }
+        }
+    }
+
+    private Op pick(Random random, int totalWeight) {
+        int r = random.nextInt(totalWeight);
+        for (Map.Entry<Op, Integer> entry : mix.entrySet()) {
+            r -= entry.getValue();
+            if (r < 0) {
+                return entry.getKey();
+            }
+        }
+        return Op.SEARCH;
+    }
+
+    private void execute(Op op, Random random, StudentGenerator generator, ArrayDeque<Integer> added)
+            throws Exception {
+        if (url != null) {
+            executeHttp(op, random, generator, added);
+            return;
+        }
+        switch (op) {
+            case ADD: {
+                Student saved = repository.insert(generator.student(addSequence.incrementAndGet()));
+                searchEngine.studentSaved(saved);
+                added.add(saved.getId());
+                break;
+            }
+            case UPDATE: {
+                Student student = repository.findById(1 + random.nextInt(maxId));
+                if (student != null) {
+                    Student changed = new Student(student.getId(), student.getName(), student.getEmail(),
+                        String.format("555%07d", random.nextInt(10_000_000)), student.getCourse());
+                    if (repository.update(changed)) {
+                        searchEngine.studentSaved(changed);
+                    }
+                }
+                break;
+            }
+            case DELETE: {
+                int id = added.poll();
+                if (repository.delete(id)) {
+                    searchEngine.studentRemoved(id);
+                }
+                break;
+            }
+            default:
+                searchEngine.search(SEARCH_TERMS[random.nextInt(SEARCH_TERMS.length)],
+                    StudentSearchEngine.DEFAULT_LIMIT);
+        }
+    }
+
+    private void executeHttp(Op op, Random random, StudentGenerator generator, ArrayDeque<Integer> added)
+            throws IOException {
+        switch (op) {
+            case ADD: {
+                Student student = generator.student(addSequence.incrementAndGet());
+                Response response = request("POST", url + "/students", null, toJson(student), 201);
+                String location = response.connection.getHeaderField("Location");
+                added.add(Integer.parseInt(location.substring(location.lastIndexOf('/') + 1)));
+                break;
+            }
+            case UPDATE: {
+                String resource = url + "/students/" + (1 + random.nextInt(maxId));
+                Response current = request("GET", resource, null, null, 200, 404);
+                if (current.status == 200) {
+                    Map<String, String> fields = Json.parseObject(current.body);
+                    Student changed = new Student(0, fields.get("name"), fields.get("email"),
+                        String.format("555%07d", random.nextInt(10_000_000)), fields.get("course"));
+                    // 412: someone else changed it first, which the UI would report too
+                    request("PUT", resource, current.connection.getHeaderField("ETag"), toJson(changed),
+                        200, 404, 412);
+                }
+                break;
+            }
+            case DELETE:
+                request("DELETE", url + "/students/" + added.poll(), null, null, 204, 404);
+                break;
+            default:
+                request("GET", url + "/students?limit=" + StudentSearchEngine.DEFAULT_LIMIT + "&q="
+                    + URLEncoder.encode(SEARCH_TERMS[random.nextInt(SEARCH_TERMS.length)], "UTF-8"),
+                    null, null, 200);
+        }
+    }
+
+    private static final class Response {
+        final HttpURLConnection connection;
+        final int status;
+        final String body;
+
+        Response(HttpURLConnection connection, int status, String body) {
+            this.connection = connection;
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    // Reads the whole response so the connection can be reused; fails unless
+    // the status is one of expected
+    private static Response request(String method, String target, String ifMatch, String body, int... expected)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(target).openConnection();
+        connection.setRequestMethod(method);
+        if (ifMatch != null) {
+            connection.setRequestProperty("If-Match", ifMatch);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        if (in != null) {
+            try (InputStream stream = in) {
+                byte[] buffer = new byte[8192];
+                for (int n; (n = stream.read(buffer)) > 0; ) {
+                    content.write(buffer, 0, n);
+                }
+            }
+        }
+        String text = new String(content.toByteArray(), StandardCharsets.UTF_8);
+        for (int ok : expected) {
+            if (status == ok) {
+                return new Response(connection, status, text);
+            }
+        }
+        throw new IOException(method + " " + target + ": HTTP " + status + " " + text.trim());
+    }
+
+    private static String toJson(Student student) {
+        StringBuilder sb = new StringBuilder("{\"name\":");
+        Json.appendQuoted(sb, student.getName());
+        sb.append(",\"email\":");
+        Json.appendQuoted(sb, student.getEmail());
+        sb.append(",\"phone\":");
+        Json.appendQuoted(sb, student.getPhone());
+        sb.append(",\"course\":");
+        Json.appendQuoted(sb, student.getCourse());
+        return sb.append('}').toString();
+    }
+
+    private static Map<String, String> stats(String url) throws IOException {
+        return Json.parseObject(request("GET", url + "/stats", null, null, 200).body);
+    }
+
+    // Generates the missing students into a CSV file and posts it to the server's import endpoint
+    private static void topUp(String url, long rows, long seed) throws Exception {
+        long existing = Long.parseLong(stats(url).get("count"));
+        if (existing >= rows) {
+            return;
+        }
+        System.out.printf("Importing %,d generated students...%n", rows - existing);
+        Path file = Files.createTempFile("load-driver", ".csv");
+        try {
+            new StudentGenerator(seed).write(file, StudentExporter.Format.CSV, false, existing + 1,
+                rows - existing, null);
+            HttpURLConnection connection = (HttpURLConnection) new URL(url + "/students/import").openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(1 << 16);
+            connection.setRequestProperty("Content-Type", "text/csv");
+            try (OutputStream out = connection.getOutputStream()) {
+                Files.copy(file, out);
+            }
+            if (connection.getResponseCode() != 200) {
+                throw new IOException("Import failed: HTTP " + connection.getResponseCode());
+            }
+            connection.getInputStream().close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void report(Results total, double seconds) {
+        System.out.printf("%n%-8s %10s %10s %10s %10s %10s %10s %10s %8s%n",
+            "op", "count", "ops/s", "mean ms", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors");
+        LatencyHistogram all = new LatencyHistogram();
+        long errors = 0;
+        for (Op op : Op.values()) {
+            LatencyHistogram h = total.latencies.get(op);
+            all.add(h);
+            errors += total.errors.get(op);
+            printRow(op.name().toLowerCase(), h, total.errors.get(op), seconds);
+        }
+        printRow("total", all, errors, seconds);
+        if (total.firstError != null) {
+            System.out.println("\nFirst error: " + total.firstError);
+        }
+    }
+
+    private static void printRow(String name, LatencyHistogram h, long errors, double seconds) {
+        System.out.printf("%-8s %,10d %,10.0f %10.3f %10.3f %10.3f %10.3f %10.3f %8d%n", name, h.getCount(),
+            h.getCount() / seconds, h.getMean() / 1e6, h.percentile(0.50) / 1e6, h.percentile(0.99) / 1e6,
+            h.percentile(0.999) / 1e6, h.getMax() / 1e6, errors);
+    }
+
+    /** Parses "add=10,update=30,..." into weights, in Op order. */
+    static Map<Op, Integer> parseMix(String spec) {
+        Map<Op, Integer> weights = new LinkedHashMap<>();
+        for (Op op : Op.values()) {
+            weights.put(op, 0);
+        }
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=");
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Bad --mix entry: " + part);
+            }
+            weights.put(Op.valueOf(kv[0].trim().toUpperCase()), Integer.parseInt(kv[1].trim()));
+        }
+        if (weights.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("--mix needs a positive weight");
+        }
+        return weights;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = 8;
+        int seconds = 60;
+        int warmup = 10;
+        double rate = 0;
+        String mix = "add=10,update=30,delete=5,search=55";
+        long rows = 100_000;
+        long seed = 42;
+        String url = null;
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                System.err.println("Missing value for " + args[i]);
+                System.exit(2);
+            }
+            switch (args[i]) {
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--rate": rate = Double.parseDouble(args[++i]); break;
+                case "--mix": mix = args[++i]; break;
+                case "--rows": rows = Long.parseLong(args[++i].replace("_", "")); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--url": url = args[++i].replaceAll("/+$", ""); break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        if (url != null) {
+            // One keep-alive connection per thread
+            System.setProperty("http.maxConnections", String.valueOf(threads));
+            topUp(url, rows, seed);
+            Map<String, String> stats = stats(url);
+            System.out.printf("%s (%s backend, %s search), %s students, %d threads, mix %s%s%n", url,
+                stats.get("backend"), stats.get("search"), stats.get("count"), threads, mix,
+                rate > 0 ? String.format(", %,.0f ops/s", rate) : "");
+            new LoadDriver(url, parseMix(mix), threads, rate, seed).run(warmup, seconds);
+            return;
+        }
+
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream("db.properties")) {
+            props.load(in);
+        } catch (IOException e) {
+            System.err.println("Warning: db.properties not found, using default values");
+        }
+        try (StudentRepository repository = StudentRepository.fromProperties(props)) {
+            repository.initialize();
+            int existing = repository.count();
+            if (existing < rows) {
+                System.out.printf("Adding %,d generated students...%n", rows - existing);
+                new StudentGenerator(seed).insert(repository, existing + 1, rows - existing,
+                    Math.max(1, Math.min(threads, repository.getMaxConcurrency())), 1000, null);
+            }
+            StudentSearchEngine searchEngine = StudentSearchEngine.fromProperties(props, repository);
+            searchEngine.initialize();
+            System.out.printf("%s backend, %s search, %,d students, %d threads, mix %s%s%n",
+                repository.getName(), searchEngine.getName(), repository.count(), threads, mix,
+                rate > 0 ? String.format(", %,.0f ops/s", rate) : "");
+            new LoadDriver(repository, searchEngine, parseMix(mix), threads, rate, seed).run(warmup, seconds);
+        }
+    }
+}
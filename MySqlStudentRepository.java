@@ -0,0 +1,558 @@
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The students table in MySQL. Every statement borrows a pooled connection
+ * and registers itself with AsyncDataAccess, so a superseded background job
+ * can cancel it on the server.
+ */
+public class MySqlStudentRepository implements StudentRepository {
+    private static final String SELECT = "SELECT " + Student.COLUMNS + " FROM students ";
+    private static final String INSERT = "INSERT INTO students (name, email, phone, course) VALUES (?, ?, ?, ?)";
+    private static final String RESTORE = "INSERT INTO students (name, email, phone, course, id) VALUES (?, ?, ?, ?, ?)";
+    // A row copied from elsewhere keeps its version; a new one gets the current time
+    private static final String RESTORE_VERSIONED = "INSERT INTO students " +
+        "(name, email, phone, course, id, updated_at) VALUES (?, ?, ?, ?, ?, COALESCE(?, CURRENT_TIMESTAMP))";
+    // A null expected version matches any row: updated_at <=> updated_at
+    private static final String UPDATE = "UPDATE students SET name=?, email=?, phone=?, course=?, updated_at=? " +
+        "WHERE id=? AND updated_at <=> COALESCE(?, updated_at)";
+    private static final String DELETE = "DELETE FROM students WHERE id=?";
+    private static final String DELETE_VERSIONED = "DELETE FROM students " +
+        "WHERE id=? AND updated_at <=> COALESCE(?, updated_at)";
+    private static final String CONTAINING = SELECT +
+        "WHERE name LIKE ? OR email LIKE ? OR course LIKE ? OR phone LIKE ? ORDER BY id LIMIT ?";
+
+    // Connections opened alongside the schema check at startup
+    private static final int STARTUP_CONNECTIONS = 3;
+
+    private final ConnectionPool pool;
+    private final int fetchSize;
+    private final SchemaMigrator migrator;
+    private final List<SchemaMigrator.Migration> migrations;
+
+    /**
+     * fetchSize is the rows per round trip for forEach() when the pool's URL
+     * enables useCursorFetch; otherwise forEach() streams rows one at a time.
+     */
+    public MySqlStudentRepository(ConnectionPool pool, int fetchSize) {
+        this(pool, fetchSize, new SchemaMigrator());
+    }
+
+    MySqlStudentRepository(ConnectionPool pool, int fetchSize, SchemaMigrator migrator) {
+        this(pool, fetchSize, migrator, SchemaMigrations.all());
+    }
+
+    /** migrations is the set initialize() applies, e.g. SchemaMigrations.directory(). */
+    MySqlStudentRepository(ConnectionPool pool, int fetchSize, SchemaMigrator migrator,
+                           List<SchemaMigrator.Migration> migrations) {
+        this.pool = pool;
+        this.fetchSize = fetchSize;
+        this.migrator = migrator;
+        this.migrations = migrations;
+    }
+
+    /** Applies any pending schema migrations (see SchemaMigrations). */
+    @Override
+    public void initialize() throws SQLException {
+        // The reads that follow startup (row count, first page, course
+        // counts, search index) find their connections already open
+        Thread prefill = new Thread(() -> pool.prefill(STARTUP_CONNECTIONS), "connection-pool-prefill");
+        prefill.setDaemon(true);
+        prefill.start();
+        try (Connection conn = pool.getConnection()) {
+            migrator.migrate(conn, migrations);
+            SchemaMigrations.purgeTombstones(conn);
+        }
+    }
+
+    @Override
+    public Student insert(Student student) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(INSERT, Statement.RETURN_GENERATED_KEYS)) {
+            bind(pstmt, student);
+            pstmt.executeUpdate();
+            try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    throw new SQLException("No id generated for " + student);
+                }
+                return student.withId(keys.getInt(1));
+            }
+        }
+    }
+
+    @Override
+    public List<Student> insertAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        List<Student> inserted = new ArrayList<>(students.size());
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(INSERT, Statement.RETURN_GENERATED_KEYS)) {
+            conn.setAutoCommit(false);
+            try {
+                for (int i = 0; i < students.size(); i++) {
+                    bind(pstmt, students.get(i));
+                    pstmt.addBatch();
+                    if ((i + 1) % batchSize == 0 || i == students.size() - 1) {
+                        pstmt.executeBatch();
+                        collectKeys(pstmt, students, inserted);
+                    }
+                }
+                conn.commit();
+            } catch (BatchUpdateException e) {
+                // Some row broke a constraint (most likely a duplicate email);
+                // a rewritten multi-row INSERT fails as a whole, so redo the
+                // rows one at a time and reject only the offenders.
+                conn.rollback();
+                pstmt.clearBatch();
+                inserted.clear();
+                insertRowByRow(conn, pstmt, students, inserted, rejected);
+            }
+        }
+        return inserted;
+    }
+
+    private static void insertRowByRow(Connection conn, PreparedStatement pstmt, List<Student> students,
+                                       List<Student> inserted, RejectHandler rejected)
+            throws SQLException, IOException {
+        for (int i = 0; i < students.size(); i++) {
+            try {
+                bind(pstmt, students.get(i));
+                pstmt.executeUpdate();
+                try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        inserted.add(students.get(i).withId(keys.getInt(1)));
+                    }
+                }
+            } catch (SQLException e) {
+                if (!isRowError(e)) {
+                    conn.rollback();
+                    throw e;
+                }
+                // InnoDB rolls back only the failed statement; the rest goes on
+                rejected.rejected(i, e);
+            }
+        }
+        conn.commit();
+    }
+
+    private static void collectKeys(PreparedStatement pstmt, List<Student> students, List<Student> inserted)
+            throws SQLException {
+        try (ResultSet keys = pstmt.getGeneratedKeys()) {
+            while (keys.next() && inserted.size() < students.size()) {
+                inserted.add(students.get(inserted.size()).withId(keys.getInt(1)));
+            }
+        }
+    }
+
+    // Errors caused by the row's data rather than by the connection or server
+    static boolean isRowError(SQLException e) {
+        switch (e.getErrorCode()) {
+            case 1062: // duplicate entry
+            case 1048: // column cannot be null
+            case 1406: // data too long
+            case 1366: // incorrect string value
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public boolean update(Student student) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(UPDATE)) {
+            bindUpdate(pstmt, student, StudentRepository.nextVersion(student.getUpdatedAt()));
+            return pstmt.executeUpdate() > 0;
+        }
+    }
+
+    @Override
+    public List<Student> updateAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        long[] versions = new long[students.size()];
+        for (int i = 0; i < versions.length; i++) {
+            versions[i] = StudentRepository.nextVersion(students.get(i).getUpdatedAt());
+        }
+        boolean[] applied = applyAll(UPDATE, students, batchSize,
+            (pstmt, i) -> bindUpdate(pstmt, students.get(i), versions[i]), rejected);
+        List<Student> updated = new ArrayList<>(students.size());
+        for (int i = 0; i < students.size(); i++) {
+            if (applied[i]) {
+                updated.add(students.get(i).withUpdatedAt(versions[i]));
+            }
+        }
+        return updated;
+    }
+
+    @Override
+    public int deleteAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        boolean[] applied = applyAll(DELETE_VERSIONED, students, batchSize, (pstmt, i) -> {
+            pstmt.setInt(1, students.get(i).getId());
+            pstmt.setTimestamp(2, version(students.get(i).getUpdatedAt()));
+        }, rejected);
+        int deleted = 0;
+        for (boolean b : applied) {
+            if (b) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Inserts students under the ids and versions they carry (the current
+     * time if none), as one transaction, batchSize rows per round trip;
+     * rows that break a constraint (a taken id or email) are passed to
+     * rejected. For ShardedStudentRepository, which hands out the ids.
+     * Returns which rows were inserted.
+     */
+    boolean[] restoreAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        return applyAll(RESTORE_VERSIONED, students, batchSize, (pstmt, i) -> {
+            bind(pstmt, students.get(i));
+            pstmt.setInt(5, students.get(i).getId());
+            pstmt.setTimestamp(6, version(students.get(i).getUpdatedAt()));
+        }, rejected);
+    }
+
+    // Binds the parameters for students.get(index)
+    private interface Binder {
+        void bind(PreparedStatement pstmt, int index) throws SQLException;
+    }
+
+    // Runs one statement per student as batches in a single transaction. A
+    // row count of 0 means the row was missing or stale. Rejections are
+    // reported only once the transaction has committed.
+    private boolean[] applyAll(String sql, List<Student> students, int batchSize, Binder binder,
+                               RejectHandler rejected) throws SQLException, IOException {
+        boolean[] applied = new boolean[students.size()];
+        List<Integer> failedRows = new ArrayList<>();
+        List<SQLException> failures = new ArrayList<>();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            conn.setAutoCommit(false);
+            try {
+                int start = 0;
+                for (int i = 0; i < students.size(); i++) {
+                    binder.bind(pstmt, i);
+                    pstmt.addBatch();
+                    if ((i + 1) % batchSize == 0 || i == students.size() - 1) {
+                        int[] counts = pstmt.executeBatch();
+                        for (int j = 0; j < counts.length; j++) {
+                            applied[start + j] = counts[j] != 0;
+                        }
+                        start = i + 1;
+                    }
+                }
+                conn.commit();
+            } catch (BatchUpdateException e) {
+                // Redo one row at a time to find the rows that broke a constraint
+                conn.rollback();
+                pstmt.clearBatch();
+                for (int i = 0; i < students.size(); i++) {
+                    try {
+                        binder.bind(pstmt, i);
+                        applied[i] = pstmt.executeUpdate() != 0;
+                    } catch (SQLException rowError) {
+                        if (!isRowError(rowError)) {
+                            conn.rollback();
+                            throw rowError;
+                        }
+                        applied[i] = false;
+                        failedRows.add(i);
+                        failures.add(rowError);
+                    }
+                }
+                conn.commit();
+            }
+        }
+
+        for (int i = 0, f = 0; i < students.size(); i++) {
+            if (f < failedRows.size() && failedRows.get(f) == i) {
+                rejected.rejected(i, failures.get(f++));
+            } else if (!applied[i]) {
+                rejected.rejected(i, new StaleWriteException(students.get(i).getId()));
+            }
+        }
+        return applied;
+    }
+
+    @Override
+    public boolean delete(int id) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(DELETE)) {
+            pstmt.setInt(1, id);
+            return pstmt.executeUpdate() > 0;
+        }
+    }
+
+    @Override
+    public Student restore(Student student) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(RESTORE)) {
+            bind(pstmt, student);
+            pstmt.setInt(5, student.getId());
+            pstmt.executeUpdate();
+            return student.withUpdatedAt(0);
+        }
+    }
+
+    @Override
+    public Student findById(int id) throws SQLException {
+        List<Student> rows = query(SELECT + "WHERE id = ?", id);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    @Override
+    public Student findByEmail(String email) throws SQLException {
+        // The column's collation is case-insensitive, as is the UNIQUE index
+        List<Student> rows = query(SELECT + "WHERE email = ?", email);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    @Override
+    public List<Student> findByCourse(String course, int limit) throws SQLException {
+        return query(SELECT + "WHERE course = ? ORDER BY id LIMIT ?", course, limit);
+    }
+
+    @Override
+    public List<Student> findContaining(String text, int limit) throws SQLException {
+        String pattern = "%" + escapeLike(text.trim()) + "%";
+        return query(CONTAINING, pattern, pattern, pattern, pattern, limit);
+    }
+
+    // Treat % and _ typed by the user literally
+    private static String escapeLike(String term) {
+        return term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    @Override
+    public List<Student> findAfter(int afterId, int limit) throws SQLException {
+        return query(SELECT + "WHERE id > ? ORDER BY id LIMIT ?", afterId, limit);
+    }
+
+    @Override
+    public List<Student> findPage(int offset, int limit) throws SQLException {
+        if (offset == 0) {
+            return query(SELECT + "ORDER BY id LIMIT ?", limit);
+        }
+        // Find the page's first id by walking the primary key only, then
+        // read the page itself by key
+        return query(SELECT + "WHERE id >= (SELECT id FROM students ORDER BY id LIMIT 1 OFFSET ?) " +
+            "ORDER BY id LIMIT ?", offset, limit);
+    }
+
+    @Override
+    public int count() throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT COUNT(*) FROM students")) {
+            AsyncDataAccess.track(pstmt);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    @Override
+    public void forEach(RowHandler handler) throws SQLException, IOException {
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            AsyncDataAccess.track(stmt);
+            // Without useCursorFetch, Integer.MIN_VALUE is Connector/J's signal
+            // to stream rows instead of reading the whole result into memory
+            stmt.setFetchSize(pool.getUrl().contains("useCursorFetch=true") ? fetchSize : Integer.MIN_VALUE);
+            try (ResultSet rs = stmt.executeQuery(SELECT + "ORDER BY id")) {
+                while (rs.next()) {
+                    handler.row(Student.fromResultSet(rs));
+                }
+            }
+        }
+    }
+
+    // One statement, so every figure comes from the same consistent read
+    @Override
+    public StudentChanges snapshot() throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT COUNT(*), COALESCE(MAX(id), 0), " +
+                 "MAX(updated_at), (" + DELETION_MARK + ") FROM students")) {
+            AsyncDataAccess.track(pstmt);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                Timestamp latest = rs.getTimestamp(3);
+                return StudentChanges.marks(rs.getInt(1), rs.getInt(2),
+                    latest != null ? latest.getTime() : 0, rs.getLong(4));
+            }
+        }
+    }
+
+    @Override
+    public StudentChanges changesSince(long sinceVersion, long afterDeletion, int limit) throws SQLException {
+        // Both reads walk an index: the tombstone key and idx_students_updated_at.
+        // One row more than the limit is read to tell whether there were more.
+        // Tombstones first: a row deleted between the two reads is then
+        // missing from changed rather than reported changed but not deleted.
+        List<long[]> deletions = deletionsAfter(pool, afterDeletion, limit);
+        boolean truncated = deletions.size() > limit;
+        if (truncated) {
+            deletions.remove(limit);
+        }
+        int[] deletedIds = new int[deletions.size()];
+        long[] deletionSeqs = new long[deletions.size()];
+        for (int i = 0; i < deletedIds.length; i++) {
+            deletionSeqs[i] = deletions.get(i)[0];
+            deletedIds[i] = (int) deletions.get(i)[1];
+        }
+
+        List<Student> changed = new ArrayList<>();
+        Map<Integer, Long> createdVersions = new HashMap<>();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT " + Student.COLUMNS + ", created_at " +
+                 "FROM students WHERE updated_at >= ? ORDER BY updated_at LIMIT ?")) {
+            AsyncDataAccess.track(pstmt);
+            pstmt.setTimestamp(1, new Timestamp(sinceVersion));
+            pstmt.setInt(2, limit + 1);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Student student = Student.fromResultSet(rs);
+                    changed.add(student);
+                    Timestamp created = rs.getTimestamp(7);
+                    if (created != null) {
+                        createdVersions.put(student.getId(), created.getTime());
+                    }
+                }
+            }
+        }
+        if (changed.size() > limit) {
+            truncated = true;
+            changed.remove(limit);
+        }
+        long latestVersion = sinceVersion;
+        for (Student student : changed) {
+            latestVersion = Math.max(latestVersion, student.getUpdatedAt());
+        }
+        changed.sort(Comparator.comparingInt(Student::getId));
+        return new StudentChanges(changed, createdVersions, deletedIds, deletionSeqs, truncated, -1, -1,
+            latestVersion, deletionSeqs.length > 0 ? deletionSeqs[deletionSeqs.length - 1] : afterDeletion);
+    }
+
+    /**
+     * A tombstone's seq is taken when the delete trigger runs, inside the
+     * deleting transaction, so deletes can commit out of seq order: a gap
+     * is a delete not committed yet, or one rolled back. Gaps are waited
+     * for this long (after the tombstone that follows them) before they are
+     * taken to be rollbacks and passed over.
+     */
+    static final int DELETION_COMMIT_SECONDS = 10;
+
+    /**
+     * The deletion cursor snapshot() gives: the highest seq, but no later
+     * than the oldest tombstone a gap may still be waiting below.
+     */
+    static final String DELETION_MARK = "SELECT COALESCE(" +
+        "(SELECT MIN(seq) - 1 FROM student_deletions " +
+        "WHERE deleted_at > NOW() - INTERVAL " + DELETION_COMMIT_SECONDS + " SECOND), " +
+        "(SELECT MAX(seq) FROM student_deletions), 0)";
+
+    /**
+     * Up to limit + 1 tombstones after afterDeletion, as (seq, student id)
+     * in seq order, stopping at a gap in seq until it is
+     * DELETION_COMMIT_SECONDS old, so the cursor never passes a delete that
+     * may still commit.
+     */
+    static List<long[]> deletionsAfter(ConnectionPool pool, long afterDeletion, int limit) throws SQLException {
+        List<long[]> deletions = new ArrayList<>();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT seq, student_id, " +
+                 "deleted_at > NOW() - INTERVAL " + DELETION_COMMIT_SECONDS + " SECOND " +
+                 "FROM student_deletions WHERE seq > ? ORDER BY seq LIMIT ?")) {
+            AsyncDataAccess.track(pstmt);
+            pstmt.setLong(1, afterDeletion);
+            pstmt.setInt(2, limit + 1);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                long expected = afterDeletion + 1;
+                while (rs.next()) {
+                    long seq = rs.getLong(1);
+                    if (seq != expected && rs.getBoolean(3)) {
+                        break;
+                    }
+                    deletions.add(new long[] {seq, rs.getInt(2)});
+                    expected = seq + 1;
+                }
+            }
+        }
+        return deletions;
+    }
+
+    // One row per course, with the count the triggers keep
+    @Override
+    public CourseStatistics courseStatistics() throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(
+                 "SELECT name, student_count FROM courses WHERE student_count > 0")) {
+            AsyncDataAccess.track(pstmt);
+            List<CourseStatistics.Course> counts = new ArrayList<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    counts.add(new CourseStatistics.Course(rs.getString(1), rs.getInt(2)));
+                }
+            }
+            return new CourseStatistics(counts);
+        }
+    }
+
+    private List<Student> query(String sql, Object... params) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            AsyncDataAccess.track(pstmt);
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setObject(i + 1, params[i]);
+            }
+            List<Student> rows = new ArrayList<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(Student.fromResultSet(rs));
+                }
+            }
+            return rows;
+        }
+    }
+
+    private static void bind(PreparedStatement pstmt, Student student) throws SQLException {
+        pstmt.setString(1, student.getName());
+        pstmt.setString(2, student.getEmail());
+        pstmt.setString(3, student.getPhone());
+        pstmt.setString(4, student.getCourse());
+    }
+
+    private static void bindUpdate(PreparedStatement pstmt, Student student, long newVersion) throws SQLException {
+        bind(pstmt, student);
+        pstmt.setTimestamp(5, new Timestamp(newVersion));
+        pstmt.setInt(6, student.getId());
+        pstmt.setTimestamp(7, version(student.getUpdatedAt()));
+    }
+
+    private static Timestamp version(long updatedAt) {
+        return updatedAt == 0 ? null : new Timestamp(updatedAt);
+    }
+
+    @Override
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    @Override
+    public String getName() {
+        return "mysql";
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Latencies and failures of one kind of operation, e.g. "insert" or
+ * "search". Recording takes a short lock and allocates nothing.
+ */
+public class OperationTimer implements OperationTimerMXBean {
+    private final String name;
+    private final StudentMetrics metrics;
+    // Guarded by this
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LatencyHistogram window = new LatencyHistogram();
+    private long errors;
+    private long windowErrors;
+
+    OperationTimer(String name, StudentMetrics metrics) {
+        this.name = name;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Records an operation that began at start (a System.nanoTime() value).
+     * detail says what it worked on (an id, a search term) and is only
+     * turned into text if the operation was slow.
+     */
+    public void record(long start, boolean succeeded, Object detail) {
+        long nanos = System.nanoTime() - start;
+        synchronized (this) {
+            if (succeeded) {
+                latencies.record(nanos);
+                window.record(nanos);
+            } else {
+                errors++;
+                windowErrors++;
+            }
+        }
+        if (nanos >= metrics.getSlowNanos()) {
+            metrics.slowOperation(name, nanos, succeeded, detail);
+        }
+    }
+
+    /** Adds what was recorded since the last call to into, and starts over. Returns the errors. */
+    synchronized long drainWindow(LatencyHistogram into) {
+        into.add(window);
+        window.reset();
+        long drained = windowErrors;
+        windowErrors = 0;
+        return drained;
+    }
+
+    /** A copy of the latencies since startup. */
+    synchronized LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.add(latencies);
+        return copy;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public synchronized long getCount() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public synchronized long getErrorCount() {
+        return errors;
+    }
+
+    @Override
+    public synchronized double getMeanMillis() {
+        return latencies.getMean() / 1e6;
+    }
+
+    @Override
+    public synchronized double getP50Millis() {
+        return latencies.percentile(0.50) / 1e6;
+    }
+
+    @Override
+    public synchronized double getP99Millis() {
+        return latencies.percentile(0.99) / 1e6;
+    }
+
+    @Override
+    public synchronized double getP999Millis() {
+        return latencies.percentile(0.999) / 1e6;
+    }
+
+    @Override
+    public synchronized double getMaxMillis() {
+        return latencies.getMax() / 1e6;
+    }
+}
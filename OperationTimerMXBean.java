@@ -0,0 +1,22 @@
+/**
+ * One kind of operation as JMX sees it, registered as
+ * StudentManagementSystem:type=Operation,name=&lt;operation&gt;. Latencies
+ * cover successful calls since startup.
+ */
+public interface OperationTimerMXBean {
+    String getName();
+
+    long getCount();
+
+    long getErrorCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+}
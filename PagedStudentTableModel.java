@@ -0,0 +1,364 @@
+import javax.swing.table.AbstractTableModel;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * A table model over the whole students table that only holds the pages the
+ * user has scrolled to.
+ *
+ * The model knows the total row count up front and loads fixed-size pages in
+ * the background as JTable asks for their cells. Pages are read with keyset
+ * pagination on id (WHERE id > last id of the previous page) whenever the
+ * previous page boundary is known, kept in a small LRU, and the page after
+ * the one being viewed is prefetched.
+ *
+ * Each page is held as a StudentColumns store, with the course names of
+ * every page in one shared dictionary, so a cached page takes a fraction
+ * of the heap of the List<Student> it was read as.
+ *
+ * Changes reported by a StudentChangeFeed are applied in place with
+ * applyChanges(): updated rows are replaced on their page, and a new or
+ * deleted row drops the pages from its own onward, since every row after
+ * it moves down or up by one. New rows usually have the highest id and go
+ * at the end, but a restored student, or one added under a sharded id
+ * from an older block, goes in at its place in id order.
+ */
+public class PagedStudentTableModel extends AbstractTableModel {
+    public static final int PAGE_SIZE = 200;
+    private static final int MAX_CACHED_PAGES = 50;
+    // Requests this far from the latest one are skipped, so a fast scrollbar
+    // drag does not leave a queue of pages nobody will look at
+    private static final int STALE_PAGE_DISTANCE = 3;
+
+    private static final String[] COLUMNS = {"ID", "Name", "Email", "Phone", "Course"};
+
+    private final StudentRepository repository;
+    private final AsyncDataAccess dataAccess;
+    // Shared by every page; encode() is thread-safe, as pages are built off the EDT
+    private final StringDictionary courses = new StringDictionary();
+
+    // All fields below are only touched on the EDT
+    private final Map<Integer, StudentColumns> pages = new LinkedHashMap<Integer, StudentColumns>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, StudentColumns> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+    // Last id on each page seen so far; this outlives the LRU so that scrolling
+    // back to an evicted page can still use a keyset seek
+    private final Map<Integer, Integer> lastIds = new HashMap<>();
+    private final Set<Integer> loading = new HashSet<>();
+    private int rowCount;
+    private int generation;
+    // From the snapshot the row count came from: rows with larger ids, or
+    // created after syncVersion, are new, and deletions up to deletionMark
+    // are already counted out
+    private boolean synced;
+    private int maxKnownId;
+    private long syncVersion;
+    private long deletionMark;
+    // Rows counted in since, so a row delivered again is not counted twice
+    private final Set<Integer> added = new HashSet<>();
+    private volatile int latestRequestedPage;
+
+    public PagedStudentTableModel(StudentRepository repository, AsyncDataAccess dataAccess) {
+        this.repository = repository;
+        this.dataAccess = dataAccess;
+    }
+
+    /**
+     * Drops every cached page and re-reads the row count. The count is
+     * reported to onCount once known.
+     */
+    public void reload(IntConsumer onCount, Consumer<Exception> onFailure) {
+        int reloadGeneration = ++generation;
+        pages.clear();
+        lastIds.clear();
+        loading.clear();
+        added.clear();
+        synced = false;
+
+        dataAccess.submit("table", "Loading students", repository::snapshot, snapshot -> {
+            if (reloadGeneration != generation) {
+                return;
+            }
+            int count = snapshot.rowCount;
+            rowCount = count;
+            maxKnownId = snapshot.latestId;
+            syncVersion = snapshot.latestVersion;
+            deletionMark = snapshot.latestDeletion;
+            synced = true;
+            fireTableDataChanged();
+            if (count > 0) {
+                requestPage(0);
+            }
+            onCount.accept(count);
+        }, onFailure);
+    }
+
+    /** The student on the given row, or null if its page has not arrived yet. */
+    public Student getStudentAt(int row) {
+        StudentColumns page = pages.get(row / PAGE_SIZE);
+        int offset = row % PAGE_SIZE;
+        if (page == null) {
+            requestPage(row / PAGE_SIZE);
+            return null;
+        }
+        return offset < page.size() ? page.get(offset) : null;
+    }
+
+    /**
+     * Replaces a student on any loaded page, so an edit shows without a
+     * reload. Returns false if the student is not on a loaded page.
+     */
+    public boolean studentUpdated(Student student) {
+        for (Map.Entry<Integer, StudentColumns> entry : pages.entrySet()) {
+            StudentColumns page = entry.getValue();
+            for (int i = 0; i < page.size(); i++) {
+                if (page.getId(i) == student.getId()) {
+                    page.set(i, student);
+                    int row = entry.getKey() * PAGE_SIZE + i;
+                    fireTableRowsUpdated(row, row);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies inserts, updates and deletions from the change feed. Changes
+     * that arrive before the first page count has loaded are dropped, as
+     * that count already includes them. Truncated changes are not handled
+     * here; reload() instead.
+     */
+    public void applyChanges(StudentChanges changes) {
+        if (!synced) {
+            return;
+        }
+        Set<Integer> changedIds = new HashSet<>();
+        for (Student student : changes.changed) {
+            changedIds.add(student.getId());
+        }
+        List<Integer> deleted = new ArrayList<>();
+        for (int i = 0; i < changes.deletedIds.length; i++) {
+            if (changes.deletionSeqs[i] > deletionMark) {
+                deletionMark = changes.deletionSeqs[i];
+                deleted.add(changes.deletedIds[i]);
+            }
+        }
+        // Tombstones are read before rows, so a row both deleted and changed
+        // here was restored after its delete: it goes out, then back in
+        for (int id : deleted) {
+            if (changedIds.contains(id)) {
+                removeCounted(id);
+            }
+        }
+        for (Student student : changes.changed) {
+            if (student.getId() > maxKnownId) {
+                studentAppended(student);
+            } else if (isNew(student, changes)) {
+                studentInserted(student);
+            } else {
+                studentChanged(student);
+            }
+        }
+        // The rest go after the rows, so one counted in above is counted out
+        for (int id : deleted) {
+            if (!changedIds.contains(id)) {
+                removeCounted(id);
+            }
+        }
+    }
+
+    // A row both added and deleted since the snapshot was never counted
+    private void removeCounted(int id) {
+        if (id <= maxKnownId) {
+            studentRemoved(id);
+        }
+    }
+
+    // Created in the snapshot's last second is taken as counted, as
+    // updated_at and created_at only resolve to the second
+    private boolean isNew(Student student, StudentChanges changes) {
+        Long created = changes.createdVersions.get(student.getId());
+        return created != null && created > syncVersion && !added.contains(student.getId());
+    }
+
+    // Changed rows are delivered again for a while (see StudentChangeFeed),
+    // so only a newer version counts as a change
+    private void studentChanged(Student student) {
+        for (Map.Entry<Integer, StudentColumns> entry : pages.entrySet()) {
+            StudentColumns page = entry.getValue();
+            for (int i = 0; i < page.size(); i++) {
+                if (page.getId(i) == student.getId()) {
+                    if (page.getUpdatedAt(i) != student.getUpdatedAt() || student.getUpdatedAt() == 0) {
+                        page.set(i, student);
+                        int row = entry.getKey() * PAGE_SIZE + i;
+                        fireTableRowsUpdated(row, row);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private void studentAppended(Student student) {
+        maxKnownId = student.getId();
+        added.add(student.getId());
+        int row = rowCount++;
+        int pageIndex = row / PAGE_SIZE;
+        StudentColumns page = pages.get(pageIndex);
+        if (page != null) {
+            if (page.size() == row % PAGE_SIZE) {
+                page.add(student);
+                lastIds.put(pageIndex, student.getId());
+            } else {
+                pages.remove(pageIndex);
+            }
+        }
+        fireTableRowsInserted(row, row);
+    }
+
+    // Like studentRemoved, but the row count grows
+    private void studentInserted(Student student) {
+        int id = student.getId();
+        int firstAffected = firstPageHolding(id);
+        int row = Math.min(firstAffected * PAGE_SIZE, rowCount);
+        StudentColumns page = pages.get(firstAffected);
+        if (page != null) {
+            int offset = 0;
+            while (offset < page.size() && page.getId(offset) < id) {
+                offset++;
+            }
+            row = firstAffected * PAGE_SIZE + offset;
+        }
+        added.add(id);
+
+        pages.keySet().removeIf(pageIndex -> pageIndex >= firstAffected);
+        lastIds.keySet().removeIf(pageIndex -> pageIndex >= firstAffected);
+        // Pages still loading were read before the insert
+        generation++;
+        loading.clear();
+        rowCount++;
+        fireTableRowsInserted(row, row);
+    }
+
+    private void studentRemoved(int id) {
+        added.remove(id);
+        int firstAffected = firstPageHolding(id);
+        int row = Math.min(firstAffected * PAGE_SIZE, rowCount - 1);
+        StudentColumns page = pages.get(firstAffected);
+        for (int i = 0; page != null && i < page.size(); i++) {
+            if (page.getId(i) == id) {
+                row = firstAffected * PAGE_SIZE + i;
+            }
+        }
+        if (row < 0) {
+            return;
+        }
+
+        pages.keySet().removeIf(pageIndex -> pageIndex >= firstAffected);
+        lastIds.keySet().removeIf(pageIndex -> pageIndex >= firstAffected);
+        // Pages still loading were read before the delete
+        generation++;
+        loading.clear();
+        rowCount--;
+        fireTableRowsDeleted(row, row);
+    }
+
+    // Pages whose last id is below id are unaffected by it; the first page
+    // past them is where the row is, or at least no later
+    private int firstPageHolding(int id) {
+        int first = 0;
+        for (Map.Entry<Integer, Integer> entry : lastIds.entrySet()) {
+            if (entry.getValue() < id) {
+                first = Math.max(first, entry.getKey() + 1);
+            }
+        }
+        return first;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        int pageIndex = row / PAGE_SIZE;
+        StudentColumns page = pages.get(pageIndex);
+        int offset = row % PAGE_SIZE;
+        if (page == null) {
+            requestPage(pageIndex);
+            return null;
+        }
+        if (!pages.containsKey(pageIndex + 1)) {
+            requestPage(pageIndex + 1);
+        }
+        // Decoded straight from the page, without building a Student per cell
+        return offset < page.size() ? page.getValue(offset, column) : null;
+    }
+
+    private void requestPage(int pageIndex) {
+        if (pageIndex * PAGE_SIZE >= rowCount || pages.containsKey(pageIndex) || !loading.add(pageIndex)) {
+            return;
+        }
+        latestRequestedPage = pageIndex;
+        int requestGeneration = generation;
+        Integer afterId = pageIndex == 0 ? null : lastIds.get(pageIndex - 1);
+
+        dataAccess.submit("Loading page " + (pageIndex + 1), () -> {
+            if (Math.abs(pageIndex - latestRequestedPage) > STALE_PAGE_DISTANCE) {
+                return null;
+            }
+            return fetchPage(pageIndex, afterId);
+        }, page -> {
+            if (requestGeneration != generation) {
+                return;
+            }
+            loading.remove(pageIndex);
+            if (page == null) {
+                return;
+            }
+            pages.put(pageIndex, page);
+            if (page.size() > 0) {
+                lastIds.put(pageIndex, page.getId(page.size() - 1));
+            }
+            int first = pageIndex * PAGE_SIZE;
+            int last = Math.min(first + PAGE_SIZE, rowCount) - 1;
+            if (last >= first) {
+                fireTableRowsUpdated(first, last);
+            }
+        }, e -> {
+            if (requestGeneration == generation) {
+                loading.remove(pageIndex);
+            }
+        });
+    }
+
+    // Packed into columns here, off the EDT; the Student objects are garbage
+    // as soon as the page is built
+    private StudentColumns fetchPage(int pageIndex, Integer afterId) throws SQLException {
+        List<Student> page;
+        if (afterId != null) {
+            page = repository.findAfter(afterId, PAGE_SIZE);
+        } else {
+            // Page 0, or jumped straight to this page
+            page = repository.findPage(pageIndex * PAGE_SIZE, PAGE_SIZE);
+        }
+        return StudentColumns.of(page, courses);
+    }
+}
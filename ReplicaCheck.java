@@ -0,0 +1,170 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Checks read replica routing against the primary and replicas in
+ * db.properties (db.url and db.replicas), e.g. two local MySQL or MariaDB
+ * instances, one replicating the other:
+ *
+ *   - once the lag checks have run, lists and counts go to a replica;
+ *   - with the replicas' SQL threads stopped, this client's own edit is
+ *     read back at once (from the primary), although no replica has it;
+ *   - while they stay stopped, reads stay on the primary;
+ *   - once they are started again and catch up, reads go back to them.
+ *
+ * It stops and starts the replicas' SQL threads itself, so the user needs
+ * the privilege to (REPLICATION_SLAVE_ADMIN or SUPER). The student it edits
+ * gets their name back at the end. Prints ok or FAIL per check and exits
+ * with status 1 if any failed.
+ *
+ * Usage: java ReplicaCheck
+ */
+public class ReplicaCheck {
+    private final ReplicatedStudentRepository repository;
+    private final List<ConnectionPool> replicaPools;
+    private final long checkMillis;
+    private final long maxLagMillis;
+    private int failures;
+
+    ReplicaCheck(ReplicatedStudentRepository repository, List<ConnectionPool> replicaPools, Properties props) {
+        this.repository = repository;
+        this.replicaPools = replicaPools;
+        this.checkMillis = Long.parseLong(props.getProperty("db.replicas.checkMillis", "500").trim());
+        this.maxLagMillis = Long.parseLong(props.getProperty("db.replicas.maxLagMillis", "2000").trim());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream("db.properties")) {
+            props.load(in);
+        } catch (IOException e) {
+            System.err.println("Warning: db.properties not found, using default values");
+        }
+
+        List<ConnectionPool> replicaPools = new ArrayList<>();
+        for (String url : props.getProperty("db.replicas", "").split(",")) {
+            if (!url.trim().isEmpty()) {
+                Properties replica = new Properties();
+                replica.putAll(props);
+                replica.setProperty("db.url", url.trim());
+                replicaPools.add(ConnectionPool.fromProperties(replica));
+            }
+        }
+        if (replicaPools.isEmpty() || !props.getProperty("db.shards", "").trim().isEmpty()) {
+            System.err.println("Set db.replicas (and leave db.shards empty) in db.properties");
+            System.exit(2);
+        }
+
+        int failures;
+        try (StudentRepository stack = StudentRepository.fromProperties(props)) {
+            ReplicatedStudentRepository replicated = StudentRepository.unwrap(stack, ReplicatedStudentRepository.class);
+            if (replicated == null) {
+                System.err.println("Replicas are only used with db.backend=mysql");
+                System.exit(2);
+            }
+            stack.initialize();
+            ReplicaCheck check = new ReplicaCheck(replicated, replicaPools, props);
+            check.run();
+            failures = check.failures;
+        } finally {
+            for (ConnectionPool pool : replicaPools) {
+                pool.close();
+            }
+        }
+        System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private void run() throws SQLException, InterruptedException {
+        awaitCaughtUp();
+        check(onReplica(), "lists and counts read from a replica, lags " + lags());
+
+        List<Student> first = repository.findPage(0, 1);
+        if (first.isEmpty()) {
+            check(false, "the students table has a student to edit");
+            return;
+        }
+        Student original = repository.findById(first.get(0).getId());
+        String marker = "Replica Check " + System.nanoTime();
+        replication("STOP");
+        try {
+            check(repository.update(new Student(original.getId(), marker, original.getEmail(),
+                original.getPhone(), original.getCourse(), original.getUpdatedAt())), "edit saved on the primary");
+            check(repository.findContaining(marker, 10).size() == 1, "own edit read back at once");
+            check(!onReplica(), "reads go to the primary until a replica has the edit");
+            int onReplicas = 0;
+            for (ConnectionPool pool : replicaPools) {
+                onReplicas += new MySqlStudentRepository(pool, 100).findContaining(marker, 10).size();
+            }
+            check(onReplicas == 0, "no replica has the edit while stopped");
+
+            Thread.sleep(maxLagMillis + 2 * checkMillis);
+            check(!onReplica(), "reads stay on the primary while the replicas are behind, lags " + lags());
+        } finally {
+            replication("START");
+        }
+
+        awaitCaughtUp();
+        check(onReplica(), "reads back on a replica once it has caught up, lags " + lags());
+        int onReplicas = 0;
+        for (ConnectionPool pool : replicaPools) {
+            onReplicas += new MySqlStudentRepository(pool, 100).findContaining(marker, 10).size();
+        }
+        check(onReplicas == replicaPools.size(), "every replica has the edit");
+        check(repository.findContaining(marker, 10).size() == 1, "edit read from a replica");
+
+        Student edited = repository.findById(original.getId());
+        repository.update(original.withUpdatedAt(edited.getUpdatedAt()));
+    }
+
+    // Up to maxLagMillis plus a few checks for every replica to report a lag
+    private void awaitCaughtUp() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + maxLagMillis + 5 * checkMillis;
+        while (System.currentTimeMillis() < deadline) {
+            boolean all = true;
+            for (long lag : repository.getReplicaLags()) {
+                all &= lag >= 0 && lag <= maxLagMillis;
+            }
+            if (all) {
+                // One more check, so the replicas are past this client's last write
+                Thread.sleep(2 * checkMillis);
+                return;
+            }
+            Thread.sleep(checkMillis);
+        }
+    }
+
+    // Where the next list or search would be read from
+    private boolean onReplica() {
+        return repository.getReadPool() != repository.getPool();
+    }
+
+    private String lags() {
+        return Arrays.toString(repository.getReplicaLags());
+    }
+
+    private void replication(String action) throws SQLException {
+        for (ConnectionPool pool : replicaPools) {
+            try (Connection conn = pool.getConnection();
+                 Statement stmt = conn.createStatement()) {
+                boolean mariaDb = conn.getMetaData().getDatabaseProductVersion().contains("MariaDB");
+                stmt.execute(action + (mariaDb ? " SLAVE" : " REPLICA") + " SQL_THREAD");
+            }
+        }
+    }
+
+    private void check(boolean ok, String what) {
+        System.out.println((ok ? "ok   " : "FAIL ") + what);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
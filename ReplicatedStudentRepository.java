@@ -0,0 +1,429 @@
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends writes to the primary and spreads list, search, count and change
+ * feed reads over read replicas, taking turns among those close enough
+ * behind the primary. Lookups by id or email stay on the primary: they are
+ * cheap, and writes depend on the versions they return.
+ *
+ * Lag is measured with GTIDs. Every checkMillis the primary's executed GTID
+ * set is read and remembered with the time it was read; each replica is
+ * then asked which of the remembered sets it has applied. A replica that
+ * has applied the set read at time t has everything committed on the
+ * primary before t, so it is "caught up to t". Only replicas caught up to
+ * within maxLagMillis of now are read from.
+ *
+ * Each client sees its own writes: the time of its last write is its
+ * token, and only replicas caught up past it are read from. Until the next
+ * check finds one, reads go to the primary. A replica that cannot be
+ * reached is skipped, its reads going to the primary, until a check
+ * reaches it again.
+ *
+ * Works with MySQL (gtid_mode=ON) and MariaDB (binary log on, which always
+ * writes GTIDs). Without GTIDs on the primary every read goes to it.
+ */
+public class ReplicatedStudentRepository implements StudentRepository {
+    private interface Read<T> {
+        T read(StudentRepository from) throws SQLException;
+    }
+
+    private static final class Replica {
+        final String url;
+        final ConnectionPool pool;
+        final StudentRepository repository;
+        // Everything committed on the primary before this time has been applied
+        volatile long caughtUpTo;
+        volatile boolean reachable = true;
+
+        Replica(ConnectionPool pool, StudentRepository repository) {
+            this.url = pool.getUrl().split("\\?", 2)[0];
+            this.pool = pool;
+            this.repository = repository;
+        }
+    }
+
+    /** The primary's GTID set, and when it was read. */
+    private static final class Position {
+        final long readAt;
+        final String gtids;
+
+        Position(long readAt, String gtids) {
+            this.readAt = readAt;
+            this.gtids = gtids;
+        }
+    }
+
+    private final StudentRepository primary;
+    private final List<Replica> replicas;
+    private final long maxLagMillis;
+    private final AtomicInteger turn = new AtomicInteger();
+    private final ScheduledExecutorService checker;
+    // This client's token: when its last write finished
+    private volatile long lastWriteAt;
+
+    // Only touched on the checker's thread
+    private final ArrayDeque<Position> positions = new ArrayDeque<>();
+    private Boolean mariaDb;
+    private volatile boolean gtidsOn = true;
+
+    public ReplicatedStudentRepository(StudentRepository primary, List<ConnectionPool> replicaPools, int fetchSize,
+                                       long checkMillis, long maxLagMillis) {
+        this.primary = primary;
+        List<Replica> list = new ArrayList<>(replicaPools.size());
+        for (ConnectionPool pool : replicaPools) {
+            list.add(new Replica(pool, new MySqlStudentRepository(pool, fetchSize)));
+        }
+        this.replicas = Collections.unmodifiableList(list);
+        this.maxLagMillis = maxLagMillis;
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replica-lag-check");
+            t.setDaemon(true);
+            return t;
+        });
+        checker.scheduleWithFixedDelay(this::check, 0, Math.max(50, checkMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replicas from db.replicas (comma-separated JDBC URLs), connected with
+     * the primary's user, password and settings; db.replicas.maxConnections
+     * (default db.maxConnections) per replica.
+     */
+    public static ReplicatedStudentRepository fromProperties(StudentRepository primary, Properties props) {
+        List<ConnectionPool> pools = new ArrayList<>();
+        for (String url : props.getProperty("db.replicas", "").split(",")) {
+            if (url.trim().isEmpty()) {
+                continue;
+            }
+            Properties replica = new Properties();
+            replica.putAll(props);
+            replica.setProperty("db.url", url.trim());
+            String maxConnections = props.getProperty("db.replicas.maxConnections", "").trim();
+            if (!maxConnections.isEmpty()) {
+                replica.setProperty("db.maxConnections", maxConnections);
+            }
+            pools.add(ConnectionPool.fromProperties(replica));
+        }
+        return new ReplicatedStudentRepository(primary, pools,
+            Integer.parseInt(props.getProperty("db.fetchSize", "1000").trim()),
+            Long.parseLong(props.getProperty("db.replicas.checkMillis", "500").trim()),
+            Long.parseLong(props.getProperty("db.replicas.maxLagMillis", "2000").trim()));
+    }
+
+    /** The lag of each replica in milliseconds, as of the last check; -1 if unreachable. */
+    public long[] getReplicaLags() {
+        long now = System.currentTimeMillis();
+        long[] lags = new long[replicas.size()];
+        for (int i = 0; i < lags.length; i++) {
+            Replica replica = replicas.get(i);
+            lags[i] = replica.reachable && replica.caughtUpTo > 0 ? now - replica.caughtUpTo : -1;
+        }
+        return lags;
+    }
+
+    private void check() {
+        long readAt = System.currentTimeMillis();
+        try (Connection conn = primary.getPool().getConnection()) {
+            if (mariaDb == null) {
+                mariaDb = conn.getMetaData().getDatabaseProductVersion().contains("MariaDB");
+                gtidsOn = "1".equals(queryString(conn, mariaDb ? "SELECT @@GLOBAL.log_bin"
+                    : "SELECT @@GLOBAL.gtid_mode = 'ON'"));
+                if (!gtidsOn) {
+                    System.err.println("Warning: the primary does not write GTIDs ("
+                        + (mariaDb ? "log_bin" : "gtid_mode") + " is off), so replica lag cannot be "
+                        + "measured; every read goes to the primary");
+                }
+            }
+            if (!gtidsOn) {
+                return;
+            }
+            positions.addLast(new Position(readAt, queryString(conn, mariaDb
+                ? "SELECT @@GLOBAL.gtid_binlog_pos" : "SELECT @@GLOBAL.gtid_executed")));
+        } catch (SQLException | RuntimeException e) {
+            // Nothing new to compare against; the replicas age out past maxLagMillis
+            return;
+        }
+        while (positions.size() > 1 && readAt - positions.peekFirst().readAt > maxLagMillis) {
+            positions.removeFirst();
+        }
+        for (Replica replica : replicas) {
+            check(replica);
+        }
+    }
+
+    // Newest position first: a replica that is keeping up answers on the first
+    private void check(Replica replica) {
+        String sql = mariaDb ? "SELECT MASTER_GTID_WAIT(?, 0) = 0" : "SELECT GTID_SUBSET(?, @@GLOBAL.gtid_executed)";
+        try (Connection conn = replica.pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (Iterator<Position> it = positions.descendingIterator(); it.hasNext(); ) {
+                Position position = it.next();
+                if (position.readAt <= replica.caughtUpTo) {
+                    break;
+                }
+                pstmt.setString(1, position.gtids);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next() && rs.getBoolean(1)) {
+                        replica.caughtUpTo = position.readAt;
+                        break;
+                    }
+                }
+            }
+            if (!replica.reachable) {
+                System.err.println("Replica " + replica.url + " reachable again");
+                replica.reachable = true;
+            }
+        } catch (SQLException e) {
+            unreachable(replica, e);
+        }
+    }
+
+    private static String queryString(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
+    private void unreachable(Replica replica, SQLException cause) {
+        if (replica.reachable) {
+            System.err.println("Warning: replica " + replica.url + " unreachable, reading from the primary: "
+                + cause.getMessage());
+            replica.reachable = false;
+        }
+    }
+
+    // The next replica in turn that is reachable, within maxLagMillis, and
+    // has this client's last write; null if none is
+    private Replica pick() {
+        if (!gtidsOn || replicas.isEmpty()) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        long token = lastWriteAt;
+        int first = turn.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(first + i, replicas.size()));
+            long caughtUpTo = replica.caughtUpTo;
+            if (replica.reachable && caughtUpTo > token && now - caughtUpTo <= maxLagMillis) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private <T> T read(Read<T> call) throws SQLException {
+        Replica replica = pick();
+        if (replica != null) {
+            try {
+                return call.read(replica.repository);
+            } catch (SQLException e) {
+                if (!ConnectionPool.isConnectionError(e)) {
+                    throw e;
+                }
+                unreachable(replica, e);
+            }
+        }
+        return call.read(primary);
+    }
+
+    // Stamped after the write returns, even if it failed: it may have committed
+    private void written() {
+        lastWriteAt = System.currentTimeMillis();
+    }
+
+    @Override
+    public void initialize() throws SQLException {
+        primary.initialize();
+    }
+
+    @Override
+    public Student insert(Student student) throws SQLException {
+        try {
+            return primary.insert(student);
+        } finally {
+            written();
+        }
+    }
+
+    @Override
+    public List<Student> insertAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        try {
+            return primary.insertAll(students, batchSize, rejected);
+        } finally {
+            written();
+        }
+    }
+
+    @Override
+    public boolean update(Student student) throws SQLException {
+        try {
+            return primary.update(student);
+        } finally {
+            written();
+        }
+    }
+
+    @Override
+    public List<Student> updateAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        try {
+            return primary.updateAll(students, batchSize, rejected);
+        } finally {
+            written();
+        }
+    }
+
+    @Override
+    public int deleteAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        try {
+            return primary.deleteAll(students, batchSize, rejected);
+        } finally {
+            written();
+        }
+    }
+
+    @Override
+    public boolean delete(int id) throws SQLException {
+        try {
+            return primary.delete(id);
+        } finally {
+            written();
+        }
+    }
+
+    @Override
+    public Student restore(Student student) throws SQLException {
+        try {
+            return primary.restore(student);
+        } finally {
+            written();
+        }
+    }
+
+    @Override
+    public Student findById(int id) throws SQLException {
+        return primary.findById(id);
+    }
+
+    @Override
+    public Student findByEmail(String email) throws SQLException {
+        return primary.findByEmail(email);
+    }
+
+    @Override
+    public List<Student> findByCourse(String course, int limit) throws SQLException {
+        return read(from -> from.findByCourse(course, limit));
+    }
+
+    @Override
+    public List<Student> findContaining(String text, int limit) throws SQLException {
+        return read(from -> from.findContaining(text, limit));
+    }
+
+    @Override
+    public List<Student> findAfter(int afterId, int limit) throws SQLException {
+        return read(from -> from.findAfter(afterId, limit));
+    }
+
+    @Override
+    public List<Student> findPage(int offset, int limit) throws SQLException {
+        return read(from -> from.findPage(offset, limit));
+    }
+
+    @Override
+    public int count() throws SQLException {
+        return read(StudentRepository::count);
+    }
+
+    // Moves to the primary only if the replica fails before the first row
+    @Override
+    public void forEach(RowHandler handler) throws SQLException, IOException {
+        Replica replica = pick();
+        if (replica != null) {
+            boolean[] started = new boolean[1];
+            try {
+                replica.repository.forEach(student -> {
+                    started[0] = true;
+                    handler.row(student);
+                });
+                return;
+            } catch (SQLException e) {
+                if (started[0] || !ConnectionPool.isConnectionError(e)) {
+                    throw e;
+                }
+                unreachable(replica, e);
+            }
+        }
+        primary.forEach(handler);
+    }
+
+    @Override
+    public StudentChanges snapshot() throws SQLException {
+        return read(StudentRepository::snapshot);
+    }
+
+    // A replica within maxLagMillis, less than the change feed's overlap,
+    // returns every change the feed has not seen yet
+    @Override
+    public StudentChanges changesSince(long sinceVersion, long afterDeletion, int limit) throws SQLException {
+        return read(from -> from.changesSince(sinceVersion, afterDeletion, limit));
+    }
+
+    @Override
+    public CourseStatistics courseStatistics() throws SQLException {
+        return read(StudentRepository::courseStatistics);
+    }
+
+    @Override
+    public ConnectionPool getPool() {
+        return primary.getPool();
+    }
+
+    @Override
+    public ConnectionPool getReadPool() {
+        Replica replica = pick();
+        return replica != null ? replica.pool : primary.getPool();
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return primary.getMaxConcurrency();
+    }
+
+    @Override
+    public StudentRepository getDelegate() {
+        return primary;
+    }
+
+    @Override
+    public String getName() {
+        return primary.getName() + "+" + replicas.size() + "-replicas";
+    }
+
+    @Override
+    public void close() {
+        checker.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.repository.close();
+        }
+        primary.close();
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Takes a database down and brings it back under ResilientStudentRepository,
+ * its CircuitBreaker and an outage-mode WriteBehindStudentRepository, and
+ * checks what each is meant to do: a read that loses its connection is
+ * retried, a write is sent once, the breaker opens, fails fast, probes and
+ * closes again, and the edits queued meanwhile are saved once the database
+ * answers.
+ *
+ * The database is an InMemoryStudentRepository behind a stand-in that fails
+ * calls the way a stopped server does (SQLState 08S01), so the run takes a
+ * second or two and needs no MySQL. Prints ok or FAIL per check and exits
+ * with status 1 if any failed.
+ *
+ * Usage: java ResilienceCheck
+ */
+public class ResilienceCheck {
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long OPEN_MILLIS = 300;
+    private static final long FLUSH_MILLIS = 50;
+    // Stand-in setting for "every call fails"
+    private static final int DOWN = -1;
+
+    private final InMemoryStudentRepository database = new InMemoryStudentRepository();
+    // Calls that reached the stand-in, and how many of the next ones fail
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger failing = new AtomicInteger();
+    private final List<CircuitBreaker.State> transitions = new CopyOnWriteArrayList<>();
+    private int failures;
+
+    public static void main(String[] args) throws Exception {
+        ResilienceCheck check = new ResilienceCheck();
+        check.run();
+        System.out.println(check.failures == 0 ? "All checks passed" : check.failures + " checks failed");
+        System.exit(check.failures == 0 ? 0 : 1);
+    }
+
+    private void run() throws SQLException, IOException, InterruptedException {
+        database.initialize();
+        for (int i = 1; i <= 3; i++) {
+            database.insert(new Student(0, "Student " + i, "student" + i + "@example.com", null, "Physics"));
+        }
+        CircuitBreaker breaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS);
+        breaker.addListener(transitions::add);
+        ResilientStudentRepository resilient = new ResilientStudentRepository(standIn(), breaker, 3, 10, 50);
+        WriteBehindStudentRepository outage =
+            new WriteBehindStudentRepository(resilient, FLUSH_MILLIS, 100, 100, null, false, true);
+        try {
+            dropConnections(resilient, breaker);
+            goDown(resilient, breaker);
+            queueWhileDown(outage);
+            comeBack(outage, breaker);
+        } finally {
+            outage.close();
+        }
+    }
+
+    // A connection or two lost while the database is up
+    private void dropConnections(ResilientStudentRepository resilient, CircuitBreaker breaker) throws SQLException {
+        failing.set(2);
+        calls.set(0);
+        Student read = resilient.findById(1);
+        check(read != null && calls.get() == 3, "read retried over two dropped connections (" + calls + " calls)");
+        check(breaker.getState() == CircuitBreaker.State.CLOSED, "breaker still closed after the retry");
+
+        failing.set(1);
+        calls.set(0);
+        try {
+            resilient.insert(new Student(0, "Once Only", "once@example.com", null, null));
+            check(false, "insert over a dropped connection fails");
+        } catch (CircuitBreaker.Unavailable e) {
+            check(false, "insert over a dropped connection fails as a connection error, not Unavailable");
+        } catch (SQLException e) {
+            check(calls.get() == 1 && database.count() == 3,
+                "insert over a dropped connection sent once, not retried (" + calls + " calls)");
+        }
+        // Failures only open the breaker in a row; an answer starts the count again
+        resilient.count();
+        check(breaker.getState() == CircuitBreaker.State.CLOSED && transitions.isEmpty(),
+            "breaker still closed after the failed insert");
+    }
+
+    private void goDown(ResilientStudentRepository resilient, CircuitBreaker breaker) throws SQLException {
+        failing.set(DOWN);
+        calls.set(0);
+        try {
+            resilient.findById(1);
+            check(false, "read fails while the database is down");
+        } catch (SQLException e) {
+            check(!(e instanceof CircuitBreaker.Unavailable) && calls.get() == FAILURE_THRESHOLD,
+                "read tried " + calls + " times before giving up");
+        }
+        check(breaker.getState() == CircuitBreaker.State.OPEN
+                && transitions.equals(Arrays.asList(CircuitBreaker.State.OPEN)),
+            "breaker opened after " + FAILURE_THRESHOLD + " failures in a row");
+
+        int before = calls.get();
+        long start = System.nanoTime();
+        try {
+            resilient.findAfter(0, 10);
+            check(false, "read fails fast while the breaker is open");
+        } catch (CircuitBreaker.Unavailable e) {
+            long micros = (System.nanoTime() - start) / 1000;
+            check(calls.get() == before, "read failed fast with Unavailable, never sent (" + micros + " us)");
+        }
+    }
+
+    private void queueWhileDown(WriteBehindStudentRepository outage) throws SQLException, InterruptedException {
+        boolean updated = outage.update(new Student(1, "Renamed Offline", "student1@example.com", null, "Maths"));
+        boolean deleted = outage.delete(2);
+        check(updated && deleted && outage.getPendingCount() == 2, "edit and delete queued while down ("
+            + outage.getPendingCount() + " pending)");
+        Student seen = outage.findById(1);
+        check(seen != null && "Renamed Offline".equals(seen.getName()) && outage.findById(2) == null,
+            "queued edit and delete visible to reads");
+        check("Student 1".equals(database.findById(1).getName()) && database.findById(2) != null,
+            "database untouched while down");
+
+        // The flushes keep trying; a probe after openMillis fails and opens it again
+        Thread.sleep(OPEN_MILLIS * 2);
+        check(transitions.contains(CircuitBreaker.State.HALF_OPEN)
+                && transitions.get(transitions.size() - 1) != CircuitBreaker.State.CLOSED,
+            "probe while still down reopened the breaker " + transitions);
+        check(outage.getPendingCount() == 2, "writes still queued after failed flushes");
+    }
+
+    private void comeBack(WriteBehindStudentRepository outage, CircuitBreaker breaker)
+            throws SQLException, InterruptedException {
+        failing.set(0);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (outage.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(FLUSH_MILLIS);
+        }
+        check(outage.getPendingCount() == 0, "queue drained once the database is back");
+        check(breaker.getState() == CircuitBreaker.State.CLOSED
+                && transitions.get(transitions.size() - 1) == CircuitBreaker.State.CLOSED,
+            "breaker closed by the first probe that got through");
+        Student saved = database.findById(1);
+        check(saved != null && "Renamed Offline".equals(saved.getName()) && "Maths".equals(saved.getCourse()),
+            "queued edit saved");
+        check(database.findById(2) == null && database.count() == 2, "queued delete saved");
+
+        calls.set(0);
+        outage.update(new Student(3, "Renamed Online", "student3@example.com", null, "Physics"));
+        check(outage.getPendingCount() == 0 && "Renamed Online".equals(database.findById(3).getName()),
+            "writes go straight through again once the queue is empty");
+    }
+
+    // Fails database calls (those that can throw SQLException) while failing is set
+    private StudentRepository standIn() {
+        return (StudentRepository) Proxy.newProxyInstance(StudentRepository.class.getClassLoader(),
+            new Class<?>[] {StudentRepository.class}, (proxy, method, args) -> {
+                if (Arrays.asList(method.getExceptionTypes()).contains(SQLException.class)) {
+                    calls.incrementAndGet();
+                    int left = failing.get();
+                    if (left == DOWN || (left > 0 && failing.compareAndSet(left, left - 1))) {
+                        throw new SQLNonTransientConnectionException("Communications link failure", "08S01");
+                    }
+                }
+                try {
+                    return method.invoke(database, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+    }
+
+    private void check(boolean ok, String what) {
+        System.out.println((ok ? "ok   " : "FAIL ") + what);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
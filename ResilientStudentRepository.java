@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Rides out a database that drops connections or restarts.
+ *
+ * Every call goes through a CircuitBreaker, so once the database has
+ * stopped answering, calls fail at once with CircuitBreaker.Unavailable
+ * rather than each waiting for a connect timeout. Reads (and initialize(),
+ * whose migrations are safe to repeat) that lose their connection are
+ * retried up to maxAttempts times, after exponential backoff with full
+ * jitter, so clients retrying together do not all come back at the same
+ * moment. Each retry borrows a fresh connection, and the pool checks its
+ * idle ones after a connection failure, so a restarted server is
+ * reconnected to without anyone noticing.
+ *
+ * Writes are sent once: a write whose connection broke may or may not have
+ * committed, and an insert sent again would add the student twice. Queuing
+ * updates and deletes while the database is down is left to a
+ * WriteBehindStudentRepository in outage mode on top of this one.
+ */
+public class ResilientStudentRepository implements StudentRepository {
+    private interface Call<T, E extends Exception> {
+        T call() throws SQLException, E;
+    }
+
+    private final StudentRepository delegate;
+    private final CircuitBreaker breaker;
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public ResilientStudentRepository(StudentRepository delegate, CircuitBreaker breaker,
+                                      int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.delegate = delegate;
+        this.breaker = breaker;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public static ResilientStudentRepository fromProperties(StudentRepository delegate, Properties props) {
+        return new ResilientStudentRepository(delegate,
+            new CircuitBreaker(
+                Integer.parseInt(props.getProperty("db.circuit.failureThreshold", "5").trim()),
+                Long.parseLong(props.getProperty("db.circuit.openMillis", "5000").trim())),
+            Integer.parseInt(props.getProperty("db.retry.maxAttempts", "3").trim()),
+            Long.parseLong(props.getProperty("db.retry.baseDelayMillis", "100").trim()),
+            Long.parseLong(props.getProperty("db.retry.maxDelayMillis", "2000").trim()));
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    @Override
+    public StudentRepository getDelegate() {
+        return delegate;
+    }
+
+    // One call through the breaker. Errors about the data or the query
+    // still mean the database answered.
+    private <T, E extends Exception> T once(Call<T, E> call) throws SQLException, E {
+        breaker.acquire();
+        try {
+            T result = call.call();
+            breaker.succeeded();
+            return result;
+        } catch (SQLException e) {
+            if (isUnreachable(e)) {
+                breaker.failed();
+            } else {
+                breaker.succeeded();
+            }
+            throw e;
+        } catch (Throwable e) {
+            breaker.succeeded();
+            throw e;
+        }
+    }
+
+    private <T, E extends Exception> T retried(Call<T, E> call) throws SQLException, E {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return once(call);
+            } catch (CircuitBreaker.Unavailable e) {
+                throw e;
+            } catch (SQLException e) {
+                if (attempt >= maxAttempts || !isUnreachable(e)) {
+                    throw e;
+                }
+                backOff(attempt, e);
+            }
+        }
+    }
+
+    // Full jitter: anywhere up to the exponential delay for this attempt
+    private void backOff(int attempt, SQLException cause) throws SQLException {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw cause;
+        }
+    }
+
+    /**
+     * The call never got an answer from the database: the connection broke
+     * or could not be made. Waiting for a free pooled connection (HYT00)
+     * is the pool being busy, not the database being down.
+     */
+    static boolean isUnreachable(SQLException e) {
+        return ConnectionPool.isConnectionError(e) && !ConnectionPool.POOL_TIMEOUT_STATE.equals(e.getSQLState());
+    }
+
+    @Override
+    public void initialize() throws SQLException {
+        retried(() -> {
+            delegate.initialize();
+            return null;
+        });
+    }
+
+    @Override
+    public Student insert(Student student) throws SQLException {
+        return once(() -> delegate.insert(student));
+    }
+
+    @Override
+    public List<Student> insertAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        return this.<List<Student>, IOException>once(() -> delegate.insertAll(students, batchSize, rejected));
+    }
+
+    @Override
+    public boolean update(Student student) throws SQLException {
+        return once(() -> delegate.update(student));
+    }
+
+    @Override
+    public List<Student> updateAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        return this.<List<Student>, IOException>once(() -> delegate.updateAll(students, batchSize, rejected));
+    }
+
+    @Override
+    public int deleteAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        return this.<Integer, IOException>once(() -> delegate.deleteAll(students, batchSize, rejected));
+    }
+
+    @Override
+    public boolean delete(int id) throws SQLException {
+        return once(() -> delegate.delete(id));
+    }
+
+    @Override
+    public Student restore(Student student) throws SQLException {
+        return once(() -> delegate.restore(student));
+    }
+
+    @Override
+    public Student findById(int id) throws SQLException {
+        return retried(() -> delegate.findById(id));
+    }
+
+    @Override
+    public Student findByEmail(String email) throws SQLException {
+        return retried(() -> delegate.findByEmail(email));
+    }
+
+    @Override
+    public List<Student> findByCourse(String course, int limit) throws SQLException {
+        return retried(() -> delegate.findByCourse(course, limit));
+    }
+
+    @Override
+    public List<Student> findContaining(String text, int limit) throws SQLException {
+        return retried(() -> delegate.findContaining(text, limit));
+    }
+
+    @Override
+    public List<Student> findAfter(int afterId, int limit) throws SQLException {
+        return retried(() -> delegate.findAfter(afterId, limit));
+    }
+
+    @Override
+    public List<Student> findPage(int offset, int limit) throws SQLException {
+        return retried(() -> delegate.findPage(offset, limit));
+    }
+
+    @Override
+    public int count() throws SQLException {
+        return retried(delegate::count);
+    }
+
+    // Retried only until the first row has been handed over
+    @Override
+    public void forEach(RowHandler handler) throws SQLException, IOException {
+        boolean[] started = new boolean[1];
+        RowHandler tracking = student -> {
+            started[0] = true;
+            handler.row(student);
+        };
+        for (int attempt = 1; ; attempt++) {
+            try {
+                this.<Void, IOException>once(() -> {
+                    delegate.forEach(tracking);
+                    return null;
+                });
+                return;
+            } catch (CircuitBreaker.Unavailable e) {
+                throw e;
+            } catch (SQLException e) {
+                if (started[0] || attempt >= maxAttempts || !isUnreachable(e)) {
+                    throw e;
+                }
+                backOff(attempt, e);
+            }
+        }
+    }
+
+    @Override
+    public StudentChanges snapshot() throws SQLException {
+        return retried(delegate::snapshot);
+    }
+
+    @Override
+    public StudentChanges changesSince(long sinceVersion, long afterDeletion, int limit) throws SQLException {
+        return retried(() -> delegate.changesSince(sinceVersion, afterDeletion, limit));
+    }
+
+    @Override
+    public CourseStatistics courseStatistics() throws SQLException {
+        return retried(delegate::courseStatistics);
+    }
+
+    @Override
+    public ConnectionPool getPool() {
+        return delegate.getPool();
+    }
+
+    @Override
+    public ConnectionPool getReadPool() {
+        return delegate.getReadPool();
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return delegate.getMaxConcurrency();
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,252 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The schema, as the versioned migrations SchemaMigrator applies at startup
+ * (MySqlStudentRepository.initialize()) or from the command line.
+ *
+ * Applied migrations are checksummed, so never edit one: add the next
+ * version instead. Migrations 1 to 4 were idempotent startup checks before
+ * there was a history, and databases set up back then are brought up to
+ * date by running them again, doing only what is missing.
+ */
+final class SchemaMigrations {
+    static final String FULLTEXT_INDEX = "ft_students_search";
+
+    private SchemaMigrations() {}
+
+    static List<SchemaMigrator.Migration> all() {
+        return Arrays.asList(
+            new SchemaMigrator.Migration(1, "Create students table",
+                SchemaMigrator.sql(CREATE_STUDENTS)),
+            // For tables created by older versions of the basic frontend;
+            // updated_at is the row version for optimistic writes
+            new SchemaMigrator.Migration(2, "Add students.updated_at row version",
+                SchemaMigrator.column("students", "updated_at",
+                    "TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP")),
+            new SchemaMigrator.Migration(3, "Track changes for the change feed",
+                SchemaMigrator.index("students", "idx_students_updated_at", "updated_at"),
+                SchemaMigrator.sql(CREATE_DELETIONS),
+                SchemaMigrator.trigger(DELETE_TRIGGER, "CREATE TRIGGER " + DELETE_TRIGGER +
+                    " AFTER DELETE ON students " +
+                    "FOR EACH ROW INSERT INTO student_deletions (student_id) VALUES (OLD.id)")),
+            new SchemaMigrator.Migration(4, "Course dictionary with per-course counts",
+                SchemaMigrator.sql(CREATE_COURSES),
+                SchemaMigrator.column("students", "course_id", "INT NULL"),
+                SchemaMigrator.index("students", "idx_students_course_id", "course_id"),
+                SchemaMigrator.trigger(COURSE_INSERT_TRIGGER, "CREATE TRIGGER " + COURSE_INSERT_TRIGGER +
+                    " BEFORE INSERT ON students " +
+                    "FOR EACH ROW BEGIN " + RESOLVE_COURSE_ID +
+                    "UPDATE courses SET student_count = student_count + 1 WHERE id = NEW.course_id; END"),
+                SchemaMigrator.trigger(COURSE_UPDATE_TRIGGER, "CREATE TRIGGER " + COURSE_UPDATE_TRIGGER +
+                    " BEFORE UPDATE ON students " +
+                    "FOR EACH ROW BEGIN " + RESOLVE_COURSE_ID +
+                    "IF NOT (NEW.course_id <=> OLD.course_id) THEN " +
+                    "UPDATE courses SET student_count = student_count - 1 WHERE id = OLD.course_id; " +
+                    "UPDATE courses SET student_count = student_count + 1 WHERE id = NEW.course_id; " +
+                    "END IF; END"),
+                SchemaMigrator.trigger(COURSE_DELETE_TRIGGER, "CREATE TRIGGER " + COURSE_DELETE_TRIGGER +
+                    " AFTER DELETE ON students " +
+                    "FOR EACH ROW UPDATE courses SET student_count = student_count - 1 WHERE id = OLD.course_id"),
+                // Rows from before the dictionary existed. Touching them is
+                // enough: the update trigger looks up their course and counts
+                // them, and setting updated_at to itself keeps their version.
+                // The statement cannot name courses itself, as a trigger may
+                // not write a table its statement reads.
+                SchemaMigrator.backfill("students", "updated_at = updated_at",
+                    "course_id IS NULL AND course IS NOT NULL")),
+            // findByCourse and the course filter of the HTTP API; name is
+            // only ever searched with LIKE '%term%', which no B-tree serves
+            new SchemaMigrator.Migration(5, "Index students.course",
+                SchemaMigrator.index("students", "idx_students_course", "course")),
+            new SchemaMigrator.Migration(6, "Enrollments, grades and transcripts",
+                SchemaMigrator.sql(CREATE_ENROLLMENTS),
+                SchemaMigrator.sql(CREATE_TRANSCRIPT_STALE),
+                SchemaMigrator.sql(CREATE_TRANSCRIPTS),
+                SchemaMigrator.sql(CREATE_TRANSCRIPT_TERMS),
+                SchemaMigrator.trigger(GRADE_INSERT_TRIGGER, "CREATE TRIGGER " + GRADE_INSERT_TRIGGER +
+                    " AFTER INSERT ON enrollments " +
+                    "FOR EACH ROW IF NEW.grade_points IS NOT NULL THEN " +
+                    markStale("NEW") + " END IF"),
+                SchemaMigrator.trigger(GRADE_UPDATE_TRIGGER, "CREATE TRIGGER " + GRADE_UPDATE_TRIGGER +
+                    " AFTER UPDATE ON enrollments " +
+                    "FOR EACH ROW BEGIN " +
+                    "IF NOT (NEW.student_id <=> OLD.student_id AND NEW.term <=> OLD.term " +
+                    "AND NEW.credits <=> OLD.credits AND NEW.grade_points <=> OLD.grade_points) THEN " +
+                    "IF OLD.grade_points IS NOT NULL THEN " + markStale("OLD") + " END IF; " +
+                    "IF NEW.grade_points IS NOT NULL THEN " + markStale("NEW") + " END IF; " +
+                    "END IF; END"),
+                SchemaMigrator.trigger(GRADE_DELETE_TRIGGER, "CREATE TRIGGER " + GRADE_DELETE_TRIGGER +
+                    " AFTER DELETE ON enrollments " +
+                    "FOR EACH ROW IF OLD.grade_points IS NOT NULL THEN " +
+                    markStale("OLD") + " END IF")),
+            // Tells the change feed an insert under an old id (a restore, or
+            // a sharded id from an older block) from an update. Rows of older
+            // tables get the time of the migration.
+            new SchemaMigrator.Migration(7, "Add students.created_at",
+                SchemaMigrator.column("students", "created_at", "TIMESTAMP DEFAULT CURRENT_TIMESTAMP")));
+    }
+
+    /**
+     * The migrations of a shard directory (db.url when db.shards is set):
+     * all() plus the directory's own tables, which the shards and unsharded
+     * databases do not get. These are numbered from 1001, so the shared
+     * migrations carry on from 7 in the same schema_history.
+     */
+    static List<SchemaMigrator.Migration> directory() {
+        List<SchemaMigrator.Migration> migrations = new ArrayList<>(all());
+        migrations.add(new SchemaMigrator.Migration(1001, "Shard directory: id sequence and email index",
+            SchemaMigrator.sql(CREATE_ID_SEQUENCE),
+            SchemaMigrator.sql("INSERT IGNORE INTO student_id_sequence (id, next_id) VALUES (1, 1)"),
+            SchemaMigrator.sql(CREATE_EMAIL_INDEX)));
+        return migrations;
+    }
+
+    /** The migrations for the database at db.url. */
+    static List<SchemaMigrator.Migration> forUrl(Properties props) {
+        return props.getProperty("db.shards", "").trim().isEmpty() ? all() : directory();
+    }
+
+    /**
+     * Adds the n-gram FULLTEXT index used by FullTextSearchEngine. The n-gram
+     * parser indexes every run of ngram_token_size characters, so it serves
+     * infix and prefix terms as well as whole words. This is not a numbered
+     * migration since only that engine needs it, and the index costs every
+     * write.
+     */
+    static void ensureFullTextIndex(Connection conn) throws SQLException {
+        SchemaMigrator.fullTextIndex("students", FULLTEXT_INDEX, "name, email, phone, course")
+            .apply(conn, new SchemaMigrator());
+    }
+
+    /**
+     * Purges deletion tombstones older than TOMBSTONE_DAYS; a change feed
+     * client that has been away that long reloads in full anyway.
+     */
+    static void purgeTombstones(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DELETE FROM student_deletions " +
+                "WHERE deleted_at < NOW() - INTERVAL " + TOMBSTONE_DAYS + " DAY");
+        }
+    }
+
+    private static final String CREATE_STUDENTS = "CREATE TABLE IF NOT EXISTS students (" +
+        "id INT PRIMARY KEY AUTO_INCREMENT, " +
+        "name VARCHAR(100) NOT NULL, " +
+        "email VARCHAR(100) UNIQUE, " +
+        "phone VARCHAR(15), " +
+        "course VARCHAR(50), " +
+        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+        "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP)";
+
+    // Change tracking for StudentChangeFeed: clients poll updated_at through
+    // its index, and a trigger leaves a tombstone for every delete, whoever
+    // runs it
+    static final String DELETE_TRIGGER = "students_after_delete";
+    static final int TOMBSTONE_DAYS = 7;
+    private static final String CREATE_DELETIONS = "CREATE TABLE IF NOT EXISTS student_deletions (" +
+        "seq BIGINT PRIMARY KEY AUTO_INCREMENT, " +
+        "student_id INT NOT NULL, " +
+        "deleted_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+        "INDEX idx_student_deletions_deleted_at (deleted_at))";
+
+    // The course dictionary: students.course_id points into courses, whose
+    // student_count lets CourseStatistics be read without scanning students.
+    // Triggers do the upkeep, so every client's writes are counted: inserts
+    // and updates look up (or add) the course and move the count, deletes
+    // take it back. They run inside the writing statement, so a write that
+    // fails leaves the counts alone. (TRUNCATE fires no triggers, so it
+    // would leave the counts behind.) The course text stays on students as
+    // well, since search and every query read it from there.
+    static final String COURSE_INSERT_TRIGGER = "students_course_before_insert";
+    static final String COURSE_UPDATE_TRIGGER = "students_course_before_update";
+    static final String COURSE_DELETE_TRIGGER = "students_course_after_delete";
+    private static final String CREATE_COURSES = "CREATE TABLE IF NOT EXISTS courses (" +
+        "id INT PRIMARY KEY AUTO_INCREMENT, " +
+        "name VARCHAR(50) NOT NULL UNIQUE, " +
+        "student_count INT NOT NULL DEFAULT 0)";
+    // Trigger body that points NEW.course_id at NEW.course's dictionary row,
+    // adding the row if this is the first student on the course. The
+    // lookup comes first so that existing courses do not use up
+    // AUTO_INCREMENT values; ON DUPLICATE KEY covers two new students
+    // racing to add the same course.
+    private static final String RESOLVE_COURSE_ID =
+        "IF NEW.course IS NULL THEN SET NEW.course_id = NULL; " +
+        "ELSE " +
+        "SET NEW.course_id = (SELECT id FROM courses WHERE name = NEW.course); " +
+        "IF NEW.course_id IS NULL THEN " +
+        "INSERT INTO courses (name) VALUES (NEW.course) ON DUPLICATE KEY UPDATE name = name; " +
+        "SET NEW.course_id = (SELECT id FROM courses WHERE name = NEW.course); " +
+        "END IF; " +
+        "END IF; ";
+
+    // Enrollments in courses, one per student, course and term, with the
+    // grade once there is one (grade points on a 4-point scale; NULL while
+    // the course is in progress). TranscriptEngine turns them into
+    // student_transcripts (cumulative) and transcript_terms (per term).
+    // Triggers mark a student in transcript_stale whenever a grade that
+    // counts changes, whoever writes it, so a run recomputes only those
+    // students; version tells a mark set again mid-run from the one the
+    // run read. Deleting a student takes their rows along through the
+    // foreign keys (cascades fire no triggers, so nothing is marked).
+    static final String GRADE_INSERT_TRIGGER = "enrollments_after_insert";
+    static final String GRADE_UPDATE_TRIGGER = "enrollments_after_update";
+    static final String GRADE_DELETE_TRIGGER = "enrollments_after_delete";
+    private static final String CREATE_ENROLLMENTS = "CREATE TABLE IF NOT EXISTS enrollments (" +
+        "id INT PRIMARY KEY AUTO_INCREMENT, " +
+        "student_id INT NOT NULL, " +
+        "course_id INT NOT NULL, " +
+        "term VARCHAR(10) NOT NULL, " +
+        "credits DECIMAL(4,1) NOT NULL, " +
+        "grade_points DECIMAL(3,2) NULL, " +
+        "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, " +
+        "UNIQUE KEY uq_enrollments_student_course_term (student_id, course_id, term), " +
+        "INDEX idx_enrollments_course_term (course_id, term), " +
+        "FOREIGN KEY (student_id) REFERENCES students (id) ON DELETE CASCADE, " +
+        "FOREIGN KEY (course_id) REFERENCES courses (id))";
+    private static final String CREATE_TRANSCRIPT_STALE = "CREATE TABLE IF NOT EXISTS transcript_stale (" +
+        "student_id INT PRIMARY KEY, " +
+        "version BIGINT NOT NULL DEFAULT 1, " +
+        "FOREIGN KEY (student_id) REFERENCES students (id) ON DELETE CASCADE)";
+    private static final String CREATE_TRANSCRIPTS = "CREATE TABLE IF NOT EXISTS student_transcripts (" +
+        "student_id INT PRIMARY KEY, " +
+        "credits_attempted DECIMAL(6,1) NOT NULL, " +
+        "credits_earned DECIMAL(6,1) NOT NULL, " +
+        "gpa DECIMAL(4,3) NULL, " +
+        "gpa_rank INT NULL, " +
+        "computed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, " +
+        "INDEX idx_student_transcripts_gpa (gpa), " +
+        "FOREIGN KEY (student_id) REFERENCES students (id) ON DELETE CASCADE)";
+    private static final String CREATE_TRANSCRIPT_TERMS = "CREATE TABLE IF NOT EXISTS transcript_terms (" +
+        "student_id INT NOT NULL, " +
+        "term VARCHAR(10) NOT NULL, " +
+        "credits_attempted DECIMAL(5,1) NOT NULL, " +
+        "credits_earned DECIMAL(5,1) NOT NULL, " +
+        "gpa DECIMAL(4,3) NULL, " +
+        "PRIMARY KEY (student_id, term), " +
+        "FOREIGN KEY (student_id) REFERENCES students (id) ON DELETE CASCADE)";
+
+    // Used only in the database a ShardedStudentRepository keeps its
+    // directory in (db.url): the next id to hand out, taken a block at a
+    // time, and which student each email belongs to, since the shards can
+    // only keep emails unique among their own rows. Deletions are logged in
+    // that database's student_deletions by the repository, not the trigger.
+    private static final String CREATE_ID_SEQUENCE = "CREATE TABLE IF NOT EXISTS student_id_sequence (" +
+        "id TINYINT PRIMARY KEY, " +
+        "next_id INT NOT NULL)";
+    private static final String CREATE_EMAIL_INDEX = "CREATE TABLE IF NOT EXISTS student_emails (" +
+        "email VARCHAR(100) PRIMARY KEY, " +
+        "student_id INT NOT NULL, " +
+        "claimed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+        "INDEX idx_student_emails_student_id (student_id))";
+
+    private static String markStale(String row) {
+        return "INSERT INTO transcript_stale (student_id) VALUES (" + row + ".student_id) " +
+            "ON DUPLICATE KEY UPDATE version = version + 1;";
+    }
+}
@@ -0,0 +1,467 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Applies the versioned schema migrations in SchemaMigrations at startup
+ * and records each one in a schema_history table with a checksum of its
+ * steps. A migration that was applied and has since been edited stops the
+ * start, since the database no longer matches what the code describes.
+ * Several clients starting at once take turns on a named lock.
+ *
+ * Steps only do what is still missing (a column, an index, a trigger), so
+ * a migration that failed halfway, or a database set up before there was
+ * a history, is finished rather than broken by running it again. MySQL
+ * cannot roll DDL back, which is why steps are written that way.
+ *
+ * Changes are made online where MySQL allows it. Indexes are built with
+ * ALGORITHM=INPLACE, LOCK=NONE, so writers carry on during the build; the
+ * ALTER only needs a brief metadata lock at its start and end, and waits
+ * at most lockWaitSeconds for it, so a long transaction cannot leave
+ * writers queued behind the ALTER. Backfills walk the primary key in
+ * chunks of chunkSize rows, each its own short transaction, with an
+ * optional pause between chunks to leave room for the regular load.
+ *
+ * Usage: java SchemaMigrator [--dry-run]
+ */
+final class SchemaMigrator {
+    static final String HISTORY_TABLE = "schema_history";
+    private static final String CREATE_HISTORY = "CREATE TABLE IF NOT EXISTS " + HISTORY_TABLE + " (" +
+        "version INT PRIMARY KEY, " +
+        "description VARCHAR(200) NOT NULL, " +
+        "checksum CHAR(64) NOT NULL, " +
+        "installed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+        "execution_millis BIGINT NOT NULL)";
+    // Held for the whole run, per database
+    private static final String LOCK_NAME = "CONCAT('schema_migrations.', DATABASE())";
+    private static final int LOCK_TIMEOUT_SECONDS = 300;
+
+    /** One step of a migration. */
+    interface Step {
+        /** The DDL or statement this step stands for; the checksum covers it. */
+        String definition();
+
+        void apply(Connection conn, SchemaMigrator migrator) throws SQLException;
+    }
+
+    /** A numbered set of steps, applied and recorded as one. */
+    static final class Migration {
+        final int version;
+        final String description;
+        final List<Step> steps;
+
+        Migration(int version, String description, Step... steps) {
+            this.version = version;
+            this.description = description;
+            this.steps = Arrays.asList(steps);
+        }
+
+        /** SHA-256 of the steps' definitions, in hex. */
+        String checksum() {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                for (Step step : steps) {
+                    digest.update(step.definition().getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) '\n');
+                }
+                StringBuilder hex = new StringBuilder(64);
+                for (byte b : digest.digest()) {
+                    hex.append(String.format("%02x", b));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return version + " " + description;
+        }
+    }
+
+    /** A row of schema_history. */
+    static final class Applied {
+        final int version;
+        final String description;
+        final String checksum;
+        final java.sql.Timestamp installedAt;
+        final long executionMillis;
+
+        Applied(int version, String description, String checksum, java.sql.Timestamp installedAt,
+                long executionMillis) {
+            this.version = version;
+            this.description = description;
+            this.checksum = checksum;
+            this.installedAt = installedAt;
+            this.executionMillis = executionMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%3d  %-50s %s  %,d ms", version, description, installedAt, executionMillis);
+        }
+    }
+
+    private final int chunkSize;
+    private final long chunkPauseMillis;
+    private final int lockWaitSeconds;
+
+    SchemaMigrator(int chunkSize, long chunkPauseMillis, int lockWaitSeconds) {
+        this.chunkSize = chunkSize;
+        this.chunkPauseMillis = chunkPauseMillis;
+        this.lockWaitSeconds = lockWaitSeconds;
+    }
+
+    SchemaMigrator() {
+        this(10_000, 0, 10);
+    }
+
+    static SchemaMigrator fromProperties(Properties props) {
+        return new SchemaMigrator(
+            Integer.parseInt(props.getProperty("db.migrations.chunkSize", "10000").trim()),
+            Long.parseLong(props.getProperty("db.migrations.chunkPauseMillis", "0").trim()),
+            Integer.parseInt(props.getProperty("db.migrations.lockWaitSeconds", "10").trim()));
+    }
+
+    /**
+     * Checks the applied migrations against their checksums and applies the
+     * missing ones in version order. Returns those it applied.
+     */
+    List<Migration> migrate(Connection conn, List<Migration> migrations) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(CREATE_HISTORY);
+        }
+        lock(conn);
+        try {
+            Map<Integer, Applied> applied = history(conn);
+            List<Migration> pending = validate(migrations, applied);
+            for (Migration migration : pending) {
+                apply(conn, migration);
+            }
+            return pending;
+        } finally {
+            unlock(conn);
+        }
+    }
+
+    /** The migrations not yet applied, after checking the applied ones. */
+    List<Migration> pending(Connection conn, List<Migration> migrations) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(CREATE_HISTORY);
+        }
+        return validate(migrations, history(conn));
+    }
+
+    private static List<Migration> validate(List<Migration> migrations, Map<Integer, Applied> applied)
+            throws SQLException {
+        List<Migration> pending = new ArrayList<>();
+        Map<Integer, Migration> known = new TreeMap<>();
+        for (Migration migration : migrations) {
+            known.put(migration.version, migration);
+        }
+        for (Migration migration : known.values()) {
+            Applied done = applied.get(migration.version);
+            if (done == null) {
+                pending.add(migration);
+            } else if (!done.checksum.equals(migration.checksum())) {
+                throw new SQLException("Schema migration " + migration + " has changed since it was applied " +
+                    "on " + done.installedAt + "; add a new migration instead of editing an applied one");
+            }
+        }
+        for (Applied done : applied.values()) {
+            if (!known.containsKey(done.version)) {
+                System.err.println("Warning: the database has schema migration " + done.version + " ("
+                    + done.description + "), which this version does not know");
+            }
+        }
+        return pending;
+    }
+
+    private void apply(Connection conn, Migration migration) throws SQLException {
+        long start = System.currentTimeMillis();
+        for (Step step : migration.steps) {
+            step.apply(conn, this);
+        }
+        long millis = System.currentTimeMillis() - start;
+        try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO " + HISTORY_TABLE +
+                " (version, description, checksum, execution_millis) VALUES (?, ?, ?, ?)")) {
+            pstmt.setInt(1, migration.version);
+            pstmt.setString(2, migration.description);
+            pstmt.setString(3, migration.checksum());
+            pstmt.setLong(4, millis);
+            pstmt.executeUpdate();
+        }
+        System.out.println("Applied schema migration " + migration + " in " + millis + " ms");
+    }
+
+    /** Applied migrations by version. */
+    static Map<Integer, Applied> history(Connection conn) throws SQLException {
+        Map<Integer, Applied> applied = new TreeMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT version, description, checksum, installed_at, " +
+                 "execution_millis FROM " + HISTORY_TABLE + " ORDER BY version")) {
+            while (rs.next()) {
+                applied.put(rs.getInt(1), new Applied(rs.getInt(1), rs.getString(2), rs.getString(3),
+                    rs.getTimestamp(4), rs.getLong(5)));
+            }
+        }
+        return applied;
+    }
+
+    private static void lock(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT GET_LOCK(" + LOCK_NAME + ", " + LOCK_TIMEOUT_SECONDS + ")")) {
+            if (!rs.next() || rs.getInt(1) != 1) {
+                throw new SQLException("Another client has been migrating the schema for over "
+                    + LOCK_TIMEOUT_SECONDS + " s");
+            }
+        }
+    }
+
+    private static void unlock(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DO RELEASE_LOCK(" + LOCK_NAME + ")");
+        }
+    }
+
+    // Steps
+
+    /** Runs a statement that is safe to repeat (CREATE TABLE IF NOT EXISTS and the like). */
+    static Step sql(String statement) {
+        return new Step() {
+            @Override
+            public String definition() {
+                return statement;
+            }
+
+            @Override
+            public void apply(Connection conn, SchemaMigrator migrator) throws SQLException {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute(statement);
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds a column unless the table has it. Adding a nullable column at the
+     * end is done in place and without blocking writers on MySQL 8 (INSTANT)
+     * and 5.7 (INPLACE), so no algorithm is forced here.
+     */
+    static Step column(String table, String column, String definition) {
+        String ddl = "ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition;
+        return new Step() {
+            @Override
+            public String definition() {
+                return ddl;
+            }
+
+            @Override
+            public void apply(Connection conn, SchemaMigrator migrator) throws SQLException {
+                if (!columnExists(conn, table, column)) {
+                    migrator.alter(conn, ddl);
+                }
+            }
+        };
+    }
+
+    /** Adds a secondary index unless the table has one by that name, without blocking writers. */
+    static Step index(String table, String index, String columns) {
+        return index(table, "INDEX " + index + " (" + columns + ")", index, "LOCK=NONE");
+    }
+
+    /**
+     * Adds a FULLTEXT index. InnoDB cannot build one with LOCK=NONE; readers
+     * carry on, writers wait for the build.
+     */
+    static Step fullTextIndex(String table, String index, String columns) {
+        return index(table, "FULLTEXT INDEX " + index + " (" + columns + ") WITH PARSER ngram", index,
+            "LOCK=SHARED");
+    }
+
+    private static Step index(String table, String clause, String index, String lock) {
+        String ddl = "ALTER TABLE " + table + " ADD " + clause + ", ALGORITHM=INPLACE, " + lock;
+        return new Step() {
+            @Override
+            public String definition() {
+                return ddl;
+            }
+
+            @Override
+            public void apply(Connection conn, SchemaMigrator migrator) throws SQLException {
+                if (!indexExists(conn, table, index)) {
+                    migrator.alter(conn, ddl);
+                }
+            }
+        };
+    }
+
+    /** Creates a trigger unless one by that name exists. */
+    static Step trigger(String name, String ddl) {
+        return new Step() {
+            @Override
+            public String definition() {
+                return ddl;
+            }
+
+            @Override
+            public void apply(Connection conn, SchemaMigrator migrator) throws SQLException {
+                if (!triggerExists(conn, name)) {
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.execute(ddl);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * UPDATE table SET assignments WHERE condition, over the table's INT id
+     * in ranges of chunkSize, each committed on its own. The condition
+     * should stop matching rows once they are done, which also makes the
+     * step safe to repeat.
+     */
+    static Step backfill(String table, String assignments, String condition) {
+        String update = "UPDATE " + table + " SET " + assignments + " WHERE id > ? AND id <= ? AND (" + condition + ")";
+        return new Step() {
+            @Override
+            public String definition() {
+                return update;
+            }
+
+            @Override
+            public void apply(Connection conn, SchemaMigrator migrator) throws SQLException {
+                migrator.backfill(conn, table, update, condition);
+            }
+        };
+    }
+
+    // Gives up on the metadata lock after lockWaitSeconds, so a long-running
+    // transaction makes the ALTER fail (and the next start retry) instead
+    // of stalling every write queued behind it
+    private void alter(Connection conn, String ddl) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SET SESSION lock_wait_timeout = " + lockWaitSeconds);
+            try {
+                stmt.execute(ddl);
+            } finally {
+                stmt.execute("SET SESSION lock_wait_timeout = DEFAULT");
+            }
+        } catch (SQLException e) {
+            if (e.getErrorCode() == 1845 || e.getErrorCode() == 1846) {
+                throw new SQLException("This server cannot run \"" + ddl + "\" without blocking writes: "
+                    + e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+            }
+            throw e;
+        }
+    }
+
+    private void backfill(Connection conn, String table, String update, String condition) throws SQLException {
+        int maxId;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM " + table +
+                 " WHERE " + condition)) {
+            rs.next();
+            maxId = rs.getInt(1);
+        }
+        if (maxId == 0) {
+            return;
+        }
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(true);
+        long rows = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(update)) {
+            for (long from = 0; from < maxId; from += chunkSize) {
+                pstmt.setLong(1, from);
+                pstmt.setLong(2, Math.min(from + chunkSize, maxId));
+                rows += pstmt.executeUpdate();
+                if (chunkPauseMillis > 0) {
+                    Thread.sleep(chunkPauseMillis);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Backfill of " + table + " interrupted", e);
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        System.out.println("Backfilled " + rows + " rows of " + table);
+    }
+
+    static boolean triggerExists(Connection conn, String trigger) throws SQLException {
+        return exists(conn, "SELECT 1 FROM information_schema.TRIGGERS " +
+            "WHERE TRIGGER_SCHEMA = DATABASE() AND TRIGGER_NAME = ? LIMIT 1", trigger);
+    }
+
+    static boolean columnExists(Connection conn, String table, String column) throws SQLException {
+        return exists(conn, "SELECT 1 FROM information_schema.COLUMNS " +
+            "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ? LIMIT 1", table, column);
+    }
+
+    static boolean indexExists(Connection conn, String table, String index) throws SQLException {
+        return exists(conn, "SELECT 1 FROM information_schema.STATISTICS " +
+            "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME = ? LIMIT 1", table, index);
+    }
+
+    private static boolean exists(Connection conn, String sql, String... params) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setString(i + 1, params[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean dryRun = false;
+        for (String arg : args) {
+            switch (arg) {
+                case "--dry-run": dryRun = true; break;
+                default:
+                    System.err.println("Unknown option: " + arg);
+                    System.exit(2);
+            }
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream("db.properties")) {
+            props.load(in);
+        } catch (IOException e) {
+            System.err.println("Warning: db.properties not found, using default values");
+        }
+
+        SchemaMigrator migrator = fromProperties(props);
+        try (ConnectionPool pool = ConnectionPool.fromProperties(props);
+             Connection conn = pool.getConnection()) {
+            if (dryRun) {
+                for (Migration migration : migrator.pending(conn, SchemaMigrations.forUrl(props))) {
+                    System.out.println("Pending: " + migration);
+                    for (Step step : migration.steps) {
+                        System.out.println("    " + step.definition());
+                    }
+                }
+            } else {
+                migrator.migrate(conn, SchemaMigrations.forUrl(props));
+            }
+            for (Applied applied : history(conn).values()) {
+                System.out.println(applied);
+            }
+        }
+    }
+}
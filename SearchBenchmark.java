@@ -0,0 +1,78 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Latency benchmark for the search backends.
+ *
+ * Builds the in-memory inverted index over StudentGenerator's students
+ * (1,000,000 by default, seed 42) and times a fixed query mix. With --db it
+ * also runs the same queries through the fulltext and like engines against
+ * the database configured in db.properties, using whatever rows it holds.
+ *
+ * Usage: java SearchBenchmark [rows] [--db]
+ */
+public class SearchBenchmark {
+    private static final String[] QUERIES = {
+        "smith", "jo", "ohn", "john smith", "data science", "example", "5551234", "nonexistent"
+    };
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 200;
+
+    public static void main(String[] args) throws Exception {
+        int rows = 1_000_000;
+        boolean db = false;
+        for (String arg : args) {
+            if (arg.equals("--db")) {
+                db = true;
+            } else {
+                rows = Integer.parseInt(arg.replace("_", ""));
+            }
+        }
+
+        InvertedIndexSearchEngine memory = new InvertedIndexSearchEngine(null);
+        StudentGenerator generator = new StudentGenerator(42);
+        long start = System.nanoTime();
+        for (int id = 1; id <= rows; id++) {
+            memory.studentSaved(generator.student(id));
+        }
+        System.out.printf("Indexed %,d students in %,d ms%n", memory.size(),
+            (System.nanoTime() - start) / 1_000_000);
+        run(memory);
+
+        if (db) {
+            Properties props = new Properties();
+            try (InputStream input = new FileInputStream("db.properties")) {
+                props.load(input);
+            } catch (IOException e) {
+                System.err.println("Warning: db.properties not found, using default values");
+            }
+            try (ConnectionPool pool = ConnectionPool.fromProperties(props)) {
+                FullTextSearchEngine fullText = new FullTextSearchEngine(pool);
+                fullText.initialize();
+                run(fullText);
+                run(new LikeSearchEngine(new MySqlStudentRepository(pool, 1000)));
+            }
+        }
+    }
+
+    private static void run(StudentSearchEngine engine) throws Exception {
+        System.out.printf("%n%-10s %-14s %8s %10s %10s %10s%n", "engine", "query", "hits", "p50 us", "p99 us", "max us");
+        for (String query : QUERIES) {
+            int hits = 0;
+            for (int i = 0; i < WARMUP; i++) {
+                hits = engine.search(query, StudentSearchEngine.DEFAULT_LIMIT).size();
+            }
+            long[] samples = new long[ITERATIONS];
+            for (int i = 0; i < ITERATIONS; i++) {
+                long t = System.nanoTime();
+                engine.search(query, StudentSearchEngine.DEFAULT_LIMIT);
+                samples[i] = (System.nanoTime() - t) / 1000;
+            }
+            Arrays.sort(samples);
+            System.out.printf("%-10s %-14s %8d %10d %10d %10d%n", engine.getName(), query, hits,
+                samples[ITERATIONS / 2], samples[ITERATIONS * 99 / 100], samples[ITERATIONS - 1]);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded LRU of recent search results keyed by normalized search term.
+ *
+ * Any write to the students table must call invalidate(). Searches read the
+ * generation before they start and pass it to put(), so results computed
+ * from data that a write has since changed are never cached.
+ */
+public class SearchResultCache {
+    private final Map<String, List<Student>> entries;
+    private long generation;
+
+    public SearchResultCache(int maxEntries) {
+        entries = new LinkedHashMap<String, List<Student>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Student>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /** Lower-cases and collapses whitespace, so "John  Smith " and "john smith" share an entry. */
+    public static String normalize(String term) {
+        return term.trim().replaceAll("\\s+", " ").toLowerCase();
+    }
+
+    public synchronized List<Student> get(String normalizedTerm) {
+        return entries.get(normalizedTerm);
+    }
+
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public synchronized void put(String normalizedTerm, List<Student> results, long generationAtStart) {
+        if (generationAtStart == generation) {
+            entries.put(normalizedTerm, results);
+        }
+    }
+
+    public synchronized void invalidate() {
+        generation++;
+        entries.clear();
+    }
+}
@@ -0,0 +1,319 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Checks ShardedStudentRepository against the directory (db.url) and shards
+ * (db.shards) in db.properties, e.g. a few databases on one local server.
+ *
+ * It adds students of its own, checks that each lands in shard id % n and
+ * nowhere else, and compares the merged lists, pages, searches and scans
+ * with the shards' rows read one by one. It then checks email uniqueness
+ * across shards (inserts, email changes, stale writes, batches, claims
+ * left behind), the change feed's deletions and undoing a delete. Its
+ * students are deleted again at the end; the rows already there are only
+ * read. Prints ok or FAIL per check and exits with status 1 if any failed.
+ *
+ * Usage: java ShardCheck
+ */
+public class ShardCheck {
+    private static final int STUDENTS = 60;
+
+    private final ShardedStudentRepository sharded;
+    private final List<MySqlStudentRepository> shards;
+    private final ConnectionPool directory;
+    private final String run = Long.toString(System.currentTimeMillis(), 36);
+    private final List<Student> added = new ArrayList<>();
+    private int failures;
+
+    ShardCheck(ShardedStudentRepository sharded, List<MySqlStudentRepository> shards, ConnectionPool directory) {
+        this.sharded = sharded;
+        this.shards = shards;
+        this.directory = directory;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream("db.properties")) {
+            props.load(in);
+        } catch (IOException e) {
+            System.err.println("Warning: db.properties not found, using default values");
+        }
+        if (props.getProperty("db.shards", "").trim().isEmpty()) {
+            System.err.println("Set db.shards in db.properties");
+            System.exit(2);
+        }
+
+        // The shards' tables, read directly to compare with what the sharded repository merges
+        List<MySqlStudentRepository> shards = new ArrayList<>();
+        for (String url : props.getProperty("db.shards", "").split(",")) {
+            if (!url.trim().isEmpty()) {
+                Properties shard = new Properties();
+                shard.putAll(props);
+                shard.setProperty("db.url", url.trim());
+                shards.add(new MySqlStudentRepository(ConnectionPool.fromProperties(shard), 1000));
+            }
+        }
+        int failures;
+        try (ShardedStudentRepository sharded = ShardedStudentRepository.fromProperties(props);
+             ConnectionPool directory = ConnectionPool.fromProperties(props)) {
+            sharded.initialize();
+            ShardCheck check = new ShardCheck(sharded, shards, directory);
+            try {
+                check.run();
+            } finally {
+                check.cleanUp();
+            }
+            failures = check.failures;
+        } finally {
+            for (MySqlStudentRepository shard : shards) {
+                shard.close();
+            }
+        }
+        System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private void run() throws Exception {
+        checkSchema();
+        int before = sharded.count();
+        StudentChanges marks = sharded.snapshot();
+
+        List<Student> batch = new ArrayList<>();
+        for (int i = 0; i < STUDENTS; i++) {
+            batch.add(new Student(0, "Shard Check " + run + " " + i, email(i), null, course()));
+        }
+        batch.add(new Student(0, "Duplicate", email(3).toUpperCase(), null, course()));
+        batch.add(new Student(0, null, "noname." + run + "@example.com", null, course()));
+        List<String> rejected = new ArrayList<>();
+        added.addAll(sharded.insertAll(batch, 16, (i, e) -> rejected.add(i + ":" + e.getErrorCode())));
+        check(added.size() == STUDENTS && rejected.equals(Arrays.asList(STUDENTS + ":1062", (STUDENTS + 1) + ":1048")),
+            "insertAll added " + added.size() + ", refused " + rejected);
+        check(sharded.findByEmail("noname." + run + "@example.com") == null, "a refused row leaves no email claim");
+        checkPlacement();
+        check(sharded.count() == before + STUDENTS, "count " + sharded.count());
+
+        checkReads();
+        checkEmails();
+        checkFeed(marks);
+    }
+
+    // The directory tables are a migration of the directory only
+    private void checkSchema() throws SQLException {
+        check(tableExists(directory, "student_id_sequence") && tableExists(directory, "student_emails"),
+            "directory has the id sequence and email index");
+        boolean any = false;
+        for (MySqlStudentRepository shard : shards) {
+            any |= tableExists(shard.getPool(), "student_id_sequence") || tableExists(shard.getPool(), "student_emails");
+        }
+        check(!any, "shards do not");
+    }
+
+    private void checkPlacement() throws SQLException {
+        Set<Integer> ids = new HashSet<>();
+        boolean placed = true;
+        for (Student student : added) {
+            ids.add(student.getId());
+            for (int i = 0; i < shards.size(); i++) {
+                boolean here = shards.get(i).findById(student.getId()) != null;
+                placed &= here == (student.getId() % shards.size() == i);
+            }
+        }
+        check(ids.size() == STUDENTS, "ids unique");
+        check(placed, "every student in shard id % " + shards.size() + " and no other");
+    }
+
+    private void checkReads() throws SQLException, IOException {
+        List<Student> everyone = new ArrayList<>();
+        for (MySqlStudentRepository shard : shards) {
+            shard.forEach(everyone::add);
+        }
+        everyone.sort(Comparator.comparingInt(Student::getId));
+        int total = everyone.size();
+
+        boolean pages = true;
+        for (int offset : new int[] {0, 1, total / 2, total - 1, total, total + 10}) {
+            List<Student> expected = everyone.subList(Math.min(offset, total), Math.min(offset + 25, total));
+            pages &= ids(sharded.findPage(offset, 25)).equals(ids(expected));
+        }
+        check(pages, "findPage matches the shards' rows in id order at every offset");
+        int middle = everyone.get(total / 2).getId();
+        check(ids(sharded.findAfter(middle, 40)).equals(
+            ids(everyone.subList(total / 2 + 1, Math.min(total / 2 + 41, total)))), "findAfter");
+
+        List<Student> forEach = new ArrayList<>();
+        sharded.forEach(forEach::add);
+        check(ids(forEach).equals(ids(everyone)), "forEach visits " + forEach.size() + " students in id order");
+        check(ids(sharded.findContaining("Shard Check " + run, 1000)).equals(ids(added)), "findContaining");
+        check(ids(sharded.findByCourse(course(), 1000)).equals(ids(added)), "findByCourse");
+        Student some = added.get(7);
+        Student found = sharded.findByEmail(some.getEmail().toUpperCase());
+        check(found != null && found.getId() == some.getId(), "findByEmail ignores case");
+        int inCourse = 0;
+        for (CourseStatistics.Course course : sharded.courseStatistics().getCourses()) {
+            if (course.name.equalsIgnoreCase(course())) {
+                inCourse += course.students;
+            }
+        }
+        check(inCourse == STUDENTS, "courseStatistics adds up the shards' counts");
+    }
+
+    // Emails are unique across shards, not just within one
+    private void checkEmails() throws SQLException {
+        Student a = added.get(0);
+        Student b = sharded.findById(added.get(1).getId());
+        try {
+            sharded.insert(new Student(0, "Duplicate", a.getEmail(), null, course()));
+            check(false, "insert with a taken email refused");
+        } catch (SQLException e) {
+            check(e.getErrorCode() == 1062, "insert with a taken email refused with 1062");
+        }
+        try {
+            sharded.update(new Student(b.getId(), b.getName(), a.getEmail(), null, course(), b.getUpdatedAt()));
+            check(false, "email change to a taken email refused");
+        } catch (SQLException e) {
+            check(e.getErrorCode() == 1062, "email change to a taken email refused with 1062");
+        }
+        String changed = "changed." + run + "@example.com";
+        check(sharded.update(new Student(b.getId(), b.getName(), changed, null, course(), b.getUpdatedAt())),
+            "email change");
+        check(sharded.findByEmail(b.getEmail()) == null && sharded.findByEmail(changed) != null,
+            "old email released");
+        Student reuse = sharded.insert(new Student(0, "Reuses Email", b.getEmail(), null, course()));
+        added.add(reuse);
+        check(reuse.getId() > 0, "released email can be taken again");
+        String stale = "stale." + run + "@example.com";
+        check(!sharded.update(new Student(b.getId(), b.getName(), stale, null, course(), b.getUpdatedAt())),
+            "stale update refused");
+        check(sharded.findByEmail(stale) == null && claimed(stale) == 0, "stale update gives its claim back");
+
+        // Claims left by a client that failed between the claim and the write
+        String orphan = "orphan." + run + "@example.com";
+        String fresh = "fresh." + run + "@example.com";
+        try (Connection conn = directory.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("INSERT INTO student_emails (email, student_id, claimed_at) VALUES ('" + orphan
+                + "', 0, NOW() - INTERVAL " + (ShardedStudentRepository.CLAIM_TIMEOUT_SECONDS + 60) + " SECOND)");
+            stmt.executeUpdate("INSERT INTO student_emails (email, student_id) VALUES ('" + fresh + "', 0)");
+        }
+        try {
+            Student takeover = sharded.insert(new Student(0, "Orphan", orphan, null, course()));
+            added.add(takeover);
+            check(sharded.findByEmail(orphan).getId() == takeover.getId(), "expired claim taken over");
+            try {
+                added.add(sharded.insert(new Student(0, "Fresh", fresh, null, course())));
+                check(false, "recent claim respected");
+            } catch (SQLException e) {
+                check(e.getErrorCode() == 1062, "recent claim respected");
+            }
+        } finally {
+            try (Connection conn = directory.getConnection();
+                 Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("DELETE FROM student_emails WHERE email = '" + fresh + "'");
+            }
+        }
+    }
+
+    private void checkFeed(StudentChanges marks) throws SQLException {
+        Student victim = sharded.findById(added.get(5).getId());
+        check(sharded.delete(victim.getId()), "delete");
+        check(sharded.findByEmail(victim.getEmail()) == null && claimed(victim.getEmail()) == 0,
+            "deleted student's email released");
+        StudentChanges changes = sharded.changesSince(marks.latestVersion, marks.latestDeletion, 1000);
+        boolean seen = false;
+        for (int id : changes.deletedIds) {
+            seen |= id == victim.getId();
+        }
+        check(seen && changes.latestDeletion > marks.latestDeletion, "deletion in the change feed");
+        Set<Integer> changed = new HashSet<>(ids(changes.changed));
+        check(changed.containsAll(ids(added.subList(10, 20))), "added students in the change feed");
+
+        Student restored = sharded.restore(victim);
+        check(restored != null && sharded.findById(victim.getId()) != null
+            && sharded.findByEmail(victim.getEmail()) != null, "undo delete restores the student and email");
+    }
+
+    private void cleanUp() {
+        // Whatever version they have by now
+        List<Student> students = new ArrayList<>(added.size());
+        for (Student student : added) {
+            students.add(student.withUpdatedAt(0));
+        }
+        try {
+            List<String> refused = new ArrayList<>();
+            int deleted = sharded.deleteAll(students, 50, (i, e) -> refused.add(i + ":" + e.getMessage()));
+            check(refused.isEmpty() && claimedByRun() == 0, "removed " + deleted + " students and their emails");
+        } catch (SQLException | IOException e) {
+            check(false, "clean up: " + e.getMessage());
+        }
+    }
+
+    private int claimed(String email) throws SQLException {
+        try (Connection conn = directory.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT COUNT(*) FROM student_emails WHERE email = ?")) {
+            pstmt.setString(1, email);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    private int claimedByRun() throws SQLException {
+        try (Connection conn = directory.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(
+                 "SELECT COUNT(*) FROM student_emails WHERE email LIKE ?")) {
+            pstmt.setString(1, "%." + run + "%@example.com");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    private static boolean tableExists(ConnectionPool pool, String table) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT 1 FROM information_schema.TABLES " +
+                 "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?")) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private String email(int i) {
+        return "student" + i + "." + run + "@example.com";
+    }
+
+    private String course() {
+        return "Shard Check " + run;
+    }
+
+    private static List<Integer> ids(List<Student> students) {
+        List<Integer> ids = new ArrayList<>(students.size());
+        for (Student student : students) {
+            ids.add(student.getId());
+        }
+        return ids;
+    }
+
+    private void check(boolean ok, String what) {
+        System.out.println((ok ? "ok   " : "FAIL ") + what);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,998 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads the students table over several databases (shards) by id: the
+ * student with id i lives in shard i % n. Each shard is a database with
+ * the full schema, read and written through its own pool (and its own
+ * ResilientStudentRepository).
+ *
+ * Ids cannot come from the shards' AUTO_INCREMENT, so they come from a
+ * sequence in a directory database (db.url), which each client takes a
+ * block of idBlockSize at a time; ids stay unique across clients and are
+ * never handed out twice, but a client may still be using up an older
+ * block, so a new row can get a lower id than rows added before it. Rows
+ * are inserted under their id, as restore() does.
+ *
+ * The shards only keep emails unique among their own rows, so the
+ * directory also keeps an index of which student has each email. An
+ * insert (or an email change) claims the email there before the row is
+ * written and fails with 1062 if another student has it; a write the shard
+ * refuses gives the claim back. A claim left behind by a client that
+ * failed in between is taken over once it is CLAIM_TIMEOUT_SECONDS old and
+ * its student does not have the email.
+ *
+ * Lookups, edits and deletes by id go to one shard. Lists and searches ask
+ * every shard in parallel and merge the answers by id. Deletions are
+ * logged in the directory's student_deletions, so the change feed has one
+ * sequence of them whichever shard they were made in.
+ *
+ * Each shard's rows are written as one transaction, but a batch spanning
+ * shards is not one transaction: if a shard fails, the rows sent to the
+ * others stay written. The number of shards cannot change once there are
+ * students in them; split the table again (main()) into a new set instead.
+ *
+ * Usage: java ShardedStudentRepository --split
+ *   copies the students table at db.url into the shards in db.shards,
+ *   keeping their ids; rows already copied are skipped.
+ */
+public class ShardedStudentRepository implements StudentRepository {
+    private interface Read<T> {
+        T read(StudentRepository shard) throws SQLException;
+    }
+
+    private static final Comparator<Student> BY_ID = Comparator.comparingInt(Student::getId);
+    // Far longer than any single write takes
+    static final int CLAIM_TIMEOUT_SECONDS = 60;
+
+    private final MySqlStudentRepository directory;
+    private final List<StudentRepository> shards;
+    private final List<MySqlStudentRepository> tables;
+    private final int idBlockSize;
+    private final int pageSize;
+    private final ExecutorService executor;
+
+    // The ids this client hands out next: nextId up to (not including) blockEnd
+    private int nextId;
+    private int blockEnd;
+
+    /**
+     * shards are MySQL backends, each possibly decorated (unwrap() must
+     * find its MySqlStudentRepository); directory is the database with the
+     * id sequence and the email index, migrated with
+     * SchemaMigrations.directory(). pageSize is the rows per shard per
+     * round trip for forEach().
+     */
+    public ShardedStudentRepository(MySqlStudentRepository directory, List<StudentRepository> shards,
+                                    int idBlockSize, int pageSize) {
+        this.directory = directory;
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        List<MySqlStudentRepository> list = new ArrayList<>(shards.size());
+        for (StudentRepository shard : shards) {
+            MySqlStudentRepository table = StudentRepository.unwrap(shard, MySqlStudentRepository.class);
+            if (table == null) {
+                throw new IllegalArgumentException("Not a MySQL shard: " + shard.getName());
+            }
+            list.add(table);
+        }
+        this.tables = Collections.unmodifiableList(list);
+        this.idBlockSize = Math.max(1, idBlockSize);
+        this.pageSize = Math.max(1, pageSize);
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "shard-query-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Shards from db.shards (comma-separated JDBC URLs), connected with
+     * db.url's user, password and settings; db.shards.maxConnections
+     * (default db.maxConnections) per shard. db.url holds the directory.
+     */
+    public static ShardedStudentRepository fromProperties(Properties props) {
+        int fetchSize = Integer.parseInt(props.getProperty("db.fetchSize", "1000").trim());
+        List<StudentRepository> shards = new ArrayList<>();
+        for (String url : props.getProperty("db.shards", "").split(",")) {
+            if (url.trim().isEmpty()) {
+                continue;
+            }
+            Properties shard = new Properties();
+            shard.putAll(props);
+            shard.setProperty("db.url", url.trim());
+            String maxConnections = props.getProperty("db.shards.maxConnections", "").trim();
+            if (!maxConnections.isEmpty()) {
+                shard.setProperty("db.maxConnections", maxConnections);
+            }
+            shards.add(ResilientStudentRepository.fromProperties(
+                new MySqlStudentRepository(ConnectionPool.fromProperties(shard), fetchSize,
+                    SchemaMigrator.fromProperties(shard)),
+                props));
+        }
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("db.shards lists no databases");
+        }
+        return new ShardedStudentRepository(
+            new MySqlStudentRepository(ConnectionPool.fromProperties(props), fetchSize,
+                SchemaMigrator.fromProperties(props), SchemaMigrations.directory()),
+            shards,
+            Integer.parseInt(props.getProperty("db.shards.idBlockSize", "100").trim()),
+            fetchSize);
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    private int shardOf(int id) {
+        return Math.floorMod(id, shards.size());
+    }
+
+    private StudentRepository shard(int id) {
+        return shards.get(shardOf(id));
+    }
+
+    /** Migrates the directory and every shard, then moves the id sequence past every id in them. */
+    @Override
+    public void initialize() throws SQLException {
+        directory.initialize();
+        List<Callable<Integer>> tasks = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            StudentRepository shard = shards.get(i);
+            ConnectionPool pool = tables.get(i).getPool();
+            tasks.add(() -> {
+                shard.initialize();
+                return queryInt(pool, "SELECT COALESCE(MAX(id), 0) FROM students");
+            });
+        }
+        int latestId = 0;
+        for (int id : all(tasks)) {
+            latestId = Math.max(latestId, id);
+        }
+        try (Connection conn = directory.getPool().getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(
+                 "UPDATE student_id_sequence SET next_id = GREATEST(next_id, ?) WHERE id = 1")) {
+            pstmt.setLong(1, latestId + 1L);
+            pstmt.executeUpdate();
+        }
+    }
+
+    // Ids
+
+    /** count new ids, from this client's block and further blocks as needed. */
+    private synchronized int[] nextIds(int count) throws SQLException {
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (nextId == blockEnd) {
+                // Take what the rest of the request needs in one go
+                int size = Math.max(idBlockSize, count - i);
+                blockEnd = allocate(size);
+                nextId = blockEnd - size;
+            }
+            ids[i] = nextId++;
+        }
+        return ids;
+    }
+
+    // Moves the sequence on by size and returns where it now stands; the
+    // ids before that are ours. LAST_INSERT_ID(expr) hands the new value
+    // back to this connection without a second read of the row.
+    private int allocate(int size) throws SQLException {
+        try (Connection conn = directory.getPool().getConnection()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                     "UPDATE student_id_sequence SET next_id = LAST_INSERT_ID(next_id + ?) WHERE id = 1")) {
+                pstmt.setInt(1, size);
+                if (pstmt.executeUpdate() == 0) {
+                    throw new SQLException("student_id_sequence is empty; run SchemaMigrator on db.url");
+                }
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT LAST_INSERT_ID()");
+                 ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    // The email index
+
+    /**
+     * Claims email for student id. False if id had it already; fails with
+     * 1062 if another student has it.
+     */
+    private boolean claim(Connection conn, String email, int id) throws SQLException {
+        // Each pass either settles it or loses a race to another client
+        for (int attempt = 0; attempt < 3; attempt++) {
+            int owner;
+            boolean expired;
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT student_id, " +
+                     "claimed_at < NOW() - INTERVAL " + CLAIM_TIMEOUT_SECONDS + " SECOND " +
+                     "FROM student_emails WHERE email = ?")) {
+                pstmt.setString(1, email);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        owner = -1;
+                        expired = false;
+                    } else {
+                        owner = rs.getInt(1);
+                        expired = rs.getBoolean(2);
+                    }
+                }
+            }
+            if (owner == id) {
+                return false;
+            }
+            if (owner == -1) {
+                if (execute(conn, "INSERT IGNORE INTO student_emails (email, student_id) VALUES (?, ?)",
+                        email, id) > 0) {
+                    return true;
+                }
+            } else if (!expired || holds(owner, email)) {
+                throw duplicate(email);
+            } else if (execute(conn, "UPDATE student_emails SET student_id = ?, claimed_at = NOW() " +
+                    "WHERE email = ? AND student_id = ?", id, email, owner) > 0) {
+                return true;
+            }
+        }
+        throw duplicate(email);
+    }
+
+    // True if the student's row has the email, so the claim on it stands
+    private boolean holds(int id, String email) throws SQLException {
+        Student student = shard(id).findById(id);
+        return student != null && email.equalsIgnoreCase(student.getEmail());
+    }
+
+    private static SQLException duplicate(String email) {
+        return new SQLIntegrityConstraintViolationException(
+            "Duplicate entry '" + email + "' for key 'students.email'", "23000", 1062);
+    }
+
+    /** Gives back the claims of students whose write did not happen (claimed[i] for students[i]). */
+    private void release(List<Student> students, boolean[] claimed, boolean[] written) {
+        try (Connection conn = directory.getPool().getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(
+                 "DELETE FROM student_emails WHERE email = ? AND student_id = ?")) {
+            for (int i = 0; i < students.size(); i++) {
+                if (claimed[i] && !written[i]) {
+                    pstmt.setString(1, students.get(i).getEmail());
+                    pstmt.setInt(2, students.get(i).getId());
+                    pstmt.addBatch();
+                }
+            }
+            pstmt.executeBatch();
+        } catch (SQLException e) {
+            // They expire in CLAIM_TIMEOUT_SECONDS anyway
+            System.err.println("Warning: email claims not released: " + e.getMessage());
+        }
+    }
+
+    /** Drops the claims on the emails updated students no longer have. */
+    private void releaseOthers(List<Student> updated) {
+        try (Connection conn = directory.getPool().getConnection();
+             PreparedStatement all = conn.prepareStatement("DELETE FROM student_emails WHERE student_id = ?");
+             PreparedStatement others = conn.prepareStatement(
+                 "DELETE FROM student_emails WHERE student_id = ? AND email <> ?")) {
+            for (Student student : updated) {
+                if (student.getEmail() == null) {
+                    all.setInt(1, student.getId());
+                    all.addBatch();
+                } else {
+                    others.setInt(1, student.getId());
+                    others.setString(2, student.getEmail());
+                    others.addBatch();
+                }
+            }
+            all.executeBatch();
+            others.executeBatch();
+        } catch (SQLException e) {
+            System.err.println("Warning: old email claims not released: " + e.getMessage());
+        }
+    }
+
+    /** Drops deleted students' claims and logs their deletions for the change feed, as one transaction. */
+    private void forget(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        try (Connection conn = directory.getPool().getConnection();
+             PreparedStatement release = conn.prepareStatement("DELETE FROM student_emails WHERE student_id = ?");
+             PreparedStatement log = conn.prepareStatement("INSERT INTO student_deletions (student_id) VALUES (?)")) {
+            conn.setAutoCommit(false);
+            for (int id : ids) {
+                release.setInt(1, id);
+                release.addBatch();
+                log.setInt(1, id);
+                log.addBatch();
+            }
+            release.executeBatch();
+            log.executeBatch();
+            conn.commit();
+        } catch (SQLException e) {
+            System.err.println("Warning: " + ids.size() + " deletion(s) not logged in the shard directory: "
+                + e.getMessage());
+        }
+    }
+
+    // Writes
+
+    @Override
+    public Student insert(Student student) throws SQLException {
+        StudentRepository.checkColumns(student);
+        return put(student.withId(nextIds(1)[0]));
+    }
+
+    @Override
+    public Student restore(Student student) throws SQLException {
+        StudentRepository.checkColumns(student);
+        return put(student);
+    }
+
+    // Claims the student's email, then inserts the row under its id
+    private Student put(Student student) throws SQLException {
+        List<Student> one = Collections.singletonList(student);
+        boolean[] claimed = new boolean[1];
+        if (student.getEmail() != null) {
+            try (Connection conn = directory.getPool().getConnection()) {
+                claimed[0] = claim(conn, student.getEmail(), student.getId());
+            }
+        }
+        boolean[] written = new boolean[1];
+        try {
+            Student restored = shard(student.getId()).restore(student);
+            written[0] = true;
+            return restored;
+        } finally {
+            release(one, claimed, written);
+        }
+    }
+
+    @Override
+    public List<Student> insertAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        int[] ids = nextIds(students.size());
+        List<Student> numbered = new ArrayList<>(students.size());
+        for (int i = 0; i < students.size(); i++) {
+            numbered.add(students.get(i).withId(ids[i]));
+        }
+        return restoreAll(numbered, batchSize, rejected);
+    }
+
+    /**
+     * Inserts students under the ids they carry: claims their emails, then
+     * writes each shard's rows as one transaction, the shards in parallel.
+     * Rows that break a constraint, here or in their shard, are passed to
+     * rejected and skipped; the others are returned.
+     */
+    List<Student> restoreAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        Map<Integer, SQLException> failures = new ConcurrentSkipListMap<>();
+        boolean[] claimed = claimAll(students, failures);
+        boolean[] written = new boolean[students.size()];
+        try {
+            all(perShard(students, failures, (shard, group, rows) -> {
+                boolean[] applied = tables.get(shard).restoreAll(rows, batchSize,
+                    (index, cause) -> failures.put(group.get(index), cause));
+                for (int j = 0; j < applied.length; j++) {
+                    written[group.get(j)] = applied[j];
+                }
+            }));
+        } finally {
+            release(students, claimed, written);
+        }
+        report(failures, rejected);
+        List<Student> inserted = new ArrayList<>(students.size());
+        for (int i = 0; i < students.size(); i++) {
+            if (written[i]) {
+                inserted.add(students.get(i));
+            }
+        }
+        return inserted;
+    }
+
+    @Override
+    public boolean update(Student student) throws SQLException {
+        StudentRepository.checkColumns(student);
+        List<Student> one = Collections.singletonList(student);
+        boolean[] claimed = new boolean[1];
+        if (student.getEmail() != null) {
+            try (Connection conn = directory.getPool().getConnection()) {
+                claimed[0] = claim(conn, student.getEmail(), student.getId());
+            }
+        }
+        boolean[] written = new boolean[1];
+        try {
+            written[0] = shard(student.getId()).update(student);
+        } finally {
+            release(one, claimed, written);
+        }
+        if (written[0]) {
+            releaseOthers(one);
+        }
+        return written[0];
+    }
+
+    @Override
+    public List<Student> updateAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        Map<Integer, SQLException> failures = new ConcurrentSkipListMap<>();
+        boolean[] claimed = claimAll(students, failures);
+        Student[] updated = new Student[students.size()];
+        boolean[] written = new boolean[students.size()];
+        try {
+            all(perShard(students, failures, (shard, group, rows) -> {
+                List<Student> applied = shards.get(shard).updateAll(rows, batchSize,
+                    (index, cause) -> failures.put(group.get(index), cause));
+                // applied keeps the input order, without the rejected rows
+                for (int j = 0, u = 0; j < rows.size() && u < applied.size(); j++) {
+                    if (rows.get(j).getId() == applied.get(u).getId()) {
+                        updated[group.get(j)] = applied.get(u++);
+                        written[group.get(j)] = true;
+                    }
+                }
+            }));
+        } finally {
+            release(students, claimed, written);
+            List<Student> done = new ArrayList<>(students.size());
+            for (Student student : updated) {
+                if (student != null) {
+                    done.add(student);
+                }
+            }
+            if (!done.isEmpty()) {
+                releaseOthers(done);
+            }
+        }
+        report(failures, rejected);
+        List<Student> result = new ArrayList<>(students.size());
+        for (Student student : updated) {
+            if (student != null) {
+                result.add(student);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean delete(int id) throws SQLException {
+        boolean deleted = shard(id).delete(id);
+        if (deleted) {
+            forget(Collections.singletonList(id));
+        }
+        return deleted;
+    }
+
+    @Override
+    public int deleteAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        Map<Integer, SQLException> failures = new ConcurrentSkipListMap<>();
+        boolean[] deleted = new boolean[students.size()];
+        try {
+            all(perShard(students, failures, (shard, group, rows) -> {
+                boolean[] skipped = new boolean[rows.size()];
+                shards.get(shard).deleteAll(rows, batchSize, (index, cause) -> {
+                    skipped[index] = true;
+                    failures.put(group.get(index), cause);
+                });
+                for (int j = 0; j < rows.size(); j++) {
+                    deleted[group.get(j)] = !skipped[j];
+                }
+            }));
+        } finally {
+            List<Integer> ids = new ArrayList<>();
+            for (int i = 0; i < students.size(); i++) {
+                if (deleted[i]) {
+                    ids.add(students.get(i).getId());
+                }
+            }
+            forget(ids);
+        }
+        report(failures, rejected);
+        int count = 0;
+        for (boolean b : deleted) {
+            count += b ? 1 : 0;
+        }
+        return count;
+    }
+
+    // Checks the rows and claims their emails on one connection; rows that
+    // fail go into failures by index. Returns which claims are new.
+    private boolean[] claimAll(List<Student> students, Map<Integer, SQLException> failures) throws SQLException {
+        boolean[] claimed = new boolean[students.size()];
+        try (Connection conn = directory.getPool().getConnection()) {
+            for (int i = 0; i < students.size(); i++) {
+                Student student = students.get(i);
+                try {
+                    StudentRepository.checkColumns(student);
+                    claimed[i] = student.getEmail() != null && claim(conn, student.getEmail(), student.getId());
+                } catch (SQLException e) {
+                    if (!MySqlStudentRepository.isRowError(e)) {
+                        // The claims made so far expire
+                        throw e;
+                    }
+                    failures.put(i, e);
+                }
+            }
+        }
+        return claimed;
+    }
+
+    // A batch write of the rows a shard holds: group is their indexes in the whole batch
+    private interface ShardWrite {
+        void write(int shard, List<Integer> group, List<Student> rows) throws SQLException, IOException;
+    }
+
+    // One task per shard with rows in students that have not already failed
+    private List<Callable<Void>> perShard(List<Student> students, Map<Integer, SQLException> failures,
+                                          ShardWrite write) {
+        List<List<Integer>> groups = new ArrayList<>(shards.size());
+        for (int s = 0; s < shards.size(); s++) {
+            groups.add(new ArrayList<>());
+        }
+        for (int i = 0; i < students.size(); i++) {
+            if (!failures.containsKey(i)) {
+                groups.get(shardOf(students.get(i).getId())).add(i);
+            }
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int s = 0; s < shards.size(); s++) {
+            int shard = s;
+            List<Integer> group = groups.get(s);
+            if (group.isEmpty()) {
+                continue;
+            }
+            List<Student> rows = new ArrayList<>(group.size());
+            for (int i : group) {
+                rows.add(students.get(i));
+            }
+            tasks.add(() -> {
+                write.write(shard, group, rows);
+                return null;
+            });
+        }
+        return tasks;
+    }
+
+    // Rejections in input order, once every shard is done
+    private static void report(Map<Integer, SQLException> failures, RejectHandler rejected) throws IOException {
+        for (Map.Entry<Integer, SQLException> failure : failures.entrySet()) {
+            rejected.rejected(failure.getKey(), failure.getValue());
+        }
+    }
+
+    // Reads
+
+    @Override
+    public Student findById(int id) throws SQLException {
+        return shard(id).findById(id);
+    }
+
+    /** Looked up in the email index, then in the student's shard. */
+    @Override
+    public Student findByEmail(String email) throws SQLException {
+        int id;
+        try (Connection conn = directory.getPool().getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT student_id FROM student_emails WHERE email = ?")) {
+            AsyncDataAccess.track(pstmt);
+            pstmt.setString(1, email);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                id = rs.getInt(1);
+            }
+        }
+        // A claim whose write has not happened (or never will) is not a student
+        Student student = findById(id);
+        return student != null && email.equalsIgnoreCase(student.getEmail()) ? student : null;
+    }
+
+    @Override
+    public List<Student> findByCourse(String course, int limit) throws SQLException {
+        return merge(scatter(shard -> shard.findByCourse(course, limit)), 0, limit);
+    }
+
+    @Override
+    public List<Student> findContaining(String text, int limit) throws SQLException {
+        return merge(scatter(shard -> shard.findContaining(text, limit)), 0, limit);
+    }
+
+    @Override
+    public List<Student> findAfter(int afterId, int limit) throws SQLException {
+        return merge(scatter(shard -> shard.findAfter(afterId, limit)), 0, limit);
+    }
+
+    /**
+     * No shard knows where a position falls overall, so: take the row at
+     * offset / n in every shard and the lowest of their ids; count the rows
+     * before that id in every shard; then read on from it, skipping the
+     * difference. Each shard has at most offset / n rows before the lowest
+     * id, so at most offset are skipped in all, and only a few when the
+     * shards hold similar numbers of rows, as they do with ids handed out
+     * in turn.
+     */
+    @Override
+    public List<Student> findPage(int offset, int limit) throws SQLException {
+        if (offset == 0) {
+            return merge(scatter(shard -> shard.findPage(0, limit)), 0, limit);
+        }
+        int perShard = offset / shards.size();
+        int from = Integer.MAX_VALUE;
+        for (List<Student> row : scatter(shard -> shard.findPage(perShard, 1))) {
+            if (!row.isEmpty()) {
+                from = Math.min(from, row.get(0).getId());
+            }
+        }
+        if (from == Integer.MAX_VALUE) {
+            // No shard has more than offset / n rows, so there are no more than offset
+            return new ArrayList<>();
+        }
+        int start = from;
+        List<Callable<Integer>> counts = new ArrayList<>(shards.size());
+        for (MySqlStudentRepository table : tables) {
+            counts.add(() -> queryInt(table.getPool(), "SELECT COUNT(*) FROM students WHERE id < ?", start));
+        }
+        long before = 0;
+        for (int count : all(counts)) {
+            before += count;
+        }
+        int skip = (int) (offset - before);
+        int wanted = (int) Math.min(Integer.MAX_VALUE, (long) skip + limit);
+        return merge(scatter(shard -> shard.findAfter(start - 1, wanted)), skip, limit);
+    }
+
+    @Override
+    public int count() throws SQLException {
+        int count = 0;
+        for (int shardCount : scatter(StudentRepository::count)) {
+            count += shardCount;
+        }
+        return count;
+    }
+
+    /** Every shard is read a page at a time by id, the next page fetched while this one is merged. */
+    @Override
+    public void forEach(RowHandler handler) throws SQLException, IOException {
+        List<Cursor> cursors = new ArrayList<>(shards.size());
+        try {
+            for (StudentRepository shard : shards) {
+                cursors.add(new Cursor(shard));
+            }
+            while (true) {
+                Cursor lowest = null;
+                for (Cursor cursor : cursors) {
+                    Student head = cursor.peek();
+                    if (head != null && (lowest == null || head.getId() < lowest.peek().getId())) {
+                        lowest = cursor;
+                    }
+                }
+                if (lowest == null) {
+                    return;
+                }
+                handler.row(lowest.take());
+            }
+        } finally {
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    // One shard's rows in id order, with its next page on the way
+    private final class Cursor {
+        private final StudentRepository shard;
+        private List<Student> page = Collections.emptyList();
+        private int position;
+        private Future<List<Student>> next;
+
+        Cursor(StudentRepository shard) {
+            this.shard = shard;
+            next = fetch(0);
+        }
+
+        private Future<List<Student>> fetch(int afterId) {
+            return executor.submit(AsyncDataAccess.inCurrentJob(() -> shard.findAfter(afterId, pageSize)));
+        }
+
+        Student peek() throws SQLException {
+            if (position == page.size()) {
+                if (next == null) {
+                    return null;
+                }
+                page = await(next);
+                position = 0;
+                next = page.size() < pageSize ? null : fetch(page.get(page.size() - 1).getId());
+                if (page.isEmpty()) {
+                    return null;
+                }
+            }
+            return page.get(position);
+        }
+
+        Student take() {
+            return page.get(position++);
+        }
+
+        void close() {
+            if (next != null) {
+                next.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * The shards' counts and marks added up, and the deletion mark of the
+     * directory's log (see MySqlStudentRepository.DELETION_MARK). The shards are read in parallel rather than
+     * at one instant; the change feed's overlap window covers the gap.
+     */
+    @Override
+    public StudentChanges snapshot() throws SQLException {
+        // Before the shards, so a delete in between is seen again rather than missed
+        long latestDeletion = queryLong(directory.getPool(), MySqlStudentRepository.DELETION_MARK);
+        int rowCount = 0;
+        int latestId = 0;
+        long latestVersion = 0;
+        for (StudentChanges marks : scatter(StudentRepository::snapshot)) {
+            rowCount += marks.rowCount;
+            latestId = Math.max(latestId, marks.latestId);
+            latestVersion = Math.max(latestVersion, marks.latestVersion);
+        }
+        return StudentChanges.marks(rowCount, latestId, latestVersion, latestDeletion);
+    }
+
+    @Override
+    public StudentChanges changesSince(long sinceVersion, long afterDeletion, int limit) throws SQLException {
+        // Tombstones before rows, as MySqlStudentRepository reads them. The
+        // shards' own tombstones are skipped: deletions come from the directory's log
+        List<long[]> deletions = MySqlStudentRepository.deletionsAfter(directory.getPool(), afterDeletion, limit);
+        boolean truncated = deletions.size() > limit;
+        if (truncated) {
+            deletions.remove(limit);
+        }
+        int[] deletedIds = new int[deletions.size()];
+        long[] deletionSeqs = new long[deletions.size()];
+        for (int i = 0; i < deletedIds.length; i++) {
+            deletionSeqs[i] = deletions.get(i)[0];
+            deletedIds[i] = (int) deletions.get(i)[1];
+        }
+
+        List<StudentChanges> parts = scatter(shard -> shard.changesSince(sinceVersion, Long.MAX_VALUE, limit));
+        List<Student> changed = new ArrayList<>();
+        Map<Integer, Long> createdVersions = new HashMap<>();
+        boolean shardTruncated = false;
+        long latestVersion = sinceVersion;
+        long truncatedAt = Long.MAX_VALUE;
+        for (StudentChanges part : parts) {
+            changed.addAll(part.changed);
+            createdVersions.putAll(part.createdVersions);
+            latestVersion = Math.max(latestVersion, part.latestVersion);
+            if (part.truncated) {
+                shardTruncated = true;
+                truncatedAt = Math.min(truncatedAt, part.latestVersion);
+            }
+        }
+        // A shard that was cut short has more changes after its last
+        // version, which the next call must start from; rows the others
+        // gave past that point are read again then
+        if (shardTruncated) {
+            truncated = true;
+            latestVersion = truncatedAt;
+        }
+        changed.sort(BY_ID);
+        return new StudentChanges(changed, createdVersions, deletedIds, deletionSeqs, truncated, -1, -1,
+            latestVersion, deletionSeqs.length > 0 ? deletionSeqs[deletionSeqs.length - 1] : afterDeletion);
+    }
+
+    /** Each shard's counts, added up per course (ignoring case, as the dictionaries match them). */
+    @Override
+    public CourseStatistics courseStatistics() throws SQLException {
+        Map<String, String> names = new HashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (CourseStatistics statistics : scatter(StudentRepository::courseStatistics)) {
+            for (CourseStatistics.Course course : statistics.getCourses()) {
+                String key = course.name.toLowerCase();
+                names.putIfAbsent(key, course.name);
+                counts.merge(key, course.students, Integer::sum);
+            }
+        }
+        List<CourseStatistics.Course> list = new ArrayList<>(counts.size());
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            list.add(new CourseStatistics.Course(names.get(entry.getKey()), entry.getValue()));
+        }
+        return new CourseStatistics(list);
+    }
+
+    // Scatter-gather
+
+    // The same read of every shard, in parallel; the answers in shard order
+    private <T> List<T> scatter(Read<T> read) throws SQLException {
+        List<Callable<T>> tasks = new ArrayList<>(shards.size());
+        for (StudentRepository shard : shards) {
+            tasks.add(() -> read.read(shard));
+        }
+        return all(tasks);
+    }
+
+    // Runs the tasks in parallel, as part of the caller's AsyncDataAccess job.
+    // Waits for all of them, so nothing is still running when one failure
+    // is thrown.
+    private <T> List<T> all(List<Callable<T>> tasks) throws SQLException {
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(executor.submit(AsyncDataAccess.inCurrentJob(task)));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        SQLException failure = null;
+        for (Future<T> future : futures) {
+            try {
+                results.add(await(future));
+            } catch (SQLException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    private static <T> T await(Future<T> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            throw new SQLException("Interrupted while waiting for a shard", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    // Each part is in id order, so this sort is a merge of sorted runs
+    // (which is what List.sort() does with them)
+    private static List<Student> merge(List<List<Student>> parts, int skip, int limit) {
+        List<Student> rows = new ArrayList<>();
+        for (List<Student> part : parts) {
+            rows.addAll(part);
+        }
+        rows.sort(BY_ID);
+        int from = Math.min(skip, rows.size());
+        int to = (int) Math.min(rows.size(), (long) from + limit);
+        return new ArrayList<>(rows.subList(from, to));
+    }
+
+    private static int execute(Connection conn, String sql, Object... params) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setObject(i + 1, params[i]);
+            }
+            return pstmt.executeUpdate();
+        }
+    }
+
+    private static long queryLong(ConnectionPool pool, String sql, Object... params) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            AsyncDataAccess.track(pstmt);
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setObject(i + 1, params[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private static int queryInt(ConnectionPool pool, String sql, Object... params) throws SQLException {
+        return (int) queryLong(pool, sql, params);
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        int total = 0;
+        for (StudentRepository shard : shards) {
+            total += shard.getMaxConcurrency();
+        }
+        return total;
+    }
+
+    /** Null: the rows are in several databases, so SQL-only features are off. */
+    @Override
+    public ConnectionPool getPool() {
+        return null;
+    }
+
+    @Override
+    public String getName() {
+        return "mysql+" + shards.size() + "-shards";
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (StudentRepository shard : shards) {
+            shard.close();
+        }
+        directory.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1 || !"--split".equals(args[0])) {
+            System.err.println("Usage: java ShardedStudentRepository --split");
+            System.exit(2);
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream("db.properties")) {
+            props.load(in);
+        } catch (IOException e) {
+            System.err.println("Warning: db.properties not found, using default values");
+        }
+        int batchSize = Integer.parseInt(props.getProperty("import.batchSize", "1000").trim());
+
+        try (ShardedStudentRepository sharded = fromProperties(props);
+             MySqlStudentRepository source = new MySqlStudentRepository(ConnectionPool.fromProperties(props),
+                 Integer.parseInt(props.getProperty("db.fetchSize", "1000").trim()))) {
+            sharded.initialize();
+            long started = System.currentTimeMillis();
+            int[] copied = {0};
+            int[] skipped = {0};
+            List<Student> chunk = new ArrayList<>(batchSize);
+            RejectHandler rejected = (index, cause) -> {
+                // Already copied by an earlier run, or a duplicate email
+                skipped[0]++;
+            };
+            source.forEach(student -> {
+                chunk.add(student);
+                if (chunk.size() == batchSize) {
+                    try {
+                        copied[0] += sharded.restoreAll(chunk, batchSize, rejected).size();
+                    } catch (SQLException e) {
+                        throw new IOException(e);
+                    }
+                    chunk.clear();
+                }
+            });
+            copied[0] += sharded.restoreAll(chunk, batchSize, rejected).size();
+            // Past the ids just copied
+            sharded.initialize();
+            System.out.printf("Copied %d students into %d shards in %d ms (%d skipped)%n",
+                copied[0], sharded.getShardCount(), System.currentTimeMillis() - started, skipped[0]);
+        }
+    }
+}
@@ -0,0 +1,464 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a copy of the students table in a local StudentSnapshot, so a
+ * desktop client starts from it without waiting for the database and keeps
+ * working while the database is out of reach.
+ *
+ * With a snapshot on disk, initialize() returns at once and reads are served
+ * from the snapshot while a background thread connects, migrates and brings
+ * the snapshot up to date, after which reads go to the database. A read
+ * that finds the database unreachable later falls back to the snapshot the
+ * same way, until the database answers again. Without a snapshot,
+ * initialize() waits for the database, and the first snapshot is written
+ * in the background.
+ *
+ * The snapshot catches up as the change feed does: rows whose updated_at is
+ * at or after its cursor (less overlapMillis) and deletion tombstones after
+ * it, rewritten to a new file only if something changed. If more changed
+ * than maxChanges, or the tombstones the cursor needs may have been purged,
+ * the whole table is copied instead.
+ *
+ * While offline, writes fail with CircuitBreaker.Unavailable without being
+ * sent, so a WriteBehindStudentRepository in outage mode on top queues
+ * updates and deletes, carrying the version the row had in the snapshot,
+ * and applies them once the database is back; a row someone else changed
+ * meanwhile is reported as a conflict, not overwritten. New students need
+ * the database for their ids.
+ */
+public class SnapshotStudentRepository implements StudentRepository {
+    /** Heard on the thread that noticed the change. */
+    public interface Listener {
+        /** online is false while reads are served from the snapshot. */
+        void stateChanged(boolean online);
+    }
+
+    private interface Read<T> {
+        T read() throws SQLException;
+    }
+
+    private interface LocalRead<T> {
+        T read(StudentSnapshot snapshot);
+    }
+
+    private final StudentRepository delegate;
+    private final Path file;
+    private final long refreshMillis;
+    private final long retryMillis;
+    private final long overlapMillis;
+    private final int maxChanges;
+    private final ScheduledExecutorService scheduler;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile StudentSnapshot snapshot;
+    private volatile boolean online = true;
+    // Only touched on the snapshot thread (and in initialize(), before it starts)
+    private boolean migrated;
+    private long lastRefresh;
+    private long caughtUpAt;
+
+    public SnapshotStudentRepository(StudentRepository delegate, Path file, long refreshMillis, long retryMillis,
+                                     long overlapMillis, int maxChanges) {
+        this.delegate = delegate;
+        this.file = file;
+        this.refreshMillis = refreshMillis;
+        this.retryMillis = Math.max(100, retryMillis);
+        this.overlapMillis = overlapMillis;
+        this.maxChanges = maxChanges;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "student-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** The snapshot at snapshot.file, caught up with the change feed's sync.overlapMillis. */
+    public static SnapshotStudentRepository fromProperties(StudentRepository delegate, Properties props) {
+        return new SnapshotStudentRepository(delegate,
+            Paths.get(props.getProperty("snapshot.file").trim()),
+            Long.parseLong(props.getProperty("snapshot.refreshMillis", "60000").trim()),
+            Long.parseLong(props.getProperty("snapshot.retryMillis", "5000").trim()),
+            Long.parseLong(props.getProperty("sync.overlapMillis", "5000").trim()),
+            Integer.parseInt(props.getProperty("snapshot.maxChanges", "10000").trim()));
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    /** The snapshot reads fall back to; null until the first one is written. */
+    public StudentSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public StudentRepository getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void initialize() throws SQLException {
+        StudentSnapshot saved = null;
+        try {
+            saved = StudentSnapshot.open(file);
+            if (saved != null && !saved.getSource().equals(source())) {
+                System.err.println("Warning: ignoring " + file + ", which was taken from " + saved.getSource());
+                saved = null;
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Warning: ignoring " + file + ": " + e.getMessage());
+        }
+        if (saved == null) {
+            delegate.initialize();
+            migrated = true;
+        } else {
+            snapshot = saved;
+            caughtUpAt = saved.getSavedAt();
+            online = false;
+        }
+        scheduler.scheduleWithFixedDelay(this::tick, 0, retryMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // The database, without connection options, which may change freely
+    private String source() {
+        ConnectionPool pool = delegate.getPool();
+        return pool != null ? pool.getUrl().split("\\?", 2)[0] : delegate.getName();
+    }
+
+    // Every retryMillis; does nothing while online until refreshMillis have passed
+    private void tick() {
+        long now = System.currentTimeMillis();
+        if (online && snapshot != null && now - lastRefresh < refreshMillis) {
+            return;
+        }
+        lastRefresh = now;
+        try {
+            if (!migrated) {
+                delegate.initialize();
+                migrated = true;
+            }
+            try {
+                snapshot = refreshed(snapshot);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Warning: could not save the student snapshot: " + e.getMessage());
+            }
+            setOnline(true);
+        } catch (SQLException e) {
+            if (ResilientStudentRepository.isUnreachable(e)) {
+                setOnline(false);
+            } else {
+                System.err.println("Warning: could not refresh the student snapshot: " + e.getMessage());
+            }
+        } catch (RuntimeException e) {
+            // Thrown out of here, it would stop the schedule
+            System.err.println("Warning: could not refresh the student snapshot: " + e);
+        }
+    }
+
+    private synchronized void setOnline(boolean now) {
+        if (now == online || (!now && snapshot == null)) {
+            return;
+        }
+        online = now;
+        System.err.println(now ? "Student snapshot caught up; reading from the database"
+            : "Warning: database unreachable; reading from the student snapshot");
+        for (Listener listener : listeners) {
+            listener.stateChanged(now);
+        }
+    }
+
+    // The snapshot brought up to date: the same one if nothing changed
+    private StudentSnapshot refreshed(StudentSnapshot current) throws SQLException, IOException {
+        long tombstoneAge = System.currentTimeMillis() - caughtUpAt;
+        if (current == null || tombstoneAge > (SchemaMigrations.TOMBSTONE_DAYS - 1) * 86_400_000L) {
+            return copied();
+        }
+        StudentChanges marks = delegate.snapshot();
+        StudentChanges changes = delegate.changesSince(
+            Math.max(0, current.getLatestVersion() - overlapMillis), current.getLatestDeletion(), maxChanges);
+        if (changes.truncated) {
+            return copied();
+        }
+        long checkedAt = System.currentTimeMillis();
+
+        // Rows from the overlap window the snapshot already has are not changes
+        List<Student> changed = new ArrayList<>();
+        for (Student student : changes.changed) {
+            if (!sameRow(student, current.findById(student.getId()))) {
+                changed.add(student);
+            }
+        }
+        SortedIntSet deleted = new SortedIntSet(changes.deletedIds.length);
+        for (int id : changes.deletedIds) {
+            deleted.add(id);
+        }
+        // Deleted and changed (restored, say): the database knows which came last
+        for (int i = changed.size() - 1; i >= 0; i--) {
+            int id = changed.get(i).getId();
+            if (deleted.remove(id)) {
+                Student now = delegate.findById(id);
+                if (now != null) {
+                    changed.set(i, now);
+                } else {
+                    changed.remove(i);
+                    deleted.add(id);
+                }
+            }
+        }
+
+        int expected = current.size();
+        for (Student student : changed) {
+            if (current.indexOf(student.getId()) < 0) {
+                expected++;
+            }
+        }
+        for (int i = 0; i < deleted.size(); i++) {
+            if (current.indexOf(deleted.get(i)) >= 0) {
+                expected--;
+            }
+        }
+        // Nothing happened after the marks were read, so the counts must
+        // agree; if not, a change was missed and the table is copied again
+        if (changes.latestVersion <= marks.latestVersion && changes.latestDeletion <= marks.latestDeletion
+                && expected != marks.rowCount) {
+            return copied();
+        }
+        caughtUpAt = checkedAt;
+        if (changed.isEmpty() && deleted.size() == 0) {
+            return current;
+        }
+        return StudentSnapshot.write(file, source(), handler -> {
+            int next = 0;
+            for (int position = 0; position < current.size(); position++) {
+                int id = current.idAt(position);
+                while (next < changed.size() && changed.get(next).getId() < id) {
+                    handler.row(changed.get(next++));
+                }
+                if (next < changed.size() && changed.get(next).getId() == id) {
+                    handler.row(changed.get(next++));
+                } else if (!deleted.contains(id)) {
+                    handler.row(current.get(position));
+                }
+            }
+            while (next < changed.size()) {
+                handler.row(changed.get(next++));
+            }
+        }, Math.max(current.getLatestVersion(), changes.latestVersion), changes.latestDeletion);
+    }
+
+    // The cursor is read first, so rows written during the copy are caught up again next time
+    private StudentSnapshot copied() throws SQLException, IOException {
+        long startedAt = System.currentTimeMillis();
+        StudentChanges marks = delegate.snapshot();
+        StudentSnapshot copy = StudentSnapshot.write(file, source(), delegate::forEach,
+            marks.latestVersion, marks.latestDeletion);
+        caughtUpAt = startedAt;
+        return copy;
+    }
+
+    private static boolean sameRow(Student a, Student b) {
+        return b != null && a.getUpdatedAt() == b.getUpdatedAt()
+            && Objects.equals(a.getName(), b.getName()) && Objects.equals(a.getEmail(), b.getEmail())
+            && Objects.equals(a.getPhone(), b.getPhone()) && Objects.equals(a.getCourse(), b.getCourse());
+    }
+
+    // From the database while online; from the snapshot while offline, or
+    // once the database turns out to be unreachable
+    private <T> T read(Read<T> fromDatabase, LocalRead<T> fromSnapshot) throws SQLException {
+        StudentSnapshot local = snapshot;
+        if (!online && local != null) {
+            return fromSnapshot.read(local);
+        }
+        try {
+            return fromDatabase.read();
+        } catch (SQLException e) {
+            if (local == null || !ResilientStudentRepository.isUnreachable(e)) {
+                throw e;
+            }
+            setOnline(false);
+            return fromSnapshot.read(local);
+        }
+    }
+
+    private void checkOnline() throws CircuitBreaker.Unavailable {
+        if (!online) {
+            throw new CircuitBreaker.Unavailable(retryMillis);
+        }
+    }
+
+    @Override
+    public Student insert(Student student) throws SQLException {
+        checkOnline();
+        return delegate.insert(student);
+    }
+
+    @Override
+    public List<Student> insertAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        checkOnline();
+        return delegate.insertAll(students, batchSize, rejected);
+    }
+
+    @Override
+    public boolean update(Student student) throws SQLException {
+        checkOnline();
+        return delegate.update(student);
+    }
+
+    @Override
+    public List<Student> updateAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        checkOnline();
+        return delegate.updateAll(students, batchSize, rejected);
+    }
+
+    @Override
+    public int deleteAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        checkOnline();
+        return delegate.deleteAll(students, batchSize, rejected);
+    }
+
+    @Override
+    public boolean delete(int id) throws SQLException {
+        checkOnline();
+        return delegate.delete(id);
+    }
+
+    @Override
+    public Student restore(Student student) throws SQLException {
+        checkOnline();
+        return delegate.restore(student);
+    }
+
+    @Override
+    public Student findById(int id) throws SQLException {
+        return read(() -> delegate.findById(id), local -> local.findById(id));
+    }
+
+    @Override
+    public Student findByEmail(String email) throws SQLException {
+        return read(() -> delegate.findByEmail(email), local -> {
+            List<Student> found = local.find(s -> email.equalsIgnoreCase(s.getEmail()), 1);
+            return found.isEmpty() ? null : found.get(0);
+        });
+    }
+
+    @Override
+    public List<Student> findByCourse(String course, int limit) throws SQLException {
+        return read(() -> delegate.findByCourse(course, limit),
+            local -> local.find(s -> course.equalsIgnoreCase(s.getCourse()), limit));
+    }
+
+    @Override
+    public List<Student> findContaining(String text, int limit) throws SQLException {
+        String term = text.trim().toLowerCase();
+        return read(() -> delegate.findContaining(text, limit), local -> local.find(s ->
+            StudentSearchEngine.containsIgnoreCase(s.getName(), term)
+                || StudentSearchEngine.containsIgnoreCase(s.getEmail(), term)
+                || StudentSearchEngine.containsIgnoreCase(s.getCourse(), term)
+                || StudentSearchEngine.containsIgnoreCase(s.getPhone(), term), limit));
+    }
+
+    @Override
+    public List<Student> findAfter(int afterId, int limit) throws SQLException {
+        return read(() -> delegate.findAfter(afterId, limit), local -> local.findAfter(afterId, limit));
+    }
+
+    @Override
+    public List<Student> findPage(int offset, int limit) throws SQLException {
+        return read(() -> delegate.findPage(offset, limit), local -> local.findPage(offset, limit));
+    }
+
+    @Override
+    public int count() throws SQLException {
+        return read(delegate::count, StudentSnapshot::size);
+    }
+
+    // Falls back only until the first row has been handed over
+    @Override
+    public void forEach(RowHandler handler) throws SQLException, IOException {
+        StudentSnapshot local = snapshot;
+        if (!online && local != null) {
+            local.forEach(handler);
+            return;
+        }
+        boolean[] started = new boolean[1];
+        try {
+            delegate.forEach(student -> {
+                started[0] = true;
+                handler.row(student);
+            });
+        } catch (SQLException e) {
+            if (started[0] || local == null || !ResilientStudentRepository.isUnreachable(e)) {
+                throw e;
+            }
+            setOnline(false);
+            local.forEach(handler);
+        }
+    }
+
+    @Override
+    public StudentChanges snapshot() throws SQLException {
+        return read(delegate::snapshot, StudentSnapshot::marks);
+    }
+
+    // Offline, nothing changes: the cursor stays put, so a change feed
+    // picks up everything since the snapshot once the database is back
+    @Override
+    public StudentChanges changesSince(long sinceVersion, long afterDeletion, int limit) throws SQLException {
+        return read(() -> delegate.changesSince(sinceVersion, afterDeletion, limit),
+            local -> StudentChanges.marks(-1, -1, sinceVersion, afterDeletion));
+    }
+
+    @Override
+    public CourseStatistics courseStatistics() throws SQLException {
+        return read(delegate::courseStatistics, StudentSnapshot::courseStatistics);
+    }
+
+    @Override
+    public ConnectionPool getPool() {
+        return delegate.getPool();
+    }
+
+    @Override
+    public ConnectionPool getReadPool() {
+        return delegate.getReadPool();
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return delegate.getMaxConcurrency();
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName() + "+snapshot";
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.close();
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.Arrays;
+
+/**
+ * A set of ints kept in one sorted array. Appending a value larger than any
+ * in the set (the usual case for AUTO_INCREMENT ids) is O(1); other inserts
+ * and removals shift the tail. Positional access makes offset paging cheap.
+ * Not thread-safe.
+ */
+final class SortedIntSet {
+    private int[] values;
+    private int size;
+
+    SortedIntSet() {
+        this(8);
+    }
+
+    SortedIntSet(int capacity) {
+        values = new int[Math.max(1, capacity)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** The value at the given position in ascending order. */
+    int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return values[index];
+    }
+
+    boolean contains(int value) {
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    boolean add(int value) {
+        int at;
+        if (size == 0 || value > values[size - 1]) {
+            at = size;
+        } else {
+            at = Arrays.binarySearch(values, 0, size, value);
+            if (at >= 0) {
+                return false;
+            }
+            at = -at - 1;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        System.arraycopy(values, at, values, at + 1, size - at);
+        values[at] = value;
+        size++;
+        return true;
+    }
+
+    boolean remove(int value) {
+        int at = Arrays.binarySearch(values, 0, size, value);
+        if (at < 0) {
+            return false;
+        }
+        System.arraycopy(values, at + 1, values, at, size - at - 1);
+        size--;
+        return true;
+    }
+
+    /** Position of the first value greater than the given one (size if none). */
+    int indexAfter(int value) {
+        int at = Arrays.binarySearch(values, 0, size, value);
+        return at >= 0 ? at + 1 : -at - 1;
+    }
+}
@@ -0,0 +1,18 @@
+import java.sql.SQLException;
+
+/**
+ * An update or delete that was skipped because the row was deleted, or
+ * changed by someone else, after the version the write was based on.
+ */
+public class StaleWriteException extends SQLException {
+    private final int studentId;
+
+    public StaleWriteException(int studentId) {
+        super("Student " + studentId + " was changed or deleted by someone else");
+        this.studentId = studentId;
+    }
+
+    public int getStudentId() {
+        return studentId;
+    }
+}
@@ -0,0 +1,41 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * When each step of startup finished, counted from JVM start, for tracking
+ * how long the window takes to appear and the first rows to show.
+ *
+ * The time before main() (JVM boot and loading the first classes, which a
+ * CDS archive shortens) is worked out from the JVM's uptime when the report
+ * is made, so the management classes stay off the startup path.
+ */
+final class StartupTimeline {
+    private final long mainNanos = System.nanoTime();
+    private final List<String> steps = new ArrayList<>();
+    private final List<Long> nanos = new ArrayList<>();
+
+    /** Records that step has just finished. Safe from any thread. */
+    synchronized void mark(String step) {
+        steps.add(step);
+        nanos.add(System.nanoTime() - mainNanos);
+    }
+
+    /** One line: main, then each step, with when it finished counted from JVM start. */
+    synchronized String report() {
+        long sinceMain = System.nanoTime() - mainNanos;
+        long beforeMain = Math.max(0, ManagementFactory.getRuntimeMXBean().getUptime() * 1_000_000 - sinceMain);
+        StringBuilder out = new StringBuilder("main ").append(beforeMain / 1_000_000).append(" ms");
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < steps.size(); i++) {
+            order.add(i);
+        }
+        // Steps finish on different threads; list them as they happened
+        order.sort((a, b) -> Long.compare(nanos.get(a), nanos.get(b)));
+        for (int i : order) {
+            out.append(" \u00b7 ").append(steps.get(i)).append(' ')
+                .append((beforeMain + nanos.get(i)) / 1_000_000).append(" ms");
+        }
+        return out.toString();
+    }
+}
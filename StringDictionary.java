@@ -0,0 +1,50 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gives each distinct string a small int code, for columns that repeat a
+ * few values over many rows (course). Codes start at 0 and are never
+ * reused; null is -1. Safe for concurrent use.
+ */
+final class StringDictionary {
+    private final Map<String, Integer> codes = new HashMap<>();
+    // Grown by copying, so decode() can read it without locking
+    private volatile String[] values = new String[16];
+    private int size;
+
+    synchronized int encode(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        String[] current = values;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size] = value;
+        values = current;
+        codes.put(value, size);
+        return size++;
+    }
+
+    String decode(int code) {
+        return code < 0 ? null : values[code];
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /** Rough bytes held, counting each value's characters once. */
+    synchronized long heapBytes() {
+        long bytes = 16 + 16 + 4L * values.length + 48L * size;
+        for (int i = 0; i < size; i++) {
+            bytes += 40 + 2L * values[i].length();
+        }
+        return bytes;
+    }
+}
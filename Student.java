@@ -0,0 +1,99 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * One row of the students table.
+ */
+public class Student {
+    // Column list shared by every query that builds a Student
+    public static final String COLUMNS = "id, name, email, phone, course, updated_at";
+
+    private final int id;
+    private final String name;
+    private final String email;
+    private final String phone;
+    private final String course;
+    // updated_at in epoch millis, the row version for optimistic writes; 0 if unknown
+    private final long updatedAt;
+
+    public Student(int id, String name, String email, String phone, String course) {
+        this(id, name, email, phone, course, 0);
+    }
+
+    public Student(int id, String name, String email, String phone, String course, long updatedAt) {
+        this.id = id;
+        this.name = name;
+        this.email = email;
+        this.phone = phone;
+        this.course = course;
+        this.updatedAt = updatedAt;
+    }
+
+    // Reads the row selected with COLUMNS
+    public static Student fromResultSet(ResultSet rs) throws SQLException {
+        Timestamp updated = rs.getTimestamp(6);
+        return new Student(
+            rs.getInt(1),
+            rs.getString(2),
+            rs.getString(3),
+            rs.getString(4),
+            rs.getString(5),
+            updated != null ? updated.getTime() : 0);
+    }
+
+    /** A copy of this student with a different id, e.g. the one generated on insert. */
+    public Student withId(int newId) {
+        return new Student(newId, name, email, phone, course, updatedAt);
+    }
+
+    /** A copy of this student carrying a different row version. */
+    public Student withUpdatedAt(long version) {
+        return new Student(id, name, email, phone, course, version);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getPhone() {
+        return phone;
+    }
+
+    public String getCourse() {
+        return course;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    // Value for the ID, Name, Email, Phone, Course table columns
+    public Object getColumn(int column) {
+        switch (column) {
+            case 0: return id;
+            case 1: return name;
+            case 2: return email;
+            case 3: return phone;
+            case 4: return course;
+            default: throw new IndexOutOfBoundsException("column " + column);
+        }
+    }
+
+    public Object[] toRow() {
+        return new Object[]{id, name, email, phone, course};
+    }
+
+    @Override
+    public String toString() {
+        return "Student[" + id + ", " + name + "]";
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the students table for rows other clients (or this one) inserted,
+ * updated or deleted, so a desktop client can apply just those deltas
+ * instead of re-reading the whole table.
+ *
+ * Inserts and updates are found by updated_at, deletions by the tombstones
+ * the delete trigger leaves in student_deletions. updated_at only has
+ * one-second resolution and is set when a statement runs rather than when
+ * it commits, and write-behind clients stamp it with their own clock, so
+ * each poll looks back overlapMillis before the newest version seen. Rows
+ * in that window arrive more than once; applying them is idempotent.
+ * Tombstones are numbered as the delete runs, not as it commits, so the
+ * deletion cursor stops short of a gap in the numbers until the delete
+ * behind it has had time to commit (see MySqlStudentRepository).
+ *
+ * Polls run one at a time on a daemon thread, which is also the thread
+ * listeners are called on.
+ */
+public class StudentChangeFeed implements AutoCloseable {
+    /** Called on the feed's thread; hand Swing work to the EDT. */
+    public interface Listener {
+        /**
+         * Changes since the last call. If changes.truncated, more changed
+         * than one poll carries and the feed has skipped ahead to the
+         * present; whatever depends on the table should reload.
+         */
+        void changes(StudentChanges changes);
+
+        default void failed(Exception cause) {}
+    }
+
+    private final StudentRepository repository;
+    private final long overlapMillis;
+    private final int maxChanges;
+    private final ScheduledExecutorService scheduler;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Only touched on the feed's thread
+    private boolean started;
+    private long latestVersion;
+    private long latestDeletion;
+
+    /** pollMillis of 0 only polls when asked to with pollNow(). */
+    public StudentChangeFeed(StudentRepository repository, long pollMillis, long overlapMillis, int maxChanges) {
+        this.repository = repository;
+        this.overlapMillis = overlapMillis;
+        this.maxChanges = maxChanges;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "student-change-feed");
+            t.setDaemon(true);
+            return t;
+        });
+        // The first poll only takes the starting cursor
+        scheduler.execute(this::poll);
+        if (pollMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static StudentChangeFeed fromProperties(StudentRepository repository, Properties props) {
+        return new StudentChangeFeed(repository,
+            Long.parseLong(props.getProperty("sync.pollMillis", "2000").trim()),
+            Long.parseLong(props.getProperty("sync.overlapMillis", "5000").trim()),
+            Integer.parseInt(props.getProperty("sync.maxChanges", "2000").trim()));
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /** Polls as soon as the feed's thread is free, e.g. right after a local write. */
+    public void pollNow() {
+        try {
+            scheduler.execute(this::poll);
+        } catch (RejectedExecutionException e) {
+            // Closed
+        }
+    }
+
+    private void poll() {
+        try {
+            if (!started) {
+                // Changes before this are already in whatever the listeners
+                // loaded at startup, give or take the overlap window
+                skipToPresent();
+                started = true;
+                return;
+            }
+            StudentChanges changes = repository.changesSince(
+                Math.max(0, latestVersion - overlapMillis), latestDeletion, maxChanges);
+            if (changes.truncated) {
+                skipToPresent();
+            } else {
+                latestVersion = Math.max(latestVersion, changes.latestVersion);
+                latestDeletion = changes.latestDeletion;
+            }
+            if (!changes.isEmpty()) {
+                for (Listener listener : listeners) {
+                    listener.changes(changes);
+                }
+            }
+        } catch (Exception e) {
+            for (Listener listener : listeners) {
+                listener.failed(e);
+            }
+        }
+    }
+
+    private void skipToPresent() throws java.sql.SQLException {
+        StudentChanges marks = repository.snapshot();
+        latestVersion = marks.latestVersion;
+        latestDeletion = marks.latestDeletion;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What changed in the students table since a StudentChangeFeed cursor:
+ * inserted or updated rows (by updated_at) and deleted ids (by tombstone
+ * sequence number). Also carries the high-water marks a new cursor starts
+ * from, see StudentRepository.snapshot().
+ */
+public final class StudentChanges {
+    /** Inserted or updated rows, in id order. */
+    public final List<Student> changed;
+    /**
+     * When rows in changed were inserted (or restored), as versions, by id;
+     * empty where the backend does not record it. An update and an insert
+     * under an old id look the same otherwise.
+     */
+    public final Map<Integer, Long> createdVersions;
+    /** Deleted ids and their tombstone sequence numbers, in sequence order. */
+    public final int[] deletedIds;
+    public final long[] deletionSeqs;
+    /** More changes were waiting than the limit allowed; reload instead. */
+    public final boolean truncated;
+    /** Row count, only from snapshot(); -1 otherwise. */
+    public final int rowCount;
+    /** Highest id in the table, only from snapshot(); -1 otherwise. */
+    public final int latestId;
+    /** Highest updated_at seen, or the cursor it was asked for if nothing changed. */
+    public final long latestVersion;
+    /** Highest tombstone sequence number seen, or the cursor if nothing was deleted. */
+    public final long latestDeletion;
+
+    public StudentChanges(List<Student> changed, int[] deletedIds, long[] deletionSeqs, boolean truncated,
+                          int rowCount, int latestId, long latestVersion, long latestDeletion) {
+        this(changed, Collections.<Integer, Long>emptyMap(), deletedIds, deletionSeqs, truncated,
+            rowCount, latestId, latestVersion, latestDeletion);
+    }
+
+    public StudentChanges(List<Student> changed, Map<Integer, Long> createdVersions, int[] deletedIds,
+                          long[] deletionSeqs, boolean truncated, int rowCount, int latestId,
+                          long latestVersion, long latestDeletion) {
+        this.changed = Collections.unmodifiableList(changed);
+        this.createdVersions = Collections.unmodifiableMap(createdVersions);
+        this.deletedIds = deletedIds;
+        this.deletionSeqs = deletionSeqs;
+        this.truncated = truncated;
+        this.rowCount = rowCount;
+        this.latestId = latestId;
+        this.latestVersion = latestVersion;
+        this.latestDeletion = latestDeletion;
+    }
+
+    /** High-water marks with no changes attached. */
+    static StudentChanges marks(int rowCount, int latestId, long latestVersion, long latestDeletion) {
+        return new StudentChanges(Collections.<Student>emptyList(), new int[0], new long[0], false,
+            rowCount, latestId, latestVersion, latestDeletion);
+    }
+
+    public boolean isEmpty() {
+        return changed.isEmpty() && deletedIds.length == 0 && !truncated;
+    }
+
+    @Override
+    public String toString() {
+        return changed.size() + " changed, " + deletedIds.length + " deleted" + (truncated ? " (truncated)" : "");
+    }
+}
@@ -0,0 +1,326 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.function.Supplier;
+
+/**
+ * Students stored column by column instead of as one object per row: ids
+ * and versions in primitive arrays, name, email and phone as UTF-8 bytes
+ * packed into one array per column, and course as a code into a
+ * StringDictionary that several stores can share. Generated students take
+ * about 12 MB per 100k rows this way, against 23 MB as Student objects and
+ * 29 MB as DefaultTableModel rows (run main() for the figures).
+ *
+ * Values are decoded when asked for, so a table reads only the cells it
+ * paints. Not thread-safe; the table models only touch it on the EDT.
+ *
+ * Usage: java StudentColumns [rows]   (heap footprint per 100k rows)
+ */
+public final class StudentColumns {
+    private final StringDictionary courses;
+    private int size;
+    private int[] ids;
+    private long[] versions;
+    private int[] courseCodes;
+    private final TextColumn names;
+    private final TextColumn emails;
+    private final TextColumn phones;
+
+    public StudentColumns() {
+        this(new StringDictionary(), 16);
+    }
+
+    StudentColumns(StringDictionary courses, int capacity) {
+        this.courses = courses;
+        capacity = Math.max(1, capacity);
+        ids = new int[capacity];
+        versions = new long[capacity];
+        courseCodes = new int[capacity];
+        names = new TextColumn(capacity, 16);
+        emails = new TextColumn(capacity, 32);
+        phones = new TextColumn(capacity, 12);
+    }
+
+    static StudentColumns of(List<Student> students, StringDictionary courses) {
+        StudentColumns columns = new StudentColumns(courses, students.size());
+        for (Student student : students) {
+            columns.add(student);
+        }
+        return columns;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getId(int row) {
+        return ids[check(row)];
+    }
+
+    public long getUpdatedAt(int row) {
+        return versions[check(row)];
+    }
+
+    public String getName(int row) {
+        return names.get(check(row));
+    }
+
+    public String getEmail(int row) {
+        return emails.get(check(row));
+    }
+
+    public String getPhone(int row) {
+        return phones.get(check(row));
+    }
+
+    public String getCourse(int row) {
+        return courses.decode(courseCodes[check(row)]);
+    }
+
+    /** Value for the ID, Name, Email, Phone, Course table columns, as Student.getColumn(). */
+    public Object getValue(int row, int column) {
+        switch (column) {
+            case 0: return getId(row);
+            case 1: return getName(row);
+            case 2: return getEmail(row);
+            case 3: return getPhone(row);
+            case 4: return getCourse(row);
+            default: throw new IndexOutOfBoundsException("column " + column);
+        }
+    }
+
+    public Student get(int row) {
+        return new Student(getId(row), getName(row), getEmail(row), getPhone(row), getCourse(row),
+            versions[row]);
+    }
+
+    /** The row holding the student with this id, or -1. */
+    public int indexOf(int id) {
+        for (int row = 0; row < size; row++) {
+            if (ids[row] == id) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    public void add(Student student) {
+        if (size == ids.length) {
+            int capacity = size + (size >> 1) + 1;
+            ids = Arrays.copyOf(ids, capacity);
+            versions = Arrays.copyOf(versions, capacity);
+            courseCodes = Arrays.copyOf(courseCodes, capacity);
+        }
+        ids[size] = student.getId();
+        versions[size] = student.getUpdatedAt();
+        courseCodes[size] = courses.encode(student.getCourse());
+        names.add(student.getName());
+        emails.add(student.getEmail());
+        phones.add(student.getPhone());
+        size++;
+    }
+
+    public void set(int row, Student student) {
+        check(row);
+        ids[row] = student.getId();
+        versions[row] = student.getUpdatedAt();
+        courseCodes[row] = courses.encode(student.getCourse());
+        names.set(row, student.getName());
+        emails.set(row, student.getEmail());
+        phones.set(row, student.getPhone());
+    }
+
+    public void remove(int row) {
+        check(row);
+        int moved = size - row - 1;
+        System.arraycopy(ids, row + 1, ids, row, moved);
+        System.arraycopy(versions, row + 1, versions, row, moved);
+        System.arraycopy(courseCodes, row + 1, courseCodes, row, moved);
+        names.remove(row);
+        emails.remove(row);
+        phones.remove(row);
+        size--;
+    }
+
+    public void clear() {
+        size = 0;
+        names.clear();
+        emails.clear();
+        phones.clear();
+    }
+
+    /** Bytes held by this store's arrays, not counting a shared dictionary. */
+    public long heapBytes() {
+        return 16L * 3 + 16 + 4L * ids.length + 16 + 8L * versions.length + 16 + 4L * courseCodes.length
+            + names.heapBytes() + emails.heapBytes() + phones.heapBytes();
+    }
+
+    private int check(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + " of " + size);
+        }
+        return row;
+    }
+
+    /**
+     * Strings as UTF-8 runs in one byte array. A replaced value is written
+     * at the end and its old bytes left as garbage until there is as much
+     * garbage as live text, when the array is compacted.
+     */
+    private static final class TextColumn {
+        private byte[] bytes;
+        private int used;
+        private int garbage;
+        private int[] starts;
+        // -1 for null
+        private int[] lengths;
+        private int rows;
+
+        TextColumn(int capacity, int bytesPerRow) {
+            bytes = new byte[capacity * bytesPerRow];
+            starts = new int[capacity];
+            lengths = new int[capacity];
+        }
+
+        String get(int row) {
+            int length = lengths[row];
+            return length < 0 ? null : new String(bytes, starts[row], length, StandardCharsets.UTF_8);
+        }
+
+        void add(String value) {
+            if (rows == starts.length) {
+                int capacity = rows + (rows >> 1) + 1;
+                starts = Arrays.copyOf(starts, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+            write(rows++, value);
+        }
+
+        void set(int row, String value) {
+            if (lengths[row] > 0) {
+                garbage += lengths[row];
+            }
+            write(row, value);
+            if (garbage > used - garbage) {
+                compact();
+            }
+        }
+
+        void remove(int row) {
+            if (lengths[row] > 0) {
+                garbage += lengths[row];
+            }
+            rows--;
+            System.arraycopy(starts, row + 1, starts, row, rows - row);
+            System.arraycopy(lengths, row + 1, lengths, row, rows - row);
+            if (garbage > used - garbage) {
+                compact();
+            }
+        }
+
+        void clear() {
+            used = 0;
+            garbage = 0;
+            rows = 0;
+        }
+
+        private void write(int row, String value) {
+            if (value == null) {
+                starts[row] = 0;
+                lengths[row] = -1;
+                return;
+            }
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            if (used + encoded.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(used + encoded.length, bytes.length + (bytes.length >> 1)));
+            }
+            System.arraycopy(encoded, 0, bytes, used, encoded.length);
+            starts[row] = used;
+            lengths[row] = encoded.length;
+            used += encoded.length;
+        }
+
+        private void compact() {
+            byte[] packed = new byte[Math.max(16, (used - garbage) + ((used - garbage) >> 2))];
+            int position = 0;
+            for (int row = 0; row < rows; row++) {
+                if (lengths[row] > 0) {
+                    System.arraycopy(bytes, starts[row], packed, position, lengths[row]);
+                    starts[row] = position;
+                    position += lengths[row];
+                }
+            }
+            bytes = packed;
+            used = position;
+            garbage = 0;
+        }
+
+        long heapBytes() {
+            return 16L * 3 + bytes.length + 4L * starts.length + 4L * lengths.length;
+        }
+    }
+
+    // Holds what is being measured, so the JIT cannot drop it early
+    private static Object retained;
+
+    // Heap after a full collection, as near as the JVM will say
+    private static long usedHeap(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    // Heap with the result held less heap once it is let go, which leaves
+    // out anything the build left behind
+    private static long measure(MemoryMXBean memory, Supplier<Object> build) {
+        retained = build.get();
+        long held = usedHeap(memory);
+        retained = null;
+        return held - usedHeap(memory);
+    }
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0].replace("_", "")) : 100_000;
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        StudentGenerator generator = new StudentGenerator(42);
+        double per100k = 100_000.0 / rows / 1e6;
+
+        // What DefaultTableModel held: a Vector of Vectors of boxed values
+        long vectorBytes = measure(memory, () -> {
+            Vector<Vector<Object>> vectors = new Vector<>();
+            for (int i = 0; i < rows; i++) {
+                vectors.add(new Vector<>(Arrays.asList(generator.student(i + 1).toRow())));
+            }
+            return vectors;
+        });
+        long listBytes = measure(memory, () -> {
+            List<Student> list = new ArrayList<>();
+            for (int i = 0; i < rows; i++) {
+                list.add(generator.student(i + 1));
+            }
+            return list;
+        });
+        long columnBytes = measure(memory, () -> {
+            StudentColumns columns = new StudentColumns();
+            for (int i = 0; i < rows; i++) {
+                columns.add(generator.student(i + 1));
+            }
+            return columns;
+        });
+        StudentColumns columns = new StudentColumns();
+        for (int i = 0; i < rows; i++) {
+            columns.add(generator.student(i + 1));
+        }
+
+        System.out.printf("%,d rows; heap per 100k rows:%n", rows);
+        System.out.printf("  Vector<Vector<Object>> (DefaultTableModel)  %6.1f MB%n", vectorBytes * per100k);
+        System.out.printf("  List<Student>                               %6.1f MB%n", listBytes * per100k);
+        System.out.printf("  StudentColumns                              %6.1f MB (%.1f MB by its own count)%n",
+            columnBytes * per100k, columns.heapBytes() * per100k);
+    }
+}
@@ -0,0 +1,517 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams the students table to a file in constant memory.
+ *
+ * Rows come from StudentRepository.forEach() (on MySQL a forward-only result
+ * set that the driver streams row by row, or with db.useCursorFetch=true
+ * fetches from a server-side cursor db.fetchSize rows at a time), and are
+ * written through a fixed-size buffer to a file channel, optionally gzipped.
+ *
+ * Formats:
+ *   csv      - header line, then RFC 4180 rows
+ *   jsonl    - one JSON object per line
+ *   columnar - a compact binary format (.scol) made of row groups:
+ *
+ *     header:    "SCOL" int version=1
+ *                int columnCount, then per column: utf8 name, byte type
+ *                (1 = int, 2 = string, 3 = dictionary string)
+ *     row group: int rowCount, then per column: int byteLength, data
+ *                int columns: zig-zag varint delta from the previous value
+ *                string columns: per row varint (length + 1, 0 = null), bytes
+ *                dictionary columns: varint entries, entries as strings,
+ *                then per row varint (entry index + 1, 0 = null)
+ *     trailer:   int 0, long totalRows
+ *
+ *   All ints are big-endian; "utf8" is a varint byte length plus the bytes.
+ *
+ * Usage: java StudentExporter <file> [--format csv|jsonl|columnar] [--gzip]
+ */
+public class StudentExporter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    public enum Format {
+        CSV, JSONL, COLUMNAR;
+
+        public static Format forFile(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            if (name.endsWith(".gz")) {
+                name = name.substring(0, name.length() - 3);
+            }
+            if (name.endsWith(".jsonl") || name.endsWith(".ndjson")) {
+                return JSONL;
+            }
+            return name.endsWith(".scol") ? COLUMNAR : CSV;
+        }
+    }
+
+    /** Supplies rows to write, in order; StudentRepository::forEach is one. */
+    public interface RowSource {
+        void forEach(StudentRepository.RowHandler handler) throws IOException, SQLException;
+    }
+
+    /** Receives the number of rows written so far, on the exporting thread. */
+    public interface ProgressListener {
+        void progress(long rows);
+    }
+
+    private final StudentRepository repository;
+    private int rowGroupSize = 65536;
+    private ProgressListener progressListener;
+
+    /** repository may be null if rows only come from a RowSource. */
+    public StudentExporter(StudentRepository repository) {
+        this.repository = repository;
+    }
+
+    /** Rows per row group in the columnar format. */
+    public void setRowGroupSize(int rowGroupSize) {
+        this.rowGroupSize = rowGroupSize;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Writes every student, in id order, and returns the row count. The rows
+     * go to a ".part" file that replaces the output only once it is complete.
+     */
+    public long export(Path output, Format format, boolean gzip) throws IOException, SQLException {
+        return export(output, format, gzip, repository::forEach);
+    }
+
+    /** Like export(output, format, gzip), with rows from source instead of the repository. */
+    public long export(Path output, Format format, boolean gzip, RowSource source)
+            throws IOException, SQLException {
+        Path partial = output.resolveSibling(output.getFileName() + ".part");
+        boolean done = false;
+        try {
+            long rows = export(partial, format, gzip, output, source);
+            Files.move(partial, output, StandardCopyOption.REPLACE_EXISTING);
+            done = true;
+            return rows;
+        } finally {
+            if (!done) {
+                Files.deleteIfExists(partial);
+            }
+        }
+    }
+
+    private long export(Path partial, Format format, boolean gzip, Path output, RowSource source)
+            throws IOException, SQLException {
+        try (ExportSink sink = open(partial, format, gzip)) {
+            long[] rows = {0};
+            source.forEach(student -> {
+                if (AsyncDataAccess.isCancelled()) {
+                    throw new IOException("Export of " + output.getFileName() + " cancelled");
+                }
+                sink.write(student);
+                if (progressListener != null && ++rows[0] % 10_000 == 0) {
+                    progressListener.progress(rows[0]);
+                }
+            });
+            sink.finish(rows[0]);
+            if (progressListener != null) {
+                progressListener.progress(rows[0]);
+            }
+            return rows[0];
+        }
+    }
+
+    ExportSink open(Path output, Format format, boolean gzip) throws IOException {
+        ChannelWriter out = new ChannelWriter(output, gzip);
+        switch (format) {
+            case JSONL:
+                return new JsonLinesSink(out);
+            case COLUMNAR:
+                return new ColumnarSink(out, rowGroupSize);
+            default:
+                return new CsvSink(out);
+        }
+    }
+
+    interface ExportSink extends AutoCloseable {
+        void write(Student student) throws IOException;
+
+        void finish(long rows) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    /** Buffers bytes and writes them to a file channel, optionally through gzip. */
+    static final class ChannelWriter implements AutoCloseable {
+        private final FileChannel file;
+        private final OutputStream gzipStream;
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        ChannelWriter(Path output, boolean gzip) throws IOException {
+            file = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            if (gzip) {
+                gzipStream = new GZIPOutputStream(Channels.newOutputStream(file), BUFFER_SIZE);
+                channel = Channels.newChannel(gzipStream);
+            } else {
+                gzipStream = null;
+                channel = file;
+            }
+        }
+
+        void put(byte[] bytes) throws IOException {
+            put(bytes, 0, bytes.length);
+        }
+
+        void put(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int n = Math.min(length, buffer.remaining());
+                buffer.put(bytes, offset, n);
+                offset += n;
+                length -= n;
+            }
+        }
+
+        void putString(String value) throws IOException {
+            put(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putByte(int value) throws IOException {
+            ensure(1);
+            buffer.put((byte) value);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+                if (gzipStream != null) {
+                    gzipStream.close();
+                }
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    static final class CsvSink implements ExportSink {
+        private final ChannelWriter out;
+        private final StringBuilder line = new StringBuilder(128);
+
+        CsvSink(ChannelWriter out) throws IOException {
+            this.out = out;
+            out.putString("id,name,email,phone,course\n");
+        }
+
+        @Override
+        public void write(Student s) throws IOException {
+            line.setLength(0);
+            line.append(s.getId()).append(',')
+                .append(CsvReader.escape(s.getName())).append(',')
+                .append(CsvReader.escape(s.getEmail())).append(',')
+                .append(CsvReader.escape(s.getPhone())).append(',')
+                .append(CsvReader.escape(s.getCourse())).append('\n');
+            out.putString(line.toString());
+        }
+
+        @Override
+        public void finish(long rows) {
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    static final class JsonLinesSink implements ExportSink {
+        private final ChannelWriter out;
+        private final StringBuilder line = new StringBuilder(160);
+
+        JsonLinesSink(ChannelWriter out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(Student s) throws IOException {
+            line.setLength(0);
+            line.append("{\"id\":").append(s.getId()).append(",\"name\":");
+            Json.appendQuoted(line, s.getName());
+            line.append(",\"email\":");
+            Json.appendQuoted(line, s.getEmail());
+            line.append(",\"phone\":");
+            Json.appendQuoted(line, s.getPhone());
+            line.append(",\"course\":");
+            Json.appendQuoted(line, s.getCourse());
+            line.append("}\n");
+            out.putString(line.toString());
+        }
+
+        @Override
+        public void finish(long rows) {
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /** Buffers one row group of columns, then writes it column by column. */
+    static final class ColumnarSink implements ExportSink {
+        private static final byte INT = 1;
+        private static final byte STRING = 2;
+        private static final byte DICTIONARY = 3;
+
+        private final ChannelWriter out;
+        private final int[] ids;
+        private final String[] names;
+        private final String[] emails;
+        private final String[] phones;
+        private final String[] courses;
+        private final ByteSink column = new ByteSink();
+        private int rows;
+
+        ColumnarSink(ChannelWriter out, int rowGroupSize) throws IOException {
+            this.out = out;
+            ids = new int[rowGroupSize];
+            names = new String[rowGroupSize];
+            emails = new String[rowGroupSize];
+            phones = new String[rowGroupSize];
+            courses = new String[rowGroupSize];
+
+            out.put(new byte[]{'S', 'C', 'O', 'L'});
+            out.putInt(1);
+            out.putInt(5);
+            writeColumnHeader("id", INT);
+            writeColumnHeader("name", STRING);
+            writeColumnHeader("email", STRING);
+            writeColumnHeader("phone", STRING);
+            // Few distinct values repeated on every row
+            writeColumnHeader("course", DICTIONARY);
+        }
+
+        private void writeColumnHeader(String name, byte type) throws IOException {
+            column.reset();
+            column.putString(name);
+            out.put(column.bytes, 0, column.size);
+            out.putByte(type);
+        }
+
+        @Override
+        public void write(Student s) throws IOException {
+            ids[rows] = s.getId();
+            names[rows] = s.getName();
+            emails[rows] = s.getEmail();
+            phones[rows] = s.getPhone();
+            courses[rows] = s.getCourse();
+            if (++rows == ids.length) {
+                flushRowGroup();
+            }
+        }
+
+        private void flushRowGroup() throws IOException {
+            if (rows == 0) {
+                return;
+            }
+            out.putInt(rows);
+
+            column.reset();
+            int previous = 0;
+            for (int i = 0; i < rows; i++) {
+                column.putZigZag(ids[i] - previous);
+                previous = ids[i];
+            }
+            writeColumn();
+
+            writeStrings(names);
+            writeStrings(emails);
+            writeStrings(phones);
+
+            column.reset();
+            Map<String, Integer> dictionary = new HashMap<>();
+            String[] entries = new String[rows];
+            int[] codes = new int[rows];
+            for (int i = 0; i < rows; i++) {
+                if (courses[i] == null) {
+                    continue;
+                }
+                Integer code = dictionary.get(courses[i]);
+                if (code == null) {
+                    code = dictionary.size();
+                    dictionary.put(courses[i], code);
+                    entries[code] = courses[i];
+                }
+                codes[i] = code + 1;
+            }
+            column.putVarint(dictionary.size());
+            for (int i = 0; i < dictionary.size(); i++) {
+                column.putString(entries[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                column.putVarint(codes[i]);
+            }
+            writeColumn();
+
+            java.util.Arrays.fill(names, 0, rows, null);
+            java.util.Arrays.fill(emails, 0, rows, null);
+            java.util.Arrays.fill(phones, 0, rows, null);
+            java.util.Arrays.fill(courses, 0, rows, null);
+            rows = 0;
+        }
+
+        private void writeStrings(String[] values) throws IOException {
+            column.reset();
+            for (int i = 0; i < rows; i++) {
+                if (values[i] == null) {
+                    column.putVarint(0);
+                } else {
+                    byte[] bytes = values[i].getBytes(StandardCharsets.UTF_8);
+                    column.putVarint(bytes.length + 1);
+                    column.put(bytes);
+                }
+            }
+            writeColumn();
+        }
+
+        private void writeColumn() throws IOException {
+            out.putInt(column.size);
+            out.put(column.bytes, 0, column.size);
+        }
+
+        @Override
+        public void finish(long totalRows) throws IOException {
+            flushRowGroup();
+            out.putInt(0);
+            out.putLong(totalRows);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /** A growable byte array for encoding one column. */
+    private static final class ByteSink {
+        byte[] bytes = new byte[1 << 16];
+        int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        void put(byte[] data) {
+            ensure(data.length);
+            System.arraycopy(data, 0, bytes, size, data.length);
+            size += data.length;
+        }
+
+        void putString(String value) {
+            byte[] data = value.getBytes(StandardCharsets.UTF_8);
+            putVarint(data.length);
+            put(data);
+        }
+
+        void putZigZag(int value) {
+            putVarint((value << 1) ^ (value >> 31));
+        }
+
+        void putVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = java.util.Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: java StudentExporter <file> [--format csv|jsonl|columnar] [--gzip]");
+            System.exit(2);
+        }
+        Path output = Paths.get(args[0]);
+        Format format = Format.forFile(output);
+        boolean gzip = output.toString().endsWith(".gz");
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--gzip")) {
+                gzip = true;
+            } else if (args[i].equals("--format") && i + 1 < args.length) {
+                format = Format.valueOf(args[++i].toUpperCase());
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                System.exit(2);
+            }
+        }
+
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream("db.properties")) {
+            props.load(in);
+        } catch (IOException e) {
+            System.err.println("Warning: db.properties not found, using default values");
+        }
+
+        try (StudentRepository repository = StudentRepository.fromProperties(props)) {
+            StudentExporter exporter = new StudentExporter(repository);
+            exporter.setProgressListener(rows -> System.out.printf("\r%,d rows", rows));
+            long start = System.currentTimeMillis();
+            long rows = exporter.export(output, format, gzip);
+            long millis = Math.max(1, System.currentTimeMillis() - start);
+            System.out.printf("\r%,d rows written to %s in %,d ms (%,.0f rows/s)%n",
+                rows, output, millis, rows * 1000.0 / millis);
+        }
+    }
+}
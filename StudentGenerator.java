@@ -0,0 +1,223 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deterministic synthetic students at production scale.
+ *
+ * Student n (counting from 1) is a pure function of the seed and n, so the
+ * same seed always gives the same data set, any range of it can be made on
+ * any thread, and emails (which embed n) are unique. Names come from common
+ * first and last names; courses follow a Zipf distribution, so a few courses
+ * hold most students as in real enrolment data.
+ *
+ * Usage: java StudentGenerator <rows> [--seed n] [--start n] [--threads n] [--batch n]
+ *            (inserts into the database configured in db.properties)
+ *        java StudentGenerator <rows> --out <file> [--seed n] [--start n]
+ *            (writes csv, jsonl or .scol by extension, as StudentExporter does)
+ */
+public class StudentGenerator {
+    static final String[] FIRST_NAMES = {
+        "James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael", "Linda", "William", "Elizabeth",
+        "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas", "Sarah", "Charles", "Karen",
+        "Daniel", "Lisa", "Matthew", "Nancy", "Anthony", "Sandra", "Mark", "Ashley", "Steven", "Emily",
+        "Aarav", "Priya", "Wei", "Mei", "Hiroshi", "Yuki", "Mohammed", "Fatima", "Carlos", "Sofia",
+        "Luca", "Giulia", "Olga", "Ivan", "Kwame", "Amara", "Liam", "Chloe", "Noah", "Zara"
+    };
+    static final String[] LAST_NAMES = {
+        "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis", "Rodriguez", "Martinez",
+        "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas", "Taylor", "Moore", "Jackson", "Martin",
+        "Lee", "Perez", "Thompson", "White", "Harris", "Sanchez", "Clark", "Lewis", "Robinson", "Walker",
+        "Patel", "Shah", "Kumar", "Chen", "Wang", "Zhang", "Tanaka", "Sato", "Khan", "Ali",
+        "Rossi", "Silva", "Novak", "Kowalski", "Mensah", "Okafor", "Murphy", "Kelly", "Schmidt", "Muller"
+    };
+    /** Most popular first; see courseWeights. */
+    static final String[] COURSES = {
+        "Computer Science", "Information Technology", "Software Engineering", "Data Science",
+        "Business Administration", "Mechanical Engineering", "Electrical Engineering", "Civil Engineering",
+        "Mathematics", "Physics", "Economics", "Psychology", "Biology", "Chemistry", "Accounting",
+        "Nursing", "Architecture", "Graphic Design", "Statistics", "Philosophy", "History", "Music",
+        "Linguistics", "Astronomy"
+    };
+    private static final String[] DOMAINS = {
+        "example.com", "mail.example.com", "students.example.edu", "example.org"
+    };
+    private static final double ZIPF_EXPONENT = 1.0;
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    private final long seed;
+    // Cumulative Zipf weights over COURSES
+    private final double[] courseCdf = new double[COURSES.length];
+
+    public StudentGenerator(long seed) {
+        this.seed = seed;
+        double total = 0;
+        for (int i = 0; i < COURSES.length; i++) {
+            total += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            courseCdf[i] = total;
+        }
+        for (int i = 0; i < COURSES.length; i++) {
+            courseCdf[i] /= total;
+        }
+    }
+
+    /** Student n, with id n; insert() ignores the id. */
+    public Student student(long n) {
+        long h = mix(seed ^ (n * GOLDEN));
+        String first = FIRST_NAMES[pick(h, FIRST_NAMES.length)];
+        h = mix(h + GOLDEN);
+        String last = LAST_NAMES[pick(h, LAST_NAMES.length)];
+        h = mix(h + GOLDEN);
+        String course = COURSES[course(unit(h))];
+        h = mix(h + GOLDEN);
+        // One in twenty has no phone on file
+        String phone = (h & 0xFF) < 13 ? null : String.format("555%07d", (h >>> 8) % 10_000_000);
+        h = mix(h + GOLDEN);
+        String domain = DOMAINS[pick(h, DOMAINS.length)];
+        String email = (first + "." + last + "." + n + "@" + domain).toLowerCase();
+        return new Student((int) n, first + " " + last, email, phone, course);
+    }
+
+    private int course(double u) {
+        int lo = 0;
+        int hi = courseCdf.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (courseCdf[mid] < u) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static int pick(long h, int bound) {
+        return (int) ((h >>> 1) % bound);
+    }
+
+    private static double unit(long h) {
+        return (h >>> 11) * 0x1.0p-53;
+    }
+
+    // SplitMix64's finalizer: a well-mixed 64-bit hash of x
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * Inserts students start .. start+rows-1 through insertAll(), batchSize
+     * rows per batch and per transaction, from threads threads. Rows the
+     * repository rejects (e.g. emails already there from an earlier run
+     * with the same seed) are skipped. Returns the number inserted.
+     */
+    public long insert(StudentRepository repository, long start, long rows, int threads, int batchSize,
+                       StudentExporter.ProgressListener progress) throws Exception {
+        AtomicLong next = new AtomicLong(start);
+        AtomicLong inserted = new AtomicLong();
+        long end = start + rows;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(pool.submit(() -> {
+                    List<Student> batch = new ArrayList<>(batchSize);
+                    for (long from; (from = next.getAndAdd(batchSize)) < end; ) {
+                        batch.clear();
+                        for (long n = from; n < Math.min(from + batchSize, end); n++) {
+                            batch.add(student(n));
+                        }
+                        long done = inserted.addAndGet(
+                            repository.insertAll(batch, batchSize, (index, cause) -> { }).size());
+                        if (progress != null) {
+                            progress.progress(done);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return inserted.get();
+    }
+
+    /** Writes students start .. start+rows-1 to a file. Returns the row count. */
+    public long write(Path output, StudentExporter.Format format, boolean gzip, long start, long rows,
+                      StudentExporter.ProgressListener progress) throws Exception {
+        StudentExporter exporter = new StudentExporter(null);
+        exporter.setProgressListener(progress);
+        return exporter.export(output, format, gzip, handler -> {
+            for (long n = start; n < start + rows; n++) {
+                handler.row(student(n));
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: java StudentGenerator <rows> [--seed n] [--start n] [--threads n] " +
+                "[--batch n] [--out file]");
+            System.exit(2);
+        }
+        long rows = Long.parseLong(args[0].replace("_", ""));
+        long seed = 42;
+        long start = 1;
+        int threads = 4;
+        int batch = 1000;
+        Path output = null;
+        for (int i = 1; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                System.err.println("Missing value for " + args[i]);
+                System.exit(2);
+            }
+            switch (args[i]) {
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--start": start = Long.parseLong(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--batch": batch = Integer.parseInt(args[++i]); break;
+                case "--out": output = Paths.get(args[++i]); break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        StudentGenerator generator = new StudentGenerator(seed);
+        long begin = System.currentTimeMillis();
+        long written;
+        if (output != null) {
+            written = generator.write(output, StudentExporter.Format.forFile(output),
+                output.toString().endsWith(".gz"), start, rows, n -> System.out.printf("\r%,d rows", n));
+        } else {
+            Properties props = new Properties();
+            try (InputStream in = new FileInputStream("db.properties")) {
+                props.load(in);
+            } catch (IOException e) {
+                System.err.println("Warning: db.properties not found, using default values");
+            }
+            try (StudentRepository repository = StudentRepository.fromProperties(props)) {
+                repository.initialize();
+                written = generator.insert(repository, start, rows, threads, batch,
+                    n -> System.out.printf("\r%,d rows", n));
+            }
+        }
+        long millis = Math.max(1, System.currentTimeMillis() - begin);
+        System.out.printf("\r%,d rows %s in %,d ms (%,.0f rows/s)%n", written,
+            output != null ? "written to " + output : "inserted", millis, written * 1000.0 / millis);
+    }
+}
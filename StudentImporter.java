@@ -0,0 +1,426 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Streams students from a CSV or JSON Lines file into the repository.
+ *
+ * Rows are parsed one at a time, validated, and inserted with
+ * StudentRepository.insertAll() in chunks of chunkSize rows (on MySQL, one
+ * transaction of JDBC batches rewritten into multi-row INSERTs per chunk), so memory use is bounded by the chunk size whatever the
+ * file size. Rows that fail validation or hit a duplicate email are written
+ * to a reject file instead of stopping the import.
+ *
+ * CSV files may start with a header naming the name, email, phone and course
+ * columns; without one those four columns are expected in that order. JSON
+ * Lines files hold one object per line with the same keys.
+ *
+ * Usage: java StudentImporter <file> [--format csv|jsonl] [--chunk rows]
+ *                             [--batch rows] [--rejects file]
+ */
+public class StudentImporter {
+    private static final Pattern EMAIL = Pattern.compile("[^@\\s]+@[^@\\s]+\\.[^@\\s]+");
+    private static final String[] FIELDS = {"name", "email", "phone", "course"};
+
+    public enum Format {
+        CSV, JSONL;
+
+        public static Format forFile(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            return name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json") ? JSONL : CSV;
+        }
+    }
+
+    /** Receives progress after every committed chunk, on the importing thread. */
+    public interface ProgressListener {
+        void progress(Progress progress);
+    }
+
+    public static final class Progress {
+        public final long rowsRead;
+        public final long inserted;
+        public final long rejected;
+        public final long bytesRead;
+        public final long totalBytes;
+        public final long elapsedMillis;
+        public final boolean cancelled;
+
+        Progress(long rowsRead, long inserted, long rejected, long bytesRead, long totalBytes,
+                 long elapsedMillis, boolean cancelled) {
+            this.rowsRead = rowsRead;
+            this.inserted = inserted;
+            this.rejected = rejected;
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+            this.elapsedMillis = elapsedMillis;
+            this.cancelled = cancelled;
+        }
+
+        public double rowsPerSecond() {
+            return elapsedMillis == 0 ? 0 : inserted * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d rows read, %,d inserted, %,d rejected in %,d ms (%,.0f rows/s)",
+                rowsRead, inserted, rejected, elapsedMillis, rowsPerSecond());
+        }
+    }
+
+    private final StudentRepository repository;
+    private int chunkSize = 5000;
+    private int batchSize = 1000;
+    private ProgressListener progressListener;
+    private Consumer<Student> insertListener;
+    private volatile boolean cancelled;
+
+    // Per-run state
+    private long rowsRead;
+    private long inserted;
+    private long rejected;
+    private RejectWriter rejects;
+
+    public StudentImporter(StudentRepository repository) {
+        this.repository = repository;
+    }
+
+    /** Rows per transaction. */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /** Rows per executeBatch() call. */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /** Called with each student once its chunk has committed. */
+    public void setInsertListener(Consumer<Student> insertListener) {
+        this.insertListener = insertListener;
+    }
+
+    /** Stops the import after the current chunk commits. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public static Path defaultRejectFile(Path input) {
+        return input.resolveSibling(input.getFileName() + ".rejects.csv");
+    }
+
+    public Progress importFile(Path input, Format format, Path rejectFile) throws IOException, SQLException {
+        long start = System.currentTimeMillis();
+        long totalBytes = Files.size(input);
+        rowsRead = 0;
+        inserted = 0;
+        rejected = 0;
+        cancelled = false;
+
+        try (CountingInputStream counting = new CountingInputStream(Files.newInputStream(input));
+             BufferedReader reader = new BufferedReader(
+                 new InputStreamReader(counting, StandardCharsets.UTF_8), 1 << 16);
+             RejectWriter rejectWriter = new RejectWriter(rejectFile)) {
+            rejects = rejectWriter;
+            RowSource source = format == Format.JSONL ? new JsonLinesSource(reader) : new CsvSource(reader);
+
+            try {
+                List<Row> chunk = new ArrayList<>(chunkSize);
+                Row row;
+                while (!cancelled && (row = source.next()) != null) {
+                    rowsRead++;
+                    String problem = row.problem != null ? row.problem : validate(row);
+                    if (problem != null) {
+                        reject(row, problem);
+                    } else {
+                        chunk.add(row);
+                    }
+                    if (chunk.size() >= chunkSize) {
+                        writeChunk(chunk);
+                        chunk.clear();
+                        report(start, counting.count, totalBytes);
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    writeChunk(chunk);
+                }
+            } finally {
+                rejects = null;
+            }
+
+            return report(start, counting.count, totalBytes);
+        }
+    }
+
+    private Progress report(long start, long bytesRead, long totalBytes) {
+        Progress progress = new Progress(rowsRead, inserted, rejected, bytesRead, totalBytes,
+            System.currentTimeMillis() - start, cancelled);
+        if (progressListener != null) {
+            progressListener.progress(progress);
+        }
+        return progress;
+    }
+
+    private void writeChunk(List<Row> chunk) throws SQLException, IOException {
+        List<Student> rows = new ArrayList<>(chunk.size());
+        for (Row row : chunk) {
+            rows.add(row.toStudent(0));
+        }
+        List<Student> students = repository.insertAll(rows, batchSize, (index, cause) ->
+            reject(chunk.get(index), cause.getErrorCode() == 1062 ? "Duplicate email" : cause.getMessage()));
+
+        inserted += students.size();
+        if (insertListener != null) {
+            for (Student student : students) {
+                insertListener.accept(student);
+            }
+        }
+    }
+
+    // Mirrors the students table definition
+    static String validate(Row row) {
+        if (row.name == null) {
+            return "Name is required";
+        }
+        if (row.name.length() > StudentRepository.MAX_NAME) {
+            return "Name is longer than " + StudentRepository.MAX_NAME + " characters";
+        }
+        if (row.email != null && (row.email.length() > StudentRepository.MAX_EMAIL
+                || !EMAIL.matcher(row.email).matches())) {
+            return "Invalid email";
+        }
+        if (row.phone != null && row.phone.length() > StudentRepository.MAX_PHONE) {
+            return "Phone is longer than " + StudentRepository.MAX_PHONE + " characters";
+        }
+        if (row.course != null && row.course.length() > StudentRepository.MAX_COURSE) {
+            return "Course is longer than " + StudentRepository.MAX_COURSE + " characters";
+        }
+        return null;
+    }
+
+    private void reject(Row row, String reason) throws IOException {
+        rejected++;
+        rejects.write(row, reason);
+    }
+
+    /** One input row; problem is set when the row could not be parsed. */
+    static final class Row {
+        final long line;
+        final String name;
+        final String email;
+        final String phone;
+        final String course;
+        final String problem;
+
+        Row(long line, String name, String email, String phone, String course, String problem) {
+            this.line = line;
+            this.name = clean(name);
+            this.email = clean(email);
+            this.phone = clean(phone);
+            this.course = clean(course);
+            this.problem = problem;
+        }
+
+        private static String clean(String value) {
+            if (value == null) {
+                return null;
+            }
+            value = value.trim();
+            return value.isEmpty() ? null : value;
+        }
+
+        Student toStudent(int id) {
+            return new Student(id, name, email, phone, course);
+        }
+    }
+
+    private interface RowSource {
+        Row next() throws IOException;
+    }
+
+    private static final class CsvSource implements RowSource {
+        private final CsvReader csv;
+        private int[] columns = {0, 1, 2, 3};
+        private boolean first = true;
+
+        CsvSource(Reader reader) {
+            this.csv = new CsvReader(reader);
+        }
+
+        @Override
+        public Row next() throws IOException {
+            List<String> record;
+            while ((record = csv.next()) != null) {
+                if (first) {
+                    first = false;
+                    if (isHeader(record)) {
+                        continue;
+                    }
+                }
+                if (record.size() == 1 && record.get(0).trim().isEmpty()) {
+                    continue;
+                }
+                return new Row(csv.getRecordLine(), field(record, 0), field(record, 1),
+                    field(record, 2), field(record, 3), null);
+            }
+            return null;
+        }
+
+        private boolean isHeader(List<String> record) {
+            int[] mapping = new int[FIELDS.length];
+            Arrays.fill(mapping, -1);
+            for (int i = 0; i < record.size(); i++) {
+                String heading = record.get(i).trim().toLowerCase();
+                for (int f = 0; f < FIELDS.length; f++) {
+                    if (FIELDS[f].equals(heading)) {
+                        mapping[f] = i;
+                    }
+                }
+            }
+            if (mapping[0] < 0) {
+                return false;
+            }
+            columns = mapping;
+            return true;
+        }
+
+        private String field(List<String> record, int field) {
+            int column = columns[field];
+            return column >= 0 && column < record.size() ? record.get(column) : null;
+        }
+    }
+
+    private static final class JsonLinesSource implements RowSource {
+        private final BufferedReader reader;
+        private long line;
+
+        JsonLinesSource(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public Row next() throws IOException {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                if (text.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    Map<String, String> object = Json.parseObject(text);
+                    return new Row(line, object.get("name"), object.get("email"),
+                        object.get("phone"), object.get("course"), null);
+                } catch (IllegalArgumentException e) {
+                    return new Row(line, null, null, null, null, "Malformed JSON: " + e.getMessage());
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Writes rejected rows as CSV, creating the file on the first reject. */
+    private static final class RejectWriter implements Closeable {
+        private final Path file;
+        private Writer out;
+
+        RejectWriter(Path file) {
+            this.file = file;
+        }
+
+        void write(Row row, String reason) throws IOException {
+            if (out == null) {
+                out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+                out.write("line,reason,name,email,phone,course\n");
+            }
+            out.write(row.line + "," + CsvReader.escape(reason) + "," + CsvReader.escape(row.name) + ","
+                + CsvReader.escape(row.email) + "," + CsvReader.escape(row.phone) + ","
+                + CsvReader.escape(row.course) + "\n");
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: java StudentImporter <file> [--format csv|jsonl] [--chunk rows] "
+                + "[--batch rows] [--rejects file]");
+            System.exit(2);
+        }
+        Path input = Paths.get(args[0]);
+        Format format = Format.forFile(input);
+        Path rejectFile = defaultRejectFile(input);
+        int chunk = 5000;
+        int batch = 1000;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--format": format = Format.valueOf(args[i + 1].toUpperCase()); break;
+                case "--chunk": chunk = Integer.parseInt(args[i + 1]); break;
+                case "--batch": batch = Integer.parseInt(args[i + 1]); break;
+                case "--rejects": rejectFile = Paths.get(args[i + 1]); break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream("db.properties")) {
+            props.load(in);
+        } catch (IOException e) {
+            System.err.println("Warning: db.properties not found, using default values");
+        }
+
+        try (StudentRepository repository = StudentRepository.fromProperties(props)) {
+            repository.initialize();
+            StudentImporter importer = new StudentImporter(repository);
+            importer.setChunkSize(chunk);
+            importer.setBatchSize(batch);
+            importer.setProgressListener(p -> System.out.print("\r" + p));
+            Progress result = importer.importFile(input, format, rejectFile);
+            System.out.println("\r" + result);
+            if (result.rejected > 0) {
+                System.out.println("Rejected rows written to " + rejectFile);
+            }
+        }
+    }
+}
@@ -1,7 +1,12 @@
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.*;
+import java.util.List;
+import java.util.Properties;
 
 public class StudentManagementSystem extends JFrame {
     // Database connection details
@@ -13,7 +18,7 @@ public class StudentManagementSystem extends JFrame {
     private JTextField txtId, txtName, txtEmail, txtPhone, txtCourse, txtSearch;
     private JTable studentTable;
     private DefaultTableModel tableModel;
-    private Connection connection;
+    private StudentRepository repository;
     
     public StudentManagementSystem() {
         setTitle("Student Management System");
@@ -32,28 +37,44 @@ public class StudentManagementSystem extends JFrame {
     }
     
     private void initializeDatabase() {
+        // db.properties, when present, overrides the built-in connection details
+        Properties config = new Properties();
+        config.setProperty("db.url", DB_URL);
+        config.setProperty("db.user", DB_USER);
+        config.setProperty("db.password", DB_PASSWORD);
+        try (InputStream input = new FileInputStream("db.properties")) {
+            config.load(input);
+        } catch (IOException e) {
+            // Use the built-in values
+        }
+        
         try {
-            connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-            createTableIfNotExists();
-        } catch (SQLException e) {
+            repository = openRepository(config);
+            repository.initialize();
+        } catch (SQLException | IllegalArgumentException e) {
+            if (repository != null) {
+                repository.close();
+                repository = null;
+            }
             JOptionPane.showMessageDialog(this, 
                 "Database connection failed: " + e.getMessage(), 
                 "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
     
-    private void createTableIfNotExists() {
-        String sql = "CREATE TABLE IF NOT EXISTS students (" +
-                    "id INT PRIMARY KEY AUTO_INCREMENT, " +
-                    "name VARCHAR(100) NOT NULL, " +
-                    "email VARCHAR(100) UNIQUE, " +
-                    "phone VARCHAR(15), " +
-                    "course VARCHAR(50))";
-        try (Statement stmt = connection.createStatement()) {
-            stmt.execute(sql);
-        } catch (SQLException e) {
-            e.printStackTrace();
+    // Just the backend: the audit journal, write-behind journal and offline
+    // snapshot that fromProperties adds are local files one process owns,
+    // so this version leaves them to the enhanced one and can run beside it
+    private static StudentRepository openRepository(Properties config) {
+        if ("memory".equalsIgnoreCase(config.getProperty("db.backend", "mysql").trim())) {
+            return new InMemoryStudentRepository();
+        }
+        if (!config.getProperty("db.shards", "").trim().isEmpty()) {
+            return ShardedStudentRepository.fromProperties(config);
         }
+        return new MySqlStudentRepository(ConnectionPool.fromProperties(config),
+            Integer.parseInt(config.getProperty("db.fetchSize", "1000").trim()),
+            SchemaMigrator.fromProperties(config));
     }
     
     private void createGUI() {
@@ -216,14 +237,9 @@ public class StudentManagementSystem extends JFrame {
             return;
         }
         
-        String sql = "INSERT INTO students (name, email, phone, course) VALUES (?, ?, ?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, name);
-            pstmt.setString(2, email.isEmpty() ? null : email);
-            pstmt.setString(3, phone.isEmpty() ? null : phone);
-            pstmt.setString(4, course.isEmpty() ? null : course);
-            
-            pstmt.executeUpdate();
+        try {
+            repository.insert(new Student(0, name, email.isEmpty() ? null : email,
+                phone.isEmpty() ? null : phone, course.isEmpty() ? null : course));
             JOptionPane.showMessageDialog(this, "Student added successfully!");
             clearFields();
             refreshTable();
@@ -253,16 +269,17 @@ public class StudentManagementSystem extends JFrame {
             return;
         }
         
-        String sql = "UPDATE students SET name=?, email=?, phone=?, course=? WHERE id=?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, name);
-            pstmt.setString(2, txtEmail.getText().trim().isEmpty() ? null : txtEmail.getText().trim());
-            pstmt.setString(3, txtPhone.getText().trim().isEmpty() ? null : txtPhone.getText().trim());
-            pstmt.setString(4, txtCourse.getText().trim().isEmpty() ? null : txtCourse.getText().trim());
-            pstmt.setInt(5, Integer.parseInt(id));
-            
-            pstmt.executeUpdate();
-            JOptionPane.showMessageDialog(this, "Student updated successfully!");
+        try {
+            boolean updated = repository.update(new Student(Integer.parseInt(id), name,
+                txtEmail.getText().trim().isEmpty() ? null : txtEmail.getText().trim(),
+                txtPhone.getText().trim().isEmpty() ? null : txtPhone.getText().trim(),
+                txtCourse.getText().trim().isEmpty() ? null : txtCourse.getText().trim()));
+            if (updated) {
+                JOptionPane.showMessageDialog(this, "Student updated successfully!");
+            } else {
+                JOptionPane.showMessageDialog(this, "Student " + id + " was not found; they may have been deleted.",
+                    "Update Failed", JOptionPane.WARNING_MESSAGE);
+            }
             clearFields();
             refreshTable();
         } catch (SQLException e) {
@@ -284,10 +301,8 @@ public class StudentManagementSystem extends JFrame {
             "Confirm Delete", JOptionPane.YES_NO_OPTION);
         
         if (confirm == JOptionPane.YES_OPTION) {
-            String sql = "DELETE FROM students WHERE id=?";
-            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                pstmt.setInt(1, Integer.parseInt(id));
-                pstmt.executeUpdate();
+            try {
+                repository.delete(Integer.parseInt(id));
                 JOptionPane.showMessageDialog(this, "Student deleted successfully!");
                 clearFields();
                 refreshTable();
@@ -305,25 +320,8 @@ public class StudentManagementSystem extends JFrame {
             return;
         }
         
-        String sql = "SELECT * FROM students WHERE name LIKE ? OR email LIKE ? OR course LIKE ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            String searchPattern = "%" + searchTerm + "%";
-            pstmt.setString(1, searchPattern);
-            pstmt.setString(2, searchPattern);
-            pstmt.setString(3, searchPattern);
-            
-            ResultSet rs = pstmt.executeQuery();
-            tableModel.setRowCount(0);
-            
-            while (rs.next()) {
-                tableModel.addRow(new Object[]{
-                    rs.getInt("id"),
-                    rs.getString("name"),
-                    rs.getString("email"),
-                    rs.getString("phone"),
-                    rs.getString("course")
-                });
-            }
+        try {
+            showStudents(repository.findContaining(searchTerm, Integer.MAX_VALUE));
         } catch (SQLException e) {
             JOptionPane.showMessageDialog(this, "Error searching: " + e.getMessage(), 
                 "Error", JOptionPane.ERROR_MESSAGE);
@@ -332,33 +330,28 @@ public class StudentManagementSystem extends JFrame {
     
     private void refreshTable() {
 
-        if (connection == null) {
+        if (repository == null) {
             JOptionPane.showMessageDialog(this,
                     "Database not connected!",
                     "Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
-        String sql = "SELECT * FROM students ORDER BY id";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            
-            tableModel.setRowCount(0);
-            while (rs.next()) {
-                tableModel.addRow(new Object[]{
-                    rs.getInt("id"),
-                    rs.getString("name"),
-                    rs.getString("email"),
-                    rs.getString("phone"),
-                    rs.getString("course")
-                });
-            }
+        try {
+            showStudents(repository.findPage(0, Integer.MAX_VALUE));
         } catch (SQLException e) {
             JOptionPane.showMessageDialog(this, "Error loading data: " + e.getMessage(), 
                 "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
     
+    private void showStudents(List<Student> students) {
+        tableModel.setRowCount(0);
+        for (Student student : students) {
+            tableModel.addRow(student.toRow());
+        }
+    }
+    
     private void loadSelectedStudent() {
         int selectedRow = studentTable.getSelectedRow();
         if (selectedRow >= 0) {
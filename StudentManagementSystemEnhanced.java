@@ -1,85 +1,274 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.sql.*;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class StudentManagementSystemEnhanced extends JFrame {
-    private String DB_URL;
-    private String DB_USER;
-    private String DB_PASSWORD;
-
     private JTextField txtId, txtName, txtEmail, txtPhone, txtCourse, txtSearch;
     private JTable studentTable;
-    private DefaultTableModel tableModel;
-    private Connection connection;
+    private StudentTableModel tableModel;
+    private PagedStudentTableModel pagedModel;
+    private CourseStatisticsPanel coursePanel;
+    private final Properties config;
+    private StudentRepository repository;
+    // The repository before instrumentation, for backend-specific features
+    private StudentRepository backend;
+    // Null without audit.dir; undo delete reads the deleted rows back from it
+    private AuditJournal auditJournal;
+    // The student this window deleted last, for Undo Delete; 0 if none
+    private int lastDeletedId;
+    // Null without snapshot.file; while offline, reads come from its snapshot
+    private SnapshotStudentRepository snapshotRepository;
+    private StudentMetrics metrics;
+    private AsyncDataAccess dataAccess;
+    private StudentChangeFeed changeFeed;
+    private StudentSearchEngine searchEngine;
+    private StudentSearchEngine fallbackSearchEngine;
+    private volatile boolean searchReady;
+    private SearchResultCache searchCache;
+    private javax.swing.Timer searchDebounce;
+    // Last search that ran against an engine, for refining as the user types
+    private String lastSearchTerm;
+    private List<Student> lastSearchResults;
+    private StudentSearchEngine lastSearchEngine;
+    // updated_at of the student loaded into the form, so an update does not
+    // overwrite an edit someone else saved in the meantime
+    private long loadedVersion;
+    private JLabel statusLabel;
+    private JLabel metricsLabel;
+    private JProgressBar progressBar;
+    // The last METRICS_WINDOW seconds of operations, one histogram per second
+    private static final int METRICS_WINDOW = 10;
+    private final LatencyHistogram[] recentLatencies = new LatencyHistogram[METRICS_WINDOW];
+    private final long[] recentErrors = new long[METRICS_WINDOW];
+    private final LatencyHistogram recentTotal = new LatencyHistogram();
+    private int recentIndex;
+    // Disabled until the database is ready
+    private final List<JComponent> databaseControls = new ArrayList<>();
+    private final StartupTimeline startup;
+    private final boolean exitAfterStartup;
+    private static final long MAX_OPEN_RETRY_MILLIS = 30_000;
+    private int openFailures;
     
-    public StudentManagementSystemEnhanced() {
-        // Load database configuration
-        loadDatabaseConfig();
+    /**
+     * Builds the window only; the database is opened alongside it (see
+     * main) and handed over through databaseReady().
+     */
+    public StudentManagementSystemEnhanced(Properties config, StartupTimeline startup, boolean exitAfterStartup) {
+        this.config = config;
+        this.startup = startup;
+        this.exitAfterStartup = exitAfterStartup;
         
         setTitle("Student Management System - Enhanced");
-        setSize(1000, 600);
+        setSize(1000, 700);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
-        
-        // Initialize database connection
-        initializeDatabase();
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosing(java.awt.event.WindowEvent e) {
+                if (changeFeed != null) {
+                    changeFeed.close();
+                }
+                if (dataAccess != null) {
+                    dataAccess.close();
+                }
+                if (repository != null) {
+                    repository.close();
+                }
+                if (metrics != null) {
+                    metrics.close();
+                }
+            }
+        });
         
         // Create GUI
         createGUI();
-        
-        // Load initial data
-        refreshTable();
+        setStatus("Connecting to database...");
+        progressBar.setVisible(true);
     }
     
-    private void loadDatabaseConfig() {
-        Properties props = new Properties();
+    private static Properties loadDatabaseConfig() {
+        Properties config = new Properties();
         try (InputStream input = new FileInputStream("db.properties")) {
-            props.load(input);
-            DB_URL = props.getProperty("db.url", "jdbc:mysql://localhost:3306/student_db");
-            DB_USER = props.getProperty("db.user", "root");
-            DB_PASSWORD = props.getProperty("db.password");
+            config.load(input);
         } catch (IOException e) {
             // If properties file not found, use defaults
             System.err.println("Warning: db.properties not found, using default values");
-            DB_URL = "jdbc:mysql://localhost:3306/student_db";
-            DB_USER = "root";
-            DB_PASSWORD = "password";
+            config.setProperty("db.url", "jdbc:mysql://localhost:3306/student_db");
+            config.setProperty("db.user", "root");
+            config.setProperty("db.password", "password");
         }
+        return config;
     }
     
-    private void initializeDatabase() {
-        try {
-            connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-            createTableIfNotExists();
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, 
-                "Database connection failed: " + e.getMessage() + 
-                "\n\nPlease ensure:\n" +
-                "1. MySQL server is running\n" +
-                "2. Database 'student_db' exists\n" +
-                "3. Credentials in db.properties are correct", 
-                "Database Error", JOptionPane.ERROR_MESSAGE);
-            System.exit(1);
+    /**
+     * The backend, connected and with its schema current. Opened off the
+     * EDT while the window is built, as loading the driver, connecting and
+     * checking the schema take longer than the window does.
+     */
+    private static final class Database {
+        final StudentMetrics metrics;
+        final StudentRepository backend;
+        final StudentRepository repository;
+        
+        /** Opens the database on a thread of its own. */
+        static CompletableFuture<Database> open(Properties config, StartupTimeline startup) {
+            CompletableFuture<Database> database = new CompletableFuture<>();
+            Thread opener = new Thread(() -> {
+                try {
+                    Database opened = new Database(config);
+                    startup.mark("database");
+                    database.complete(opened);
+                } catch (SQLException | RuntimeException e) {
+                    database.completeExceptionally(e);
+                }
+            }, "database-startup");
+            opener.setDaemon(true);
+            opener.start();
+            return database;
+        }
+        
+        Database(Properties config) throws SQLException {
+            metrics = StudentMetrics.fromProperties(config);
+            StudentRepository opened = null;
+            try {
+                opened = StudentRepository.fromProperties(config, true);
+                StudentRepository instrumented = new InstrumentedStudentRepository(opened, metrics);
+                instrumented.initialize();
+                backend = opened;
+                repository = instrumented;
+            } catch (SQLException | RuntimeException e) {
+                if (opened != null) {
+                    opened.close();
+                }
+                metrics.close();
+                throw e;
+            }
         }
     }
     
-    private void createTableIfNotExists() {
-        String sql = "CREATE TABLE IF NOT EXISTS students (" +
-                    "id INT PRIMARY KEY AUTO_INCREMENT, " +
-                    "name VARCHAR(100) NOT NULL, " +
-                    "email VARCHAR(100) UNIQUE, " +
-                    "phone VARCHAR(15), " +
-                    "course VARCHAR(50), " +
-                    "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-                    "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP)";
-        try (Statement stmt = connection.createStatement()) {
-            stmt.execute(sql);
-        } catch (SQLException e) {
-            e.printStackTrace();
+    // On the EDT once the database is open, or failed to open
+    private void databaseReady(Database database, Throwable failure) {
+        if (failure != null) {
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause() : failure;
+            if (!(cause instanceof SQLException)) {
+                // A setting is wrong; trying again will not help
+                JOptionPane.showMessageDialog(this, "Invalid configuration: " + cause.getMessage(),
+                    "Database Error", JOptionPane.ERROR_MESSAGE);
+                System.exit(1);
+            }
+            // The server may be down or still starting; keep trying
+            long delay = Math.min(MAX_OPEN_RETRY_MILLIS, 1000L << Math.min(openFailures, 5));
+            openFailures++;
+            setStatus("Cannot reach the database (" + cause.getMessage() + "); trying again in "
+                + delay / 1000 + " s");
+            javax.swing.Timer retry = new javax.swing.Timer((int) delay, e -> Database.open(config, startup)
+                .whenComplete((opened, again) -> SwingUtilities.invokeLater(() -> databaseReady(opened, again))));
+            retry.setRepeats(false);
+            retry.start();
+            if (openFailures == 1) {
+                JOptionPane.showMessageDialog(this, 
+                    "Database connection failed: " + cause.getMessage() + 
+                    "\n\nPlease ensure:\n" +
+                    "1. MySQL server is running\n" +
+                    "2. Database 'student_db' exists\n" +
+                    "3. Credentials in db.properties are correct\n\n" +
+                    "The connection will be retried in the background.", 
+                    "Database Error", JOptionPane.ERROR_MESSAGE);
+            }
+            return;
+        }
+        metrics = database.metrics;
+        backend = database.backend;
+        repository = database.repository;
+        AuditingStudentRepository auditing = StudentRepository.unwrap(backend, AuditingStudentRepository.class);
+        auditJournal = auditing != null ? auditing.getJournal() : null;
+        snapshotRepository = StudentRepository.unwrap(backend, SnapshotStudentRepository.class);
+        dataAccess = new AsyncDataAccess(repository.getMaxConcurrency());
+        searchEngine = new InstrumentedSearchEngine(
+            StudentSearchEngine.fromProperties(config, repository), metrics, "search");
+        fallbackSearchEngine = new InstrumentedSearchEngine(
+            new LikeSearchEngine(repository), metrics, "search_fallback");
+        searchCache = new SearchResultCache(
+            Integer.parseInt(config.getProperty("search.cacheSize", "64").trim()));
+        pagedModel = new PagedStudentTableModel(repository, dataAccess);
+        watchFirstRow();
+        
+        progressBar.setVisible(false);
+        dataAccess.setActivityListener((running, description) -> {
+            progressBar.setVisible(running > 0);
+            if (description != null) {
+                setStatus(description + "...");
+            }
+        });
+        javax.swing.Timer metricsTimer = new javax.swing.Timer(1000, e -> updateMetricsLabel());
+        metricsTimer.start();
+        for (JComponent control : databaseControls) {
+            control.setEnabled(true);
         }
+        
+        // Load initial data; the row count, first page, course counts and
+        // search index are read in parallel
+        refreshTable();
+        refreshCourses();
+        initializeSearch();
+        watchWriteBehind();
+        watchChanges();
+        watchAvailability();
+        watchSnapshot();
+    }
+    
+    // Reports the startup timeline once the first page is on screen (or the
+    // table turns out to be empty): as the status bar's tooltip, and on the
+    // console for timing runs
+    private void watchFirstRow() {
+        pagedModel.addTableModelListener(new javax.swing.event.TableModelListener() {
+            @Override
+            public void tableChanged(javax.swing.event.TableModelEvent e) {
+                if (pagedModel.getRowCount() > 0 && pagedModel.getStudentAt(0) == null) {
+                    return;
+                }
+                pagedModel.removeTableModelListener(this);
+                startup.mark("first row");
+                String report = "Startup: " + startup.report();
+                statusLabel.setToolTipText(report);
+                if (exitAfterStartup || Boolean.parseBoolean(config.getProperty("startup.report", "false").trim())) {
+                    System.out.println(report);
+                }
+                if (exitAfterStartup) {
+                    // After a painted frame, so a CDS training run sees the classes painting uses
+                    SwingUtilities.invokeLater(() -> dispatchEvent(
+                        new java.awt.event.WindowEvent(StudentManagementSystemEnhanced.this,
+                            java.awt.event.WindowEvent.WINDOW_CLOSING)));
+                }
+            }
+        });
+    }
+    
+    private void requiresDatabase(JComponent... controls) {
+        for (JComponent control : controls) {
+            control.setEnabled(false);
+            databaseControls.add(control);
+        }
+    }
+    
+    // Index DDL or the initial index load can take a while on a big table;
+    // searches use the LIKE scan until the configured engine is ready
+    private void initializeSearch() {
+        dataAccess.submit("Preparing " + searchEngine.getName() + " search", () -> {
+            searchEngine.initialize();
+            return null;
+        }, ignored -> {
+            searchReady = true;
+            searchCache.invalidate();
+            setStatus("Search index ready (" + searchEngine.getName() + ")");
+        }, e -> setStatus("Search index unavailable, using LIKE search: " + e.getMessage()));
     }
     
     private void createGUI() {
@@ -98,9 +287,14 @@ public class StudentManagementSystemEnhanced extends JFrame {
         titlePanel.add(titleLabel);
         mainPanel.add(titlePanel, BorderLayout.NORTH);
         
-        // Form Panel
-        JPanel formPanel = createFormPanel();
-        mainPanel.add(formPanel, BorderLayout.WEST);
+        // Form Panel, with the course counts below it
+        JPanel westPanel = new JPanel(new BorderLayout());
+        westPanel.setPreferredSize(new Dimension(350, 0));
+        westPanel.setBackground(Color.WHITE);
+        westPanel.add(createFormPanel(), BorderLayout.NORTH);
+        coursePanel = new CourseStatisticsPanel(this::showCourse);
+        westPanel.add(coursePanel, BorderLayout.CENTER);
+        mainPanel.add(westPanel, BorderLayout.WEST);
         
         // Table Panel
         JPanel tablePanel = createTablePanel();
@@ -121,7 +315,6 @@ public class StudentManagementSystemEnhanced extends JFrame {
                 BorderFactory.createLineBorder(new Color(41, 128, 185), 2), 
                 "Student Details",
                 0, 0, new Font("Arial", Font.BOLD, 14), new Color(41, 128, 185))));
-        panel.setPreferredSize(new Dimension(350, 0));
         panel.setBackground(Color.WHITE);
         
         GridBagConstraints gbc = new GridBagConstraints();
@@ -190,7 +383,7 @@ public class StudentManagementSystemEnhanced extends JFrame {
         panel.add(lblRequired, gbc);
         
         // Button Panel
-        JPanel buttonPanel = new JPanel(new GridLayout(2, 2, 10, 10));
+        JPanel buttonPanel = new JPanel(new GridLayout(3, 2, 10, 10));
         buttonPanel.setBorder(BorderFactory.createEmptyBorder(20, 0, 0, 0));
         buttonPanel.setBackground(Color.WHITE);
         
@@ -206,10 +399,16 @@ public class StudentManagementSystemEnhanced extends JFrame {
         JButton btnClear = createStyledButton("Clear", new Color(149, 165, 166));
         btnClear.addActionListener(e -> clearFields());
         
+        JButton btnUndoDelete = createStyledButton("Undo Delete", new Color(243, 156, 18));
+        btnUndoDelete.addActionListener(e -> undoDelete());
+        
+        requiresDatabase(btnAdd, btnUpdate, btnDelete, btnUndoDelete);
+        
         buttonPanel.add(btnAdd);
         buttonPanel.add(btnUpdate);
         buttonPanel.add(btnDelete);
         buttonPanel.add(btnClear);
+        buttonPanel.add(btnUndoDelete);
         
         gbc.gridy = 6;
         panel.add(buttonPanel, gbc);
@@ -254,27 +453,54 @@ public class StudentManagementSystemEnhanced extends JFrame {
         txtSearch.setFont(new Font("Arial", Font.PLAIN, 12));
         searchPanel.add(txtSearch);
         
+        // Search as you type, once typing pauses
+        int debounceMillis = Integer.parseInt(config.getProperty("search.debounceMillis", "250").trim());
+        searchDebounce = new javax.swing.Timer(debounceMillis, e -> searchStudent(false));
+        searchDebounce.setRepeats(false);
+        txtSearch.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                searchDebounce.restart();
+            }
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                searchDebounce.restart();
+            }
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+            }
+        });
+        txtSearch.addActionListener(e -> {
+            searchDebounce.stop();
+            searchStudent(true);
+        });
+        
         JButton btnSearch = createStyledButton("Search", new Color(52, 152, 219));
-        btnSearch.addActionListener(e -> searchStudent());
+        btnSearch.addActionListener(e -> {
+            searchDebounce.stop();
+            searchStudent(true);
+        });
         searchPanel.add(btnSearch);
         
         JButton btnRefresh = createStyledButton("Refresh All", new Color(149, 165, 166));
         btnRefresh.addActionListener(e -> {
             txtSearch.setText("");
+            searchDebounce.stop();
             refreshTable();
         });
         searchPanel.add(btnRefresh);
         
+        JButton btnImport = createStyledButton("Import...", new Color(155, 89, 182));
+        btnImport.addActionListener(e -> importStudents());
+        searchPanel.add(btnImport);
+        
+        JButton btnExport = createStyledButton("Export...", new Color(22, 160, 133));
+        btnExport.addActionListener(e -> exportStudents());
+        searchPanel.add(btnExport);
+        requiresDatabase(txtSearch, btnSearch, btnRefresh, btnImport, btnExport);
+        
         panel.add(searchPanel, BorderLayout.NORTH);
         
         // Table
-        String[] columns = {"ID", "Name", "Email", "Phone", "Course"};
-        tableModel = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        // The paged model needs the database; this one stays empty until then
+        tableModel = new StudentTableModel();
         studentTable = new JTable(tableModel);
         studentTable.setFont(new Font("Arial", Font.PLAIN, 12));
         studentTable.getTableHeader().setFont(new Font("Arial", Font.BOLD, 12));
@@ -298,17 +524,72 @@ public class StudentManagementSystemEnhanced extends JFrame {
     }
     
     private JPanel createStatusBar() {
-        JPanel statusBar = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JPanel statusBar = new JPanel(new BorderLayout(10, 0));
         statusBar.setBackground(new Color(236, 240, 241));
         statusBar.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
         
-        JLabel statusLabel = new JLabel("Ready");
+        statusLabel = new JLabel("Ready");
         statusLabel.setFont(new Font("Arial", Font.PLAIN, 11));
-        statusBar.add(statusLabel);
+        statusBar.add(statusLabel, BorderLayout.CENTER);
+        
+        metricsLabel = new JLabel();
+        metricsLabel.setFont(new Font("Arial", Font.PLAIN, 11));
+        metricsLabel.setForeground(new Color(127, 140, 141));
+        
+        progressBar = new JProgressBar();
+        progressBar.setIndeterminate(true);
+        progressBar.setPreferredSize(new Dimension(120, 12));
+        progressBar.setVisible(false);
+        
+        JPanel eastPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+        eastPanel.setOpaque(false);
+        eastPanel.add(metricsLabel);
+        eastPanel.add(progressBar);
+        statusBar.add(eastPanel, BorderLayout.EAST);
+        
+        for (int i = 0; i < METRICS_WINDOW; i++) {
+            recentLatencies[i] = new LatencyHistogram();
+        }
         
         return statusBar;
     }
     
+    private void setStatus(String message) {
+        statusLabel.setText(message);
+    }
+    
+    // Throughput, p99 and errors over the last METRICS_WINDOW seconds; the
+    // tooltip has every operation since startup
+    private void updateMetricsLabel() {
+        recentIndex = (recentIndex + 1) % METRICS_WINDOW;
+        recentErrors[recentIndex] = metrics.drainWindow(recentLatencies[recentIndex]);
+        recentTotal.reset();
+        long errors = 0;
+        for (int i = 0; i < METRICS_WINDOW; i++) {
+            recentTotal.add(recentLatencies[i]);
+            errors += recentErrors[i];
+        }
+        long ops = recentTotal.getCount() + errors;
+        String text = String.format("%.0f ops/s \u00b7 p99 %.1f ms \u00b7 %d errors \u00b7 %d slow",
+            ops / (double) METRICS_WINDOW, recentTotal.percentile(0.99) / 1e6, errors,
+            metrics.getSlowOperationCount());
+        metricsLabel.setText(text);
+        
+        StringBuilder tip = new StringBuilder("<html><b>Since startup</b> (count, p50 / p99 / max ms, errors)");
+        for (OperationTimer timer : metrics.getTimers().values()) {
+            if (timer.getCount() + timer.getErrorCount() == 0) {
+                continue;
+            }
+            tip.append(String.format("<br>%s: %d, %.1f / %.1f / %.1f, %d", timer.getName(), timer.getCount(),
+                timer.getP50Millis(), timer.getP99Millis(), timer.getMaxMillis(), timer.getErrorCount()));
+        }
+        List<StudentMetrics.SlowOperation> slow = metrics.getSlowOperations();
+        if (!slow.isEmpty()) {
+            tip.append("<br><b>Last slow:</b> ").append(slow.get(0).toString().replace("&", "&amp;").replace("<", "&lt;"));
+        }
+        metricsLabel.setToolTipText(tip.append("</html>").toString());
+    }
+    
     private void addStudent() {
         String name = txtName.getText().trim();
         String email = txtEmail.getText().trim();
@@ -322,27 +603,29 @@ public class StudentManagementSystemEnhanced extends JFrame {
             return;
         }
         
-        String sql = "INSERT INTO students (name, email, phone, course) VALUES (?, ?, ?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, name);
-            pstmt.setString(2, email.isEmpty() ? null : email);
-            pstmt.setString(3, phone.isEmpty() ? null : phone);
-            pstmt.setString(4, course.isEmpty() ? null : course);
-            
-            pstmt.executeUpdate();
+        Student student = new Student(0, name, email.isEmpty() ? null : email,
+            phone.isEmpty() ? null : phone, course.isEmpty() ? null : course);
+        dataAccess.submit("Adding student", () -> {
+            Student saved = repository.insert(student);
+            searchCache.invalidate();
+            searchEngine.studentSaved(saved);
+            return saved;
+        }, saved -> {
+            setStatus("Student added");
             JOptionPane.showMessageDialog(this, "Student added successfully!", 
                 "Success", JOptionPane.INFORMATION_MESSAGE);
             clearFields();
-            refreshTable();
-        } catch (SQLException e) {
-            if (e.getErrorCode() == 1062) {
+            studentsChanged();
+        }, e -> {
+            setStatus("Add failed");
+            if (e instanceof SQLException && ((SQLException) e).getErrorCode() == 1062) {
                 JOptionPane.showMessageDialog(this, "Email already exists!", 
                     "Error", JOptionPane.ERROR_MESSAGE);
             } else {
                 JOptionPane.showMessageDialog(this, "Error adding student: " + e.getMessage(), 
                     "Error", JOptionPane.ERROR_MESSAGE);
             }
-        }
+        });
     }
     
     private void updateStudent() {
@@ -360,26 +643,42 @@ public class StudentManagementSystemEnhanced extends JFrame {
             txtName.requestFocus();
             return;
         }
+        String email = txtEmail.getText().trim();
+        String phone = txtPhone.getText().trim();
+        String course = txtCourse.getText().trim();
         
-        String sql = "UPDATE students SET name=?, email=?, phone=?, course=? WHERE id=?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, name);
-            pstmt.setString(2, txtEmail.getText().trim().isEmpty() ? null : txtEmail.getText().trim());
-            pstmt.setString(3, txtPhone.getText().trim().isEmpty() ? null : txtPhone.getText().trim());
-            pstmt.setString(4, txtCourse.getText().trim().isEmpty() ? null : txtCourse.getText().trim());
-            pstmt.setInt(5, Integer.parseInt(id));
-            
-            int rowsAffected = pstmt.executeUpdate();
-            if (rowsAffected > 0) {
+        Student student = new Student(Integer.parseInt(id), name, email.isEmpty() ? null : email,
+            phone.isEmpty() ? null : phone, course.isEmpty() ? null : course).withUpdatedAt(loadedVersion);
+        dataAccess.submit("Updating student", () -> {
+            if (!repository.update(student)) {
+                return null;
+            }
+            searchCache.invalidate();
+            searchEngine.studentSaved(student);
+            // With its new updated_at, for the next edit of the row
+            Student saved = repository.findById(student.getId());
+            return saved != null ? saved : student;
+        }, saved -> {
+            if (saved != null) {
+                setStatus("Student updated");
                 JOptionPane.showMessageDialog(this, "Student updated successfully!", 
                     "Success", JOptionPane.INFORMATION_MESSAGE);
                 clearFields();
+                showUpdatedStudent(saved);
+            } else {
+                setStatus("Update failed");
+                JOptionPane.showMessageDialog(this,
+                    "Student " + id + " was changed or deleted by someone else. The list has been refreshed;\n"
+                        + "select the student again to see their current details.",
+                    "Update Conflict", JOptionPane.WARNING_MESSAGE);
+                clearFields();
                 refreshTable();
             }
-        } catch (SQLException e) {
+        }, e -> {
+            setStatus("Update failed");
             JOptionPane.showMessageDialog(this, "Error updating student: " + e.getMessage(), 
                 "Error", JOptionPane.ERROR_MESSAGE);
-        }
+        });
     }
     
     private void deleteStudent() {
@@ -391,115 +690,523 @@ public class StudentManagementSystemEnhanced extends JFrame {
         }
         
         int confirm = JOptionPane.showConfirmDialog(this, 
-            "Are you sure you want to delete this student?\nThis action cannot be undone.", 
+            "Are you sure you want to delete this student?\n" + (auditJournal != null
+                ? "It can be brought back with Undo Delete." : "This action cannot be undone."), 
             "Confirm Delete", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
         
         if (confirm == JOptionPane.YES_OPTION) {
-            String sql = "DELETE FROM students WHERE id=?";
-            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                pstmt.setInt(1, Integer.parseInt(id));
-                int rowsAffected = pstmt.executeUpdate();
-                if (rowsAffected > 0) {
+            dataAccess.submit("Deleting student", () -> {
+                boolean deleted = repository.delete(Integer.parseInt(id));
+                if (deleted) {
+                    searchCache.invalidate();
+                    searchEngine.studentRemoved(Integer.parseInt(id));
+                }
+                return deleted;
+            }, deleted -> {
+                if (deleted) {
+                    lastDeletedId = Integer.parseInt(id);
+                    setStatus("Student deleted");
                     JOptionPane.showMessageDialog(this, "Student deleted successfully!", 
                         "Success", JOptionPane.INFORMATION_MESSAGE);
                     clearFields();
-                    refreshTable();
+                    studentsChanged();
                 }
-            } catch (SQLException e) {
+            }, e -> {
+                setStatus("Delete failed");
                 JOptionPane.showMessageDialog(this, "Error deleting student: " + e.getMessage(), 
                     "Error", JOptionPane.ERROR_MESSAGE);
+            });
+        }
+    }
+    
+    // Brings back the student this window deleted last, or one picked by
+    // id, as the audit journal saw them just before the delete
+    private void undoDelete() {
+        if (auditJournal == null) {
+            JOptionPane.showMessageDialog(this, "Undo Delete needs the audit journal (audit.dir in db.properties).", 
+                "Undo Delete", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        String input = JOptionPane.showInputDialog(this, "ID of the deleted student to restore:",
+            lastDeletedId != 0 ? String.valueOf(lastDeletedId) : "");
+        if (input == null || input.trim().isEmpty()) {
+            return;
+        }
+        int id;
+        try {
+            id = Integer.parseInt(input.trim());
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Not a student ID: " + input, 
+                "Validation Error", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        dataAccess.submit("Restoring student", () -> {
+            // A delete still queued by write-behind is not in the journal yet
+            if (backend instanceof WriteBehindStudentRepository) {
+                ((WriteBehindStudentRepository) backend).flush();
+            }
+            Student deleted = auditJournal.lastDeleted(id);
+            if (deleted == null) {
+                return null;
             }
+            Student restored = repository.restore(deleted);
+            searchCache.invalidate();
+            searchEngine.studentSaved(restored);
+            return restored;
+        }, restored -> {
+            if (restored == null) {
+                JOptionPane.showMessageDialog(this, "The audit journal has no delete of student " + id + ".", 
+                    "Undo Delete", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+            if (lastDeletedId == id) {
+                lastDeletedId = 0;
+            }
+            setStatus("Restored " + restored.getName() + " (ID " + id + ")");
+            // The change feed reports the row as created now, so it goes
+            // back in at its place in id order, as on other clients
+            studentsChanged();
+            refreshCourses();
+        }, e -> {
+            setStatus("Restore failed");
+            String message = e instanceof SQLException && ((SQLException) e).getErrorCode() == 1062
+                ? "Student " + id + " is already back, or their email is now taken." : e.getMessage();
+            JOptionPane.showMessageDialog(this, "Error restoring student: " + message, 
+                "Error", JOptionPane.ERROR_MESSAGE);
+        });
+    }
+    
+    // Patches the edited row in place; the row count has not changed, so
+    // there is no need to reload the table, and a row on a page that is not
+    // loaded will be read fresh when scrolled to
+    private void showUpdatedStudent(Student student) {
+        if (studentTable.getModel() == pagedModel) {
+            pagedModel.studentUpdated(student);
+            return;
         }
+        tableModel.studentUpdated(student);
     }
     
-    private void searchStudent() {
+    // Queued writes the database refused, e.g. because someone else edited
+    // the student first; put the index and table back in line with the database
+    private void watchWriteBehind() {
+        if (!(backend instanceof WriteBehindStudentRepository)) {
+            return;
+        }
+        ((WriteBehindStudentRepository) backend).setWriteListener(new WriteBehindStudentRepository.WriteListener() {
+            @Override
+            public void writeRejected(Student attempted, boolean delete, SQLException cause) {
+                searchCache.invalidate();
+                try {
+                    Student current = repository.findById(attempted.getId());
+                    if (current != null) {
+                        searchEngine.studentSaved(current);
+                    } else {
+                        searchEngine.studentRemoved(attempted.getId());
+                    }
+                } catch (SQLException e) {
+                    // The next search index load will catch up
+                }
+                String message = (delete ? "Deleting student " + attempted.getId() + " failed: "
+                    : "Changes to " + attempted.getName() + " (ID " + attempted.getId() + ") were not saved: ")
+                    + cause.getMessage();
+                SwingUtilities.invokeLater(() -> {
+                    setStatus(message);
+                    JOptionPane.showMessageDialog(StudentManagementSystemEnhanced.this, message, 
+                        "Write Conflict", JOptionPane.WARNING_MESSAGE);
+                    refreshTable();
+                });
+            }
+            
+            @Override
+            public void flushFailed(Exception cause) {
+                SwingUtilities.invokeLater(() -> setStatus("Saving changes failed, will retry: " + cause.getMessage()));
+            }
+        });
+    }
+    
+    // Keeps the table and search index in step with writes from this and
+    // other clients by applying only what changed
+    private void watchChanges() {
+        changeFeed = StudentChangeFeed.fromProperties(repository, config);
+        changeFeed.addListener(new StudentChangeFeed.Listener() {
+            @Override
+            public void changes(StudentChanges changes) {
+                searchCache.invalidate();
+                for (Student student : changes.changed) {
+                    searchEngine.studentSaved(student);
+                }
+                for (int id : changes.deletedIds) {
+                    searchEngine.studentRemoved(id);
+                }
+                SwingUtilities.invokeLater(() -> {
+                    refreshCourses();
+                    if (changes.truncated) {
+                        // Too much changed at once (an import, say); start over
+                        initializeSearch();
+                        if (studentTable.getModel() == pagedModel) {
+                            refreshTable();
+                        }
+                    } else if (studentTable.getModel() == pagedModel) {
+                        pagedModel.applyChanges(changes);
+                        setStatus(pagedModel.getRowCount() + " students");
+                    } else {
+                        showChangedResults(changes);
+                    }
+                });
+            }
+            
+            @Override
+            public void failed(Exception cause) {
+                SwingUtilities.invokeLater(() -> setStatus("Checking for changes failed: " + cause.getMessage()));
+            }
+        });
+    }
+    
+    // Says when the database stops answering and comes back; on recovery,
+    // pages and counts that failed to load are read again
+    private void watchAvailability() {
+        ResilientStudentRepository resilient = StudentRepository.unwrap(backend, ResilientStudentRepository.class);
+        if (resilient == null) {
+            return;
+        }
+        boolean queued = backend instanceof WriteBehindStudentRepository;
+        resilient.getCircuitBreaker().addListener(state ->
+            SwingUtilities.invokeLater(() -> {
+                if (state == CircuitBreaker.State.OPEN) {
+                    setStatus("Database unavailable" + (queued
+                        ? "; edits and deletes are saved once it is back" : "; changes cannot be saved"));
+                } else if (state == CircuitBreaker.State.CLOSED) {
+                    setStatus("Database available again");
+                    refreshCourses();
+                    studentTable.repaint();
+                }
+            }));
+    }
+    
+    // Offline, everything on screen came from the snapshot; once it has
+    // caught up, reload from the database, as after a truncated change feed
+    private void watchSnapshot() {
+        if (snapshotRepository == null) {
+            return;
+        }
+        snapshotRepository.addListener(online -> SwingUtilities.invokeLater(() -> {
+            if (!online) {
+                setStatus("Working offline from the copy saved " + snapshotSavedAt()
+                    + "; edits and deletes are saved once the database is back");
+                return;
+            }
+            searchCache.invalidate();
+            initializeSearch();
+            refreshCourses();
+            if (studentTable.getModel() == pagedModel) {
+                refreshTable();
+            }
+        }));
+    }
+    
+    // Appended to the student count while reads come from the snapshot
+    private String offlineNote() {
+        if (snapshotRepository == null || snapshotRepository.isOnline()) {
+            return "";
+        }
+        return " (offline, as saved " + snapshotSavedAt() + ")";
+    }
+    
+    private String snapshotSavedAt() {
+        return java.text.DateFormat.getDateTimeInstance(java.text.DateFormat.MEDIUM, java.text.DateFormat.SHORT)
+            .format(new java.util.Date(snapshotRepository.getSnapshot().getSavedAt()));
+    }
+    
+    // After a local add, delete, restore or import: the change feed picks
+    // it up along with anything else that changed. Over search results, go
+    // back to the full list as before.
+    private void studentsChanged() {
+        if (studentTable.getModel() == pagedModel) {
+            changeFeed.pollNow();
+        } else {
+            refreshTable();
+        }
+    }
+    
+    // One row per course, so cheap enough to re-read on every change; a
+    // newer refresh cancels one still running
+    private void refreshCourses() {
+        dataAccess.submit("courses", null, repository::courseStatistics, coursePanel::setStatistics,
+            e -> setStatus("Course counts unavailable: " + e.getMessage()));
+    }
+    
+    // Double-click on a course: list its students
+    private void showCourse(String course) {
+        txtSearch.setText("");
+        searchDebounce.stop();
+        lastSearchResults = null;
+        loadRows("Loading " + course + " students", sink -> {
+            for (Student student : repository.findByCourse(course, StudentSearchEngine.DEFAULT_LIMIT)) {
+                sink.accept(student);
+            }
+        }, count -> setStatus(count + " students taking " + course), "Error loading course: ");
+    }
+    
+    // Patches rows of the search results on screen; rows that now match
+    // show up on the next search
+    private void showChangedResults(StudentChanges changes) {
+        for (Student student : changes.changed) {
+            showUpdatedStudent(student);
+        }
+        for (int id : changes.deletedIds) {
+            tableModel.studentRemoved(id);
+        }
+    }
+    
+    // explicit is true for the Search button / Enter, false while typing
+    private void searchStudent(boolean explicit) {
         String searchTerm = txtSearch.getText().trim();
         if (searchTerm.isEmpty()) {
+            lastSearchResults = null;
             refreshTable();
             return;
         }
         
-        String sql = "SELECT * FROM students WHERE name LIKE ? OR email LIKE ? OR course LIKE ? OR phone LIKE ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            String searchPattern = "%" + searchTerm + "%";
-            pstmt.setString(1, searchPattern);
-            pstmt.setString(2, searchPattern);
-            pstmt.setString(3, searchPattern);
-            pstmt.setString(4, searchPattern);
-            
-            ResultSet rs = pstmt.executeQuery();
-            tableModel.setRowCount(0);
-            
-            int count = 0;
-            while (rs.next()) {
-                tableModel.addRow(new Object[]{
-                    rs.getInt("id"),
-                    rs.getString("name"),
-                    rs.getString("email"),
-                    rs.getString("phone"),
-                    rs.getString("course")
-                });
-                count++;
+        StudentSearchEngine engine = searchReady ? searchEngine : fallbackSearchEngine;
+        String key = SearchResultCache.normalize(searchTerm);
+        List<Student> results = searchCache.get(key);
+        if (results != null) {
+            metrics.increment("search_cache_hits");
+        } else if (lastSearchResults != null && lastSearchEngine == engine
+                && lastSearchResults.size() < StudentSearchEngine.DEFAULT_LIMIT
+                && engine.ordersById() && engine.narrows(lastSearchTerm, searchTerm)) {
+            // The new term only narrows the last complete result set, so filter it;
+            // ranked results are searched afresh, as the new term changes their order
+            results = new ArrayList<>();
+            for (Student student : lastSearchResults) {
+                if (engine.matches(student, searchTerm)) {
+                    results.add(student);
+                }
             }
-            
-            if (count == 0) {
-                JOptionPane.showMessageDialog(this, 
-                    "No students found matching: " + searchTerm, 
-                    "Search Results", JOptionPane.INFORMATION_MESSAGE);
+            searchCache.put(key, results, searchCache.generation());
+            metrics.increment("search_refinements");
+        }
+        
+        if (results != null) {
+            dataAccess.cancel("table");
+            tableModel.clear();
+            tableModel.addAll(results);
+            studentTable.setModel(tableModel);
+            searchCompleted(searchTerm, engine, results, explicit);
+            return;
+        }
+        
+        metrics.increment("search_cache_misses");
+        long generation = searchCache.generation();
+        List<Student> found = new ArrayList<>();
+        loadRows("Searching for \"" + searchTerm + "\"", sink -> {
+            for (Student student : engine.search(searchTerm, StudentSearchEngine.DEFAULT_LIMIT)) {
+                found.add(student);
+                sink.accept(student);
             }
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, "Error searching: " + e.getMessage(), 
-                "Error", JOptionPane.ERROR_MESSAGE);
+            searchCache.put(key, found, generation);
+        }, count -> searchCompleted(searchTerm, engine, found, explicit), "Error searching: ");
+    }
+    
+    private void searchCompleted(String searchTerm, StudentSearchEngine engine, List<Student> results,
+                                 boolean explicit) {
+        lastSearchTerm = searchTerm;
+        lastSearchResults = results;
+        lastSearchEngine = engine;
+        setStatus(results.size() + " students match \"" + searchTerm + "\"");
+        if (results.isEmpty() && explicit) {
+            JOptionPane.showMessageDialog(this, 
+                "No students found matching: " + searchTerm, 
+                "Search Results", JOptionPane.INFORMATION_MESSAGE);
         }
     }
     
     private void refreshTable() {
 
-        if (connection == null) {
+        if (repository == null) {
             JOptionPane.showMessageDialog(this,
                     "Database not connected!",
                     "Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
-        String sql = "SELECT * FROM students ORDER BY id";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            
-            tableModel.setRowCount(0);
-            while (rs.next()) {
-                tableModel.addRow(new Object[]{
-                    rs.getInt("id"),
-                    rs.getString("name"),
-                    rs.getString("email"),
-                    rs.getString("phone"),
-                    rs.getString("course")
-                });
-            }
-        } catch (SQLException e) {
+        // Browsing pages through the whole table; only the visible pages are read
+        studentTable.setModel(pagedModel);
+        setStatus("Loading students...");
+        pagedModel.reload(count -> setStatus(count + " students" + offlineNote()), e -> {
+            setStatus("Error");
             JOptionPane.showMessageDialog(this, "Error loading data: " + e.getMessage(), 
                 "Error", JOptionPane.ERROR_MESSAGE);
+        });
+    }
+    
+    // Table loads share one channel, so a new search or refresh cancels the one in flight
+    private void loadRows(String description, AsyncDataAccess.StreamTask<Student> task,
+                          java.util.function.IntConsumer onDone, String errorPrefix) {
+        dataAccess.stream("table", description, task, new AsyncDataAccess.StreamListener<Student>() {
+            @Override
+            public void started() {
+                tableModel.clear();
+                studentTable.setModel(tableModel);
+            }
+            
+            @Override
+            public void batch(List<Student> rows) {
+                tableModel.addAll(rows);
+                setStatus(description + "... " + tableModel.getRowCount() + " rows");
+            }
+            
+            @Override
+            public void done(int count, long millis) {
+                onDone.accept(count);
+                setStatus(statusLabel.getText() + " (" + millis + " ms)");
+            }
+            
+            @Override
+            public void failed(Exception e) {
+                setStatus("Error");
+                JOptionPane.showMessageDialog(StudentManagementSystemEnhanced.this, 
+                    errorPrefix + e.getMessage(), 
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }
+    
+    private void importStudents() {
+        JFileChooser chooser = new JFileChooser(".");
+        chooser.setDialogTitle("Import Students");
+        chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
+            "CSV or JSON Lines", "csv", "jsonl", "ndjson", "json"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
         }
+        java.nio.file.Path input = chooser.getSelectedFile().toPath();
+        java.nio.file.Path rejectFile = StudentImporter.defaultRejectFile(input);
+        
+        ProgressMonitor monitor = new ProgressMonitor(this, "Importing " + input.getFileName(), "", 0, 1000);
+        monitor.setMillisToDecideToPopup(0);
+        monitor.setMillisToPopup(0);
+        
+        StudentImporter importer = new StudentImporter(repository);
+        importer.setChunkSize(Integer.parseInt(config.getProperty("import.chunkSize", "5000").trim()));
+        importer.setBatchSize(Integer.parseInt(config.getProperty("import.batchSize", "1000").trim()));
+        importer.setInsertListener(searchEngine::studentSaved);
+        importer.setProgressListener(progress -> SwingUtilities.invokeLater(() -> {
+            if (monitor.isCanceled()) {
+                importer.cancel();
+            }
+            monitor.setProgress((int) (progress.bytesRead * 1000 / Math.max(1, progress.totalBytes)));
+            monitor.setNote(String.format("%,d inserted, %,d rejected", progress.inserted, progress.rejected));
+            setStatus("Importing: " + progress);
+        }));
+        
+        dataAccess.submit("Importing students", 
+            () -> importer.importFile(input, StudentImporter.Format.forFile(input), rejectFile), 
+            result -> {
+                monitor.close();
+                searchCache.invalidate();
+                setStatus((result.cancelled ? "Import cancelled: " : "Import finished: ") + result);
+                String message = String.format("%,d students imported, %,d rejected (%,.0f rows/s).",
+                    result.inserted, result.rejected, result.rowsPerSecond());
+                if (result.rejected > 0) {
+                    message += "\nRejected rows were written to " + rejectFile;
+                }
+                JOptionPane.showMessageDialog(this, message, "Import", JOptionPane.INFORMATION_MESSAGE);
+                clearFields();
+                studentsChanged();
+            }, e -> {
+                monitor.close();
+                // Chunks committed before the failure stay in the table
+                searchCache.invalidate();
+                setStatus("Import failed");
+                JOptionPane.showMessageDialog(this, "Error importing students: " + e.getMessage(), 
+                    "Error", JOptionPane.ERROR_MESSAGE);
+                clearFields();
+                refreshTable();
+            });
+    }
+    
+    private void exportStudents() {
+        JFileChooser chooser = new JFileChooser(".");
+        chooser.setDialogTitle("Export Students");
+        chooser.setSelectedFile(new java.io.File("students.csv"));
+        chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
+            "CSV, JSON Lines or columnar (.scol), optionally .gz", "csv", "jsonl", "scol", "gz"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        java.nio.file.Path output = chooser.getSelectedFile().toPath();
+        StudentExporter.Format format = StudentExporter.Format.forFile(output);
+        boolean gzip = output.getFileName().toString().toLowerCase().endsWith(".gz");
+        
+        ProgressMonitor monitor = new ProgressMonitor(this, "Exporting to " + output.getFileName(), "", 0, 1);
+        monitor.setMillisToDecideToPopup(0);
+        monitor.setMillisToPopup(0);
+        // The row count is not known up front, so the bar just stays open
+        monitor.setProgress(0);
+        
+        StudentExporter exporter = new StudentExporter(repository);
+        exporter.setProgressListener(rows -> SwingUtilities.invokeLater(() -> {
+            if (monitor.isCanceled()) {
+                // A cancelled job reports neither success nor failure
+                dataAccess.cancel("export");
+                monitor.close();
+                setStatus("Export cancelled");
+                return;
+            }
+            monitor.setNote(String.format("%,d rows written", rows));
+            setStatus(String.format("Exporting: %,d rows", rows));
+        }));
+        
+        long start = System.currentTimeMillis();
+        dataAccess.submit("export", "Exporting students", 
+            () -> exporter.export(output, format, gzip), 
+            rows -> {
+                monitor.close();
+                long millis = Math.max(1, System.currentTimeMillis() - start);
+                setStatus(String.format("Export finished: %,d rows in %,d ms", rows, millis));
+                JOptionPane.showMessageDialog(this, 
+                    String.format("%,d students exported to %s.", rows, output), 
+                    "Export", JOptionPane.INFORMATION_MESSAGE);
+            }, e -> {
+                monitor.close();
+                setStatus("Export failed");
+                JOptionPane.showMessageDialog(this, "Error exporting students: " + e.getMessage(), 
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            });
     }
     
     private void loadSelectedStudent() {
         int selectedRow = studentTable.getSelectedRow();
         if (selectedRow >= 0) {
-            txtId.setText(tableModel.getValueAt(selectedRow, 0).toString());
-            txtName.setText(tableModel.getValueAt(selectedRow, 1).toString());
+            javax.swing.table.TableModel model = studentTable.getModel();
+            Object id = model.getValueAt(selectedRow, 0);
+            if (id == null) {
+                // Page still loading
+                return;
+            }
+            txtId.setText(id.toString());
+            Student selected = model == pagedModel
+                ? pagedModel.getStudentAt(selectedRow) : tableModel.getStudentAt(selectedRow);
+            loadedVersion = selected != null ? selected.getUpdatedAt() : 0;
+            txtName.setText(model.getValueAt(selectedRow, 1).toString());
             
-            Object email = tableModel.getValueAt(selectedRow, 2);
+            Object email = model.getValueAt(selectedRow, 2);
             txtEmail.setText(email != null ? email.toString() : "");
             
-            Object phone = tableModel.getValueAt(selectedRow, 3);
+            Object phone = model.getValueAt(selectedRow, 3);
             txtPhone.setText(phone != null ? phone.toString() : "");
             
-            Object course = tableModel.getValueAt(selectedRow, 4);
+            Object course = model.getValueAt(selectedRow, 4);
             txtCourse.setText(course != null ? course.toString() : "");
         }
     }
     
     private void clearFields() {
+        // Also runs after every successful write, when earlier results may be stale
+        lastSearchResults = null;
+        loadedVersion = 0;
         txtId.setText("");
         txtName.setText("");
         txtEmail.setText("");
@@ -509,14 +1216,39 @@ public class StudentManagementSystemEnhanced extends JFrame {
         txtName.requestFocus();
     }
     
+    /**
+     * --exit-after-startup closes the app once the first rows are on
+     * screen, for timing startup or recording a CDS archive (see README).
+     */
     public static void main(String[] args) {
+        StartupTimeline startup = new StartupTimeline();
+        boolean exitAfterStartup = false;
+        for (String arg : args) {
+            switch (arg) {
+                case "--exit-after-startup": exitAfterStartup = true; break;
+                default:
+                    System.err.println("Unknown option: " + arg);
+                    System.exit(2);
+            }
+        }
+        Properties config = loadDatabaseConfig();
+        
+        // Connecting and checking the schema run on their own thread while
+        // the EDT sets up the look and feel and builds the window
+        CompletableFuture<Database> database = Database.open(config, startup);
+        
+        boolean exit = exitAfterStartup;
         SwingUtilities.invokeLater(() -> {
             try {
                 UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
             } catch (Exception e) {
                 e.printStackTrace();
             }
-            new StudentManagementSystemEnhanced().setVisible(true);
+            StudentManagementSystemEnhanced app = new StudentManagementSystemEnhanced(config, startup, exit);
+            app.setVisible(true);
+            startup.mark("window");
+            database.whenComplete((opened, failure) ->
+                SwingUtilities.invokeLater(() -> app.databaseReady(opened, failure)));
         });
     }
 }
@@ -0,0 +1,297 @@
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timers and counters for every database and search operation the app
+ * runs, fed by InstrumentedStudentRepository and InstrumentedSearchEngine.
+ *
+ * Operations slower than the slow threshold are logged to stderr and the
+ * last MAX_SLOW_OPERATIONS are kept. Everything can be read over JMX (under
+ * StudentManagementSystem:*) and as Prometheus text from a small HTTP
+ * server on the loopback interface; see db.properties for the settings.
+ */
+public class StudentMetrics implements StudentMetricsMXBean, AutoCloseable {
+    static final String JMX_DOMAIN = "StudentManagementSystem";
+    private static final int MAX_SLOW_OPERATIONS = 50;
+
+    /** One operation that took longer than the slow threshold. */
+    public static final class SlowOperation {
+        public final long time;
+        public final String operation;
+        public final long nanos;
+        public final boolean failed;
+        public final String detail;
+
+        SlowOperation(long time, String operation, long nanos, boolean failed, String detail) {
+            this.time = time;
+            this.operation = operation;
+            this.nanos = nanos;
+            this.failed = failed;
+            this.detail = detail;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s %s %.1f ms%s%s",
+                new SimpleDateFormat("HH:mm:ss").format(new Date(time)), operation, nanos / 1e6,
+                failed ? " (failed)" : "", detail != null ? " [" + detail + "]" : "");
+        }
+    }
+
+    private final ConcurrentMap<String, OperationTimer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ArrayDeque<SlowOperation> slowOperations = new ArrayDeque<>();
+    private final AtomicLong slowCount = new AtomicLong();
+    private volatile long slowNanos;
+    private final boolean jmx;
+    private final List<ObjectName> registered = new ArrayList<>();
+    private HttpServer httpServer;
+
+    public StudentMetrics(long slowMillis, boolean jmx) {
+        this.slowNanos = slowMillis * 1_000_000;
+        this.jmx = jmx;
+        register(this, JMX_DOMAIN + ":type=Metrics");
+    }
+
+    /** Also starts the Prometheus endpoint if metrics.port is set. */
+    public static StudentMetrics fromProperties(Properties props) {
+        StudentMetrics metrics = new StudentMetrics(
+            Long.parseLong(props.getProperty("metrics.slowMillis", "250").trim()),
+            Boolean.parseBoolean(props.getProperty("metrics.jmx", "true").trim()));
+        int port = Integer.parseInt(props.getProperty("metrics.port", "0").trim());
+        if (port > 0) {
+            try {
+                metrics.startHttpServer(port);
+            } catch (IOException e) {
+                System.err.println("Warning: metrics endpoint not started on port " + port + ": " + e.getMessage());
+            }
+        }
+        return metrics;
+    }
+
+    /** The timer for an operation, created on first use. */
+    public OperationTimer timer(String operation) {
+        OperationTimer timer = timers.get(operation);
+        if (timer != null) {
+            return timer;
+        }
+        OperationTimer created = new OperationTimer(operation, this);
+        timer = timers.putIfAbsent(operation, created);
+        if (timer == null) {
+            register(created, JMX_DOMAIN + ":type=Operation,name=" + operation);
+            return created;
+        }
+        return timer;
+    }
+
+    public void increment(String counter) {
+        counters.computeIfAbsent(counter, k -> new LongAdder()).increment();
+    }
+
+    long getSlowNanos() {
+        return slowNanos;
+    }
+
+    void slowOperation(String operation, long nanos, boolean succeeded, Object detail) {
+        SlowOperation slow = new SlowOperation(System.currentTimeMillis(), operation, nanos, !succeeded,
+            detail != null ? String.valueOf(detail) : null);
+        slowCount.incrementAndGet();
+        synchronized (slowOperations) {
+            slowOperations.addFirst(slow);
+            if (slowOperations.size() > MAX_SLOW_OPERATIONS) {
+                slowOperations.removeLast();
+            }
+        }
+        System.err.println("Slow operation: " + slow);
+    }
+
+    /** Newest first. */
+    public List<SlowOperation> getSlowOperations() {
+        synchronized (slowOperations) {
+            return new ArrayList<>(slowOperations);
+        }
+    }
+
+    /**
+     * Adds everything recorded since the last call to into (which is reset
+     * first) and returns the number of failures; for the status bar, which
+     * is the only caller.
+     */
+    public long drainWindow(LatencyHistogram into) {
+        into.reset();
+        long errors = 0;
+        for (OperationTimer timer : timers.values()) {
+            errors += timer.drainWindow(into);
+        }
+        return errors;
+    }
+
+    /** The timers by operation name, sorted. */
+    public Map<String, OperationTimer> getTimers() {
+        return new TreeMap<>(timers);
+    }
+
+    @Override
+    public long getSlowOperationCount() {
+        return slowCount.get();
+    }
+
+    @Override
+    public double getSlowThresholdMillis() {
+        return slowNanos / 1e6;
+    }
+
+    @Override
+    public void setSlowThresholdMillis(double millis) {
+        slowNanos = (long) (millis * 1e6);
+    }
+
+    @Override
+    public String[] getRecentSlowOperations() {
+        List<SlowOperation> recent = getSlowOperations();
+        String[] lines = new String[recent.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = recent.get(i).toString();
+        }
+        return lines;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().sum());
+        }
+        return values;
+    }
+
+    /** Everything in the Prometheus text exposition format (version 0.0.4). */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        Map<String, OperationTimer> sorted = getTimers();
+        out.append("# HELP student_operation_duration_seconds Latency of successful operations since startup.\n");
+        out.append("# TYPE student_operation_duration_seconds summary\n");
+        for (OperationTimer timer : sorted.values()) {
+            LatencyHistogram h = timer.copy();
+            String label = "operation=\"" + timer.getName() + "\"";
+            for (double q : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                sample(out, "student_operation_duration_seconds{" + label + ",quantile=\"" + q + "\"}",
+                    h.percentile(q) / 1e9);
+            }
+            sample(out, "student_operation_duration_seconds_sum{" + label + "}", h.getTotal() / 1e9);
+            sample(out, "student_operation_duration_seconds_count{" + label + "}", h.getCount());
+        }
+        out.append("# HELP student_operation_errors_total Operations that failed with an exception.\n");
+        out.append("# TYPE student_operation_errors_total counter\n");
+        for (OperationTimer timer : sorted.values()) {
+            sample(out, "student_operation_errors_total{operation=\"" + timer.getName() + "\"}",
+                timer.getErrorCount());
+        }
+        out.append("# HELP student_slow_operations_total Operations slower than the slow threshold.\n");
+        out.append("# TYPE student_slow_operations_total counter\n");
+        sample(out, "student_slow_operations_total", slowCount.get());
+        for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+            String name = "student_" + counter.getKey() + "_total";
+            out.append("# TYPE ").append(name).append(" counter\n");
+            sample(out, name, counter.getValue());
+        }
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, double value) {
+        out.append(name).append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    /** Serves toPrometheus() at http://localhost:port/metrics, to this machine only. */
+    public synchronized void startHttpServer(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+        httpServer = server;
+    }
+
+    /** The port the Prometheus endpoint listens on, or 0. */
+    public synchronized int getHttpPort() {
+        return httpServer != null ? httpServer.getAddress().getPort() : 0;
+    }
+
+    private void register(Object bean, String name) {
+        if (!jmx) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(bean, objectName);
+            synchronized (registered) {
+                registered.add(objectName);
+            }
+        } catch (JMException e) {
+            System.err.println("Warning: could not register " + name + " with JMX: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        synchronized (registered) {
+            for (Iterator<ObjectName> it = registered.iterator(); it.hasNext(); ) {
+                try {
+                    server.unregisterMBean(it.next());
+                } catch (JMException e) {
+                    // Already gone
+                }
+                it.remove();
+            }
+        }
+    }
+}
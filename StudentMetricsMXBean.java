@@ -0,0 +1,17 @@
+/**
+ * The metrics registry as JMX sees it, registered as
+ * StudentManagementSystem:type=Metrics.
+ */
+public interface StudentMetricsMXBean {
+    long getSlowOperationCount();
+
+    double getSlowThresholdMillis();
+
+    void setSlowThresholdMillis(double millis);
+
+    /** The most recent slow operations, newest first. */
+    String[] getRecentSlowOperations();
+
+    /** Counters such as search cache hits, by name. */
+    java.util.Map<String, Long> getCounters();
+}
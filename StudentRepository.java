@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Storage for students. Every read and write of student rows goes through
+ * here. The backend is chosen with db.backend in db.properties:
+ *
+ *   mysql  - the students table, through a ConnectionPool (default)
+ *   memory - process-local maps; nothing is persisted, no database needed
+ *
+ * Both backends report constraint violations the way MySQL does, so callers
+ * can check SQLException error codes (1062 duplicate email, 1048 missing
+ * name, 1406 value too long) without knowing which one they have.
+ *
+ * Rows carry their updated_at as a version (Student.getUpdatedAt()). Writes
+ * of a student that carries a version only apply while the row still has
+ * it, which is how concurrent edits are detected.
+ */
+public interface StudentRepository extends AutoCloseable {
+    /** Column limits from the students table definition. */
+    int MAX_NAME = 100;
+    int MAX_EMAIL = 100;
+    int MAX_PHONE = 15;
+    int MAX_COURSE = 50;
+
+    /** Receives rows of a full scan, in id order. */
+    interface RowHandler {
+        void row(Student student) throws IOException;
+    }
+
+    /** Told about each row insertAll() skipped, by its index in the input list. */
+    interface RejectHandler {
+        void rejected(int index, SQLException cause) throws IOException;
+    }
+
+    /** Creates the schema if it does not exist yet. */
+    void initialize() throws SQLException;
+
+    /** Inserts a student (its id is ignored) and returns it with the generated id. */
+    Student insert(Student student) throws SQLException;
+
+    /**
+     * Inserts students (ids ignored) as one transaction, batchSize rows per
+     * round trip. Rows that break a constraint are passed to rejected and
+     * skipped; the others are returned with their generated ids.
+     */
+    List<Student> insertAll(List<Student> students, int batchSize, RejectHandler rejected)
+        throws SQLException, IOException;
+
+    /**
+     * Replaces the row with the student's id. False if there is no such row,
+     * or if the student carries a version and the row has changed since.
+     */
+    boolean update(Student student) throws SQLException;
+
+    /**
+     * Applies updates as one transaction, batchSize rows per round trip, each
+     * conditional on its version as in update(). Rows that are missing or
+     * stale (StaleWriteException) or that break a constraint are passed to
+     * rejected and skipped; the others are returned with their new versions.
+     */
+    List<Student> updateAll(List<Student> students, int batchSize, RejectHandler rejected)
+        throws SQLException, IOException;
+
+    /**
+     * Deletes rows as one transaction, each conditional on the student's
+     * version. Missing or stale rows are passed to rejected. Returns the
+     * number of rows deleted.
+     */
+    int deleteAll(List<Student> students, int batchSize, RejectHandler rejected)
+        throws SQLException, IOException;
+
+    /** False if there is no such row. */
+    boolean delete(int id) throws SQLException;
+
+    /**
+     * Puts a deleted student back under their old id (ids are never handed
+     * out again, so it is free unless they were restored already). Fails
+     * with 1062 if the id or the email is taken.
+     */
+    Student restore(Student student) throws SQLException;
+
+    Student findById(int id) throws SQLException;
+
+    /** The student with this email, ignoring case, or null. */
+    Student findByEmail(String email) throws SQLException;
+
+    /** Up to limit students taking the course (ignoring case), in id order. */
+    List<Student> findByCourse(String course, int limit) throws SQLException;
+
+    /** Up to limit students whose name, email, phone or course contains text, in id order. */
+    List<Student> findContaining(String text, int limit) throws SQLException;
+
+    /** Up to limit students with ids greater than afterId, in id order. */
+    List<Student> findAfter(int afterId, int limit) throws SQLException;
+
+    /** Up to limit students starting at the given position in id order. */
+    List<Student> findPage(int offset, int limit) throws SQLException;
+
+    int count() throws SQLException;
+
+    /** Visits every student in id order without holding them all in memory. */
+    void forEach(RowHandler handler) throws SQLException, IOException;
+
+    /**
+     * The row count, highest id, highest updated_at and highest deletion
+     * tombstone, all read at the same instant. A change feed starts here.
+     */
+    StudentChanges snapshot() throws SQLException;
+
+    /**
+     * Rows with updated_at at or after sinceVersion and deletions with a
+     * tombstone after afterDeletion, at most limit of each; if there were
+     * more the result is marked truncated.
+     */
+    StudentChanges changesSince(long sinceVersion, long afterDeletion, int limit) throws SQLException;
+
+    /**
+     * Students per course, from counters kept up to date on every write
+     * rather than by grouping the students; costs O(courses).
+     */
+    CourseStatistics courseStatistics() throws SQLException;
+
+    /** The pool behind a database backend, for SQL-only features; null otherwise. */
+    default ConnectionPool getPool() {
+        return null;
+    }
+
+    /**
+     * A pool for read-only SQL: a read replica that has this client's
+     * writes, if there is one (ReplicatedStudentRepository), else getPool().
+     */
+    default ConnectionPool getReadPool() {
+        return getPool();
+    }
+
+    /** How many requests the backend can usefully serve at once. */
+    default int getMaxConcurrency() {
+        ConnectionPool pool = getPool();
+        return pool != null ? pool.getMaxConnections() : Runtime.getRuntime().availableProcessors();
+    }
+
+    String getName();
+
+    /** The repository this one decorates, or null if it keeps the rows itself. */
+    default StudentRepository getDelegate() {
+        return null;
+    }
+
+    /** repository, or the first repository it decorates (at any depth) that is a type; null if none is. */
+    static <T extends StudentRepository> T unwrap(StudentRepository repository, Class<T> type) {
+        for (StudentRepository r = repository; r != null; r = r.getDelegate()) {
+            if (type.isInstance(r)) {
+                return type.cast(r);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    void close();
+
+    /**
+     * The version a write gives a row: the current second, but always after
+     * previous, since updated_at only has one-second resolution.
+     */
+    static long nextVersion(long previous) {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        return Math.max(now, previous + 1000);
+    }
+
+    /** Checks the table's NOT NULL and VARCHAR limits, failing with MySQL's error codes. */
+    static void checkColumns(Student student) throws SQLException {
+        if (student.getName() == null) {
+            throw new SQLIntegrityConstraintViolationException("Column 'name' cannot be null", "23000", 1048);
+        }
+        checkLength("name", student.getName(), MAX_NAME);
+        checkLength("email", student.getEmail(), MAX_EMAIL);
+        checkLength("phone", student.getPhone(), MAX_PHONE);
+        checkLength("course", student.getCourse(), MAX_COURSE);
+    }
+
+    static void checkLength(String column, String value, int max) throws SQLException {
+        if (value != null && value.length() > max) {
+            throw new SQLDataException("Data too long for column '" + column + "' at row 1", "22001", 1406);
+        }
+    }
+
+    /**
+     * The backend named by db.backend. A database backend retries reads and
+     * fails fast while the database is down (ResilientStudentRepository);
+     * with db.replicas, lists and searches are read from replicas
+     * (ReplicatedStudentRepository); with db.shards, the students are
+     * spread over several databases by id (ShardedStudentRepository).
+     * With audit.dir set, every write that reaches it is journaled
+     * (AuditingStudentRepository). db.writeBehind=true puts a write-behind
+     * cache in front; "outage" only queues writes while the database is down.
+     */
+    static StudentRepository fromProperties(Properties props) {
+        return fromProperties(props, false);
+    }
+
+    /**
+     * As fromProperties(props); with offline, and snapshot.file set, a
+     * database backend also keeps a local snapshot of the table to start
+     * from and to read while the database is unreachable
+     * (SnapshotStudentRepository). For interactive clients: until the
+     * snapshot has caught up after startup, writes are refused or queued.
+     */
+    static StudentRepository fromProperties(Properties props, boolean offline) {
+        String backend = props.getProperty("db.backend", "mysql").trim().toLowerCase();
+        StudentRepository repository;
+        switch (backend) {
+            case "mysql":
+                if (!props.getProperty("db.shards", "").trim().isEmpty()) {
+                    if (!props.getProperty("db.replicas", "").trim().isEmpty()) {
+                        System.err.println("Warning: db.replicas is not used with db.shards");
+                    }
+                    repository = ShardedStudentRepository.fromProperties(props);
+                } else {
+                    repository = ResilientStudentRepository.fromProperties(
+                        new MySqlStudentRepository(ConnectionPool.fromProperties(props),
+                            Integer.parseInt(props.getProperty("db.fetchSize", "1000").trim()),
+                            SchemaMigrator.fromProperties(props)),
+                        props);
+                    if (!props.getProperty("db.replicas", "").trim().isEmpty()) {
+                        repository = ReplicatedStudentRepository.fromProperties(repository, props);
+                    }
+                }
+                if (offline && !props.getProperty("snapshot.file", "").trim().isEmpty()) {
+                    repository = SnapshotStudentRepository.fromProperties(repository, props);
+                }
+                break;
+            case "memory":
+                repository = new InMemoryStudentRepository();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown db.backend: " + backend);
+        }
+        if (!props.getProperty("audit.dir", "").trim().isEmpty()) {
+            try {
+                repository = AuditingStudentRepository.fromProperties(repository, props);
+            } catch (IOException e) {
+                repository.close();
+                throw new IllegalArgumentException("Cannot open audit.dir: " + e.getMessage(), e);
+            }
+        }
+        String writeBehind = props.getProperty("db.writeBehind", "false").trim();
+        if (Boolean.parseBoolean(writeBehind) || "outage".equalsIgnoreCase(writeBehind)) {
+            try {
+                repository = WriteBehindStudentRepository.fromProperties(repository, props);
+            } catch (IOException e) {
+                repository.close();
+                throw new IllegalArgumentException("Cannot open db.writeBehind.journal: " + e.getMessage(), e);
+            }
+        }
+        return repository;
+    }
+}
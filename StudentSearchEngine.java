@@ -0,0 +1,98 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Ranked student search. The backend is chosen with search.engine in
+ * db.properties:
+ *
+ *   fulltext - MySQL FULLTEXT index with the n-gram parser (default);
+ *              falls back to memory when db.backend is not a database
+ *   memory   - in-process inverted index kept current on every write
+ *   like     - the original four-column LIKE '%term%' scan
+ */
+public interface StudentSearchEngine {
+    int DEFAULT_LIMIT = 1000;
+
+    /**
+     * Returns up to limit students matching every term of the query, best
+     * match first. A term matches whole words, word prefixes, and (for terms
+     * of three or more characters) the inside of words.
+     */
+    List<Student> search(String query, int limit) throws SQLException;
+
+    /**
+     * True if the student matches the query, ignoring the result limit.
+     * Used to refine earlier results in memory as the user types.
+     */
+    boolean matches(Student student, String query);
+
+    /**
+     * True if every match for next is also a match for previous, so next can
+     * be answered by filtering the (complete) results of previous.
+     */
+    boolean narrows(String previous, String next);
+
+    /**
+     * True if results come in id order whatever the query. Only then does
+     * filtering the results of previous give the order a search for next
+     * would; ranked engines score each result against the query.
+     */
+    default boolean ordersById() {
+        return false;
+    }
+
+    /** Prepares the backend (index DDL, initial load). Runs in the background at startup. */
+    default void initialize() throws SQLException {}
+
+    /** Called after a student is inserted or updated. */
+    default void studentSaved(Student student) {}
+
+    /** Called after a student is deleted. */
+    default void studentRemoved(int id) {}
+
+    String getName();
+
+    /** Splits text into lower-case runs of letters and digits. */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        text = text.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // True if value contains the lower-case term, ignoring case
+    static boolean containsIgnoreCase(String value, String term) {
+        return value != null && value.toLowerCase().contains(term);
+    }
+
+    static StudentSearchEngine fromProperties(Properties props, StudentRepository repository) {
+        String engine = props.getProperty("search.engine", "fulltext").trim().toLowerCase();
+        switch (engine) {
+            case "fulltext":
+                if (repository.getPool() != null) {
+                    return new FullTextSearchEngine(repository.getPool(), repository::getReadPool);
+                }
+                return new InvertedIndexSearchEngine(repository);
+            case "memory":
+                return new InvertedIndexSearchEngine(repository);
+            case "like":
+                return new LikeSearchEngine(repository);
+            default:
+                throw new IllegalArgumentException("Unknown search.engine: " + engine);
+        }
+    }
+}
@@ -0,0 +1,726 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Headless HTTP/JSON access to the same repository and search engine the
+ * enhanced UI uses, for scripts and for several users at once.
+ *
+ *   GET    /students?after=&limit=       a page in id order; Link points to the next one
+ *   GET    /students?q=&limit=           search, best match first
+ *   GET    /students?course=&limit=      students taking a course
+ *   GET    /students/export              every student as JSON lines, streamed
+ *   POST   /students/import              CSV or JSON lines body (by Content-Type)
+ *   POST   /students                     add; 201 with Location
+ *   GET    /students/{id}                one student
+ *   PUT    /students/{id}                replace; If-Match makes it conditional
+ *   DELETE /students/{id}                If-Match makes it conditional
+ *   GET    /students/{id}/history        audited changes, oldest first (with audit.dir)
+ *   GET    /courses?top=                 students per course, most first
+ *   GET    /stats                        row count and change marks
+ *   GET    /metrics                      Prometheus text, as in StudentMetrics
+ *
+ * A student's ETag is its updated_at version, so If-None-Match answers
+ * 304 and If-Match answers 412 once someone else has changed the row. Lists
+ * get an ETag from the ids and versions they contain.
+ *
+ * Connections are accepted and parsed by the HTTP server's selector thread;
+ * requests run on a fixed pool of server.threads workers, so thousands of
+ * open connections cost a queue entry each rather than a thread. Bodies are
+ * written as they are produced (chunked, gzip if the client accepts it).
+ *
+ * Course counts are served from a CourseStatistics kept in memory and
+ * re-read (one row per course) on the first request after a write, made
+ * here or reported by the change feed through coursesChanged().
+ *
+ * Usage: java StudentServer [--port n] [--host address] [--threads n]
+ */
+public class StudentServer implements AutoCloseable {
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final int MAX_BODY = 1 << 20;
+
+    private final StudentRepository repository;
+    private final StudentSearchEngine searchEngine;
+    private final StudentMetrics metrics;
+    private final int maxPageSize;
+    private final Properties config;
+    private final HttpServer server;
+    private final ExecutorService workers;
+    // Null until read, and again after every write; guarded by this
+    private CourseStatistics courses;
+    private long courseChanges;
+
+    public StudentServer(StudentRepository repository, StudentSearchEngine searchEngine, StudentMetrics metrics,
+                         Properties config, InetSocketAddress address, int threads, int backlog) throws IOException {
+        this.repository = repository;
+        this.searchEngine = searchEngine;
+        this.metrics = metrics;
+        this.config = config;
+        this.maxPageSize = Integer.parseInt(config.getProperty("server.maxPageSize", "1000").trim());
+
+        // Otherwise small responses wait for delayed ACKs between the header and body packets
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(address, backlog);
+        server.createContext("/students", this::students);
+        server.createContext("/courses", exchange -> handle(exchange, this::courses));
+        server.createContext("/stats", exchange -> handle(exchange, this::stats));
+        server.createContext("/metrics", exchange -> handle(exchange, this::prometheus));
+        AtomicInteger counter = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "student-server-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(workers);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        workers.shutdown();
+    }
+
+    /** Thrown by handlers to answer with an error status and message. */
+    private static final class HttpError extends Exception {
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException, SQLException, HttpError;
+    }
+
+    // Turns failures into JSON error responses
+    private void handle(HttpExchange exchange, Handler handler) {
+        try {
+            try {
+                handler.handle(exchange);
+            } catch (HttpError e) {
+                sendError(exchange, e.status, e.getMessage());
+            } catch (SQLException e) {
+                sendError(exchange, statusFor(e), e.getMessage());
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+            }
+        } catch (IOException e) {
+            // The client went away, or the response had already started
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static int statusFor(SQLException e) {
+        switch (e.getErrorCode()) {
+            case 1062:
+                return 409;
+            case 1048:
+            case 1406:
+                return 400;
+            default:
+                return e instanceof SQLTransientConnectionException ? 503 : 500;
+        }
+    }
+
+    private void students(HttpExchange exchange) {
+        handle(exchange, ex -> {
+            try {
+                route(ex);
+            } finally {
+                // Any write may have moved a course count
+                if (!ex.getRequestMethod().equals("GET")) {
+                    coursesChanged();
+                }
+            }
+        });
+    }
+
+    private void route(HttpExchange ex) throws IOException, SQLException, HttpError {
+        String path = ex.getRequestURI().getPath();
+        String method = ex.getRequestMethod();
+        if (!path.equals("/students") && !path.startsWith("/students/")) {
+            throw new HttpError(404, "No such resource: " + path);
+        }
+        String rest = path.length() > "/students".length() ? path.substring("/students/".length()) : "";
+        if (rest.isEmpty()) {
+            switch (method) {
+                case "GET": list(ex); return;
+                case "POST": add(ex); return;
+                default: throw notAllowed("GET, POST");
+            }
+        }
+        if (rest.equals("export")) {
+            requireMethod(ex, "GET");
+            export(ex);
+            return;
+        }
+        if (rest.equals("import")) {
+            requireMethod(ex, "POST");
+            importRows(ex);
+            return;
+        }
+        boolean history = rest.endsWith("/history");
+        int id;
+        try {
+            id = Integer.parseInt(history ? rest.substring(0, rest.length() - "/history".length()) : rest);
+        } catch (NumberFormatException e) {
+            throw new HttpError(404, "No such resource: " + path);
+        }
+        if (history) {
+            requireMethod(ex, "GET");
+            history(ex, id);
+            return;
+        }
+        switch (method) {
+            case "GET": get(ex, id); return;
+            case "PUT": update(ex, id); return;
+            case "DELETE": delete(ex, id); return;
+            default: throw notAllowed("GET, PUT, DELETE");
+        }
+    }
+
+    private void list(HttpExchange exchange) throws IOException, SQLException, HttpError {
+        Map<String, String> query = query(exchange);
+        int limit = intParam(query, "limit", 100);
+        if (limit < 1 || limit > maxPageSize) {
+            throw new HttpError(400, "limit must be between 1 and " + maxPageSize);
+        }
+        List<Student> students;
+        String next = null;
+        if (query.containsKey("q")) {
+            students = searchEngine.search(query.get("q"), limit);
+        } else if (query.containsKey("course")) {
+            students = repository.findByCourse(query.get("course"), limit);
+        } else {
+            students = repository.findAfter(intParam(query, "after", 0), limit);
+            if (students.size() == limit) {
+                next = "/students?after=" + students.get(students.size() - 1).getId() + "&limit=" + limit;
+            }
+        }
+
+        String etag = listTag(students);
+        if (notModified(exchange, etag)) {
+            return;
+        }
+        if (next != null) {
+            exchange.getResponseHeaders().set("Link", "<" + next + ">; rel=\"next\"");
+        }
+        exchange.getResponseHeaders().set("ETag", etag);
+        try (Writer out = startStream(exchange, 200, JSON)) {
+            StringBuilder sb = new StringBuilder(256);
+            out.write('[');
+            for (int i = 0; i < students.size(); i++) {
+                sb.setLength(0);
+                if (i > 0) {
+                    sb.append(",\n");
+                }
+                appendStudent(sb, students.get(i));
+                out.append(sb);
+            }
+            out.write("]\n");
+        }
+    }
+
+    private void export(HttpExchange exchange) throws IOException, SQLException {
+        try (Writer out = startStream(exchange, 200, "application/x-ndjson; charset=utf-8")) {
+            StringBuilder sb = new StringBuilder(256);
+            repository.forEach(student -> {
+                sb.setLength(0);
+                appendStudent(sb, student).append('\n');
+                out.append(sb);
+            });
+        }
+    }
+
+    private void importRows(HttpExchange exchange) throws IOException, SQLException, HttpError {
+        String type = header(exchange, "Content-Type", "text/csv").toLowerCase();
+        StudentImporter.Format format = type.contains("json") ? StudentImporter.Format.JSONL
+            : StudentImporter.Format.CSV;
+        Path input = Files.createTempFile("student-import", format == StudentImporter.Format.JSONL ? ".jsonl" : ".csv");
+        Path rejects = StudentImporter.defaultRejectFile(input);
+        try {
+            try (InputStream in = exchange.getRequestBody()) {
+                Files.copy(in, input, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            }
+            StudentImporter importer = new StudentImporter(repository);
+            importer.setChunkSize(Integer.parseInt(config.getProperty("import.chunkSize", "5000").trim()));
+            importer.setBatchSize(Integer.parseInt(config.getProperty("import.batchSize", "1000").trim()));
+            importer.setInsertListener(searchEngine::studentSaved);
+            StudentImporter.Progress progress = importer.importFile(input, format, rejects);
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"rowsRead\":").append(progress.rowsRead)
+                .append(",\"inserted\":").append(progress.inserted)
+                .append(",\"rejected\":").append(progress.rejected)
+                .append(",\"millis\":").append(progress.elapsedMillis)
+                .append(",\"rejects\":[");
+            if (Files.exists(rejects)) {
+                // The first hundred, as "line,reason,name,email,phone,course"
+                List<String> lines = Files.readAllLines(rejects, StandardCharsets.UTF_8);
+                for (int i = 1; i < lines.size() && i <= 100; i++) {
+                    if (i > 1) {
+                        sb.append(',');
+                    }
+                    Json.appendQuoted(sb, lines.get(i));
+                }
+            }
+            sb.append("]}\n");
+            send(exchange, 200, sb);
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(rejects);
+        }
+    }
+
+    private void get(HttpExchange exchange, int id) throws IOException, SQLException, HttpError {
+        Student student = find(id);
+        String etag = tag(student);
+        if (notModified(exchange, etag)) {
+            return;
+        }
+        exchange.getResponseHeaders().set("ETag", etag);
+        send(exchange, 200, appendStudent(new StringBuilder(256), student).append('\n'));
+    }
+
+    private void history(HttpExchange exchange, int id) throws IOException, HttpError {
+        AuditingStudentRepository auditing = StudentRepository.unwrap(repository, AuditingStudentRepository.class);
+        if (auditing == null) {
+            throw new HttpError(404, "Auditing is off; set audit.dir in db.properties");
+        }
+        StringBuilder sb = new StringBuilder(512).append('[');
+        for (AuditJournal.Entry entry : auditing.getJournal().history(id)) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append("{\"time\":").append(entry.time).append(",\"operation\":");
+            Json.appendQuoted(sb, entry.operation.name());
+            sb.append(",\"actor\":");
+            Json.appendQuoted(sb, entry.actor);
+            sb.append(",\"before\":");
+            appendNullable(sb, entry.before);
+            sb.append(",\"after\":");
+            appendNullable(sb, entry.after);
+            sb.append('}');
+        }
+        send(exchange, 200, sb.append("]\n"));
+    }
+
+    private static void appendNullable(StringBuilder sb, Student student) {
+        if (student == null) {
+            sb.append("null");
+        } else {
+            appendStudent(sb, student);
+        }
+    }
+
+    private void add(HttpExchange exchange) throws IOException, SQLException, HttpError {
+        Student saved = repository.insert(readStudent(exchange, 0));
+        searchEngine.studentSaved(saved);
+        exchange.getResponseHeaders().set("Location", "/students/" + saved.getId());
+        exchange.getResponseHeaders().set("ETag", tag(saved));
+        send(exchange, 201, appendStudent(new StringBuilder(256), saved).append('\n'));
+    }
+
+    private void update(HttpExchange exchange, int id) throws IOException, SQLException, HttpError {
+        Student student = readStudent(exchange, id);
+        Long expected = ifMatch(exchange);
+        if (expected != null) {
+            student = student.withUpdatedAt(expected);
+        }
+        if (!repository.update(student)) {
+            find(id);
+            throw new HttpError(412, "Student " + id + " was changed by someone else");
+        }
+        Student saved = find(id);
+        searchEngine.studentSaved(saved);
+        exchange.getResponseHeaders().set("ETag", tag(saved));
+        send(exchange, 200, appendStudent(new StringBuilder(256), saved).append('\n'));
+    }
+
+    private void delete(HttpExchange exchange, int id) throws IOException, SQLException, HttpError {
+        Long expected = ifMatch(exchange);
+        boolean deleted;
+        if (expected == null) {
+            deleted = repository.delete(id);
+        } else {
+            Student current = find(id);
+            deleted = repository.deleteAll(Collections.singletonList(current.withUpdatedAt(expected)), 1,
+                (index, cause) -> { }) == 1;
+            if (!deleted) {
+                throw new HttpError(412, "Student " + id + " was changed by someone else");
+            }
+        }
+        if (!deleted) {
+            throw new HttpError(404, "No student with ID " + id);
+        }
+        searchEngine.studentRemoved(id);
+        exchange.sendResponseHeaders(204, -1);
+    }
+
+    /** Drops the cached course counts; the next request re-reads them. */
+    public synchronized void coursesChanged() {
+        courses = null;
+        courseChanges++;
+    }
+
+    private CourseStatistics courseStatistics() throws SQLException {
+        long changes;
+        synchronized (this) {
+            if (courses != null) {
+                return courses;
+            }
+            changes = courseChanges;
+        }
+        CourseStatistics statistics = repository.courseStatistics();
+        synchronized (this) {
+            // Unless a write came in meanwhile, which this read may have missed
+            if (courseChanges == changes) {
+                courses = statistics;
+            }
+        }
+        return statistics;
+    }
+
+    private void courses(HttpExchange exchange) throws IOException, SQLException, HttpError {
+        requireMethod(exchange, "GET");
+        if (!exchange.getRequestURI().getPath().equals("/courses")) {
+            throw new HttpError(404, "No such resource: " + exchange.getRequestURI().getPath());
+        }
+        CourseStatistics statistics = courseStatistics();
+        int top = intParam(query(exchange), "top", statistics.size());
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"students\":").append(statistics.getTotalStudents())
+            .append(",\"courseCount\":").append(statistics.size())
+            .append(",\"courses\":[");
+        List<CourseStatistics.Course> shown = statistics.top(top);
+        for (int i = 0; i < shown.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"name\":");
+            Json.appendQuoted(sb, shown.get(i).name);
+            sb.append(",\"students\":").append(shown.get(i).students).append('}');
+        }
+        send(exchange, 200, sb.append("]}\n"));
+    }
+
+    private void stats(HttpExchange exchange) throws IOException, SQLException, HttpError {
+        requireMethod(exchange, "GET");
+        StudentChanges marks = repository.snapshot();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"count\":").append(marks.rowCount)
+            .append(",\"latestId\":").append(marks.latestId)
+            .append(",\"latestVersion\":").append(marks.latestVersion)
+            .append(",\"latestDeletion\":").append(marks.latestDeletion)
+            .append(",\"backend\":");
+        Json.appendQuoted(sb, repository.getName());
+        sb.append(",\"search\":");
+        Json.appendQuoted(sb, searchEngine.getName());
+        sb.append("}\n");
+        send(exchange, 200, sb);
+    }
+
+    private void prometheus(HttpExchange exchange) throws IOException, HttpError {
+        requireMethod(exchange, "GET");
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private Student find(int id) throws SQLException, HttpError {
+        Student student = repository.findById(id);
+        if (student == null) {
+            throw new HttpError(404, "No student with ID " + id);
+        }
+        return student;
+    }
+
+    // Validated the same way as imported rows
+    private static Student readStudent(HttpExchange exchange, int id) throws IOException, HttpError {
+        Map<String, String> fields;
+        try {
+            fields = Json.parseObject(new String(readBody(exchange), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(400, "Invalid JSON: " + e.getMessage());
+        }
+        StudentImporter.Row row = new StudentImporter.Row(0, fields.get("name"), fields.get("email"),
+            fields.get("phone"), fields.get("course"), null);
+        String problem = StudentImporter.validate(row);
+        if (problem != null) {
+            throw new HttpError(400, problem);
+        }
+        return row.toStudent(id);
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException, HttpError {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                body.write(buffer, 0, n);
+                if (body.size() > MAX_BODY) {
+                    throw new HttpError(413, "Request body is larger than " + MAX_BODY + " bytes");
+                }
+            }
+        }
+        return body.toByteArray();
+    }
+
+    static String tag(Student student) {
+        return "\"" + student.getUpdatedAt() + "\"";
+    }
+
+    // A row's version changes with every write to it, so the ids and
+    // versions identify a list's content
+    private static String listTag(List<Student> students) {
+        long hash = 0xcbf29ce484222325L;
+        for (Student student : students) {
+            hash = (hash ^ student.getId()) * 0x100000001b3L;
+            hash = (hash ^ student.getUpdatedAt()) * 0x100000001b3L;
+        }
+        return "\"" + Long.toHexString(hash) + "-" + students.size() + "\"";
+    }
+
+    private static boolean notModified(HttpExchange exchange, String etag) throws IOException {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null || !matches(ifNoneMatch, etag)) {
+            return false;
+        }
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.sendResponseHeaders(304, -1);
+        return true;
+    }
+
+    private static boolean matches(String header, String etag) {
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The version an If-Match header asks for, or null without one
+    private static Long ifMatch(HttpExchange exchange) throws HttpError {
+        String header = exchange.getRequestHeaders().getFirst("If-Match");
+        if (header == null || header.trim().equals("*")) {
+            return null;
+        }
+        String value = header.trim();
+        if (value.length() < 2 || !value.startsWith("\"") || !value.endsWith("\"")) {
+            throw new HttpError(400, "If-Match must be one ETag");
+        }
+        try {
+            return Long.parseLong(value.substring(1, value.length() - 1));
+        } catch (NumberFormatException e) {
+            throw new HttpError(412, "ETag " + value + " is not current");
+        }
+    }
+
+    /** Starts a chunked response, gzipped if the client accepts that. */
+    private static Writer startStream(HttpExchange exchange, int status, String contentType) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", contentType);
+        OutputStream out;
+        if (header(exchange, "Accept-Encoding", "").contains("gzip")) {
+            headers.set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(status, 0);
+            out = new GZIPOutputStream(exchange.getResponseBody(), 1 << 16);
+        } else {
+            exchange.sendResponseHeaders(status, 0);
+            out = exchange.getResponseBody();
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private static void send(HttpExchange exchange, int status, CharSequence json) throws IOException {
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", JSON);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder sb = new StringBuilder("{\"error\":");
+        Json.appendQuoted(sb, message);
+        send(exchange, status, sb.append("}\n"));
+    }
+
+    static StringBuilder appendStudent(StringBuilder sb, Student s) {
+        sb.append("{\"id\":").append(s.getId()).append(",\"name\":");
+        Json.appendQuoted(sb, s.getName());
+        sb.append(",\"email\":");
+        Json.appendQuoted(sb, s.getEmail());
+        sb.append(",\"phone\":");
+        Json.appendQuoted(sb, s.getPhone());
+        sb.append(",\"course\":");
+        Json.appendQuoted(sb, s.getCourse());
+        return sb.append(",\"updatedAt\":").append(s.getUpdatedAt()).append('}');
+    }
+
+    private static String header(HttpExchange exchange, String name, String defaultValue) {
+        String value = exchange.getRequestHeaders().getFirst(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) throws HttpError {
+        if (!exchange.getRequestMethod().equals(method)) {
+            throw notAllowed(method);
+        }
+    }
+
+    private static HttpError notAllowed(String allowed) {
+        return new HttpError(405, "Allowed: " + allowed);
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                    URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static int intParam(Map<String, String> query, String name, int defaultValue) throws HttpError {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, name + " must be a number");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream("db.properties")) {
+            props.load(in);
+        } catch (IOException e) {
+            System.err.println("Warning: db.properties not found, using default values");
+        }
+        int port = Integer.parseInt(props.getProperty("server.port", "8080").trim());
+        String host = props.getProperty("server.host", "localhost").trim();
+        int threads = Integer.parseInt(props.getProperty("server.threads", "0").trim());
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                System.err.println("Missing value for " + args[i]);
+                System.exit(2);
+            }
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--host": host = args[++i]; break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        StudentMetrics metrics = StudentMetrics.fromProperties(props);
+        StudentRepository repository = new InstrumentedStudentRepository(
+            StudentRepository.fromProperties(props), metrics);
+        repository.initialize();
+        StudentSearchEngine searchEngine = new InstrumentedSearchEngine(
+            StudentSearchEngine.fromProperties(props, repository), metrics, "search");
+        System.out.println("Preparing " + searchEngine.getName() + " search...");
+        searchEngine.initialize();
+
+        // Keeps the search index current with writes made by other clients
+        StudentChangeFeed feed = StudentChangeFeed.fromProperties(repository, props);
+        feed.addListener(changes -> {
+            if (changes.truncated) {
+                // Too much changed at once; reload the index
+                try {
+                    searchEngine.initialize();
+                } catch (SQLException e) {
+                    System.err.println("Warning: reloading the search index failed: " + e.getMessage());
+                }
+                return;
+            }
+            for (Student student : changes.changed) {
+                searchEngine.studentSaved(student);
+            }
+            for (int id : changes.deletedIds) {
+                searchEngine.studentRemoved(id);
+            }
+        });
+
+        if (threads <= 0) {
+            // Workers mostly wait on the database; more than it can serve just queue there
+            threads = Math.max(16, 4 * repository.getMaxConcurrency());
+        }
+        StudentServer server = new StudentServer(repository, searchEngine, metrics, props,
+            new InetSocketAddress(host, port), threads,
+            Integer.parseInt(props.getProperty("server.backlog", "1024").trim()));
+        feed.addListener(changes -> server.coursesChanged());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            feed.close();
+            repository.close();
+            metrics.close();
+        }));
+        server.start();
+        System.out.printf("Serving %s students on http://%s:%d/students with %d threads%n",
+            repository.getName(), host, server.getPort(), threads);
+    }
+}
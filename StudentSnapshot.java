@@ -0,0 +1,319 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Every student as of one moment, in a local file, for starting a client
+ * (and working in it) without the database. SnapshotStudentRepository
+ * writes and reads it.
+ *
+ * The file is a header, the rows in id order, and an index of (id, offset)
+ * pairs sorted by id. It is memory-mapped when opened, so opening costs the
+ * same however many students there are: a lookup by id is a binary search
+ * of the index, a page by position is a read at a known offset, and only
+ * the pages of the file that are read are loaded. Searches scan the rows.
+ *
+ * The header carries the change feed cursor (updated_at and deletion
+ * tombstone high-water marks) the rows are current to, and the database
+ * they came from. A snapshot is never changed in place: write() builds a
+ * new file beside the old one and renames it over it.
+ */
+public final class StudentSnapshot {
+    /** Visits the rows a snapshot is written from, in id order. */
+    public interface Rows {
+        void forEach(StudentRepository.RowHandler handler) throws SQLException, IOException;
+    }
+
+    private static final int MAGIC = 0x534e4150; // "SNAP"
+    private static final int FORMAT = 1;
+    // magic, format, count, latest id, latest version, latest deletion,
+    // saved at, index offset; the source's UTF follows, then the rows
+    private static final int HEADER = 48;
+    private static final int INDEX_ENTRY = 8;
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final int latestId;
+    private final long latestVersion;
+    private final long latestDeletion;
+    private final long savedAt;
+    private final int indexOffset;
+    private final String source;
+    // Worked out on first use; the snapshot never changes
+    private volatile CourseStatistics courses;
+
+    private StudentSnapshot(Path file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a student snapshot");
+        }
+        if (buffer.getInt(4) != FORMAT) {
+            throw new IOException(file + " has unknown format " + buffer.getInt(4));
+        }
+        count = buffer.getInt(8);
+        latestId = buffer.getInt(12);
+        latestVersion = buffer.getLong(16);
+        latestDeletion = buffer.getLong(24);
+        savedAt = buffer.getLong(32);
+        long index = buffer.getLong(40);
+        if (count < 0 || index < HEADER + 2 || index + (long) count * INDEX_ENTRY != buffer.capacity()) {
+            throw new IOException(file + " is truncated");
+        }
+        indexOffset = (int) index;
+        int sourceBytes = 2 + (buffer.getShort(HEADER) & 0xffff);
+        if (HEADER + sourceBytes > indexOffset) {
+            throw new IOException(file + " is truncated");
+        }
+        source = new DataInputStream(new ByteArrayInputStream(bytes(HEADER, sourceBytes))).readUTF();
+    }
+
+    /** The snapshot in file, or null if there is none. */
+    public static StudentSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map");
+            }
+            return new StudentSnapshot(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes rows (ids ascending) to a new snapshot, current to the given
+     * cursor, replaces file with it and opens it.
+     */
+    public static StudentSnapshot write(Path file, String source, Rows rows, long latestVersion,
+                                        long latestDeletion) throws SQLException, IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+                out.write(new byte[HEADER]);
+                out.writeUTF(source);
+                // index[0] holds the ids, index[1] where their rows start
+                int[][] index = {new int[1024], new int[1024]};
+                long[] position = {out.size()};
+                int[] written = {0};
+                rows.forEach(student -> {
+                    int n = written[0];
+                    if (n > 0 && student.getId() <= index[0][n - 1]) {
+                        throw new IllegalStateException("Snapshot rows out of id order at " + student.getId());
+                    }
+                    if (n == index[0].length) {
+                        index[0] = Arrays.copyOf(index[0], n * 2);
+                        index[1] = Arrays.copyOf(index[1], n * 2);
+                    }
+                    index[0][n] = student.getId();
+                    index[1][n] = (int) position[0];
+                    int before = out.size();
+                    writeRow(out, student);
+                    position[0] += out.size() - before;
+                    written[0] = n + 1;
+                    if (position[0] + (long) written[0] * INDEX_ENTRY > Integer.MAX_VALUE) {
+                        throw new IOException("Too many students for one snapshot file");
+                    }
+                });
+                int n = written[0];
+                for (int i = 0; i < n; i++) {
+                    out.writeInt(index[0][i]);
+                    out.writeInt(index[1][i]);
+                }
+                out.flush();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                header.putInt(MAGIC).putInt(FORMAT).putInt(n).putInt(n > 0 ? index[0][n - 1] : 0)
+                    .putLong(latestVersion).putLong(latestDeletion).putLong(System.currentTimeMillis())
+                    .putLong(position[0]);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return open(file);
+    }
+
+    // Nullable strings, then updated_at; the id is in the index
+    private static void writeRow(DataOutputStream out, Student student) throws IOException {
+        writeString(out, student.getName());
+        writeString(out, student.getEmail());
+        writeString(out, student.getPhone());
+        writeString(out, student.getCourse());
+        out.writeLong(student.getUpdatedAt());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private byte[] bytes(int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        byte[] bytes = new byte[length];
+        view.get(bytes);
+        return bytes;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /** The id at a position in id order. */
+    public int idAt(int position) {
+        return buffer.getInt(indexOffset + position * INDEX_ENTRY);
+    }
+
+    /** The student at a position in id order. */
+    public Student get(int position) {
+        int entry = indexOffset + position * INDEX_ENTRY;
+        int offset = buffer.getInt(entry + 4);
+        int end = position + 1 < count ? buffer.getInt(entry + INDEX_ENTRY + 4) : indexOffset;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes(offset, end - offset)));
+        try {
+            String name = readString(in);
+            String email = readString(in);
+            String phone = readString(in);
+            String course = readString(in);
+            return new Student(buffer.getInt(entry), name, email, phone, course, in.readLong());
+        } catch (IOException e) {
+            throw new IllegalStateException(file + " is corrupt at row " + position, e);
+        }
+    }
+
+    /** The position of id, or (-(insertion point) - 1) if it is not there. */
+    public int indexOf(int id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = idAt(mid);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    public Student findById(int id) {
+        int position = indexOf(id);
+        return position >= 0 ? get(position) : null;
+    }
+
+    /** Up to limit students with ids greater than afterId. */
+    public List<Student> findAfter(int afterId, int limit) {
+        int position = indexOf(afterId);
+        return findPage(position >= 0 ? position + 1 : -position - 1, limit);
+    }
+
+    /** Up to limit students from a position on. */
+    public List<Student> findPage(int offset, int limit) {
+        int to = (int) Math.min(count, (long) offset + limit);
+        List<Student> rows = new ArrayList<>(Math.max(0, to - offset));
+        for (int i = offset; i < to; i++) {
+            rows.add(get(i));
+        }
+        return rows;
+    }
+
+    /** Up to limit students that match, in id order; reads every row. */
+    public List<Student> find(Predicate<Student> filter, int limit) {
+        List<Student> rows = new ArrayList<>();
+        for (int i = 0; i < count && rows.size() < limit; i++) {
+            Student student = get(i);
+            if (filter.test(student)) {
+                rows.add(student);
+            }
+        }
+        return rows;
+    }
+
+    public void forEach(StudentRepository.RowHandler handler) throws IOException {
+        for (int i = 0; i < count; i++) {
+            handler.row(get(i));
+        }
+    }
+
+    /** Counted from the rows on first use, matching courses ignoring case as the backends do. */
+    public CourseStatistics courseStatistics() {
+        CourseStatistics statistics = courses;
+        if (statistics == null) {
+            Map<String, String> names = new HashMap<>();
+            Map<String, int[]> counts = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String course = get(i).getCourse();
+                if (course != null) {
+                    String key = course.toLowerCase();
+                    names.putIfAbsent(key, course);
+                    counts.computeIfAbsent(key, k -> new int[1])[0]++;
+                }
+            }
+            List<CourseStatistics.Course> list = new ArrayList<>(counts.size());
+            for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+                list.add(new CourseStatistics.Course(names.get(entry.getKey()), entry.getValue()[0]));
+            }
+            statistics = courses = new CourseStatistics(list);
+        }
+        return statistics;
+    }
+
+    /** The cursor the rows are current to, as StudentRepository.snapshot() would give it. */
+    public StudentChanges marks() {
+        return StudentChanges.marks(count, latestId, latestVersion, latestDeletion);
+    }
+
+    public long getLatestVersion() {
+        return latestVersion;
+    }
+
+    public long getLatestDeletion() {
+        return latestDeletion;
+    }
+
+    /** When the file was written, in epoch milliseconds. */
+    public long getSavedAt() {
+        return savedAt;
+    }
+
+    /** Where the rows came from (the database URL). */
+    public String getSource() {
+        return source;
+    }
+}
@@ -0,0 +1,80 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.List;
+
+/**
+ * A read-only table model for a list of students, such as search results,
+ * kept in a StudentColumns store rather than a DefaultTableModel's vector
+ * of boxed Object[] rows. Cells are decoded as JTable paints them.
+ *
+ * Only touched on the EDT.
+ */
+public class StudentTableModel extends AbstractTableModel {
+    private static final String[] COLUMNS = {"ID", "Name", "Email", "Phone", "Course"};
+
+    private final StudentColumns rows = new StudentColumns();
+
+    public void clear() {
+        int count = rows.size();
+        rows.clear();
+        if (count > 0) {
+            fireTableRowsDeleted(0, count - 1);
+        }
+    }
+
+    public void addAll(List<Student> students) {
+        if (students.isEmpty()) {
+            return;
+        }
+        int first = rows.size();
+        for (Student student : students) {
+            rows.add(student);
+        }
+        fireTableRowsInserted(first, rows.size() - 1);
+    }
+
+    /** Replaces every row showing this student; returns false if there is none. */
+    public boolean studentUpdated(Student student) {
+        boolean found = false;
+        for (int row = 0; row < rows.size(); row++) {
+            if (rows.getId(row) == student.getId()) {
+                rows.set(row, student);
+                fireTableRowsUpdated(row, row);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    public void studentRemoved(int id) {
+        for (int row = rows.size() - 1; row >= 0; row--) {
+            if (rows.getId(row) == id) {
+                rows.remove(row);
+                fireTableRowsDeleted(row, row);
+            }
+        }
+    }
+
+    public Student getStudentAt(int row) {
+        return rows.get(row);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        return rows.getValue(row, column);
+    }
+}
@@ -0,0 +1,461 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Recomputes students' GPA, credits and GPA rank from their graded
+ * enrollments, into student_transcripts (cumulative) and transcript_terms
+ * (one row per term). Run it at the end of a term, or as often as wanted.
+ *
+ * Only students whose grades changed since the last run are recomputed:
+ * the enrollments triggers mark them in transcript_stale. A run reads the
+ * marked ids and splits them into partitions of partitionSize students,
+ * which a fork-join pool works through in parallel, each on its own pooled
+ * connection. A partition reads its students' grades in one query over
+ * their id range, and writes their results with batched upserts in the
+ * same transaction as clearing their marks. A mark is cleared only if it
+ * still has the version the partition read, so a grade changed mid-run is
+ * picked up by the next run, and a run that fails keeps the marks of the
+ * partitions it did not finish.
+ *
+ * Ranks depend on everyone's GPA, so they are then reassigned in one
+ * streamed pass over the GPA index, highest first, ties sharing a rank
+ * (1, 2, 2, 4), and only the ranks that moved are written.
+ *
+ * Usage: java TranscriptEngine [--all]
+ */
+final class TranscriptEngine {
+    // Held for the whole run, per database
+    private static final String LOCK_NAME = "CONCAT('transcripts.', DATABASE())";
+    // Tries per partition when it deadlocks with a neighbouring one
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final String READ_GRADES = "SELECT s.student_id, s.version, e.term, e.credits, e.grade_points " +
+        "FROM transcript_stale s " +
+        "LEFT JOIN enrollments e ON e.student_id = s.student_id AND e.grade_points IS NOT NULL " +
+        "WHERE s.student_id BETWEEN ? AND ? " +
+        "ORDER BY s.student_id, e.term";
+    // IGNORE: a student deleted since the read has no row to point at, and
+    // needs no transcript. A GPA that moved loses its rank until the rank
+    // pass (the assignments run left to right, so gpa_rank sees the old gpa).
+    private static final String UPSERT_TRANSCRIPT = "INSERT IGNORE INTO student_transcripts " +
+        "(student_id, credits_attempted, credits_earned, gpa) VALUES (?, ?, ?, ?) " +
+        "ON DUPLICATE KEY UPDATE credits_attempted = VALUES(credits_attempted), " +
+        "credits_earned = VALUES(credits_earned), " +
+        "gpa_rank = IF(gpa <=> VALUES(gpa), gpa_rank, NULL), " +
+        "gpa = VALUES(gpa)";
+    private static final String DELETE_TERMS = "DELETE FROM transcript_terms WHERE student_id = ?";
+    private static final String INSERT_TERM = "INSERT IGNORE INTO transcript_terms " +
+        "(student_id, term, credits_attempted, credits_earned, gpa) VALUES (?, ?, ?, ?, ?)";
+    // An upsert rather than an UPDATE so that a batch is sent as one
+    // multi-row statement. The row was just read, so it is only inserted if
+    // its student has since been deleted, and IGNORE drops that.
+    private static final String SET_RANK = "INSERT IGNORE INTO student_transcripts " +
+        "(student_id, credits_attempted, credits_earned, gpa_rank) VALUES (?, 0, 0, ?) " +
+        "ON DUPLICATE KEY UPDATE gpa_rank = VALUES(gpa_rank)";
+    private static final String CLEAR_MARK = "DELETE FROM transcript_stale WHERE student_id = ? AND version = ?";
+
+    /** Credits and grade points, for a term or for everything. */
+    private static final class Totals {
+        BigDecimal attempted = BigDecimal.ZERO;
+        BigDecimal earned = BigDecimal.ZERO;
+        BigDecimal qualityPoints = BigDecimal.ZERO;
+
+        void add(BigDecimal credits, BigDecimal gradePoints) {
+            attempted = attempted.add(credits);
+            // A failing grade (0 points) is attempted but not earned
+            if (gradePoints.signum() > 0) {
+                earned = earned.add(credits);
+            }
+            qualityPoints = qualityPoints.add(credits.multiply(gradePoints));
+        }
+
+        /** Credit-weighted mean grade points, or null with no credits attempted. */
+        BigDecimal gpa() {
+            return attempted.signum() == 0 ? null : qualityPoints.divide(attempted, 3, RoundingMode.HALF_UP);
+        }
+    }
+
+    private static final class Transcript {
+        final int studentId;
+        final long version;
+        final Totals total = new Totals();
+        final List<String> terms = new ArrayList<>();
+        final List<Totals> termTotals = new ArrayList<>();
+
+        Transcript(int studentId, long version) {
+            this.studentId = studentId;
+            this.version = version;
+        }
+    }
+
+    /** What a run did. */
+    static final class Run {
+        final int students;
+        final int partitions;
+        final int ranksChanged;
+        final long millis;
+
+        Run(int students, int partitions, int ranksChanged, long millis) {
+            this.students = students;
+            this.partitions = partitions;
+            this.ranksChanged = ranksChanged;
+            this.millis = millis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Recomputed %,d transcripts in %,d partitions and moved %,d ranks in %,d ms",
+                students, partitions, ranksChanged, millis);
+        }
+    }
+
+    /** Carries a partition's SQLException out of the fork-join pool. */
+    private static final class PartitionFailed extends RuntimeException {
+        PartitionFailed(SQLException cause) {
+            super(cause);
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final int partitionSize;
+    private final int parallelism;
+    private final int batchSize;
+
+    TranscriptEngine(ConnectionPool pool, int partitionSize, int parallelism, int batchSize) {
+        this.pool = pool;
+        this.partitionSize = Math.max(1, partitionSize);
+        this.parallelism = Math.max(1, parallelism);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * The run itself holds one connection for its lock, so by default one
+     * partition runs on each of the pool's other connections.
+     */
+    static TranscriptEngine fromProperties(ConnectionPool pool, Properties props) {
+        String parallelism = props.getProperty("transcripts.parallelism", "").trim();
+        return new TranscriptEngine(pool,
+            Integer.parseInt(props.getProperty("transcripts.partitionSize", "1000").trim()),
+            parallelism.isEmpty() ? pool.getMaxConnections() - 1 : Integer.parseInt(parallelism),
+            Integer.parseInt(props.getProperty("transcripts.batchSize", "1000").trim()));
+    }
+
+    /**
+     * Recomputes the marked students, or with all, every student, then
+     * reassigns ranks. Waits for no other run: if one is going, this fails.
+     */
+    Run run(boolean all) throws SQLException {
+        long start = System.currentTimeMillis();
+        try (Connection conn = pool.getConnection()) {
+            lock(conn);
+            try {
+                if (all) {
+                    markAll(conn);
+                }
+                int[] ids = markedIds(conn);
+                int partitions = (ids.length + partitionSize - 1) / partitionSize;
+                int students = 0;
+                if (partitions > 0) {
+                    ForkJoinPool workers = new ForkJoinPool(Math.min(parallelism, partitions));
+                    try {
+                        students = workers.invoke(new Partitions(ids, 0, partitions));
+                    } catch (PartitionFailed e) {
+                        throw (SQLException) e.getCause();
+                    } finally {
+                        workers.shutdown();
+                    }
+                }
+                // Also when nothing was marked: deleted students take their
+                // transcripts with them, which moves everyone ranked below
+                int ranksChanged = rank(conn);
+                return new Run(students, partitions, ranksChanged, System.currentTimeMillis() - start);
+            } finally {
+                unlock(conn);
+            }
+        }
+    }
+
+    /** Splits a range of partitions in half until there is one to compute. */
+    private final class Partitions extends RecursiveTask<Integer> {
+        private final int[] ids;
+        private final int from;
+        private final int to;
+
+        Partitions(int[] ids, int from, int to) {
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from == 1) {
+                int first = from * partitionSize;
+                int last = Math.min(first + partitionSize, ids.length) - 1;
+                try {
+                    return partition(ids[first], ids[last]);
+                } catch (SQLException e) {
+                    throw new PartitionFailed(e);
+                }
+            }
+            int middle = (from + to) >>> 1;
+            Partitions left = new Partitions(ids, from, middle);
+            left.fork();
+            int right = new Partitions(ids, middle, to).compute();
+            return left.join() + right;
+        }
+    }
+
+    /**
+     * Recomputes the marked students with ids from firstId to lastId.
+     *
+     * READ COMMITTED, as under REPEATABLE READ the term deletes of students
+     * with no terms yet lock the gaps neighbouring partitions insert into.
+     * Each statement still reads a consistent snapshot, which is all the
+     * version check needs. The deadlocks that remain possible at partition
+     * edges are retried.
+     */
+    private int partition(int firstId, int lastId) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try (Connection conn = pool.getConnection()) {
+                int isolation = conn.getTransactionIsolation();
+                conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+                conn.setAutoCommit(false);
+                try {
+                    List<Transcript> transcripts = read(conn, firstId, lastId);
+                    write(conn, transcripts);
+                    conn.commit();
+                    return transcripts.size();
+                } catch (SQLException | RuntimeException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                    conn.setTransactionIsolation(isolation);
+                }
+            } catch (SQLException e) {
+                if (attempt >= MAX_ATTEMPTS || !isDeadlock(e)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // SQLState 40001: InnoDB rolled the transaction back to break a deadlock
+    private static boolean isDeadlock(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException && "40001".equals(((SQLException) t).getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Transcript> read(Connection conn, int firstId, int lastId) throws SQLException {
+        List<Transcript> transcripts = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(READ_GRADES)) {
+            pstmt.setInt(1, firstId);
+            pstmt.setInt(2, lastId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                Transcript transcript = null;
+                while (rs.next()) {
+                    int studentId = rs.getInt(1);
+                    if (transcript == null || transcript.studentId != studentId) {
+                        transcript = new Transcript(studentId, rs.getLong(2));
+                        transcripts.add(transcript);
+                    }
+                    String term = rs.getString(3);
+                    if (term == null) {
+                        continue; // No graded enrollments left
+                    }
+                    int last = transcript.terms.size() - 1;
+                    if (last < 0 || !transcript.terms.get(last).equals(term)) {
+                        transcript.terms.add(term);
+                        transcript.termTotals.add(new Totals());
+                        last++;
+                    }
+                    BigDecimal credits = rs.getBigDecimal(4);
+                    BigDecimal gradePoints = rs.getBigDecimal(5);
+                    transcript.total.add(credits, gradePoints);
+                    transcript.termTotals.get(last).add(credits, gradePoints);
+                }
+            }
+        }
+        return transcripts;
+    }
+
+    private void write(Connection conn, List<Transcript> transcripts) throws SQLException {
+        try (PreparedStatement upsert = conn.prepareStatement(UPSERT_TRANSCRIPT);
+             PreparedStatement deleteTerms = conn.prepareStatement(DELETE_TERMS);
+             PreparedStatement insertTerm = conn.prepareStatement(INSERT_TERM);
+             PreparedStatement clearMark = conn.prepareStatement(CLEAR_MARK)) {
+            int terms = 0;
+            for (Transcript transcript : transcripts) {
+                upsert.setInt(1, transcript.studentId);
+                upsert.setBigDecimal(2, transcript.total.attempted);
+                upsert.setBigDecimal(3, transcript.total.earned);
+                setGpa(upsert, 4, transcript.total.gpa());
+                upsert.addBatch();
+                deleteTerms.setInt(1, transcript.studentId);
+                deleteTerms.addBatch();
+                for (int i = 0; i < transcript.terms.size(); i++) {
+                    Totals term = transcript.termTotals.get(i);
+                    insertTerm.setInt(1, transcript.studentId);
+                    insertTerm.setString(2, transcript.terms.get(i));
+                    insertTerm.setBigDecimal(3, term.attempted);
+                    insertTerm.setBigDecimal(4, term.earned);
+                    setGpa(insertTerm, 5, term.gpa());
+                    insertTerm.addBatch();
+                    terms++;
+                }
+                clearMark.setInt(1, transcript.studentId);
+                clearMark.setLong(2, transcript.version);
+                clearMark.addBatch();
+            }
+            upsert.executeBatch();
+            deleteTerms.executeBatch();
+            if (terms > 0) {
+                insertTerm.executeBatch();
+            }
+            clearMark.executeBatch();
+        }
+    }
+
+    private static void setGpa(PreparedStatement pstmt, int index, BigDecimal gpa) throws SQLException {
+        if (gpa == null) {
+            pstmt.setNull(index, Types.DECIMAL);
+        } else {
+            pstmt.setBigDecimal(index, gpa);
+        }
+    }
+
+    /** Reassigns GPA ranks; returns how many moved. */
+    private int rank(Connection conn) throws SQLException {
+        int changed = 0;
+        try (Connection writer = pool.getConnection();
+             PreparedStatement update = writer.prepareStatement(SET_RANK);
+             Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // Streamed as in MySqlStudentRepository.forEach()
+            stmt.setFetchSize(pool.getUrl().contains("useCursorFetch=true") ? batchSize : Integer.MIN_VALUE);
+            try (ResultSet rs = stmt.executeQuery("SELECT student_id, gpa, gpa_rank FROM student_transcripts " +
+                     "WHERE gpa IS NOT NULL ORDER BY gpa DESC")) {
+                int position = 0;
+                int rank = 0;
+                BigDecimal previous = null;
+                int pending = 0;
+                while (rs.next()) {
+                    position++;
+                    BigDecimal gpa = rs.getBigDecimal(2);
+                    if (!gpa.equals(previous)) {
+                        rank = position;
+                        previous = gpa;
+                    }
+                    int current = rs.getInt(3);
+                    if (rs.wasNull() || current != rank) {
+                        update.setInt(1, rs.getInt(1));
+                        update.setInt(2, rank);
+                        update.addBatch();
+                        changed++;
+                        if (++pending == batchSize) {
+                            update.executeBatch();
+                            pending = 0;
+                        }
+                    }
+                }
+                if (pending > 0) {
+                    update.executeBatch();
+                }
+            }
+        }
+        return changed;
+    }
+
+    /** Marks every student, in primary key chunks of batchSize. */
+    private void markAll(Connection conn) throws SQLException {
+        int maxId;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM students")) {
+            rs.next();
+            maxId = rs.getInt(1);
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO transcript_stale (student_id) " +
+                "SELECT id FROM students WHERE id > ? AND id <= ? " +
+                "ON DUPLICATE KEY UPDATE version = version + 1")) {
+            for (long from = 0; from < maxId; from += batchSize) {
+                pstmt.setLong(1, from);
+                pstmt.setLong(2, Math.min(from + batchSize, maxId));
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    private static int[] markedIds(Connection conn) throws SQLException {
+        int[] ids = new int[1024];
+        int size = 0;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT student_id FROM transcript_stale ORDER BY student_id")) {
+            while (rs.next()) {
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, size * 2);
+                }
+                ids[size++] = rs.getInt(1);
+            }
+        }
+        return Arrays.copyOf(ids, size);
+    }
+
+    private static void lock(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT GET_LOCK(" + LOCK_NAME + ", 0)")) {
+            if (!rs.next() || rs.getInt(1) != 1) {
+                throw new SQLException("Transcripts are already being recomputed by another run");
+            }
+        }
+    }
+
+    private static void unlock(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DO RELEASE_LOCK(" + LOCK_NAME + ")");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean all = false;
+        for (String arg : args) {
+            switch (arg) {
+                case "--all": all = true; break;
+                default:
+                    System.err.println("Unknown option: " + arg);
+                    System.exit(2);
+            }
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream("db.properties")) {
+            props.load(in);
+        } catch (IOException e) {
+            System.err.println("Warning: db.properties not found, using default values");
+        }
+
+        try (ConnectionPool pool = ConnectionPool.fromProperties(props)) {
+            try (Connection conn = pool.getConnection()) {
+                SchemaMigrator.fromProperties(props).migrate(conn, SchemaMigrations.all());
+            }
+            System.out.println(fromProperties(pool, props).run(all));
+        }
+    }
+}
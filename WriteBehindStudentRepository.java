@@ -0,0 +1,908 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A read-through, write-behind cache in front of another repository.
+ *
+ * Rows read by id are kept in an LRU. Updates and deletes are acknowledged
+ * as soon as they are queued, coalesced per id (only the latest value of a
+ * row is written), and flushed every flushMillis with updateAll()/deleteAll()
+ * batches. Each queued write remembers the updated_at the row had when it
+ * was first queued, so a row someone else changed in the meantime is not
+ * overwritten: the write is dropped and reported to the WriteListener.
+ *
+ * Queued writes are lost if the process dies before the next flush, unless
+ * a journal file is configured: every write is then appended (and, with
+ * journalSync, forced to disk) before it is acknowledged, and whatever is in
+ * the journal is replayed at the next start.
+ *
+ * Inserts go straight through, since the id comes from AUTO_INCREMENT; the
+ * queue is flushed first so an insert never races an unflushed email change.
+ * Queries (pages, searches, scans) come from the backing repository with the
+ * queued writes applied to the rows it returns.
+ *
+ * In outage mode (db.writeBehind=outage) updates and deletes are written
+ * straight through and nothing is cached, until a write fails with
+ * CircuitBreaker.Unavailable: that write, and every one after it until the
+ * queue has drained, is queued as above. Such a write carries the version
+ * the caller gave it, or none, exactly as if it had been written directly.
+ */
+public class WriteBehindStudentRepository implements StudentRepository {
+    /** Hears about queued writes that could not be applied; called on the flushing thread. */
+    public interface WriteListener {
+        void writeRejected(Student attempted, boolean delete, SQLException cause);
+
+        /** A flush failed as a whole; its writes stay queued and are retried. */
+        void flushFailed(Exception cause);
+    }
+
+    /** A queued write: the latest value of the row, or a delete when student is null. */
+    private static final class Pending {
+        final int id;
+        // The row's updated_at when the first of the coalesced writes was queued
+        final long baseVersion;
+        final Student student;
+
+        Pending(int id, long baseVersion, Student student) {
+            this.id = id;
+            this.baseVersion = baseVersion;
+            this.student = student == null ? null : student.withUpdatedAt(baseVersion);
+        }
+
+        Pending rebase(long version) {
+            return new Pending(id, version, student);
+        }
+    }
+
+    private final StudentRepository delegate;
+    private final int batchSize;
+    private final Journal journal;
+    private final boolean outageOnly;
+    private final ScheduledExecutorService scheduler;
+    private volatile WriteListener listener;
+
+    /** A queued write waiting to be journaled, numbered in queue order. */
+    private static final class Entry {
+        final long seq;
+        final Pending write;
+        // What the write coalesced over, put back if it cannot be journaled
+        final Pending replaced;
+
+        Entry(long seq, Pending write, Pending replaced) {
+            this.seq = seq;
+            this.write = write;
+            this.replaced = replaced;
+        }
+    }
+
+    // All fields below are guarded by lock; flushLock keeps flushes one at a time.
+    // Journal I/O happens outside lock, holding the journal's own monitor
+    private final Object lock = new Object();
+    private final Object flushLock = new Object();
+    private final Map<Integer, Student> cache;
+    private LinkedHashMap<Integer, Pending> pending = new LinkedHashMap<>();
+    // The batch being written; still visible to readers until it is done
+    private Map<Integer, Pending> flushing = Collections.emptyMap();
+    private long lastSeq;
+    private List<Entry> unjournaled = new ArrayList<>();
+
+    /**
+     * journalFile may be null to run without a journal. With journalSync each
+     * acknowledged write has been forced to disk.
+     */
+    public WriteBehindStudentRepository(StudentRepository delegate, long flushMillis, int batchSize,
+                                        int cacheSize, Path journalFile, boolean journalSync) throws IOException {
+        this(delegate, flushMillis, batchSize, cacheSize, journalFile, journalSync, false);
+    }
+
+    /** With outageOnly, writes are only queued while the database is unavailable. */
+    public WriteBehindStudentRepository(StudentRepository delegate, long flushMillis, int batchSize,
+                                        int cacheSize, Path journalFile, boolean journalSync, boolean outageOnly)
+            throws IOException {
+        this.delegate = delegate;
+        this.batchSize = batchSize;
+        this.outageOnly = outageOnly;
+        this.cache = new LinkedHashMap<Integer, Student>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Student> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        if (journalFile != null) {
+            journal = new Journal(journalFile, journalSync);
+            for (Pending p : journal.replay()) {
+                pending.put(p.id, p);
+            }
+        } else {
+            journal = null;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "write-behind-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Outage mode if db.writeBehind is "outage". */
+    public static WriteBehindStudentRepository fromProperties(StudentRepository delegate, Properties props)
+            throws IOException {
+        String journal = props.getProperty("db.writeBehind.journal", "").trim();
+        boolean outageOnly = "outage".equalsIgnoreCase(props.getProperty("db.writeBehind", "").trim());
+        return new WriteBehindStudentRepository(delegate,
+            Long.parseLong(props.getProperty("db.writeBehind.flushMillis", "1000").trim()),
+            Integer.parseInt(props.getProperty("db.writeBehind.batchSize", "500").trim()),
+            // Rows read while the database is up are not cached in outage mode
+            outageOnly ? 0 : Integer.parseInt(props.getProperty("db.writeBehind.cacheSize", "10000").trim()),
+            journal.isEmpty() ? null : Paths.get(journal),
+            Boolean.parseBoolean(props.getProperty("db.writeBehind.journalSync", "true").trim()),
+            outageOnly);
+    }
+
+    /** The repository writes are flushed to. */
+    @Override
+    public StudentRepository getDelegate() {
+        return delegate;
+    }
+
+    public void setWriteListener(WriteListener listener) {
+        this.listener = listener;
+    }
+
+    /** Number of writes not yet flushed. */
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending.size() + flushing.size();
+        }
+    }
+
+    /** Forgets the cached copy of a row, e.g. after someone else changed it. */
+    public void invalidate(int id) {
+        synchronized (lock) {
+            cache.remove(id);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (lock) {
+            cache.clear();
+        }
+    }
+
+    @Override
+    public void initialize() throws SQLException {
+        delegate.initialize();
+        try {
+            // Writes replayed from the journal
+            flush();
+        } catch (CircuitBreaker.Unavailable e) {
+            // Never sent (the database is down, or not caught up with yet);
+            // they stay queued for the scheduled flushes
+        } catch (IOException e) {
+            throw new SQLException("Could not replay the write-behind journal", e);
+        }
+    }
+
+    @Override
+    public Student insert(Student student) throws SQLException {
+        flushOrFail();
+        return delegate.insert(student);
+    }
+
+    @Override
+    public List<Student> insertAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        flush();
+        return delegate.insertAll(students, batchSize, rejected);
+    }
+
+    @Override
+    public boolean update(Student student) throws SQLException {
+        StudentRepository.checkColumns(student);
+        if (outageOnly) {
+            if (!queueing()) {
+                try {
+                    return delegate.update(student);
+                } catch (CircuitBreaker.Unavailable e) {
+                    // Never sent; queue it until the database is back
+                }
+            }
+            Entry entry;
+            synchronized (lock) {
+                Pending queued = queued(student.getId());
+                if (queued != null && queued.student == null) {
+                    return false;
+                }
+                entry = enqueue(new Pending(student.getId(), student.getUpdatedAt(), student));
+            }
+            journal(entry);
+            return true;
+        }
+        Student current = findById(student.getId());
+        if (current == null) {
+            return false;
+        }
+        Entry entry;
+        synchronized (lock) {
+            Pending queued = queued(student.getId());
+            if (queued != null && queued.student == null) {
+                return false;
+            }
+            long base = queued != null ? queued.baseVersion : current.getUpdatedAt();
+            if (student.getUpdatedAt() != 0 && student.getUpdatedAt() != base) {
+                return false;
+            }
+            entry = enqueue(new Pending(student.getId(), base, student));
+        }
+        journal(entry);
+        return true;
+    }
+
+    @Override
+    public boolean delete(int id) throws SQLException {
+        if (outageOnly) {
+            if (!queueing()) {
+                try {
+                    return delegate.delete(id);
+                } catch (CircuitBreaker.Unavailable e) {
+                    // Never sent; queue it until the database is back
+                }
+            }
+            Entry entry;
+            synchronized (lock) {
+                Pending queued = queued(id);
+                if (queued != null && queued.student == null) {
+                    return false;
+                }
+                entry = enqueue(new Pending(id, queued != null ? queued.baseVersion : 0, null));
+            }
+            journal(entry);
+            return true;
+        }
+        Student current = findById(id);
+        if (current == null) {
+            return false;
+        }
+        Entry entry;
+        synchronized (lock) {
+            Pending queued = queued(id);
+            if (queued != null && queued.student == null) {
+                return false;
+            }
+            entry = enqueue(new Pending(id, queued != null ? queued.baseVersion : current.getUpdatedAt(), null));
+            cache.remove(id);
+        }
+        journal(entry);
+        return true;
+    }
+
+    // Called with lock held; the caller journals the entry once it has let go of lock
+    private Entry enqueue(Pending write) {
+        Entry entry = new Entry(++lastSeq, write, pending.put(write.id, write));
+        if (journal != null) {
+            unjournaled.add(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns once the write is in the journal. Whoever gets the journal
+     * first writes (and forces) every write queued so far, so concurrent
+     * writers share one fsync. A write that cannot be journaled is taken
+     * back out of the queue, as it is reported as failed.
+     */
+    private void journal(Entry entry) throws SQLException {
+        if (journal == null) {
+            return;
+        }
+        synchronized (journal) {
+            if (journal.written >= entry.seq) {
+                return;
+            }
+            List<Entry> batch = takeUnjournaled();
+            try {
+                journal.append(batch);
+            } catch (IOException e) {
+                synchronized (lock) {
+                    // The others stay for their own writers to retry
+                    batch.remove(entry);
+                    batch.addAll(unjournaled);
+                    unjournaled = batch;
+                    // Unless a flush has already taken it
+                    if (pending.get(entry.write.id) == entry.write) {
+                        if (entry.replaced != null) {
+                            pending.put(entry.write.id, entry.replaced);
+                        } else {
+                            pending.remove(entry.write.id);
+                        }
+                    }
+                }
+                throw new SQLException("Could not journal the write for student " + entry.write.id, e);
+            }
+        }
+    }
+
+    // Called holding the journal's monitor
+    private List<Entry> takeUnjournaled() {
+        synchronized (lock) {
+            List<Entry> batch = unjournaled;
+            unjournaled = new ArrayList<>();
+            return batch;
+        }
+    }
+
+    /** Replaces the journal with the writes still queued as of seq, and any queued since. */
+    private void rewriteJournal(List<Pending> queued, long seq) throws IOException {
+        synchronized (journal) {
+            List<Entry> batch = takeUnjournaled();
+            try {
+                journal.rewrite(queued, seq, batch);
+            } catch (IOException e) {
+                synchronized (lock) {
+                    batch.addAll(unjournaled);
+                    unjournaled = batch;
+                }
+                throw e;
+            }
+        }
+    }
+
+    // Later writes queue behind earlier ones, so they reach the database in order
+    private boolean queueing() {
+        synchronized (lock) {
+            return !pending.isEmpty() || !flushing.isEmpty();
+        }
+    }
+
+    // Called with lock held
+    private Pending queued(int id) {
+        Pending p = pending.get(id);
+        return p != null ? p : flushing.get(id);
+    }
+
+    @Override
+    public List<Student> updateAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        flush();
+        List<Student> updated = delegate.updateAll(students, batchSize, rejected);
+        synchronized (lock) {
+            for (Student student : students) {
+                cache.remove(student.getId());
+            }
+        }
+        return updated;
+    }
+
+    @Override
+    public int deleteAll(List<Student> students, int batchSize, RejectHandler rejected)
+            throws SQLException, IOException {
+        flush();
+        int deleted = delegate.deleteAll(students, batchSize, rejected);
+        synchronized (lock) {
+            for (Student student : students) {
+                cache.remove(student.getId());
+            }
+        }
+        return deleted;
+    }
+
+    // The delete being undone may still be queued
+    @Override
+    public Student restore(Student student) throws SQLException {
+        flushOrFail();
+        return delegate.restore(student);
+    }
+
+    /** Writes everything queued so far. */
+    public void flush() throws SQLException, IOException {
+        synchronized (flushLock) {
+            LinkedHashMap<Integer, Pending> batch;
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                flushing = batch;
+                pending = new LinkedHashMap<>();
+            }
+
+            List<Pending> updates = new ArrayList<>();
+            List<Pending> deletes = new ArrayList<>();
+            for (Pending p : batch.values()) {
+                (p.student == null ? deletes : updates).add(p);
+            }
+            // Deletes first, so the emails they free can be taken by the updates
+            List<Student> deleteRows = new ArrayList<>(deletes.size());
+            for (Pending p : deletes) {
+                deleteRows.add(new Student(p.id, null, null, null, null, p.baseVersion));
+            }
+            List<Object[]> deleteRejections = new ArrayList<>();
+            try {
+                delegate.deleteAll(deleteRows, batchSize,
+                    (i, cause) -> deleteRejections.add(new Object[]{deleteRows.get(i), true, cause}));
+            } catch (SQLException | IOException | RuntimeException e) {
+                requeue(batch.values());
+                throw e;
+            }
+
+            List<Student> updateRows = new ArrayList<>(updates.size());
+            for (Pending p : updates) {
+                updateRows.add(p.student);
+            }
+            List<Object[]> updateRejections = new ArrayList<>();
+            List<Student> saved;
+            try {
+                saved = delegate.updateAll(updateRows, batchSize,
+                    (i, cause) -> updateRejections.add(new Object[]{updateRows.get(i), false, cause}));
+            } catch (SQLException | IOException | RuntimeException e) {
+                // The deletes have committed; only the updates go back in the queue
+                requeue(updates);
+                finish(Collections.<Student>emptyList(), deleteRows, deleteRejections);
+                throw e;
+            }
+            deleteRejections.addAll(updateRejections);
+            finish(saved, deleteRows, deleteRejections);
+        }
+    }
+
+    // Puts a failed batch back in front of anything queued since
+    private void requeue(Collection<Pending> failed) throws IOException {
+        List<Pending> queued;
+        long seq;
+        synchronized (lock) {
+            LinkedHashMap<Integer, Pending> merged = new LinkedHashMap<>();
+            for (Pending p : failed) {
+                Pending newer = pending.get(p.id);
+                // The newer write is based on what the database still has
+                merged.put(p.id, newer != null ? newer.rebase(p.baseVersion) : p);
+            }
+            for (Pending p : pending.values()) {
+                merged.putIfAbsent(p.id, p);
+            }
+            pending = merged;
+            flushing = Collections.emptyMap();
+            queued = new ArrayList<>(pending.values());
+            seq = lastSeq;
+        }
+        // The journal still holds these writes; rewrite it for the rebased ones
+        if (journal != null) {
+            rewriteJournal(queued, seq);
+        }
+    }
+
+    private void finish(List<Student> saved, List<Student> deleted, List<Object[]> rejections) throws IOException {
+        List<Pending> queued;
+        long seq;
+        synchronized (lock) {
+            for (Student student : saved) {
+                Pending newer = pending.get(student.getId());
+                if (newer != null) {
+                    pending.put(student.getId(), newer.rebase(student.getUpdatedAt()));
+                } else {
+                    cache.put(student.getId(), student);
+                }
+            }
+            for (Student student : deleted) {
+                cache.remove(student.getId());
+            }
+            for (Object[] rejection : rejections) {
+                cache.remove(((Student) rejection[0]).getId());
+            }
+            flushing = Collections.emptyMap();
+            queued = new ArrayList<>(pending.values());
+            seq = lastSeq;
+        }
+        if (journal != null) {
+            rewriteJournal(queued, seq);
+        }
+
+        WriteListener l = listener;
+        if (l != null) {
+            for (Object[] rejection : rejections) {
+                l.writeRejected((Student) rejection[0], (Boolean) rejection[1], (SQLException) rejection[2]);
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            WriteListener l = listener;
+            if (l != null) {
+                l.flushFailed(e);
+            }
+        }
+    }
+
+    private void flushOrFail() throws SQLException {
+        try {
+            flush();
+        } catch (IOException e) {
+            throw new SQLException("Could not write the write-behind journal", e);
+        }
+    }
+
+    @Override
+    public Student findById(int id) throws SQLException {
+        synchronized (lock) {
+            Pending queued = queued(id);
+            if (queued != null) {
+                return queued.student;
+            }
+            Student cached = cache.get(id);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Student student = delegate.findById(id);
+        synchronized (lock) {
+            Pending queued = queued(id);
+            if (queued != null) {
+                return queued.student;
+            }
+            // A flush that finished meanwhile has cached a newer copy
+            if (student != null) {
+                cache.putIfAbsent(id, student);
+            }
+        }
+        return student;
+    }
+
+    @Override
+    public Student findByEmail(String email) throws SQLException {
+        synchronized (lock) {
+            for (Map<Integer, Pending> writes : Arrays.asList(pending, flushing)) {
+                for (Pending p : writes.values()) {
+                    if (p.student != null && email.equalsIgnoreCase(p.student.getEmail())) {
+                        return p.student;
+                    }
+                }
+            }
+        }
+        Student student = delegate.findByEmail(email);
+        if (student == null) {
+            return null;
+        }
+        Student visible = visible(student);
+        return visible != null && email.equalsIgnoreCase(visible.getEmail()) ? visible : null;
+    }
+
+    @Override
+    public List<Student> findByCourse(String course, int limit) throws SQLException {
+        return overlay(delegate.findByCourse(course, limit));
+    }
+
+    @Override
+    public List<Student> findContaining(String text, int limit) throws SQLException {
+        return overlay(delegate.findContaining(text, limit));
+    }
+
+    @Override
+    public List<Student> findAfter(int afterId, int limit) throws SQLException {
+        return overlay(delegate.findAfter(afterId, limit));
+    }
+
+    @Override
+    public List<Student> findPage(int offset, int limit) throws SQLException {
+        return overlay(delegate.findPage(offset, limit));
+    }
+
+    @Override
+    public int count() throws SQLException {
+        int count = delegate.count();
+        synchronized (lock) {
+            // A row has at most one queued delete, since deleting it again fails
+            for (Map<Integer, Pending> writes : Arrays.asList(pending, flushing)) {
+                for (Pending p : writes.values()) {
+                    if (p.student == null) {
+                        count--;
+                    }
+                }
+            }
+        }
+        return Math.max(0, count);
+    }
+
+    @Override
+    public void forEach(RowHandler handler) throws SQLException, IOException {
+        delegate.forEach(student -> {
+            Student visible = visible(student);
+            if (visible != null) {
+                handler.row(visible);
+            }
+        });
+    }
+
+    // Queued deletes have no tombstone until they are flushed, so the
+    // snapshot is taken after a flush to keep its count and marks in step
+    @Override
+    public StudentChanges snapshot() throws SQLException {
+        flushOrFail();
+        return delegate.snapshot();
+    }
+
+    // A queued write does not say which course the row had before, so the
+    // counters are read after a flush, as for snapshot()
+    @Override
+    public CourseStatistics courseStatistics() throws SQLException {
+        flushOrFail();
+        return delegate.courseStatistics();
+    }
+
+    /**
+     * Also how this cache learns about writes made by other clients: every
+     * row the feed reports as changed or deleted is dropped from the cache.
+     */
+    @Override
+    public StudentChanges changesSince(long sinceVersion, long afterDeletion, int limit) throws SQLException {
+        StudentChanges changes = delegate.changesSince(sinceVersion, afterDeletion, limit);
+        synchronized (lock) {
+            for (Student student : changes.changed) {
+                cache.remove(student.getId());
+            }
+            for (int id : changes.deletedIds) {
+                cache.remove(id);
+            }
+        }
+        return new StudentChanges(overlay(changes.changed), changes.createdVersions, changes.deletedIds,
+            changes.deletionSeqs, changes.truncated, changes.rowCount, changes.latestId, changes.latestVersion, changes.latestDeletion);
+    }
+
+    // The row as this cache sees it: with any queued write applied, or null if deleted
+    private Student visible(Student student) {
+        synchronized (lock) {
+            Pending queued = queued(student.getId());
+            return queued == null ? student : queued.student;
+        }
+    }
+
+    private List<Student> overlay(List<Student> rows) {
+        synchronized (lock) {
+            if (pending.isEmpty() && flushing.isEmpty()) {
+                return rows;
+            }
+            List<Student> result = new ArrayList<>(rows.size());
+            for (Student student : rows) {
+                Pending queued = queued(student.getId());
+                if (queued == null) {
+                    result.add(student);
+                } else if (queued.student != null) {
+                    result.add(queued.student);
+                }
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public ConnectionPool getPool() {
+        return delegate.getPool();
+    }
+
+    @Override
+    public ConnectionPool getReadPool() {
+        return delegate.getReadPool();
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return delegate.getMaxConcurrency();
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName() + (outageOnly ? "+outage-queue" : "+write-behind");
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            flush();
+        } catch (SQLException | IOException e) {
+            System.err.println("Write-behind: " + getPendingCount() + " writes not flushed at shutdown"
+                + (journal != null ? " (kept in the journal)" : "") + ": " + e.getMessage());
+        }
+        if (journal != null) {
+            synchronized (journal) {
+                journal.close();
+            }
+        }
+        delegate.close();
+    }
+
+    /**
+     * Queued writes as JSON Lines, one per acknowledged write. Rewritten with
+     * just the still-queued writes after every flush, so it stays small.
+     */
+    private static final class Journal {
+        private final Path file;
+        private final boolean sync;
+        private FileChannel channel;
+        // On a file beside the journal, since rewrites replace the journal itself
+        private FileChannel lockChannel;
+        private FileLock lock;
+        // Guarded by this: what has been appended since the last rewrite,
+        // and the seq of the latest write known to be in the file
+        private List<Entry> tail = new ArrayList<>();
+        long written;
+
+        Journal(Path file, boolean sync) throws IOException {
+            this.file = file;
+            this.sync = sync;
+        }
+
+        List<Pending> replay() throws IOException {
+            lock();
+            try {
+                return read();
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        // Two processes on one journal would replay and rewrite each other's writes
+        private void lock() throws IOException {
+            lockChannel = FileChannel.open(file.resolveSibling(file.getFileName() + ".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                lock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null; // Held by this process already
+            }
+            if (lock == null) {
+                lockChannel.close();
+                throw new IOException(file + " is already open by another write-behind cache; "
+                    + "give each process its own db.writeBehind.journal");
+            }
+        }
+
+        private List<Pending> read() throws IOException {
+            Map<Integer, Pending> writes = new LinkedHashMap<>();
+            if (Files.exists(file)) {
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        Map<String, String> entry;
+                        try {
+                            entry = Json.parseObject(line);
+                        } catch (IllegalArgumentException e) {
+                            // A write torn by a crash was never acknowledged
+                            continue;
+                        }
+                        int id = Integer.parseInt(entry.get("id"));
+                        long base = Long.parseLong(entry.get("base"));
+                        Student student = "delete".equals(entry.get("op")) ? null : new Student(id,
+                            entry.get("name"), entry.get("email"), entry.get("phone"), entry.get("course"));
+                        writes.put(id, new Pending(id, base, student));
+                    }
+                }
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+            return new ArrayList<>(writes.values());
+        }
+
+        void append(List<Entry> batch) throws IOException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            StringBuilder sb = new StringBuilder(160 * batch.size());
+            for (Entry entry : batch) {
+                sb.append(encode(entry.write));
+            }
+            long start = channel.size();
+            try {
+                channel.write(ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)));
+                if (sync) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                try {
+                    // Some of these are about to be reported as failed
+                    channel.truncate(start);
+                } catch (IOException ignored) {
+                    // The next rewrite drops them anyway
+                }
+                throw e;
+            }
+            tail.addAll(batch);
+            written = batch.get(batch.size() - 1).seq;
+        }
+
+        /**
+         * writes are everything queued as of seq; batch, the writes not yet
+         * appended. Appended writes newer than seq are carried over.
+         */
+        void rewrite(List<Pending> writes, long seq, List<Entry> batch) throws IOException {
+            List<Entry> newer = new ArrayList<>();
+            for (List<Entry> entries : Arrays.asList(tail, batch)) {
+                for (Entry entry : entries) {
+                    if (entry.seq > seq) {
+                        newer.add(entry);
+                    }
+                }
+            }
+            if (writes.isEmpty() && newer.isEmpty()) {
+                channel.truncate(0);
+            } else {
+                replace(writes, newer);
+            }
+            tail = newer;
+            if (!batch.isEmpty()) {
+                written = Math.max(written, batch.get(batch.size() - 1).seq);
+            }
+        }
+
+        private void replace(List<Pending> writes, List<Entry> newer) throws IOException {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            StringBuilder sb = new StringBuilder();
+            for (Pending write : writes) {
+                sb.append(encode(write));
+            }
+            for (Entry entry : newer) {
+                sb.append(encode(entry.write));
+            }
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                out.write(ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)));
+                out.force(false);
+            }
+            channel.close();
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        private static String encode(Pending write) {
+            StringBuilder sb = new StringBuilder(160);
+            sb.append("{\"op\":\"").append(write.student == null ? "delete" : "update").append('"')
+              .append(",\"id\":").append(write.id)
+              .append(",\"base\":").append(write.baseVersion);
+            if (write.student != null) {
+                sb.append(",\"name\":");
+                Json.appendQuoted(sb, write.student.getName());
+                sb.append(",\"email\":");
+                Json.appendQuoted(sb, write.student.getEmail());
+                sb.append(",\"phone\":");
+                Json.appendQuoted(sb, write.student.getPhone());
+                sb.append(",\"course\":");
+                Json.appendQuoted(sb, write.student.getCourse());
+            }
+            return sb.append("}\n").toString();
+        }
+
+        void close() {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException ignored) {
+                // Everything acknowledged has already been written
+            }
+            try {
+                lock.release();
+                lockChannel.close();
+            } catch (IOException ignored) {
+                // The lock goes with the process anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Workload over a StudentRepository and search engine, set up the way
+ * StudentManagementSystemEnhanced sets them up.
+ */
+public class StudentWorkload implements benchmarks.Workload {
+    private StudentRepository repository;
+    private StudentSearchEngine searchEngine;
+    private int rows;
+
+    @Override
+    public void setUp(String backend, int rows, String engine, Map<String, String> settings) throws Exception {
+        Properties props = new Properties();
+        if (backend.equals("mysql")) {
+            try (InputStream input = new FileInputStream("db.properties")) {
+                props.load(input);
+            } catch (IOException e) {
+                System.err.println("Warning: db.properties not found, using default values");
+            }
+        }
+        props.setProperty("db.backend", backend);
+        props.setProperty("db.writeBehind", "false");
+        props.setProperty("search.engine", engine);
+        props.putAll(settings);
+        repository = StudentRepository.fromProperties(props);
+        repository.initialize();
+
+        // A database only gets topped up, so repeated runs reuse its rows
+        int existing = repository.count();
+        if (existing < rows) {
+            new StudentGenerator(42).insert(repository, existing + 1, rows - existing,
+                repository.getMaxConcurrency(), 1000, null);
+        }
+        this.rows = Math.max(rows, existing);
+
+        searchEngine = StudentSearchEngine.fromProperties(props, repository);
+        searchEngine.initialize();
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int add(int seq) throws Exception {
+        Student saved = repository.insert(new Student(0, "Bench Student", "bench" + seq + "@example.com",
+            "5550000000", "Computer Science"));
+        searchEngine.studentSaved(saved);
+        return saved.getId();
+    }
+
+    @Override
+    public boolean delete(int id) throws Exception {
+        boolean deleted = repository.delete(id);
+        if (deleted) {
+            searchEngine.studentRemoved(id);
+        }
+        return deleted;
+    }
+
+    @Override
+    public boolean update(int id, int seq) throws Exception {
+        Student student = repository.findById(id);
+        if (student == null) {
+            return false;
+        }
+        Student changed = new Student(id, student.getName(), student.getEmail(),
+            String.format("555%07d", seq % 10_000_000), student.getCourse());
+        boolean updated = repository.update(changed);
+        if (updated) {
+            searchEngine.studentSaved(changed);
+        }
+        return updated;
+    }
+
+    @Override
+    public Object findById(int id) throws Exception {
+        return repository.findById(id);
+    }
+
+    @Override
+    public int search(String term, int limit) throws Exception {
+        return searchEngine.search(term, limit).size();
+    }
+
+    @Override
+    public int loadPage(int afterId, int pageSize) throws Exception {
+        return repository.findAfter(afterId, pageSize).size();
+    }
+
+    @Override
+    public Object snapshot() throws Exception {
+        return repository.snapshot();
+    }
+
+    @Override
+    public long loadAll() throws Exception {
+        long[] count = {0};
+        repository.forEach(student -> count[0]++);
+        return count[0];
+    }
+
+    @Override
+    public int courseStatistics() throws Exception {
+        return repository.courseStatistics().size();
+    }
+
+    @Override
+    public int groupByCourse() throws Exception {
+        Map<String, Integer> counts = new HashMap<>();
+        repository.forEach(student -> {
+            if (student.getCourse() != null) {
+                counts.merge(student.getCourse().toLowerCase(), 1, Integer::sum);
+            }
+        });
+        return counts.size();
+    }
+
+    @Override
+    public void close() {
+        if (repository != null) {
+            repository.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The add, update, delete, lookup and table-loading paths of the enhanced
+ * UI, against a backend seeded with 10k, 100k and 1M students.
+ *
+ * The in-memory backend is the default stand-in database; -p backend=mysql
+ * runs against the database in db.properties instead (from the working
+ * directory), topping it up to the row count first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class RepositoryBenchmarks {
+    @Param({"memory"})
+    public String backend;
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    private Workload workload;
+    private int seq;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = Workload.load();
+        workload.setUp(backend, rows, "memory");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workload.close();
+    }
+
+    private int randomId() {
+        return 1 + ThreadLocalRandom.current().nextInt(workload.rows());
+    }
+
+    // Deleting needs a row to delete, so adds and deletes are measured in
+    // pairs; this also keeps the table at its seeded size
+    @Benchmark
+    public boolean addThenDelete() throws Exception {
+        return workload.delete(workload.add(seq++));
+    }
+
+    @Benchmark
+    public boolean update() throws Exception {
+        return workload.update(randomId(), seq++);
+    }
+
+    @Benchmark
+    public Object findById() throws Exception {
+        return workload.findById(randomId());
+    }
+
+    @Benchmark
+    public int loadPage() throws Exception {
+        return workload.loadPage(randomId(), 200);
+    }
+
+    @Benchmark
+    public Object snapshot() throws Exception {
+        return workload.snapshot();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long loadAll() throws Exception {
+        return workload.loadAll();
+    }
+
+    // Students per course: from the counters, against grouping every row
+    @Benchmark
+    public int courseStatistics() throws Exception {
+        return workload.courseStatistics();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int groupByCourse() throws Exception {
+        return workload.groupByCourse();
+    }
+}
@@ -0,0 +1,23 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH's command line with the GC profiler always on, so every result comes
+ * with its allocation rate (gc.alloc.rate.norm is bytes per operation).
+ * Takes the usual JMH options, e.g. a benchmark regex, -p rows=10000 or
+ * -rf json -rff results.json.
+ */
+public class Run {
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+}
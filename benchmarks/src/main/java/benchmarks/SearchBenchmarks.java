@@ -0,0 +1,51 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search as the enhanced UI runs it, for each engine and a mix of terms:
+ * common and rare names, infixes, phone digits and a miss.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class SearchBenchmarks {
+    // The enhanced UI's result limit (StudentSearchEngine.DEFAULT_LIMIT)
+    private static final int LIMIT = 1000;
+
+    @Param({"memory"})
+    public String backend;
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    // fulltext needs backend=mysql
+    @Param({"memory", "like"})
+    public String engine;
+
+    @Param({"smith", "ohn", "john smith", "5551234", "nonexistent"})
+    public String term;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = Workload.load();
+        workload.setUp(backend, rows, engine);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workload.close();
+    }
+
+    @Benchmark
+    public int search() throws Exception {
+        return workload.search(term, LIMIT);
+    }
+}
@@ -0,0 +1,81 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The repeated statements of the enhanced UI against the MySQL database in
+ * db.properties, with and without statement caching: statementCache=0 and
+ * serverPrepare=false is how every statement used to be prepared, and
+ * statementCache=64 with serverPrepare=true is the default now.
+ *
+ * Needs a running database; there is nothing to prepare in the memory backend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Threads(4)
+public class StatementBenchmarks {
+    @Param({"0", "64"})
+    public String statementCache;
+
+    @Param({"false", "true"})
+    public String serverPrepare;
+
+    @Param({"100000"})
+    public int rows;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Map<String, String> settings = new HashMap<>();
+        settings.put("db.statementCacheSize", statementCache);
+        settings.put("db.useServerPrepStmts", serverPrepare);
+        settings.put("db.cachePrepStmts", serverPrepare);
+        workload = Workload.load();
+        workload.setUp("mysql", rows, "like", settings);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workload.close();
+    }
+
+    private int randomId() {
+        return 1 + ThreadLocalRandom.current().nextInt(workload.rows());
+    }
+
+    @Benchmark
+    public Object findById() throws Exception {
+        return workload.findById(randomId());
+    }
+
+    @Benchmark
+    public int loadPage() throws Exception {
+        return workload.loadPage(randomId(), 200);
+    }
+
+    @Benchmark
+    public boolean update() throws Exception {
+        return workload.update(randomId(), ThreadLocalRandom.current().nextInt());
+    }
+
+    // A common name fills the limit early, so the scan does not drown out the prepare
+    @Benchmark
+    public int search() throws Exception {
+        return workload.search("smith", 1000);
+    }
+
+    @Benchmark
+    public Object snapshot() throws Exception {
+        return workload.snapshot();
+    }
+}
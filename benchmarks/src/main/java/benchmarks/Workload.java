@@ -0,0 +1,61 @@
+package benchmarks;
+
+/**
+ * The application's data-access paths, as the benchmarks drive them.
+ *
+ * The application classes live in the default package, which code in a
+ * named package cannot import, while JMH only accepts benchmarks in a named
+ * package. So the benchmarks talk to this interface, and StudentWorkload in
+ * the default package implements it; see load().
+ */
+public interface Workload extends AutoCloseable {
+    /**
+     * Opens the backend (memory, or mysql per db.properties) and seeds it
+     * with rows students. engine is a search.engine value.
+     */
+    default void setUp(String backend, int rows, String engine) throws Exception {
+        setUp(backend, rows, engine, java.util.Collections.emptyMap());
+    }
+
+    /** Like setUp(backend, rows, engine), with settings overriding db.properties. */
+    void setUp(String backend, int rows, String engine, java.util.Map<String, String> settings) throws Exception;
+
+    /** Rows in the data set; ids run from 1 to this on a freshly seeded backend. */
+    int rows();
+
+    /** Add: inserts a new student and indexes it, as the Add button does. Returns its id. */
+    int add(int seq) throws Exception;
+
+    /** Delete: as the Delete button does. */
+    boolean delete(int id) throws Exception;
+
+    /** Update: rewrites the phone number of the student with this id. */
+    boolean update(int id, int seq) throws Exception;
+
+    Object findById(int id) throws Exception;
+
+    /** Search through the configured engine; returns the number of matches. */
+    int search(String term, int limit) throws Exception;
+
+    /** One table page after the given id, as PagedStudentTableModel reads it. Returns the rows read. */
+    int loadPage(int afterId, int pageSize) throws Exception;
+
+    /** The table's reload: row count and change-feed marks in one read. */
+    Object snapshot() throws Exception;
+
+    /** Full scan in id order, as export and the search index load do. Returns the rows read. */
+    long loadAll() throws Exception;
+
+    /** Students per course from the maintained counters. Returns the number of courses. */
+    int courseStatistics() throws Exception;
+
+    /** Students per course by grouping a full scan, as it was done before the counters. */
+    int groupByCourse() throws Exception;
+
+    @Override
+    void close();
+
+    static Workload load() throws ReflectiveOperationException {
+        return (Workload) Class.forName("StudentWorkload").getDeclaredConstructor().newInstance();
+    }
+}